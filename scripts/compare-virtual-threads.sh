@@ -0,0 +1,36 @@
+#!/usr/bin/env bash
+# Compares throughput and memory at high concurrency between Tomcat's default platform thread pool and
+# virtual threads. Requires JDK 21. Usage: scripts/compare-virtual-threads.sh [CONNECTIONS] [DURATION_SECONDS]
+set -euo pipefail
+
+connections=${1:-10000}
+duration=${2:-60}
+port=8089
+
+cd "$(dirname "$0")/.."
+ulimit -n 65536 || echo "Could not raise the open file limit; runs above $(ulimit -n) connections will fail"
+
+./gradlew -q -Pjava21 bootJar loadtestClasses
+jar=$(ls build/libs/*.jar | grep -v plain | head -n 1)
+
+run() {
+  local label=$1 virtual=$2
+  java -Djdk.tracePinnedThreads=short -jar "$jar" \
+    --server.port=$port \
+    --server.tomcat.max-connections=$((connections * 2)) \
+    --server.tomcat.accept-count=$connections \
+    --spring.datasource.url="jdbc:h2:mem:$label;DB_CLOSE_DELAY=-1" \
+    --shopify-demo.virtual-threads.enabled="$virtual" \
+    --logging.level.root=WARN > "build/$label.log" 2>&1 &
+  local pid=$!
+
+  until curl -sf "http://localhost:$port/actuator/health" > /dev/null; do sleep 1; done
+
+  ./gradlew -q -Pjava21 loadTest --args="--url=http://localhost:$port --connections=$connections --duration=$duration --label=$label"
+
+  kill "$pid"
+  wait "$pid" || true
+}
+
+run platform false
+run virtual true
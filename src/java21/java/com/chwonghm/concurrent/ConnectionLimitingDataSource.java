@@ -0,0 +1,147 @@
+package com.chwonghm.concurrent;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A DataSource allowing at most a fixed number of connections to be open at once. Callers beyond the limit wait
+ * on a fair semaphore, which a virtual thread can do without pinning its carrier thread. A permit is held from
+ * getConnection until the returned connection is closed.
+ * <p>
+ * A caller waits no longer than the connection timeout of the pool for a permit, then fails as the pool would, so
+ * that a leaked connection or a stalled database surfaces as an error instead of an ever-growing queue.
+ *
+ * @author Charles Wong
+ */
+class ConnectionLimitingDataSource extends DelegatingDataSource {
+
+    /**
+     * Permits for open connections
+     */
+    private final Semaphore permits;
+
+    /**
+     * The longest time to wait for a permit, in milliseconds
+     */
+    private final long timeoutMillis;
+
+    /**
+     * Constructs this data source.
+     *
+     * @param target         the DataSource to obtain connections from
+     * @param maxConnections an int representing the maximum number of open connections
+     * @param timeoutMillis  a long representing the longest time to wait for a connection, in milliseconds
+     */
+    ConnectionLimitingDataSource(DataSource target, int maxConnections, long timeoutMillis) {
+        super(target);
+        this.permits = new Semaphore(maxConnections, true);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        return limit(() -> super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        acquire();
+        return limit(() -> super.getConnection(username, password));
+    }
+
+    /**
+     * Acquire a permit, waiting up to the timeout if none is available
+     *
+     * @throws SQLTransientConnectionException if no permit becomes available within the timeout
+     * @throws SQLException                    if interrupted while waiting
+     */
+    private void acquire() throws SQLException {
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("Connection is not available, request timed out after "
+                        + timeoutMillis + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+    }
+
+    /**
+     * Open a connection with an acquired permit, wrapping it so that closing it releases the permit
+     *
+     * @param opener the ConnectionOpener to open the connection with
+     * @return the wrapped Connection
+     * @throws SQLException if the connection cannot be opened, in which case the permit is released
+     */
+    private Connection limit(ConnectionOpener opener) throws SQLException {
+        Connection connection;
+
+        try {
+            connection = opener.open();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+
+        AtomicBoolean released = new AtomicBoolean();
+
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().equals("close") && released.compareAndSet(false, true)) {
+                try {
+                    return invoke(connection, method, args);
+                } finally {
+                    permits.release();
+                }
+            }
+            return invoke(connection, method, args);
+        };
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, handler);
+    }
+
+    /**
+     * Invoke a method on a connection, rethrowing whatever it throws
+     *
+     * @param connection the Connection to invoke the method on
+     * @param method     the Method to invoke
+     * @param args       the arguments of the invocation
+     * @return the value returned by the method
+     * @throws Throwable anything thrown by the method
+     */
+    private static Object invoke(Connection connection, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * Opens a connection from the target data source
+     */
+    @FunctionalInterface
+    private interface ConnectionOpener {
+
+        /**
+         * Open the connection
+         *
+         * @return the opened Connection
+         * @throws SQLException if the connection cannot be opened
+         */
+        Connection open() throws SQLException;
+    }
+}
@@ -0,0 +1,95 @@
+package com.chwonghm.concurrent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Reports virtual threads that stay pinned to their carrier thread, for example by blocking inside a
+ * synchronized block of the JDBC driver or Hibernate. Pinning events are streamed from JFR; each one is logged
+ * with the top of its stack, and counted in the jvm.threads.virtual.pinned meter.
+ *
+ * @author Charles Wong
+ */
+@Component
+@ConditionalOnProperty(prefix = "shopify-demo.virtual-threads", name = "enabled", matchIfMissing = true)
+public class PinningMonitor implements DisposableBean {
+
+    /**
+     * Logger for pinning events
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(PinningMonitor.class);
+
+    /**
+     * The JFR event recorded when a virtual thread parks while pinned
+     */
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    /**
+     * The number of stack frames logged per event
+     */
+    private static final int LOGGED_FRAMES = 8;
+
+    /**
+     * The stream of pinning events
+     */
+    private final RecordingStream stream;
+
+    /**
+     * Constructs this monitor, and starts streaming pinning events.
+     *
+     * @param registry  the MeterRegistry to count pinning events in
+     * @param threshold the Duration a virtual thread must stay pinned to be reported
+     */
+    public PinningMonitor(MeterRegistry registry,
+                          @Value("${shopify-demo.virtual-threads.pinned-threshold:20ms}") Duration threshold) {
+        Counter pinned = Counter.builder("jvm.threads.virtual.pinned")
+                .description("Virtual threads that parked while pinned to their carrier thread")
+                .register(registry);
+
+        stream = new RecordingStream();
+        stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        stream.onEvent(PINNED_EVENT, event -> {
+            pinned.increment();
+            LOG.warn("Virtual thread pinned for {} ms at {}", event.getDuration().toMillis(), topFrames(event));
+        });
+        stream.startAsync();
+    }
+
+    @Override
+    public void destroy() {
+        stream.close();
+    }
+
+    /**
+     * Describe the top frames of the stack of an event
+     *
+     * @param event the RecordedEvent to describe
+     * @return a String listing the top frames, innermost first
+     */
+    private static String topFrames(RecordedEvent event) {
+        if (event.getStackTrace() == null) {
+            return "unknown";
+        }
+
+        List<RecordedFrame> frames = event.getStackTrace().getFrames();
+
+        return frames.stream()
+                .limit(LOGGED_FRAMES)
+                .map(frame -> frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                        + ":" + frame.getLineNumber())
+                .collect(Collectors.joining(" < "));
+    }
+}
@@ -0,0 +1,91 @@
+package com.chwonghm.concurrent;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Runs Tomcat request handling and asynchronous work on virtual threads. This class is only compiled by the
+ * Java 21 build profile (./gradlew -Pjava21), and can be turned off at runtime with:
+ * <pre>
+ *     shopify-demo.virtual-threads.enabled: false
+ * </pre>
+ * Blocking JPA calls then park a virtual thread rather than holding a platform thread. Since the H2 driver and
+ * Hibernate block inside synchronized code, which pins the carrier thread, database access is limited to the
+ * size of the connection pool by a {@link ConnectionLimitingDataSource}: excess virtual threads wait on a
+ * semaphore, where they can unmount, instead of queueing inside the pool or the driver.
+ *
+ * @author Charles Wong
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "shopify-demo.virtual-threads", name = "enabled", matchIfMissing = true)
+public class VirtualThreadConfiguration {
+
+    /**
+     * Run every Tomcat request on a new virtual thread.
+     *
+     * @return a TomcatProtocolHandlerCustomizer replacing the request executor
+     */
+    @Bean
+    TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Run asynchronous work, including asynchronous MVC requests, on virtual threads. Registered under the name
+     * of Spring Boot's default executor, which it replaces.
+     *
+     * @return an AsyncTaskExecutor starting a virtual thread per task
+     */
+    @Bean(name = { TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME, "taskExecutor" })
+    AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Use the virtual thread executor for asynchronous MVC requests.
+     *
+     * @param applicationTaskExecutor the virtual thread AsyncTaskExecutor
+     * @return a WebMvcConfigurer setting the executor
+     */
+    @Bean
+    WebMvcConfigurer virtualThreadAsyncConfigurer(AsyncTaskExecutor applicationTaskExecutor) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                configurer.setTaskExecutor(applicationTaskExecutor);
+            }
+        };
+    }
+
+    /**
+     * Limit concurrent use of the application DataSource to the size of its connection pool, waiting no longer than
+     * its connection timeout for a connection.
+     *
+     * @return a BeanPostProcessor wrapping the DataSource in a ConnectionLimitingDataSource
+     */
+    @Bean
+    static BeanPostProcessor connectionLimitingPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource) {
+                    HikariDataSource dataSource = (HikariDataSource) bean;
+                    return new ConnectionLimitingDataSource(dataSource, dataSource.getMaximumPoolSize(),
+                            dataSource.getConnectionTimeout());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,104 @@
+package com.chwonghm.benchmark;
+
+import com.chwonghm.ShopifyDemoApplication;
+import com.chwonghm.service.BatchItemResult;
+import com.chwonghm.service.CollectionService;
+import com.chwonghm.service.ItemService;
+import com.chwonghm.service.NewItem;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Starts the application for benchmarks, without a web server and against a private in-memory H2 database, and
+ * seeds it with inventory data.
+ *
+ * @author Charles Wong
+ */
+final class BenchmarkContext {
+
+    /**
+     * The number of items created per call to ItemService.createItems while seeding
+     */
+    private static final int SEED_CHUNK_SIZE = 10000;
+
+    private BenchmarkContext() {
+    }
+
+    /**
+     * Start the application against a new, empty in-memory database.
+     *
+     * @param properties additional String properties, in --name=value form
+     * @return the started application context
+     */
+    static ConfigurableApplicationContext start(String... properties) {
+        SpringApplication application = new SpringApplication(ShopifyDemoApplication.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setLogStartupInfo(false);
+
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.datasource.url=jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "--spring.h2.console.enabled=false",
+                "--logging.level.root=WARN"));
+        args.addAll(List.of(properties));
+
+        return application.run(args.toArray(new String[0]));
+    }
+
+    /**
+     * Create collections named "collection-N"
+     *
+     * @param collectionService the CollectionService to create collections with
+     * @param count             an int representing the number of collections to create
+     * @return a List of the IDs of the created collections, in creation order
+     */
+    static List<Long> seedCollections(CollectionService collectionService, int count) {
+        List<Long> ids = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            ids.add(collectionService.createCollection(String.format("collection-%d", i)).getId());
+        }
+
+        return ids;
+    }
+
+    /**
+     * Create items named "item-NNNNNNN", in order. Item i is placed in the collections at positions i % n
+     * through (i + perItem - 1) % n of the provided collection IDs.
+     *
+     * @param itemService   the ItemService to create items with
+     * @param count         an int representing the number of items to create
+     * @param collectionIds a List of collection IDs to place items in, possibly empty
+     * @param perItem       an int representing the number of collections each item is placed in
+     * @return an array of the IDs of the created items, in creation order
+     */
+    static long[] seedItems(ItemService itemService, int count, List<Long> collectionIds, int perItem) {
+        long[] ids = new long[count];
+        int created = 0;
+
+        while (created < count) {
+            int chunkSize = Math.min(SEED_CHUNK_SIZE, count - created);
+            List<NewItem> chunk = new ArrayList<>(chunkSize);
+
+            for (int i = created; i < created + chunkSize; i++) {
+                List<Long> itemCollections = new ArrayList<>(perItem);
+                for (int j = 0; j < perItem && !collectionIds.isEmpty(); j++) {
+                    itemCollections.add(collectionIds.get((i + j) % collectionIds.size()));
+                }
+                chunk.add(new NewItem(String.format("item-%07d", i), (long) i % 100, itemCollections));
+            }
+
+            for (BatchItemResult result : itemService.createItems(chunk)) {
+                ids[created + result.getIndex()] = result.getId();
+            }
+
+            created += chunkSize;
+        }
+
+        return ids;
+    }
+}
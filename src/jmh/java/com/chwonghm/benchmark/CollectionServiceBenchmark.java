@@ -0,0 +1,77 @@
+package com.chwonghm.benchmark;
+
+import com.chwonghm.entity.Item;
+import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.service.CollectionService;
+import com.chwonghm.service.ItemService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of adding collections to an item through CollectionService, with several numbers of collection IDs
+ * per call.
+ * <p>
+ * Each invocation adds collections to the next of a pool of items, and the collections are removed again after
+ * the invocation. Invocation-level teardown is normally discouraged, but each invocation here is a full
+ * transaction taking well over a millisecond, which makes its overhead negligible.
+ *
+ * @author Charles Wong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CollectionServiceBenchmark {
+
+    /**
+     * The number of collection IDs added per call
+     */
+    @Param({ "1", "10", "100" })
+    public int collectionCount;
+
+    private ConfigurableApplicationContext context;
+
+    private CollectionService collectionService;
+
+    private long[] itemIds;
+
+    private List<Long> collectionIds;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        collectionService = context.getBean(CollectionService.class);
+
+        collectionIds = BenchmarkContext.seedCollections(collectionService, collectionCount);
+        itemIds = BenchmarkContext.seedItems(context.getBean(ItemService.class), 10000, List.of(), 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeCollections() throws ResourceNotFoundException {
+        collectionService.removeCollectionFromItem(collectionIds, itemIds[next]);
+        next = (next + 1) % itemIds.length;
+    }
+
+    @Benchmark
+    public Item addCollectionToItem() throws ResourceNotFoundException {
+        return collectionService.addCollectionToItem(collectionIds, itemIds[next]);
+    }
+}
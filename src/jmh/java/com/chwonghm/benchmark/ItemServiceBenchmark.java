@@ -0,0 +1,116 @@
+package com.chwonghm.benchmark;
+
+import com.chwonghm.entity.Item;
+import com.chwonghm.exception.InvalidRequestException;
+import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.service.CollectionService;
+import com.chwonghm.service.ItemService;
+import com.chwonghm.service.KeysetPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of item reads through ItemService, at several table sizes. Every item is placed in two of twenty
+ * collections, so that reads fetch associations as they would in practice. Hibernate's second-level cache is
+ * disabled, so that only the cache of serialized items is measured; see SecondLevelCacheBenchmark for the other.
+ *
+ * @author Charles Wong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ItemServiceBenchmark {
+
+    /**
+     * The page size used by listing benchmarks, matching the default of api/item/all
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * The number of stored items
+     */
+    @Param({ "1000", "10000", "100000" })
+    public int tableSize;
+
+    /**
+     * The maximum number of cached items. With 0, every read goes to the database.
+     */
+    @Param({ "0", "10000" })
+    public int itemCacheSize;
+
+    private ConfigurableApplicationContext context;
+
+    private ItemService itemService;
+
+    private long[] itemIds;
+
+    /**
+     * Cursors spread evenly over the table, used to list pages from random positions
+     */
+    private List<String> cursors;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidRequestException {
+        context = BenchmarkContext.start(
+                "--shopify-demo.cache.item-maximum-size=" + itemCacheSize,
+                "--shopify-demo.second-level-cache.enabled=false");
+        itemService = context.getBean(ItemService.class);
+
+        List<Long> collectionIds = BenchmarkContext.seedCollections(context.getBean(CollectionService.class), 20);
+        itemIds = BenchmarkContext.seedItems(itemService, tableSize, collectionIds, 2);
+
+        cursors = new ArrayList<>();
+        String cursor = null;
+        do {
+            cursors.add(cursor);
+            cursor = itemService.getAllItems(cursor, 500, null, null, null).getNextCursor();
+        } while (cursor != null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Item getItem() throws ResourceNotFoundException {
+        return itemService.getItem(itemIds[ThreadLocalRandom.current().nextInt(itemIds.length)]);
+    }
+
+    @Benchmark
+    public KeysetPage<Item> getAllItemsFirstPage() throws InvalidRequestException {
+        return itemService.getAllItems(null, PAGE_SIZE, null, null, null);
+    }
+
+    @Benchmark
+    public KeysetPage<Item> getAllItemsRandomPage() throws InvalidRequestException {
+        String cursor = cursors.get(ThreadLocalRandom.current().nextInt(cursors.size()));
+        return itemService.getAllItems(cursor, PAGE_SIZE, null, null, null);
+    }
+
+    @Benchmark
+    public KeysetPage<Item> getAllItemsByPrefix() throws InvalidRequestException {
+        // matches the first 100 items, so the page is served from an index range
+        return itemService.getAllItems(null, PAGE_SIZE, "item-00000", null, null);
+    }
+
+    @Benchmark
+    public KeysetPage<Item> getAllItemsByCount() throws InvalidRequestException {
+        // matches 10% of the table, interleaved with non-matching rows
+        return itemService.getAllItems(null, PAGE_SIZE, null, 90L, null);
+    }
+}
@@ -0,0 +1,166 @@
+package com.chwonghm.benchmark;
+
+import com.chwonghm.controller.Views;
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+import com.chwonghm.exception.InvalidRequestException;
+import com.chwonghm.service.CollectionService;
+import com.chwonghm.service.ItemService;
+import com.chwonghm.service.KeysetPage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Benchmarks of the response bodies of api/item/all and api/collection/all in each negotiable format, with and
+ * without Blackbird's generated property accessors, using the application's own mappers. Pages are loaded from
+ * the seeded database once, so only serialization, and compression where stated, is measured.
+ * <p>
+ * Besides the time per call, each benchmark reports the bytes written and the calls made in each iteration, as
+ * the "bytes" and "calls" secondary results; their ratio is the size of the response body.
+ *
+ * @author Charles Wong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PayloadBenchmark {
+
+    /**
+     * The format of the response body
+     */
+    @Param({ "json", "cbor", "smile" })
+    public String format;
+
+    /**
+     * Whether property accessors are generated by Blackbird
+     */
+    @Param({ "false", "true" })
+    public boolean blackbird;
+
+    /**
+     * Counts the bytes written by the benchmark thread
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Payload {
+
+        /**
+         * The number of bytes written in this iteration
+         */
+        public long bytes;
+
+        /**
+         * The number of benchmark calls made in this iteration
+         */
+        public long calls;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+            calls = 0;
+        }
+    }
+
+    private ConfigurableApplicationContext context;
+
+    private ObjectWriter itemWriter;
+
+    private KeysetPage<Item> itemPage;
+
+    private KeysetPage<Collection> collectionPage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidRequestException {
+        context = BenchmarkContext.start("--shopify-demo.serialization.blackbird=" + blackbird);
+
+        ItemService itemService = context.getBean(ItemService.class);
+        CollectionService collectionService = context.getBean(CollectionService.class);
+
+        // every item is placed in five of the collections
+        List<Long> collectionIds = BenchmarkContext.seedCollections(collectionService, 50);
+        BenchmarkContext.seedItems(itemService, 1000, collectionIds, 5);
+
+        itemPage = itemService.getAllItems(null, 50, null, null, null);
+        collectionPage = collectionService.getAllCollections(null, 50, null, null, null);
+
+        // both listings are written under the item view
+        itemWriter = mapper().writerWithView(Views.Item.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] itemPage(Payload payload) throws IOException {
+        return count(payload, itemWriter.writeValueAsBytes(itemPage));
+    }
+
+    @Benchmark
+    public byte[] collectionPage(Payload payload) throws IOException {
+        return count(payload, itemWriter.writeValueAsBytes(collectionPage));
+    }
+
+    @Benchmark
+    public byte[] itemPageGzip(Payload payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            itemWriter.writeValue(gzip, itemPage);
+        }
+
+        return count(payload, bytes.toByteArray());
+    }
+
+    /**
+     * Get the mapper the application writes the benchmarked format with
+     *
+     * @return the ObjectMapper of the format
+     */
+    private ObjectMapper mapper() {
+        switch (format) {
+            case "json":
+                return context.getBean(ObjectMapper.class);
+            case "cbor":
+                return context.getBean(MappingJackson2CborHttpMessageConverter.class).getObjectMapper();
+            case "smile":
+                return context.getBean(MappingJackson2SmileHttpMessageConverter.class).getObjectMapper();
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+
+    /**
+     * Add a response body to the iteration's counters
+     *
+     * @param payload the Payload of the benchmark thread
+     * @param body    the written body
+     * @return the body
+     */
+    private static byte[] count(Payload payload, byte[] body) {
+        payload.bytes += body.length;
+        payload.calls++;
+        return body;
+    }
+}
@@ -0,0 +1,188 @@
+package com.chwonghm.benchmark;
+
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+import com.chwonghm.exception.InsufficientStockException;
+import com.chwonghm.exception.InvalidRequestException;
+import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.repository.CollectionStats;
+import com.chwonghm.repository.QueryCounter;
+import com.chwonghm.service.CollectionService;
+import com.chwonghm.service.ItemService;
+import com.chwonghm.service.KeysetPage;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of reads and membership changes with and without Hibernate's second-level cache. The cache of
+ * serialized items and collections is disabled, so that every call reaches Hibernate. Count adjustments are
+ * mixed into one benchmark, to show that writes keep the cache of the rows they do not touch.
+ * <p>
+ * Besides the time per call, each benchmark reports the SQL statements prepared and the calls made in each
+ * iteration, as the "statements" and "calls" secondary results; their ratio is the number of database round
+ * trips per call.
+ *
+ * @author Charles Wong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SecondLevelCacheBenchmark {
+
+    /**
+     * The page size used by listing benchmarks, matching the default of api/item/all
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Whether Hibernate's second-level and query caches are enabled
+     */
+    @Param({ "false", "true" })
+    public boolean secondLevelCache;
+
+    /**
+     * Counts the statements prepared by the benchmark thread
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RoundTrips {
+
+        /**
+         * The number of SQL statements prepared in this iteration
+         */
+        public long statements;
+
+        /**
+         * The number of benchmark calls made in this iteration
+         */
+        public long calls;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            statements = 0;
+            calls = 0;
+        }
+    }
+
+    private ConfigurableApplicationContext context;
+
+    private ItemService itemService;
+
+    private CollectionService collectionService;
+
+    private QueryCounter queryCounter;
+
+    private long[] itemIds;
+
+    private List<Long> collectionIds;
+
+    /**
+     * Cursors spread evenly over the items, used to list pages from random positions
+     */
+    private List<String> cursors;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidRequestException {
+        context = BenchmarkContext.start(
+                "--shopify-demo.second-level-cache.enabled=" + secondLevelCache,
+                "--shopify-demo.cache.item-maximum-size=0",
+                "--shopify-demo.cache.collection-maximum-weight=0");
+        itemService = context.getBean(ItemService.class);
+        collectionService = context.getBean(CollectionService.class);
+        queryCounter = context.getBean(QueryCounter.class);
+
+        collectionIds = BenchmarkContext.seedCollections(collectionService, 20);
+        itemIds = BenchmarkContext.seedItems(itemService, 10000, collectionIds, 2);
+
+        cursors = new ArrayList<>();
+        String cursor = null;
+        do {
+            cursors.add(cursor);
+            cursor = itemService.getAllItems(cursor, 500, null, null, null).getNextCursor();
+        } while (cursor != null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public KeysetPage<Collection> getAllCollections(RoundTrips roundTrips) throws InvalidRequestException {
+        queryCounter.reset();
+        KeysetPage<Collection> page = collectionService.getAllCollections(null, PAGE_SIZE, null, null, null);
+        count(roundTrips);
+        return page;
+    }
+
+    @Benchmark
+    public KeysetPage<CollectionStats> getCollectionStats(RoundTrips roundTrips) throws InvalidRequestException {
+        queryCounter.reset();
+        KeysetPage<CollectionStats> page = collectionService.getCollectionStats(null, PAGE_SIZE, null);
+        count(roundTrips);
+        return page;
+    }
+
+    @Benchmark
+    public KeysetPage<Item> getAllItemsRandomPage(RoundTrips roundTrips) throws InvalidRequestException {
+        String cursor = cursors.get(ThreadLocalRandom.current().nextInt(cursors.size()));
+
+        queryCounter.reset();
+        KeysetPage<Item> page = itemService.getAllItems(cursor, PAGE_SIZE, null, null, null);
+        count(roundTrips);
+        return page;
+    }
+
+    @Benchmark
+    public Item addAndRemoveCollections(RoundTrips roundTrips) throws ResourceNotFoundException {
+        long itemId = itemIds[ThreadLocalRandom.current().nextInt(itemIds.length)];
+        List<Long> toToggle = collectionIds.subList(10, 20);
+
+        queryCounter.reset();
+        collectionService.addCollectionToItem(toToggle, itemId);
+        Item item = collectionService.removeCollectionFromItem(toToggle, itemId);
+        count(roundTrips);
+        return item;
+    }
+
+    @Benchmark
+    public Item adjustCountAndToggleCollections(RoundTrips roundTrips)
+            throws ResourceNotFoundException, InsufficientStockException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long adjustedId = itemIds[random.nextInt(itemIds.length)];
+        long itemId = itemIds[random.nextInt(itemIds.length)];
+        List<Long> toToggle = collectionIds.subList(10, 20);
+
+        queryCounter.reset();
+        itemService.adjustItemCount(1, adjustedId);
+        collectionService.addCollectionToItem(toToggle, itemId);
+        Item item = collectionService.removeCollectionFromItem(toToggle, itemId);
+        count(roundTrips);
+        return item;
+    }
+
+    /**
+     * Add the statements of a call to the iteration's counters
+     *
+     * @param roundTrips the RoundTrips of the benchmark thread
+     */
+    private void count(RoundTrips roundTrips) {
+        roundTrips.statements += queryCounter.getCount();
+        roundTrips.calls++;
+    }
+}
@@ -0,0 +1,97 @@
+package com.chwonghm.benchmark;
+
+import com.chwonghm.controller.Views;
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+import com.chwonghm.exception.InvalidRequestException;
+import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.service.CollectionService;
+import com.chwonghm.service.ItemService;
+import com.chwonghm.service.KeysetPage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of Jackson serialization of items and collections under their JSON views, using the application's
+ * own ObjectMapper. Entities are loaded from the seeded database once, so only serialization is measured.
+ *
+ * @author Charles Wong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    /**
+     * The number of items in the serialized collection
+     */
+    @Param({ "10", "100", "1000" })
+    public int collectionSize;
+
+    private ConfigurableApplicationContext context;
+
+    private ObjectWriter itemWriter;
+
+    private ObjectWriter collectionWriter;
+
+    private Item item;
+
+    private Collection collection;
+
+    private KeysetPage<Item> page;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ResourceNotFoundException, InvalidRequestException {
+        context = BenchmarkContext.start();
+
+        ItemService itemService = context.getBean(ItemService.class);
+        CollectionService collectionService = context.getBean(CollectionService.class);
+
+        // every item is placed in all five collections
+        List<Long> collectionIds = BenchmarkContext.seedCollections(collectionService, 5);
+        long[] itemIds = BenchmarkContext.seedItems(itemService, collectionSize, collectionIds, 5);
+
+        item = itemService.getItem(itemIds[0]);
+        collection = collectionService.getCollection(collectionIds.get(0));
+        page = itemService.getAllItems(null, 50, null, null, null);
+
+        ObjectMapper objectMapper = context.getBean(ObjectMapper.class);
+        itemWriter = objectMapper.writerWithView(Views.Item.class);
+        collectionWriter = objectMapper.writerWithView(Views.Collection.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] serializeItem() throws JsonProcessingException {
+        return itemWriter.writeValueAsBytes(item);
+    }
+
+    @Benchmark
+    public byte[] serializeItemPage() throws JsonProcessingException {
+        return itemWriter.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] serializeCollection() throws JsonProcessingException {
+        return collectionWriter.writeValueAsBytes(collection);
+    }
+}
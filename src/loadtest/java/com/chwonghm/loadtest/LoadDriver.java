@@ -0,0 +1,184 @@
+package com.chwonghm.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop HTTP load driver holding a fixed number of concurrent connections against a running instance of
+ * the application. Each connection is served by its own virtual thread, which repeatedly reads a random item
+ * and, one time in ten, adjusts its count. Usage:
+ * <pre>
+ *     LoadDriver [--url=http://localhost:8080] [--connections=10000] [--warmup=15] [--duration=60]
+ *                [--items=1000] [--label=NAME]
+ * </pre>
+ * Once the run completes, throughput, latency percentiles and the server's heap use and thread counts are
+ * printed on one line, so that runs against differently configured servers can be compared.
+ *
+ * @author Charles Wong
+ */
+public class LoadDriver {
+
+    /**
+     * Object mapper used to parse responses
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Main method for the load driver. Seeds items, runs the load, then prints a summary.
+     *
+     * @param args an array of String command line arguments, as described in the class documentation
+     * @throws Exception if the server cannot be reached
+     */
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:8080";
+        int connections = 10000;
+        int warmupSeconds = 15;
+        int durationSeconds = 60;
+        int itemCount = 1000;
+        String label = "run";
+
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--url=")) {
+                url = value;
+            } else if (arg.startsWith("--connections=")) {
+                connections = Integer.parseInt(value);
+            } else if (arg.startsWith("--warmup=")) {
+                warmupSeconds = Integer.parseInt(value);
+            } else if (arg.startsWith("--duration=")) {
+                durationSeconds = Integer.parseInt(value);
+            } else if (arg.startsWith("--items=")) {
+                itemCount = Integer.parseInt(value);
+            } else if (arg.startsWith("--label=")) {
+                label = value;
+            }
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+
+        long[] itemIds = seed(client, url, itemCount);
+
+        Recorder recorder = new Recorder(3);
+        LongAdder errors = new LongAdder();
+        long warmupEnd = System.nanoTime() + Duration.ofSeconds(warmupSeconds).toNanos();
+        long end = warmupEnd + Duration.ofSeconds(durationSeconds).toNanos();
+        String base = url;
+
+        try (ExecutorService connectionThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                connectionThreads.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                    while (System.nanoTime() < end) {
+                        long id = itemIds[random.nextInt(itemIds.length)];
+                        HttpRequest request = random.nextInt(10) == 0
+                                ? HttpRequest.newBuilder(URI.create(base + "/api/item/count/delta?id=" + id))
+                                        .header("Content-Type", "application/json")
+                                        .POST(HttpRequest.BodyPublishers.ofString("{\"delta\": 1}"))
+                                        .build()
+                                : HttpRequest.newBuilder(URI.create(base + "/api/item?id=" + id)).GET().build();
+
+                        long start = System.nanoTime();
+                        boolean ok;
+                        try {
+                            ok = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() < 400;
+                        } catch (IOException e) {
+                            ok = false;
+                        }
+                        long finish = System.nanoTime();
+
+                        if (start >= warmupEnd) {
+                            if (ok) {
+                                recorder.recordValue((finish - start) / 1000);
+                            } else {
+                                errors.increment();
+                            }
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+
+        Histogram histogram = recorder.getIntervalHistogram();
+
+        System.out.printf(Locale.ROOT,
+                "%s: connections=%d requests/s=%.0f errors=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms"
+                        + " heapUsed=%.0fMB threadsLive=%.0f threadsPeak=%.0f%n",
+                label, connections, histogram.getTotalCount() / (double) durationSeconds, errors.sum(),
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(95) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0, histogram.getMaxValue() / 1000.0,
+                metric(client, url, "jvm.memory.used?tag=area:heap") / (1024 * 1024),
+                metric(client, url, "jvm.threads.live"), metric(client, url, "jvm.threads.peak"));
+    }
+
+    /**
+     * Create the items read by the run
+     *
+     * @param client the HttpClient to send requests with
+     * @param url    the String base URL of the server
+     * @param count  an int representing the number of items to create
+     * @return an array of the IDs of the created items
+     * @throws IOException          if the request fails
+     * @throws InterruptedException if interrupted while waiting for the response
+     */
+    private static long[] seed(HttpClient client, String url, int count) throws IOException, InterruptedException {
+        List<String> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(String.format("{\"name\": \"load-%d\", \"count\": 1000000}", i));
+        }
+
+        HttpResponse<String> response = client.send(
+                HttpRequest.newBuilder(URI.create(url + "/api/item/batch"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("[" + String.join(",", items) + "]"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        JsonNode results = MAPPER.readTree(response.body());
+        long[] ids = new long[results.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = results.get(i).get("id").longValue();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Read the value of a server metric from the actuator
+     *
+     * @param client the HttpClient to send requests with
+     * @param url    the String base URL of the server
+     * @param metric the String name of the metric, with any tag query
+     * @return a double representing the metric's value
+     * @throws IOException          if the request fails
+     * @throws InterruptedException if interrupted while waiting for the response
+     */
+    private static double metric(HttpClient client, String url, String metric) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(
+                HttpRequest.newBuilder(URI.create(url + "/actuator/metrics/" + metric)).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        return MAPPER.readTree(response.body()).get("measurements").get(0).get("value").doubleValue();
+    }
+}
@@ -0,0 +1,118 @@
+package com.chwonghm;
+
+import com.chwonghm.service.ImportReport;
+import com.chwonghm.service.ItemImporter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Command line entry point importing inventory items from a CSV or NDJSON file, without starting the web
+ * server. The application database is updated in place rather than recreated. Usage:
+ * <pre>
+ *     ShopifyDemoImport FILE [--format=csv|ndjson] [--chunk-size=N] [--skip=N]
+ * </pre>
+ * The format defaults to the file extension. If the import stops early, the offset to pass as --skip to
+ * resume it is printed, and the process exits with status 1. Invalid arguments print the usage above and exit with
+ * status 2.
+ * <p>
+ * The embedded database file can only be opened by one process at a time, so the server must be stopped while
+ * importing; a running server imports through {@code POST api/item/import} instead. The server recreates the schema
+ * on startup unless it is started with {@code shopify-demo.database.ddl-auto=update} too.
+ *
+ * @author Charles Wong
+ */
+public class ShopifyDemoImport {
+
+    /**
+     * The usage printed when the arguments are invalid
+     */
+    private static final String USAGE =
+            "Usage: ShopifyDemoImport FILE [--format=csv|ndjson] [--chunk-size=N] [--skip=N]";
+
+    /**
+     * Main method for the importer. Runs the application without a web server, then imports the given file.
+     *
+     * @param args an array of String command line arguments, as described in the class documentation
+     * @throws IOException if the file cannot be opened
+     */
+    public static void main(String[] args) throws IOException {
+        Path file = null;
+        ItemImporter.Format format = null;
+        int chunkSize = 1000;
+        long skip = 0;
+
+        for (String arg : args) {
+            try {
+                if (arg.startsWith("--format=")) {
+                    format = ItemImporter.Format.valueOf(value(arg).toUpperCase(Locale.ROOT));
+                } else if (arg.startsWith("--chunk-size=")) {
+                    chunkSize = Integer.parseInt(value(arg));
+                } else if (arg.startsWith("--skip=")) {
+                    skip = Long.parseLong(value(arg));
+                } else if (!arg.startsWith("--")) {
+                    file = Path.of(arg);
+                }
+            } catch (IllegalArgumentException e) {
+                // NumberFormatException, or an unknown format
+                System.err.printf("Invalid argument %s%n%s%n", arg, USAGE);
+                System.exit(2);
+            }
+        }
+
+        if (file == null || chunkSize < 1 || skip < 0) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        if (format == null) {
+            format = file.toString().toLowerCase(Locale.ROOT).endsWith(".csv")
+                    ? ItemImporter.Format.CSV
+                    : ItemImporter.Format.NDJSON;
+        }
+
+        // keep existing data, unless the schema mode is set explicitly
+        if (System.getProperty("spring.jpa.hibernate.ddl-auto") == null
+                && System.getProperty("shopify-demo.database.ddl-auto") == null) {
+            System.setProperty("shopify-demo.database.ddl-auto", "update");
+        }
+
+        SpringApplication application = new SpringApplication(ShopifyDemoApplication.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+
+        ImportReport report;
+
+        try (ConfigurableApplicationContext context = application.run();
+             InputStream in = Files.newInputStream(file)) {
+            report = context.getBean(ItemImporter.class).importItems(in, format, chunkSize, skip);
+        }
+
+        System.out.printf("Read %d lines, created %d items, %d failed, in %d ms (%.0f lines/s)%n",
+                report.getLinesRead(), report.getItemsCreated(), report.getItemsFailed(),
+                report.getElapsedMillis(), report.getLinesPerSecond());
+
+        report.getRowErrors().forEach(error -> System.out.println("  " + error));
+
+        if (!report.isCompleted()) {
+            System.out.printf("Import stopped: %s%nResume with --skip=%d%n", report.getError(),
+                    report.getCommittedOffset());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Get the value of a --name=value argument
+     *
+     * @param arg the String argument
+     * @return the String value following the '='
+     */
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+}
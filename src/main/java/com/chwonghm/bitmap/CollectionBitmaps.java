@@ -0,0 +1,302 @@
+package com.chwonghm.bitmap;
+
+import com.chwonghm.event.CommitBuffer;
+import com.chwonghm.exception.ResourceNotFoundException;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Holds the item IDs of every collection as a compressed bitmap, so that set expressions over collections are
+ * answered in memory, without loading any collection or item.
+ * <p>
+ * The bitmaps are built from the item_collections table on startup, after any snapshot has been restored, and
+ * are then kept up to date by {@link com.chwonghm.service.CollectionService} and
+ * {@link com.chwonghm.service.ItemService}, including the memberships removed when an item or collection is
+ * deleted. Each change is applied once its transaction commits.
+ *
+ * @author Charles Wong
+ */
+@Component
+@DependsOn("snapshotStartup")
+public class CollectionBitmaps implements InitializingBean {
+
+    /**
+     * Logger for rebuilds
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(CollectionBitmaps.class);
+
+    /**
+     * The number of rows read per round trip when rebuilding
+     */
+    private static final int FETCH_SIZE = 10000;
+
+    /**
+     * The kinds of change to the bitmaps
+     */
+    private enum ChangeType {
+        COLLECTION_CREATED,
+        COLLECTION_DELETED,
+        MEMBERSHIP_ADDED,
+        MEMBERSHIP_REMOVED
+    }
+
+    /**
+     * A single change to the bitmaps
+     */
+    private static final class Change {
+
+        /**
+         * The kind of change
+         */
+        private final ChangeType type;
+
+        /**
+         * The ID of the changed collection
+         */
+        private final long collectionId;
+
+        /**
+         * The ID of the item added or removed, or 0
+         */
+        private final long itemId;
+
+        private Change(ChangeType type, long collectionId, long itemId) {
+            this.type = type;
+            this.collectionId = collectionId;
+            this.itemId = itemId;
+        }
+    }
+
+    /**
+     * Reads the membership table when rebuilding
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * The changes made by each transaction, in the order they were made, applied once it commits
+     */
+    private final CommitBuffer<List<Change>> pendingChanges = new CommitBuffer<>(ArrayList::new, this::apply);
+
+    /**
+     * Held for reading while evaluating expressions, and for writing while changing the bitmaps
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The bitmap of the item IDs of each collection, by collection ID. Guarded by {@link #lock}.
+     */
+    private Map<Long, Roaring64NavigableMap> bitmaps = new HashMap<>();
+
+    /**
+     * Constructs the bitmaps. They are empty until the bean is initialized.
+     *
+     * @param jdbcTemplate a JdbcTemplate to read the membership table with
+     */
+    public CollectionBitmaps(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Build the bitmaps from the collection and membership tables.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        long start = System.nanoTime();
+        Map<Long, Roaring64NavigableMap> rebuilt = new HashMap<>();
+
+        jdbcTemplate.query("SELECT collection_id FROM collection", rs -> {
+            rebuilt.put(rs.getLong(1), newBitmap());
+        });
+
+        long[] memberships = new long[1];
+
+        // item IDs arrive in order within each collection, which is the cheapest way to fill a bitmap
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT collection_id, item_id FROM item_collections ORDER BY collection_id, item_id");
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            rebuilt.computeIfAbsent(rs.getLong(1), id -> newBitmap()).addLong(rs.getLong(2));
+            memberships[0]++;
+        });
+
+        long bytes = 0;
+        for (Roaring64NavigableMap bitmap : rebuilt.values()) {
+            bitmap.runOptimize();
+            bytes += bitmap.getLongSizeInBytes();
+        }
+
+        lock.writeLock().lock();
+        try {
+            bitmaps = rebuilt;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        LOG.info("Built bitmaps of {} collections with {} memberships ({} bytes) in {} ms", rebuilt.size(),
+                memberships[0], bytes, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Record the creation of a collection, with no items
+     *
+     * @param collectionId a long representing the ID of the collection
+     */
+    public void collectionCreated(long collectionId) {
+        change(new Change(ChangeType.COLLECTION_CREATED, collectionId, 0));
+    }
+
+    /**
+     * Record the deletion of a collection, along with its memberships
+     *
+     * @param collectionId a long representing the ID of the collection
+     */
+    public void collectionDeleted(long collectionId) {
+        change(new Change(ChangeType.COLLECTION_DELETED, collectionId, 0));
+    }
+
+    /**
+     * Record the addition of an item to a collection
+     *
+     * @param itemId       a long representing the ID of the item
+     * @param collectionId a long representing the ID of the collection
+     */
+    public void membershipAdded(long itemId, long collectionId) {
+        change(new Change(ChangeType.MEMBERSHIP_ADDED, collectionId, itemId));
+    }
+
+    /**
+     * Record the removal of an item from a collection
+     *
+     * @param itemId       a long representing the ID of the item
+     * @param collectionId a long representing the ID of the collection
+     */
+    public void membershipRemoved(long itemId, long collectionId) {
+        change(new Change(ChangeType.MEMBERSHIP_REMOVED, collectionId, itemId));
+    }
+
+    /**
+     * Record the deletion of an item, which removes it from all of its collections
+     *
+     * @param itemId        a long representing the ID of the item
+     * @param collectionIds a Set of longs representing the IDs of the collections the item belonged to
+     */
+    public void itemDeleted(long itemId, Set<Long> collectionIds) {
+        for (long collectionId : collectionIds) {
+            membershipRemoved(itemId, collectionId);
+        }
+    }
+
+    /**
+     * Count the items matching an expression.
+     *
+     * @param expression the CollectionExpression to evaluate
+     * @return a long representing the number of matching items
+     * @throws ResourceNotFoundException if the expression refers to a collection that does not exist
+     */
+    public long count(CollectionExpression expression) throws ResourceNotFoundException {
+        lock.readLock().lock();
+        try {
+            return expression.evaluateReadOnly(bitmaps).getLongCardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get a page of the IDs of the items matching an expression, in increasing order.
+     *
+     * @param expression the CollectionExpression to evaluate
+     * @param afterId    a long representing the ID that returned IDs must be strictly greater than
+     * @param limit      an int representing the maximum number of IDs to return
+     * @return a List of the matching item IDs
+     * @throws ResourceNotFoundException if the expression refers to a collection that does not exist
+     */
+    public List<Long> page(CollectionExpression expression, long afterId, int limit)
+            throws ResourceNotFoundException {
+        Roaring64NavigableMap result;
+
+        lock.readLock().lock();
+        try {
+            result = expression.evaluate(bitmaps);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        long cardinality = result.getLongCardinality();
+        long first = afterId <= 0 ? 0 : result.rankLong(afterId);
+
+        List<Long> ids = new ArrayList<>((int) Math.max(0, Math.min(limit, cardinality - first)));
+        for (long rank = first; rank < cardinality && ids.size() < limit; rank++) {
+            ids.add(result.select(rank));
+        }
+
+        return ids;
+    }
+
+    /**
+     * Create an empty bitmap for a collection. Roaring bitmaps cache cardinalities lazily, which would make
+     * concurrent reads write to them, so the cache is disabled.
+     *
+     * @return a new, empty Roaring64NavigableMap
+     */
+    private static Roaring64NavigableMap newBitmap() {
+        return new Roaring64NavigableMap(false, false);
+    }
+
+    /**
+     * Record a change, to be applied once the current transaction commits
+     *
+     * @param change the Change to apply
+     */
+    private void change(Change change) {
+        pendingChanges.add(changes -> changes.add(change));
+    }
+
+    /**
+     * Apply changes to the bitmaps
+     *
+     * @param changes a List of the Changes to apply, in order
+     */
+    private void apply(List<Change> changes) {
+        lock.writeLock().lock();
+        try {
+            for (Change change : changes) {
+                switch (change.type) {
+                    case COLLECTION_CREATED:
+                        bitmaps.putIfAbsent(change.collectionId, newBitmap());
+                        break;
+                    case COLLECTION_DELETED:
+                        bitmaps.remove(change.collectionId);
+                        break;
+                    case MEMBERSHIP_ADDED:
+                        bitmaps.computeIfAbsent(change.collectionId, id -> newBitmap())
+                                .addLong(change.itemId);
+                        break;
+                    default:
+                        Roaring64NavigableMap bitmap = bitmaps.get(change.collectionId);
+                        if (bitmap != null) {
+                            bitmap.removeLong(change.itemId);
+                        }
+                        break;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
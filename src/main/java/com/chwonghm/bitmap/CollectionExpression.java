@@ -0,0 +1,278 @@
+package com.chwonghm.bitmap;
+
+import com.chwonghm.exception.InvalidRequestException;
+import com.chwonghm.exception.ResourceNotFoundException;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.util.Map;
+
+/**
+ * A parsed set expression over collections, such as {@code (1 | 2) & 3 - 4}. Collections are referred to by ID,
+ * and stand for the set of IDs of their items. The operators are:
+ * <ul>
+ *     <li>{@code &}, intersection, binding tightest</li>
+ *     <li>{@code |}, union, and {@code -}, difference, evaluated left to right</li>
+ * </ul>
+ * Parentheses group as usual, and whitespace is ignored.
+ *
+ * @author Charles Wong
+ */
+public abstract class CollectionExpression {
+
+    /**
+     * The maximum depth of nested parentheses
+     */
+    private static final int MAX_DEPTH = 32;
+
+    /**
+     * Evaluate the expression. The result is always a new bitmap, which the caller may modify.
+     *
+     * @param bitmaps a Map from the ID of every collection to the bitmap of its item IDs, which is not modified
+     * @return a new Roaring64NavigableMap of the matching item IDs
+     * @throws ResourceNotFoundException if the expression refers to a collection that does not exist
+     */
+    abstract Roaring64NavigableMap evaluate(Map<Long, Roaring64NavigableMap> bitmaps)
+            throws ResourceNotFoundException;
+
+    /**
+     * Evaluate the expression as the right operand of an operator, which only reads it. A single collection is
+     * returned as is, rather than copied.
+     *
+     * @param bitmaps a Map from the ID of every collection to the bitmap of its item IDs, which is not modified
+     * @return a Roaring64NavigableMap of the matching item IDs, which must not be modified
+     * @throws ResourceNotFoundException if the expression refers to a collection that does not exist
+     */
+    Roaring64NavigableMap evaluateReadOnly(Map<Long, Roaring64NavigableMap> bitmaps)
+            throws ResourceNotFoundException {
+        return evaluate(bitmaps);
+    }
+
+    /**
+     * Parse an expression.
+     *
+     * @param expression the String expression to parse
+     * @return the parsed CollectionExpression
+     * @throws InvalidRequestException if the expression is malformed
+     */
+    public static CollectionExpression parse(String expression) throws InvalidRequestException {
+        Parser parser = new Parser(expression);
+        CollectionExpression parsed = parser.union(0);
+
+        parser.skipWhitespace();
+        if (parser.position < expression.length()) {
+            throw parser.error("unexpected '" + expression.charAt(parser.position) + "'");
+        }
+
+        return parsed;
+    }
+
+    /**
+     * A reference to a single collection
+     */
+    private static final class Leaf extends CollectionExpression {
+
+        /**
+         * The ID of the collection
+         */
+        private final long collectionId;
+
+        private Leaf(long collectionId) {
+            this.collectionId = collectionId;
+        }
+
+        @Override
+        Roaring64NavigableMap evaluate(Map<Long, Roaring64NavigableMap> bitmaps) throws ResourceNotFoundException {
+            Roaring64NavigableMap copy = new Roaring64NavigableMap();
+            copy.or(evaluateReadOnly(bitmaps));
+            return copy;
+        }
+
+        @Override
+        Roaring64NavigableMap evaluateReadOnly(Map<Long, Roaring64NavigableMap> bitmaps)
+                throws ResourceNotFoundException {
+            Roaring64NavigableMap bitmap = bitmaps.get(collectionId);
+
+            if (bitmap == null) {
+                throw new ResourceNotFoundException(String.format("Could not find collection with ID %d",
+                        collectionId));
+            }
+
+            return bitmap;
+        }
+    }
+
+    /**
+     * A binary operator applied to two expressions
+     */
+    private static final class Operation extends CollectionExpression {
+
+        /**
+         * The operator: {@code &}, {@code |} or {@code -}
+         */
+        private final char operator;
+
+        /**
+         * The left operand
+         */
+        private final CollectionExpression left;
+
+        /**
+         * The right operand
+         */
+        private final CollectionExpression right;
+
+        private Operation(char operator, CollectionExpression left, CollectionExpression right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Roaring64NavigableMap evaluate(Map<Long, Roaring64NavigableMap> bitmaps) throws ResourceNotFoundException {
+            Roaring64NavigableMap result = left.evaluate(bitmaps);
+            Roaring64NavigableMap operand = right.evaluateReadOnly(bitmaps);
+
+            switch (operator) {
+                case '&':
+                    result.and(operand);
+                    break;
+                case '|':
+                    result.or(operand);
+                    break;
+                default:
+                    result.andNot(operand);
+                    break;
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * A recursive descent parser over an expression string
+     */
+    private static final class Parser {
+
+        /**
+         * The expression being parsed
+         */
+        private final String expression;
+
+        /**
+         * The position of the next character to read
+         */
+        private int position;
+
+        private Parser(String expression) {
+            this.expression = expression;
+        }
+
+        /**
+         * Parse unions and differences of intersections
+         *
+         * @param depth an int representing the number of enclosing parentheses
+         * @return the parsed CollectionExpression
+         * @throws InvalidRequestException if the expression is malformed
+         */
+        private CollectionExpression union(int depth) throws InvalidRequestException {
+            CollectionExpression result = intersection(depth);
+
+            for (char next = peek(); next == '|' || next == '-'; next = peek()) {
+                position++;
+                result = new Operation(next, result, intersection(depth));
+            }
+
+            return result;
+        }
+
+        /**
+         * Parse intersections of operands
+         *
+         * @param depth an int representing the number of enclosing parentheses
+         * @return the parsed CollectionExpression
+         * @throws InvalidRequestException if the expression is malformed
+         */
+        private CollectionExpression intersection(int depth) throws InvalidRequestException {
+            CollectionExpression result = operand(depth);
+
+            while (peek() == '&') {
+                position++;
+                result = new Operation('&', result, operand(depth));
+            }
+
+            return result;
+        }
+
+        /**
+         * Parse a collection ID or a parenthesized expression
+         *
+         * @param depth an int representing the number of enclosing parentheses
+         * @return the parsed CollectionExpression
+         * @throws InvalidRequestException if the expression is malformed
+         */
+        private CollectionExpression operand(int depth) throws InvalidRequestException {
+            char next = peek();
+
+            if (next == '(') {
+                if (depth == MAX_DEPTH) {
+                    throw error("too deeply nested");
+                }
+
+                position++;
+                CollectionExpression inner = union(depth + 1);
+
+                if (peek() != ')') {
+                    throw error("expected ')'");
+                }
+
+                position++;
+                return inner;
+            }
+
+            int start = position;
+            while (position < expression.length() && Character.isDigit(expression.charAt(position))) {
+                position++;
+            }
+
+            if (start == position) {
+                throw error(next == 0 ? "unexpected end" : "expected a collection ID");
+            }
+
+            try {
+                return new Leaf(Long.parseLong(expression.substring(start, position)));
+            } catch (NumberFormatException e) {
+                throw error("collection ID out of range");
+            }
+        }
+
+        /**
+         * Skip whitespace, and get the next character without consuming it
+         *
+         * @return the next char, or 0 at the end of the expression
+         */
+        private char peek() {
+            skipWhitespace();
+            return position < expression.length() ? expression.charAt(position) : 0;
+        }
+
+        /**
+         * Skip any whitespace at the current position
+         */
+        private void skipWhitespace() {
+            while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+                position++;
+            }
+        }
+
+        /**
+         * Build an exception describing a syntax error at the current position
+         *
+         * @param message the String description of the error
+         * @return the InvalidRequestException to throw
+         */
+        private InvalidRequestException error(String message) {
+            return new InvalidRequestException(String.format("Invalid collection expression at position %d: %s",
+                    position, message));
+        }
+    }
+}
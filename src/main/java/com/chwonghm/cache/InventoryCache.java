@@ -0,0 +1,283 @@
+package com.chwonghm.cache;
+
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+import com.chwonghm.event.InventoryChangeEvent;
+import com.chwonghm.event.InventoryGeneration;
+import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.replica.ReadYourWrites;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, in-process read-through cache of fully loaded items and collections. Entries are evicted by size
+ * (using Caffeine's W-TinyLFU policy) and by age, and are invalidated whenever an {@link InventoryChangeEvent}
+ * is committed for them.
+ * <p>
+ * Cached entities are detached, with every association they serialize already fetched. They are shared between
+ * requests, and must not be modified.
+ *
+ * @author Charles Wong
+ */
+@Component
+public class InventoryCache {
+
+    /**
+     * Loads an entity on a cache miss.
+     *
+     * @param <T> the type of entity loaded
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+
+        /**
+         * Load the entity
+         *
+         * @return the loaded entity
+         * @throws ResourceNotFoundException if the entity does not exist
+         */
+        T load() throws ResourceNotFoundException;
+    }
+
+    /**
+     * Cached items, by ID
+     */
+    private final Cache<Long, Item> items;
+
+    /**
+     * Cached collections, by ID. Each collection is weighed by the number of items it holds.
+     */
+    private final Cache<Long, Collection> collections;
+
+    /**
+     * The IDs of cached collections containing each item, used to invalidate collections when a member item changes
+     */
+    private final Map<Long, Set<Long>> collectionsByItem = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented on every committed change, so that a value loaded before a change is not cached after it
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The global inventory generation, which loads must have caught up with
+     */
+    private final InventoryGeneration inventoryGeneration;
+
+    /**
+     * Constructs the cache.
+     *
+     * @param itemMaximumSize         a long representing the maximum number of cached items
+     * @param collectionMaximumWeight a long representing the maximum number of cached collections plus their items
+     * @param expireAfterWrite        the Duration after which a cached entry expires
+     * @param inventoryGeneration     the InventoryGeneration that loaded entities must have caught up with
+     */
+    public InventoryCache(@Value("${shopify-demo.cache.item-maximum-size:10000}") long itemMaximumSize,
+                          @Value("${shopify-demo.cache.collection-maximum-weight:100000}") long collectionMaximumWeight,
+                          @Value("${shopify-demo.cache.expire-after-write:5m}") Duration expireAfterWrite,
+                          InventoryGeneration inventoryGeneration) {
+        this.inventoryGeneration = inventoryGeneration;
+        this.items = Caffeine.newBuilder()
+                .maximumSize(itemMaximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+
+        this.collections = Caffeine.newBuilder()
+                .maximumWeight(collectionMaximumWeight)
+                .weigher((Long id, Collection col) -> 1 + col.getItems().size())
+                .expireAfterWrite(expireAfterWrite)
+                .executor(Runnable::run)
+                .removalListener(this::onCollectionRemoved)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Get an item from the cache, loading and caching it if it is not present.
+     *
+     * @param id     a long representing the ID of the item
+     * @param loader a Loader for the item, with its collections fetched
+     * @return the item corresponding to the provided ID
+     * @throws ResourceNotFoundException if the item is not cached and does not exist
+     */
+    public Item getItem(long id, Loader<Item> loader) throws ResourceNotFoundException {
+        Item item = items.getIfPresent(id);
+
+        if (item != null) {
+            return item;
+        }
+
+        long loadedAt = generation.get();
+        item = load(loader);
+
+        items.put(id, item);
+
+        // a change committed while loading may have been evicted before the put above
+        if (generation.get() != loadedAt) {
+            items.invalidate(id);
+        }
+
+        return item;
+    }
+
+    /**
+     * Get a collection from the cache, loading and caching it if it is not present.
+     *
+     * @param id     a long representing the ID of the collection
+     * @param loader a Loader for the collection, with its items fetched
+     * @return the collection corresponding to the provided ID
+     * @throws ResourceNotFoundException if the collection is not cached and does not exist
+     */
+    public Collection getCollection(long id, Loader<Collection> loader) throws ResourceNotFoundException {
+        Collection col = collections.getIfPresent(id);
+
+        if (col != null) {
+            return col;
+        }
+
+        long loadedAt = generation.get();
+        col = load(loader);
+
+        // index before caching, so that a concurrent change to a member item always finds this collection
+        for (Item item : col.getItems()) {
+            collectionsByItem.computeIfAbsent(item.getId(), k -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+
+        collections.put(id, col);
+
+        if (generation.get() != loadedAt) {
+            collections.invalidate(id);
+        }
+
+        return col;
+    }
+
+    /**
+     * Invalidate all cached entries affected by a committed change. Collections containing a changed item are
+     * invalidated too, since they serialize the names and counts of their items.
+     *
+     * @param event the InventoryChangeEvent describing the change
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onInventoryChange(InventoryChangeEvent event) {
+        generation.incrementAndGet();
+
+        Set<Long> affectedCollections = new HashSet<>(event.getCollectionIds());
+
+        for (long itemId : event.getItemIds()) {
+            items.invalidate(itemId);
+
+            Set<Long> containing = collectionsByItem.remove(itemId);
+            if (containing != null) {
+                affectedCollections.addAll(containing);
+            }
+        }
+
+        collections.invalidateAll(affectedCollections);
+    }
+
+    /**
+     * Get hit, miss and eviction counters for the item and collection caches
+     *
+     * @return a Map from cache name to a Map of counter names to values
+     */
+    public Map<String, Map<String, Object>> getStats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        stats.put("items", toMap(items.stats(), items.estimatedSize()));
+        stats.put("collections", toMap(collections.stats(), collections.estimatedSize()));
+        return stats;
+    }
+
+    /**
+     * Get the underlying item cache, for binding to metrics
+     *
+     * @return the Cache of items
+     */
+    public Cache<Long, Item> getItemCache() {
+        return items;
+    }
+
+    /**
+     * Get the underlying collection cache, for binding to metrics
+     *
+     * @return the Cache of collections
+     */
+    public Cache<Long, Collection> getCollectionCache() {
+        return collections;
+    }
+
+    /**
+     * Remove a collection that has left the cache from the index of its items. Replaced collections are skipped,
+     * since their replacement has already been indexed.
+     *
+     * @param id    the Long ID of the removed collection
+     * @param col   the removed Collection
+     * @param cause the RemovalCause of the removal
+     */
+    private void onCollectionRemoved(Long id, Collection col, RemovalCause cause) {
+        if (id == null || col == null || cause == RemovalCause.REPLACED) {
+            return;
+        }
+
+        for (Item item : col.getItems()) {
+            collectionsByItem.computeIfPresent(item.getId(), (itemId, containing) -> {
+                // the collection may have been cached again since it was removed
+                if (!collections.asMap().containsKey(id)) {
+                    containing.remove(id);
+                }
+                return containing.isEmpty() ? null : containing;
+            });
+        }
+    }
+
+    /**
+     * Load an entity from data at least as recent as every committed change, so that a replica lagging behind an
+     * invalidation cannot put a stale entity back in the cache
+     *
+     * @param loader the Loader of the entity
+     * @param <T>    the type of entity loaded
+     * @return the loaded entity
+     * @throws ResourceNotFoundException if the entity does not exist
+     */
+    private <T> T load(Loader<T> loader) throws ResourceNotFoundException {
+        long previous = ReadYourWrites.open(inventoryGeneration.current());
+
+        try {
+            return loader.load();
+        } finally {
+            ReadYourWrites.close(previous);
+        }
+    }
+
+    /**
+     * Convert cache statistics to a serializable map
+     *
+     * @param stats the CacheStats to convert
+     * @param size  a long representing the estimated number of entries in the cache
+     * @return a Map of counter names to values
+     */
+    private static Map<String, Object> toMap(CacheStats stats, long size) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("size", size);
+        map.put("hitCount", stats.hitCount());
+        map.put("missCount", stats.missCount());
+        map.put("hitRate", stats.hitRate());
+        map.put("evictionCount", stats.evictionCount());
+        return map;
+    }
+}
@@ -0,0 +1,101 @@
+package com.chwonghm.cache;
+
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+import com.chwonghm.event.CommitBuffer;
+import org.hibernate.Cache;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Evicts changes that Hibernate cannot see from its second-level cache. Hibernate keeps the cache up to date
+ * with changes it writes, but not with:
+ * <ul>
+ *     <li>writes made without Hibernate, such as those of the reactive stores over R2DBC</li>
+ *     <li>the item sets of collections, when items are placed in them from the item side only, as
+ *     {@link com.chwonghm.service.ItemService#createItems(java.util.List)} does</li>
+ * </ul>
+ * Evictions do nothing while the second-level cache is disabled.
+ *
+ * @author Charles Wong
+ */
+@Component
+public class SecondLevelCache {
+
+    /**
+     * The role of the collections of an item
+     */
+    private static final String ITEM_COLLECTIONS = Item.class.getName() + ".collections";
+
+    /**
+     * The role of the items of a collection
+     */
+    private static final String COLLECTION_ITEMS = Collection.class.getName() + ".items";
+
+    /**
+     * The second-level cache of the session factory
+     */
+    private final Cache cache;
+
+    /**
+     * The IDs of the collections whose item sets each transaction changed, evicted once it commits
+     */
+    private final CommitBuffer<Set<Long>> pendingCollectionItems =
+            new CommitBuffer<>(HashSet::new, this::evictCollectionItems);
+
+    /**
+     * Constructs this evictor.
+     *
+     * @param entityManagerFactory the EntityManagerFactory whose second-level cache to evict from
+     */
+    public SecondLevelCache(EntityManagerFactory entityManagerFactory) {
+        this.cache = entityManagerFactory.getCache().unwrap(Cache.class);
+    }
+
+    /**
+     * Evict items and collections changed without Hibernate, with their associations, and every cached query
+     * result. Called once the change has committed.
+     *
+     * @param itemIds       a Set of the IDs of the changed items
+     * @param collectionIds a Set of the IDs of the changed collections
+     */
+    public void evict(Set<Long> itemIds, Set<Long> collectionIds) {
+        for (long itemId : itemIds) {
+            cache.evictEntityData(Item.class, itemId);
+            cache.evictCollectionData(ITEM_COLLECTIONS, itemId);
+        }
+
+        for (long collectionId : collectionIds) {
+            cache.evictEntityData(Collection.class, collectionId);
+            cache.evictCollectionData(COLLECTION_ITEMS, collectionId);
+        }
+
+        cache.evictQueryRegions();
+    }
+
+    /**
+     * Evict the item sets of collections once the current transaction commits, or immediately outside of a
+     * transaction. Used after placing items in collections from the item side only.
+     *
+     * @param collectionIds a Set of the IDs of the collections
+     */
+    public void evictCollectionItemsOnCommit(Set<Long> collectionIds) {
+        if (!collectionIds.isEmpty()) {
+            pendingCollectionItems.add(ids -> ids.addAll(collectionIds));
+        }
+    }
+
+    /**
+     * Evict the item sets of collections
+     *
+     * @param collectionIds a Set of the IDs of the collections
+     */
+    private void evictCollectionItems(Set<Long> collectionIds) {
+        for (long collectionId : collectionIds) {
+            cache.evictCollectionData(COLLECTION_ITEMS, collectionId);
+        }
+    }
+}
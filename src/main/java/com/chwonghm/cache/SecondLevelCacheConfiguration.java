@@ -0,0 +1,130 @@
+package com.chwonghm.cache;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+import javax.persistence.SharedCacheMode;
+import java.net.URI;
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+/**
+ * Enables Hibernate's second-level cache and query cache, unless disabled with:
+ * <pre>
+ *     shopify-demo.second-level-cache.enabled: false
+ * </pre>
+ * Items, collections and both sides of their association are cached in regions of their own, declared on the
+ * entities. The regions are Caffeine caches reached through JCache, each bounded in size and expiring entries
+ * after a fixed time. Changes made outside Hibernate are evicted by {@link SecondLevelCache}.
+ * <p>
+ * This cache sits below {@link InventoryCache}: it keeps entity state rather than serialized entities, and
+ * serves every load by ID, lazy association and cacheable query, including those of writes.
+ *
+ * @author Charles Wong
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "shopify-demo.second-level-cache", name = "enabled", havingValue = "true",
+        matchIfMissing = true)
+public class SecondLevelCacheConfiguration {
+
+    /**
+     * The regions of cached entities
+     */
+    private static final String[] ENTITY_REGIONS = {"item", "collection"};
+
+    /**
+     * The regions of cached associations
+     */
+    private static final String[] ASSOCIATION_REGIONS = {"item.collections", "collection.items"};
+
+    /**
+     * The cache manager holding every region. Hibernate creates no caches of its own, and fails to start if a
+     * region declared on an entity is missing here.
+     * <p>
+     * The manager belongs to this application context alone, under a URI of its own. The provider's default
+     * manager is shared by the whole JVM, so a second context, such as a test's or a benchmark's, could neither
+     * create its regions nor close the manager without closing it for the others.
+     *
+     * @param entityMaximumSize      a long representing the maximum number of entries of each entity region
+     * @param associationMaximumSize a long representing the maximum number of entries of each association region
+     * @param queryMaximumSize       a long representing the maximum number of cached query results
+     * @param expireAfterWrite       the Duration after which a cached entry expires
+     * @return the JCache CacheManager
+     */
+    @Bean(destroyMethod = "close")
+    CacheManager secondLevelCacheManager(
+            @Value("${shopify-demo.second-level-cache.entity-maximum-size:10000}") long entityMaximumSize,
+            @Value("${shopify-demo.second-level-cache.association-maximum-size:10000}") long associationMaximumSize,
+            @Value("${shopify-demo.second-level-cache.query-maximum-size:1000}") long queryMaximumSize,
+            @Value("${shopify-demo.second-level-cache.expire-after-write:10m}") Duration expireAfterWrite) {
+        CachingProvider provider = Caching.getCachingProvider(CaffeineCachingProvider.class.getName());
+        CacheManager cacheManager = provider.getCacheManager(
+                URI.create("shopify-demo:second-level-cache:" + UUID.randomUUID()), provider.getDefaultClassLoader());
+
+        for (String region : ENTITY_REGIONS) {
+            cacheManager.createCache(region, region(OptionalLong.of(entityMaximumSize), expireAfterWrite));
+        }
+        for (String region : ASSOCIATION_REGIONS) {
+            cacheManager.createCache(region, region(OptionalLong.of(associationMaximumSize), expireAfterWrite));
+        }
+
+        cacheManager.createCache(RegionFactory.DEFAULT_QUERY_RESULTS_REGION_UNQUALIFIED_NAME,
+                region(OptionalLong.of(queryMaximumSize), expireAfterWrite));
+
+        // Hibernate requires the last update time of each table to outlive every query result read from it
+        cacheManager.createCache(RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME,
+                region(OptionalLong.empty(), null));
+
+        return cacheManager;
+    }
+
+    /**
+     * Enable the second-level cache and query cache of the Hibernate session factory, over the cache manager.
+     *
+     * @param secondLevelCacheManager the JCache CacheManager holding every region
+     * @return a HibernatePropertiesCustomizer enabling the caches
+     */
+    @Bean
+    HibernatePropertiesCustomizer secondLevelCacheCustomizer(CacheManager secondLevelCacheManager) {
+        return properties -> {
+            properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, true);
+            properties.put(AvailableSettings.USE_QUERY_CACHE, true);
+            properties.put(AvailableSettings.CACHE_REGION_FACTORY, "jcache");
+            properties.put(AvailableSettings.JPA_SHARED_CACHE_MODE, SharedCacheMode.ENABLE_SELECTIVE);
+            properties.put(ConfigSettings.CACHE_MANAGER, secondLevelCacheManager);
+            properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+        };
+    }
+
+    /**
+     * Build the configuration of a region
+     *
+     * @param maximumSize      an OptionalLong of the maximum number of entries, or empty for no bound
+     * @param expireAfterWrite the Duration after which an entry expires, or null for no expiry
+     * @return the CaffeineConfiguration of the region
+     */
+    private static CaffeineConfiguration<Object, Object> region(OptionalLong maximumSize, Duration expireAfterWrite) {
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        // Hibernate already caches disassembled state, which is never modified, so entries are not copied
+        configuration.setStoreByValue(false);
+        configuration.setMaximumSize(maximumSize);
+
+        if (expireAfterWrite != null) {
+            configuration.setExpireAfterWrite(OptionalLong.of(expireAfterWrite.toNanos()));
+        }
+
+        return configuration;
+    }
+}
@@ -0,0 +1,121 @@
+package com.chwonghm.codec;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Configures how responses are serialized. Besides JSON, every endpoint serves CBOR (application/cbor) and Smile
+ * (application/x-jackson-smile) to clients asking for them with an Accept header, and reads request bodies in
+ * either format. The binary formats are written by mappers built like the application ObjectMapper, so they
+ * honour the same JSON views and modules.
+ * <p>
+ * Property accessors of serialized classes are generated at runtime by Jackson's Blackbird module, instead of
+ * being called through reflection, unless disabled with:
+ * <pre>
+ *     shopify-demo.serialization.blackbird: false
+ * </pre>
+ *
+ * @author Charles Wong
+ */
+@Configuration
+public class CodecConfiguration {
+
+    /**
+     * Generate property accessors with lambdas. Spring Boot registers every Module bean with the mappers it
+     * builds.
+     *
+     * @return the BlackbirdModule
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "shopify-demo.serialization", name = "blackbird", havingValue = "true",
+            matchIfMissing = true)
+    Module blackbirdModule() {
+        return new BlackbirdModule();
+    }
+
+    /**
+     * Read and write CBOR on the servlet stack.
+     *
+     * @param builder a Jackson2ObjectMapperBuilder configured like the application ObjectMapper
+     * @return the MappingJackson2CborHttpMessageConverter
+     */
+    @Bean
+    @Profile("!reactive")
+    MappingJackson2CborHttpMessageConverter cborConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(cborMapper(builder));
+    }
+
+    /**
+     * Read and write Smile on the servlet stack.
+     *
+     * @param builder a Jackson2ObjectMapperBuilder configured like the application ObjectMapper
+     * @return the MappingJackson2SmileHttpMessageConverter
+     */
+    @Bean
+    @Profile("!reactive")
+    MappingJackson2SmileHttpMessageConverter smileConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(smileMapper(builder));
+    }
+
+    /**
+     * Read and write CBOR and Smile on the reactive stack. WebFlux registers a Smile codec of its own, built
+     * without the application's configuration, which is replaced.
+     *
+     * @param builder a Jackson2ObjectMapperBuilder configured like the application ObjectMapper
+     * @return a CodecCustomizer registering the codecs
+     */
+    @Bean
+    @Profile("reactive")
+    CodecCustomizer binaryCodecCustomizer(Jackson2ObjectMapperBuilder builder) {
+        ObjectMapper cborMapper = cborMapper(builder);
+        ObjectMapper smileMapper = smileMapper(builder);
+
+        return configurer -> {
+            configurer.defaultCodecs().jackson2SmileEncoder(new Jackson2SmileEncoder(smileMapper));
+            configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smileMapper));
+            configurer.customCodecs().register(new Jackson2CborEncoder(cborMapper));
+            configurer.customCodecs().register(new Jackson2CborDecoder(cborMapper));
+        };
+    }
+
+    /**
+     * Build a mapper writing CBOR
+     *
+     * @param builder the Jackson2ObjectMapperBuilder to build with
+     * @return the CBOR ObjectMapper
+     */
+    private static ObjectMapper cborMapper(Jackson2ObjectMapperBuilder builder) {
+        return builder.factory(new CBORFactory()).build();
+    }
+
+    /**
+     * Build a mapper writing Smile. Repeated short string values, such as the type of every item and collection,
+     * are written as back references to their first occurrence.
+     *
+     * @param builder the Jackson2ObjectMapperBuilder to build with
+     * @return the Smile ObjectMapper
+     */
+    private static ObjectMapper smileMapper(Jackson2ObjectMapperBuilder builder) {
+        SmileFactory factory = SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build();
+
+        return builder.factory(factory).build();
+    }
+}
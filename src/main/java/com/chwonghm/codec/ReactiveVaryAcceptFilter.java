@@ -0,0 +1,25 @@
+package com.chwonghm.codec;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * The reactive counterpart of {@link VaryAcceptFilter}, marking every response as varying with the Accept header.
+ *
+ * @author Charles Wong
+ */
+@Component
+@Profile("reactive")
+public class ReactiveVaryAcceptFilter implements WebFilter {
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        exchange.getResponse().getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        return chain.filter(exchange);
+    }
+}
@@ -2,15 +2,28 @@ package com.chwonghm.controller;
 
 import com.chwonghm.entity.Collection;
 import com.chwonghm.entity.Item;
+import com.chwonghm.event.InventoryGeneration;
+import com.chwonghm.exception.InvalidRequestException;
 import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.repository.CollectionStats;
+import com.chwonghm.service.CollectionDeletion;
+import com.chwonghm.service.CollectionDeletions;
 import com.chwonghm.service.CollectionService;
+import com.chwonghm.service.KeysetPage;
 import com.fasterxml.jackson.annotation.JsonView;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpStatus;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.PositiveOrZero;
+import javax.validation.constraints.Size;
 import java.util.List;
 
 /**
@@ -19,6 +32,10 @@ import java.util.List;
  * <ul>
  *     <li>api/collection</li>
  *     <li>api/collection/all</li>
+ *     <li>api/collection/deletion</li>
+ *     <li>api/collection/query</li>
+ *     <li>api/collection/query/count</li>
+ *     <li>api/collection/stats</li>
  *     <li>api/item/collection</li>
  * </ul>
  *
@@ -27,6 +44,7 @@ import java.util.List;
 @CrossOrigin
 @RestController
 @Validated
+@Profile("!reactive")
 public class CollectionController {
 
     /**
@@ -34,6 +52,16 @@ public class CollectionController {
      */
     private final CollectionService collectionService;
 
+    /**
+     * Runs background deletions of collections
+     */
+    private final CollectionDeletions collectionDeletions;
+
+    /**
+     * The inventory generation used to tag responses
+     */
+    private final InventoryGeneration inventoryGeneration;
+
     /**
      * Constructs this collection controller given a CollectionService.
      * <p>
@@ -41,32 +69,168 @@ public class CollectionController {
      * constructor of a class.
      *
      * @param collectionService an collectionService used to provide logic for this controller
+     * @param collectionDeletions a CollectionDeletions to run background deletions with
+     * @param inventoryGeneration an InventoryGeneration used to tag responses
      */
-    public CollectionController(CollectionService collectionService) {
+    public CollectionController(CollectionService collectionService, CollectionDeletions collectionDeletions,
+                                InventoryGeneration inventoryGeneration) {
         this.collectionService = collectionService;
+        this.collectionDeletions = collectionDeletions;
+        this.inventoryGeneration = inventoryGeneration;
     }
 
     /**
-     * Get all saved collections
+     * Get a page of saved collections, ordered by ID. The next page is fetched by passing the
+     * nextCursor of the returned page as the cursor parameter.
+     * <p>
+     * Responses are tagged with the current inventory generation. If the request's If-None-Match header
+     * matches, 304 NOT_MODIFIED is returned without querying the database.
+     * <p>
+     * The following validation strategies apply:
+     * <ul>
+     *     <li>limit must be between 1 and 500</li>
+     *     <li>minCount and maxCount must be positive or zero</li>
+     * </ul>
      *
-     * @return a List of all saved collections
+     * @param cursor   the cursor of the page to fetch, or null for the first page
+     * @param limit    the maximum number of collections to return
+     * @param prefix   a name prefix to filter collections by, or null
+     * @param minCount the minimum number of items (inclusive) to filter collections by, or null
+     * @param maxCount the maximum number of items (inclusive) to filter collections by, or null
+     * @param request  the WebRequest being handled
+     * @return a page of saved collections, or null if not modified
+     * @throws InvalidRequestException if the provided cursor is malformed
      */
     @JsonView(Views.Item.class)
     @GetMapping("api/collection/all")
-    public List<Collection> getAllCollections() {
-        return this.collectionService.getAllCollections();
+    public KeysetPage<Collection> getAllCollections(@RequestParam(value = "cursor", required = false) String cursor,
+                                                    @RequestParam(value = "limit", defaultValue = "50") @Min(1) @Max(500) int limit,
+                                                    @RequestParam(value = "prefix", required = false) String prefix,
+                                                    @RequestParam(value = "minCount", required = false) @PositiveOrZero Integer minCount,
+                                                    @RequestParam(value = "maxCount", required = false) @PositiveOrZero Integer maxCount,
+                                                    WebRequest request)
+            throws InvalidRequestException {
+        if (request.checkNotModified(ETags.ofGeneration(inventoryGeneration))) {
+            return null;
+        }
+
+        return this.collectionService.getAllCollections(cursor, limit, prefix, minCount, maxCount);
+    }
+
+    /**
+     * Get the stock totals of a page of collections, ordered by ID: for each collection, its number of items,
+     * the total, smallest and largest count of its items, and how many of them are out of stock. The totals are
+     * aggregated by the database, so no items are returned. The next page is fetched by passing the nextCursor of
+     * the returned page as the cursor parameter.
+     * <p>
+     * Responses are tagged with the current inventory generation. If the request's If-None-Match header
+     * matches, 304 NOT_MODIFIED is returned without querying the database.
+     * <p>
+     * The following validation strategies apply:
+     * <ul>
+     *     <li>limit must be between 1 and 500</li>
+     * </ul>
+     *
+     * @param cursor  the cursor of the page to fetch, or null for the first page
+     * @param limit   the maximum number of collections to return
+     * @param prefix  a name prefix to filter collections by, or null
+     * @param request the WebRequest being handled
+     * @return a page of collection stats, or null if not modified
+     * @throws InvalidRequestException if the provided cursor is malformed
+     */
+    @GetMapping("api/collection/stats")
+    public KeysetPage<CollectionStats> getCollectionStats(@RequestParam(value = "cursor", required = false) String cursor,
+                                                          @RequestParam(value = "limit", defaultValue = "50") @Min(1) @Max(500) int limit,
+                                                          @RequestParam(value = "prefix", required = false) String prefix,
+                                                          WebRequest request)
+            throws InvalidRequestException {
+        if (request.checkNotModified(ETags.ofGeneration(inventoryGeneration))) {
+            return null;
+        }
+
+        return this.collectionService.getCollectionStats(cursor, limit, prefix);
+    }
+
+    /**
+     * Get a page of the IDs of the items matching a set expression over collections, ordered by ID. Collections
+     * are referred to by ID, and combined with '&amp;' (intersection), '|' (union), '-' (difference) and
+     * parentheses; '&amp;' binds tightest. For example, {@code (1 | 2) & 3 - 4} matches the items in collection 3
+     * and in collection 1 or 2, but not in collection 4. The next page is fetched by passing the nextCursor of
+     * the returned page as the cursor parameter.
+     * <p>
+     * Responses are tagged with the current inventory generation. If the request's If-None-Match header
+     * matches, 304 NOT_MODIFIED is returned without evaluating the expression.
+     * <p>
+     * The following validation strategies apply:
+     * <ul>
+     *     <li>expr must not be blank, and at most 1000 characters long</li>
+     *     <li>limit must be between 1 and 10000</li>
+     * </ul>
+     *
+     * @param expr    the set expression to evaluate
+     * @param cursor  the cursor of the page to fetch, or null for the first page
+     * @param limit   the maximum number of item IDs to return
+     * @param request the WebRequest being handled
+     * @return a page of matching item IDs, or null if not modified
+     * @throws InvalidRequestException   if the expression or the provided cursor is malformed
+     * @throws ResourceNotFoundException if the expression refers to a collection that does not exist
+     */
+    @GetMapping("api/collection/query")
+    public KeysetPage<Long> getItemIdsMatching(@RequestParam("expr") @NotBlank @Size(max = 1000) String expr,
+                                               @RequestParam(value = "cursor", required = false) String cursor,
+                                               @RequestParam(value = "limit", defaultValue = "1000") @Min(1) @Max(10000) int limit,
+                                               WebRequest request)
+            throws InvalidRequestException, ResourceNotFoundException {
+        if (request.checkNotModified(ETags.ofGeneration(inventoryGeneration))) {
+            return null;
+        }
+
+        return this.collectionService.getItemIdsMatching(expr, cursor, limit);
+    }
+
+    /**
+     * Count the items matching a set expression over collections, as described for
+     * {@link #getItemIdsMatching(String, String, int, WebRequest)}.
+     * <p>
+     * Responses are tagged with the current inventory generation. If the request's If-None-Match header
+     * matches, 304 NOT_MODIFIED is returned without evaluating the expression.
+     *
+     * @param expr    the set expression to evaluate
+     * @param request the WebRequest being handled
+     * @return the number of matching items, or null if not modified
+     * @throws InvalidRequestException   if the expression is malformed
+     * @throws ResourceNotFoundException if the expression refers to a collection that does not exist
+     */
+    @GetMapping("api/collection/query/count")
+    public Long countItemsMatching(@RequestParam("expr") @NotBlank @Size(max = 1000) String expr,
+                                   WebRequest request)
+            throws InvalidRequestException, ResourceNotFoundException {
+        if (request.checkNotModified(ETags.ofGeneration(inventoryGeneration))) {
+            return null;
+        }
+
+        return this.collectionService.countItemsMatching(expr);
     }
 
     /**
      * Get a collection by ID.
+     * <p>
+     * Since a collection includes its items, responses are tagged with the current inventory generation
+     * rather than the version of the collection. If the request's If-None-Match header matches,
+     * 304 NOT_MODIFIED is returned without querying the database.
      *
-     * @param id a long representing the ID of the collection to fetch
-     * @return the collection with the corresponding ID
+     * @param id      a long representing the ID of the collection to fetch
+     * @param request the WebRequest being handled
+     * @return the collection with the corresponding ID, or null if not modified
      * @throws ResourceNotFoundException if the provided ID does not match an existing collection
      */
     @JsonView(Views.Collection.class)
     @GetMapping("api/collection")
-    public Collection getCollection(@RequestParam("id") long id) throws ResourceNotFoundException {
+    public Collection getCollection(@RequestParam("id") long id, WebRequest request) throws ResourceNotFoundException {
+        if (request.checkNotModified(ETags.ofGeneration(inventoryGeneration))) {
+            return null;
+        }
+
         return this.collectionService.getCollection(id);
     }
 
@@ -89,6 +253,35 @@ public class CollectionController {
         this.collectionService.deleteCollection(id);
     }
 
+    /**
+     * Start deleting a collection in the background. Its items are removed in chunks, each committed on its
+     * own, before the collection itself is deleted; use this rather than DELETE api/collection for collections
+     * too large to empty in a single transaction. If the collection is already being deleted, the existing job
+     * is returned.
+     *
+     * @param id a long representing the ID of the collection to delete
+     * @return the queued or running deletion job
+     * @throws ResourceNotFoundException if the provided ID does not match an existing collection
+     */
+    @ResponseStatus(value = HttpStatus.ACCEPTED)
+    @PostMapping("api/collection/deletion")
+    public CollectionDeletion startCollectionDeletion(@RequestParam("id") long id) throws ResourceNotFoundException {
+        return this.collectionDeletions.submit(id);
+    }
+
+    /**
+     * Get the progress of a background collection deletion. Finished jobs are only kept for a while.
+     *
+     * @param jobId a long representing the ID of the deletion job
+     * @return the deletion job
+     * @throws ResourceNotFoundException if the provided ID does not match a current or recent job
+     */
+    @GetMapping("api/collection/deletion")
+    public CollectionDeletion getCollectionDeletion(@RequestParam("jobId") long jobId)
+            throws ResourceNotFoundException {
+        return this.collectionDeletions.getJob(jobId);
+    }
+
     /**
      * Place an item in collections, by specifying an item ID, and providing a list of collection IDs in
      * the request body. All provided IDs must match existing data entries, otherwise no changes are made.
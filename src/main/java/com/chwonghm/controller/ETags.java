@@ -0,0 +1,49 @@
+package com.chwonghm.controller;
+
+import com.chwonghm.entity.Item;
+import com.chwonghm.event.InventoryGeneration;
+import com.chwonghm.replica.ReadYourWrites;
+
+/**
+ * Utility methods for computing the entity tags of responses.
+ * <p>
+ * Tags are weak: a response may be sent as JSON, CBOR or Smile, compressed or not, and each of those
+ * representations carries the same tag. Conditional GETs compare tags weakly, so they are unaffected, and
+ * servers only compress responses whose tags are weak.
+ *
+ * @author Charles Wong
+ */
+class ETags {
+
+    /**
+     * Compute the entity tag of a response that may depend on any inventory data, such as a listing.
+     * <p>
+     * The generation is read before the response is built, so a change committed while building it
+     * always produces a different tag for the next request. When reads are served by replicas, the rest of the
+     * request only reads replicas that have caught up with the generation, so that the tag never labels
+     * older data.
+     *
+     * @param generation the InventoryGeneration to tag the response with
+     * @return the weak entity tag
+     */
+    static String ofGeneration(InventoryGeneration generation) {
+        long current = generation.current();
+        ReadYourWrites.require(current);
+
+        return String.format("W/\"g%d-%d\"", generation.getEpoch(), current);
+    }
+
+    /**
+     * Compute the entity tag of a response containing a single item. Every change that affects how an item
+     * is serialized increments the item's version, except adjustments to a hot item's in-memory count, so the
+     * count is part of the tag too.
+     *
+     * @param generation the InventoryGeneration identifying this run of the application
+     * @param item       the Item in the response
+     * @return the weak entity tag
+     */
+    static String ofItem(InventoryGeneration generation, Item item) {
+        return String.format("W/\"i%d-%d-%d-%d\"", generation.getEpoch(), item.getId(), item.getVersion(),
+                item.getCount());
+    }
+}
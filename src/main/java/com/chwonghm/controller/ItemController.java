@@ -1,17 +1,41 @@
 package com.chwonghm.controller;
 
+import com.chwonghm.counter.HotCounters;
 import com.chwonghm.entity.Item;
+import com.chwonghm.event.InventoryGeneration;
+import com.chwonghm.exception.InsufficientStockException;
+import com.chwonghm.exception.InvalidRequestException;
 import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.service.BatchItemResult;
+import com.chwonghm.service.ItemCount;
+import com.chwonghm.service.ImportReport;
+import com.chwonghm.service.ItemExporter;
+import com.chwonghm.service.ItemImporter;
 import com.chwonghm.service.ItemService;
+import com.chwonghm.service.KeysetPage;
+import com.chwonghm.service.NewItem;
 import com.fasterxml.jackson.annotation.JsonView;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.PositiveOrZero;
+import javax.validation.constraints.Size;
+import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Spring REST controller defining endpoints related to inventory item management. The following
@@ -19,6 +43,12 @@ import java.util.List;
  * <ul>
  *     <li>api/item</li>
  *     <li>api/item/all</li>
+ *     <li>api/item/batch</li>
+ *     <li>api/item/count/delta</li>
+ *     <li>api/item/export</li>
+ *     <li>api/item/hot</li>
+ *     <li>api/item/import</li>
+ *     <li>api/item/search</li>
  * </ul>
  *
  * @author Charles Wong
@@ -26,13 +56,55 @@ import java.util.List;
 @CrossOrigin
 @RestController
 @Validated
+@Profile("!reactive")
 public class ItemController {
 
+    /**
+     * The media type of JSON Merge Patch documents, as defined by RFC 7396
+     */
+    private static final String MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+
+    /**
+     * The media type of newline-delimited JSON documents
+     */
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+
+    /**
+     * The media type of comma-separated values documents
+     */
+    private static final String CSV_VALUE = "text/csv";
+
+    /**
+     * The largest amount a single request may add to or remove from a count, far enough from the range of a BIGINT
+     * that an adjustment cannot overflow it
+     */
+    private static final long MAX_DELTA = Integer.MAX_VALUE;
+
     /**
      * An item Service to delegate logic to.
      */
     private final ItemService itemService;
 
+    /**
+     * The inventory generation used to tag responses
+     */
+    private final InventoryGeneration inventoryGeneration;
+
+    /**
+     * An item exporter to stream exports from
+     */
+    private final ItemExporter itemExporter;
+
+    /**
+     * An item importer to stream imports to
+     */
+    private final ItemImporter itemImporter;
+
+    /**
+     * In-memory counts of hot items
+     */
+    private final HotCounters hotCounters;
+
     /**
      * Constructs this item controller given an ItemService.
      * <p>
@@ -40,9 +112,18 @@ public class ItemController {
      * constructor of a class.
      *
      * @param itemService an ItemService used to provide logic for this controller
+     * @param inventoryGeneration an InventoryGeneration used to tag responses
+     * @param itemExporter an ItemExporter used to export all items
+     * @param itemImporter an ItemImporter used to import items in bulk
+     * @param hotCounters HotCounters used to promote and demote hot items
      */
-    public ItemController(ItemService itemService) {
+    public ItemController(ItemService itemService, InventoryGeneration inventoryGeneration,
+                          ItemExporter itemExporter, ItemImporter itemImporter, HotCounters hotCounters) {
         this.itemService = itemService;
+        this.inventoryGeneration = inventoryGeneration;
+        this.itemExporter = itemExporter;
+        this.itemImporter = itemImporter;
+        this.hotCounters = hotCounters;
     }
 
     /**
@@ -65,6 +146,28 @@ public class ItemController {
         return itemService.createItem(payload.name);
     }
 
+    /**
+     * Create many inventory items in a single request. Each item may specify a name, an initial count and
+     * the IDs of collections to place it in.
+     * <p>
+     * The following validation strategies apply:
+     * <ul>
+     *     <li>between 1 and 10000 items must be provided</li>
+     *     <li>each item must have a name</li>
+     *     <li>each item count must be positive or zero, if provided</li>
+     *     <li>each collection ID must match an existing collection</li>
+     * </ul>
+     * <p>
+     * Items failing validation are reported in the response and not created; all other items are created.
+     *
+     * @param items the List of NewItems of the request
+     * @return a List of results, one for each provided item and in the same order
+     */
+    @PostMapping("api/item/batch")
+    public List<BatchItemResult> createItems(@RequestBody @NotEmpty @Size(max = 10000) List<NewItem> items) {
+        return itemService.createItems(items);
+    }
+
     /**
      * Delete the inventory item with the provided ID
      *
@@ -78,20 +181,179 @@ public class ItemController {
     }
 
     /**
-     * Get all stored inventory items
+     * Get a page of stored inventory items, ordered by ID. The next page is fetched by passing the
+     * nextCursor of the returned page as the cursor parameter.
+     * <p>
+     * Responses are tagged with the current inventory generation. If the request's If-None-Match header
+     * matches, 304 NOT_MODIFIED is returned without querying the database.
+     * <p>
+     * The following validation strategies apply:
+     * <ul>
+     *     <li>limit must be between 1 and 500</li>
+     *     <li>minCount and maxCount must be positive or zero</li>
+     * </ul>
      *
-     * @return a List of all stored inventory items
+     * @param cursor   the cursor of the page to fetch, or null for the first page
+     * @param limit    the maximum number of items to return
+     * @param prefix   a name prefix to filter items by, or null
+     * @param minCount the minimum item count (inclusive) to filter items by, or null
+     * @param maxCount the maximum item count (inclusive) to filter items by, or null
+     * @param request  the WebRequest being handled
+     * @return a page of stored inventory items, or null if not modified
+     * @throws InvalidRequestException if the provided cursor is malformed
      */
     @GetMapping("api/item/all")
     @JsonView(Views.Item.class)
-    public List<Item> getAllItems() {
-        return itemService.getAllItems();
+    public KeysetPage<Item> getAllItems(@RequestParam(value = "cursor", required = false) String cursor,
+                                        @RequestParam(value = "limit", defaultValue = "50") @Min(1) @Max(500) int limit,
+                                        @RequestParam(value = "prefix", required = false) String prefix,
+                                        @RequestParam(value = "minCount", required = false) @PositiveOrZero Long minCount,
+                                        @RequestParam(value = "maxCount", required = false) @PositiveOrZero Long maxCount,
+                                        WebRequest request)
+            throws InvalidRequestException {
+        if (request.checkNotModified(ETags.ofGeneration(inventoryGeneration))) {
+            return null;
+        }
+
+        return itemService.getAllItems(cursor, limit, prefix, minCount, maxCount);
+    }
+
+    /**
+     * Search inventory items by name, best match first. Each word of the query must match a word of the item's
+     * name, either exactly, as a prefix, as a substring, or with a typo. The next page is fetched by passing the
+     * nextCursor of the returned page as the cursor parameter.
+     * <p>
+     * Responses are tagged with the current inventory generation. If the request's If-None-Match header
+     * matches, 304 NOT_MODIFIED is returned without searching.
+     * <p>
+     * The following validation strategies apply:
+     * <ul>
+     *     <li>q must not be blank, and at most 200 characters long</li>
+     *     <li>limit must be between 1 and 100</li>
+     * </ul>
+     *
+     * @param q       the query to search for
+     * @param cursor  the cursor of the page to fetch, or null for the first page
+     * @param limit   the maximum number of items to return
+     * @param request the WebRequest being handled
+     * @return a page of matching inventory items, or null if not modified
+     * @throws InvalidRequestException if search is disabled, or the provided cursor is malformed
+     */
+    @GetMapping("api/item/search")
+    @JsonView(Views.Item.class)
+    public KeysetPage<Item> searchItems(@RequestParam("q") @NotBlank @Size(max = 200) String q,
+                                        @RequestParam(value = "cursor", required = false) String cursor,
+                                        @RequestParam(value = "limit", defaultValue = "20") @Min(1) @Max(100) int limit,
+                                        WebRequest request)
+            throws InvalidRequestException {
+        if (request.checkNotModified(ETags.ofGeneration(inventoryGeneration))) {
+            return null;
+        }
+
+        return itemService.searchItems(q, cursor, limit);
+    }
+
+    /**
+     * Export every stored inventory item, along with its collections, as newline-delimited JSON ordered by ID.
+     * Each line has the same form as an item returned by api/item.
+     * <p>
+     * Items are streamed from the database to the response as they are read, so the export uses a constant
+     * amount of memory however many items are stored.
+     *
+     * @param response the HttpServletResponse to stream the export to
+     * @throws IOException if writing to the response fails
+     */
+    @GetMapping(value = "api/item/export", produces = NDJSON_VALUE)
+    public void exportItems(HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        itemExporter.exportItems(response.getOutputStream());
+    }
+
+    /**
+     * Import inventory items from a CSV request body. The body must start with a header naming its columns:
+     * name (required), count and collections, where collections are names separated by '|'.
+     * <p>
+     * See {@link #importItems(HttpServletRequest, ItemImporter.Format, int, long)} for how the import is run.
+     *
+     * @param request   the HttpServletRequest to read the body from
+     * @param chunkSize an int representing the number of lines committed per transaction
+     * @param skip      a long representing the number of data lines to skip, used to resume an import
+     * @return a report of the import
+     * @throws IOException if reading the request body fails
+     */
+    @PostMapping(value = "api/item/import", consumes = CSV_VALUE)
+    public ResponseEntity<ImportReport> importCsv(HttpServletRequest request,
+                                                  @RequestParam(value = "chunkSize", defaultValue = "1000") @Min(1) @Max(10000) int chunkSize,
+                                                  @RequestParam(value = "skip", defaultValue = "0") @PositiveOrZero long skip)
+            throws IOException {
+        return importItems(request, ItemImporter.Format.CSV, chunkSize, skip);
+    }
+
+    /**
+     * Import inventory items from a newline-delimited JSON request body. Each line must be an object with a
+     * name, and optionally a count, collections by name and collectionIds.
+     * <p>
+     * See {@link #importItems(HttpServletRequest, ItemImporter.Format, int, long)} for how the import is run.
+     *
+     * @param request   the HttpServletRequest to read the body from
+     * @param chunkSize an int representing the number of lines committed per transaction
+     * @param skip      a long representing the number of data lines to skip, used to resume an import
+     * @return a report of the import
+     * @throws IOException if reading the request body fails
+     */
+    @PostMapping(value = "api/item/import", consumes = NDJSON_VALUE)
+    public ResponseEntity<ImportReport> importNdjson(HttpServletRequest request,
+                                                     @RequestParam(value = "chunkSize", defaultValue = "1000") @Min(1) @Max(10000) int chunkSize,
+                                                     @RequestParam(value = "skip", defaultValue = "0") @PositiveOrZero long skip)
+            throws IOException {
+        return importItems(request, ItemImporter.Format.NDJSON, chunkSize, skip);
     }
 
+    /**
+     * Import inventory items from a request body. The body is read as it arrives and committed every chunkSize
+     * lines, so arbitrarily large bodies can be imported in constant memory. Lines that cannot be imported are
+     * listed in the report and skipped.
+     * <p>
+     * If the import stops early, 500 INTERNAL_SERVER_ERROR is returned with a report whose committedOffset can
+     * be passed back as skip, along with the same body, to resume the import.
+     *
+     * @param request   the HttpServletRequest to read the body from
+     * @param format    the Format of the body
+     * @param chunkSize an int representing the number of lines committed per transaction
+     * @param skip      a long representing the number of data lines to skip
+     * @return a report of the import
+     * @throws IOException if reading the request body fails
+     */
+    private ResponseEntity<ImportReport> importItems(HttpServletRequest request, ItemImporter.Format format,
+                                                     int chunkSize, long skip) throws IOException {
+        ImportReport report = itemImporter.importItems(request.getInputStream(), format, chunkSize, skip);
+
+        return ResponseEntity.status(report.isCompleted() ? HttpStatus.OK : HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(report);
+    }
+
+    /**
+     * Get an inventory item by ID.
+     * <p>
+     * Responses are tagged with the version of the item. If the request's If-None-Match header matches,
+     * 304 NOT_MODIFIED is returned without serializing the item.
+     *
+     * @param id      a long representing the ID of the item to fetch
+     * @param request the WebRequest being handled
+     * @return the item with the corresponding ID, or null if not modified
+     * @throws ResourceNotFoundException if the provided ID does not match an existing item
+     */
     @GetMapping("api/item")
     @JsonView(Views.Item.class)
-    public Item getItem(@RequestParam("id") long id) throws ResourceNotFoundException {
-        return itemService.getItem(id);
+    public Item getItem(@RequestParam("id") long id, WebRequest request) throws ResourceNotFoundException {
+        Item item = itemService.getItem(id);
+
+        if (request.checkNotModified(ETags.ofItem(inventoryGeneration, item))) {
+            return null;
+        }
+
+        return item;
     }
 
     /**
@@ -106,8 +368,98 @@ public class ItemController {
     @Validated(EditGroup.class)
     @JsonView(Views.Item.class)
     public Item editItem(@RequestParam("id") long id, @Valid @RequestBody ItemPayload payload) throws ResourceNotFoundException {
-        itemService.editItemName(payload.name, id);
-        return itemService.editItemCount(payload.count, id);
+        return itemService.editItem(payload.name, payload.count, id);
+    }
+
+    /**
+     * Edit details of an inventory item with a JSON Merge Patch (RFC 7396) document. Only the fields present in
+     * the patch are changed, and all changes are applied in a single transaction.
+     * <p>
+     * The following validation strategies apply:
+     * <ul>
+     *     <li>the patch must be a JSON object</li>
+     *     <li>name, if present, must be a string</li>
+     *     <li>count, if present, must be an integer that is positive or zero</li>
+     *     <li>no other fields may be present</li>
+     * </ul>
+     * <p>
+     * Since both fields are required properties of an item, neither may be removed by patching it to null.
+     *
+     * @param id    a long representing the ID of the item to edit
+     * @param patch the merge patch document of the request
+     * @return the newly edited inventory item
+     * @throws ResourceNotFoundException if the provided ID does not match an existing item
+     * @throws InvalidRequestException   if the patch is not a valid patch for an item
+     */
+    @PatchMapping(value = "api/item", consumes = MERGE_PATCH_JSON_VALUE)
+    @JsonView(Views.Item.class)
+    public Item patchItem(@RequestParam("id") long id, @RequestBody JsonNode patch)
+            throws ResourceNotFoundException, InvalidRequestException {
+        ItemPatch itemPatch = ItemPatch.parse(patch);
+
+        return itemService.editItem(itemPatch.name, itemPatch.count, id);
+    }
+
+    /**
+     * Atomically add a delta to the count of an inventory item. A negative delta removes stock; the request
+     * is rejected if the item does not have enough stock, and the item is left unchanged.
+     * <p>
+     * The following validation strategies apply:
+     * <ul>
+     *     <li>delta must be provided</li>
+     *     <li>delta must be between -2147483647 and 2147483647, inclusive</li>
+     * </ul>
+     * <p>
+     * All other provided fields are ignored.
+     *
+     * @param id      a long representing the ID of the item to edit
+     * @param payload the ItemPayload of the request
+     * @return the ID and new count of the item
+     * @throws ResourceNotFoundException  if the provided ID does not match an existing item
+     * @throws InsufficientStockException if the delta would make the item's count negative
+     */
+    @PostMapping("api/item/count/delta")
+    @Validated(DeltaGroup.class)
+    public ItemCount adjustItemCount(@RequestParam("id") long id, @Valid @RequestBody ItemPayload payload)
+            throws ResourceNotFoundException, InsufficientStockException {
+        return itemService.adjustItemCount(payload.delta, id);
+    }
+
+    /**
+     * Get the IDs of all hot items, whose counts are held in memory
+     *
+     * @return a Set of longs representing the IDs of all hot items
+     */
+    @GetMapping("api/item/hot")
+    public Set<Long> getHotItems() {
+        return hotCounters.getHotItemIds();
+    }
+
+    /**
+     * Make an inventory item hot, holding its count in memory so that concurrent count adjustments do not queue
+     * on its row. If the item is already hot, no change is made.
+     *
+     * @param id a long representing the ID of the item to make hot
+     * @return the ID and count of the item when it was made hot
+     * @throws ResourceNotFoundException if the provided ID does not match an existing item
+     * @throws InvalidRequestException   if hot counters are disabled
+     */
+    @PutMapping("api/item/hot")
+    public ItemCount promoteItem(@RequestParam("id") long id) throws ResourceNotFoundException, InvalidRequestException {
+        return hotCounters.promote(id);
+    }
+
+    /**
+     * Stop holding the count of an inventory item in memory, writing it back first. If the item is not hot,
+     * no change is made.
+     *
+     * @param id a long representing the ID of the item to demote
+     * @throws InvalidRequestException if hot counters are disabled
+     */
+    @DeleteMapping("api/item/hot")
+    @ResponseStatus(value = HttpStatus.NO_CONTENT)
+    public void demoteItem(@RequestParam("id") long id) throws InvalidRequestException {
+        hotCounters.demote(id);
     }
 
     /**
@@ -122,6 +474,12 @@ public class ItemController {
     private interface EditGroup {
     }
 
+    /**
+     * Used to specify the validation strategies for adjust item count
+     */
+    private interface DeltaGroup {
+    }
+
     /**
      * This class defines all possible request payload parameters for endpoints in this controller. Through
      * the use of validation groups, this then allows for input validation for individual endpoints.
@@ -140,6 +498,14 @@ public class ItemController {
         @PositiveOrZero(groups = EditGroup.class)
         private Long count;
 
+        /**
+         * Amount to add to the count of an item
+         */
+        @NotNull(groups = DeltaGroup.class)
+        @Min(value = -MAX_DELTA, groups = DeltaGroup.class)
+        @Max(value = MAX_DELTA, groups = DeltaGroup.class)
+        private Long delta;
+
         /**
          * Set the name field of the payload
          *
@@ -157,5 +523,14 @@ public class ItemController {
         public void setCount(Long count) {
             this.count = count;
         }
+
+        /**
+         * Set the delta field of the payload
+         *
+         * @param delta the Long delta to set
+         */
+        public void setDelta(Long delta) {
+            this.delta = delta;
+        }
     }
 }
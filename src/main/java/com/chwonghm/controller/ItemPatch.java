@@ -0,0 +1,79 @@
+package com.chwonghm.controller;
+
+import com.chwonghm.exception.InvalidRequestException;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The changes described by a JSON Merge Patch (RFC 7396) document for an inventory item.
+ *
+ * @author Charles Wong
+ */
+class ItemPatch {
+
+    /**
+     * The patched name, or null if unchanged
+     */
+    final String name;
+
+    /**
+     * The patched count, or null if unchanged
+     */
+    final Long count;
+
+    private ItemPatch(String name, Long count) {
+        this.name = name;
+        this.count = count;
+    }
+
+    /**
+     * Parse a merge patch document for an item.
+     * <p>
+     * The following validation strategies apply:
+     * <ul>
+     *     <li>the patch must be a JSON object</li>
+     *     <li>name, if present, must be a string</li>
+     *     <li>count, if present, must be an integer that is positive or zero</li>
+     *     <li>no other fields may be present</li>
+     * </ul>
+     *
+     * @param patch the merge patch document
+     * @return the changes described by the patch
+     * @throws InvalidRequestException if the patch is not a valid patch for an item
+     */
+    static ItemPatch parse(JsonNode patch) throws InvalidRequestException {
+        if (!patch.isObject()) {
+            throw new InvalidRequestException("patch must be a JSON object");
+        }
+
+        String name = null;
+        Long count = null;
+
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode value = field.getValue();
+
+            switch (field.getKey()) {
+                case "name":
+                    if (!value.isTextual()) {
+                        throw new InvalidRequestException("name must be a string");
+                    }
+                    name = value.textValue();
+                    break;
+                case "count":
+                    if (!value.isIntegralNumber() || !value.canConvertToLong() || value.longValue() < 0) {
+                        throw new InvalidRequestException("count must be an integer greater than or equal to 0");
+                    }
+                    count = value.longValue();
+                    break;
+                default:
+                    throw new InvalidRequestException(String.format("%s cannot be patched", field.getKey()));
+            }
+        }
+
+        return new ItemPatch(name, count);
+    }
+}
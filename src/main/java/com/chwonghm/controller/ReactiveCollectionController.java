@@ -0,0 +1,206 @@
+package com.chwonghm.controller;
+
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+import com.chwonghm.event.InventoryGeneration;
+import com.chwonghm.service.InventoryOperations;
+import com.chwonghm.service.KeysetPage;
+import com.fasterxml.jackson.annotation.JsonView;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.PositiveOrZero;
+import java.util.List;
+
+/**
+ * Spring WebFlux controller serving the collection endpoints of {@link CollectionController} in the reactive
+ * profile, with the same paths, payloads, validation and responses. The following endpoints are defined:
+ * <ul>
+ *     <li>api/collection</li>
+ *     <li>api/collection/all</li>
+ *     <li>api/item/collection</li>
+ * </ul>
+ *
+ * @author Charles Wong
+ */
+@CrossOrigin
+@RestController
+@Validated
+@Profile("reactive")
+public class ReactiveCollectionController {
+
+    /**
+     * The inventory operations to delegate logic to
+     */
+    private final InventoryOperations inventoryOperations;
+
+    /**
+     * The inventory generation used to tag responses
+     */
+    private final InventoryGeneration inventoryGeneration;
+
+    /**
+     * Constructs this collection controller.
+     *
+     * @param inventoryOperations the InventoryOperations used to provide logic for this controller
+     * @param inventoryGeneration an InventoryGeneration used to tag responses
+     */
+    public ReactiveCollectionController(InventoryOperations inventoryOperations,
+                                        InventoryGeneration inventoryGeneration) {
+        this.inventoryOperations = inventoryOperations;
+        this.inventoryGeneration = inventoryGeneration;
+    }
+
+    /**
+     * Get a page of saved collections, ordered by ID. See {@link CollectionController#getAllCollections}.
+     *
+     * @param cursor   the cursor of the page to fetch, or null for the first page
+     * @param limit    the maximum number of collections to return
+     * @param prefix   a name prefix to filter collections by, or null
+     * @param minCount the minimum number of items (inclusive) to filter collections by, or null
+     * @param maxCount the maximum number of items (inclusive) to filter collections by, or null
+     * @param exchange the ServerWebExchange being handled
+     * @return a page of saved collections, or an empty Mono if not modified
+     */
+    @JsonView(Views.Item.class)
+    @GetMapping("api/collection/all")
+    public Mono<KeysetPage<Collection>> getAllCollections(@RequestParam(value = "cursor", required = false) String cursor,
+                                                          @RequestParam(value = "limit", defaultValue = "50") @Min(1) @Max(500) int limit,
+                                                          @RequestParam(value = "prefix", required = false) String prefix,
+                                                          @RequestParam(value = "minCount", required = false) @PositiveOrZero Integer minCount,
+                                                          @RequestParam(value = "maxCount", required = false) @PositiveOrZero Integer maxCount,
+                                                          ServerWebExchange exchange) {
+        if (exchange.checkNotModified(ETags.ofGeneration(inventoryGeneration))) {
+            return Mono.empty();
+        }
+
+        return inventoryOperations.getAllCollections(cursor, limit, prefix, minCount, maxCount);
+    }
+
+    /**
+     * Get a collection by ID. See {@link CollectionController#getCollection}.
+     *
+     * @param id       a long representing the ID of the collection to fetch
+     * @param exchange the ServerWebExchange being handled
+     * @return the collection with the corresponding ID, or an empty Mono if not modified
+     */
+    @JsonView(Views.Collection.class)
+    @GetMapping("api/collection")
+    public Mono<Collection> getCollection(@RequestParam("id") long id, ServerWebExchange exchange) {
+        if (exchange.checkNotModified(ETags.ofGeneration(inventoryGeneration))) {
+            return Mono.empty();
+        }
+
+        return inventoryOperations.getCollection(id);
+    }
+
+    /**
+     * Create a new collection. See {@link CollectionController#createCollection}.
+     *
+     * @param payload the CollectionPayload provided with the request
+     * @return the newly created Collection
+     */
+    @JsonView(Views.Collection.class)
+    @Validated(CreateGroup.class)
+    @PostMapping("api/collection")
+    public Mono<Collection> createCollection(@Valid @RequestBody CollectionPayload payload) {
+        return inventoryOperations.createCollection(payload.name);
+    }
+
+    /**
+     * Delete the collection with the provided ID. See {@link CollectionController#deleteCollection}.
+     *
+     * @param id a long representing the ID of the collection to delete
+     * @return a Mono completing once the collection is deleted
+     */
+    @ResponseStatus(value = HttpStatus.NO_CONTENT)
+    @DeleteMapping("api/collection")
+    public Mono<Void> deleteCollection(@RequestParam("id") long id) {
+        return inventoryOperations.deleteCollection(id);
+    }
+
+    /**
+     * Place an item in collections. See {@link CollectionController#addCollection}.
+     *
+     * @param id      a long representing the ID of the item to place in collections
+     * @param payload the CollectionPayload provided with the request
+     * @return the newly edited inventory Item
+     */
+    @JsonView(Views.Item.class)
+    @Validated(EditCollectionGroup.class)
+    @PutMapping("api/item/collection")
+    public Mono<Item> addCollection(@RequestParam("id") long id, @Valid @RequestBody CollectionPayload payload) {
+        return inventoryOperations.addCollectionToItem(payload.collectionIds, id);
+    }
+
+    /**
+     * Remove an inventory item from collections. See {@link CollectionController#removeCollection}.
+     *
+     * @param id      a long representing the ID of the item to remove from collections
+     * @param payload the CollectionPayload provided with the request
+     * @return the newly edited inventory Item
+     */
+    @JsonView(Views.Item.class)
+    @Validated(EditCollectionGroup.class)
+    @DeleteMapping("api/item/collection")
+    public Mono<Item> removeCollection(@RequestParam("id") long id, @Valid @RequestBody CollectionPayload payload) {
+        return inventoryOperations.removeCollectionFromItem(payload.collectionIds, id);
+    }
+
+    /**
+     * Used to specify the validation strategies for create collection
+     */
+    private interface CreateGroup {
+    }
+
+    /**
+     * Used to specify the validation strategies for edit item's collection
+     */
+    private interface EditCollectionGroup {
+    }
+
+    /**
+     * This class defines all possible request payload parameters for endpoints in this controller. Through
+     * the use of validation groups, this then allows for input validation for individual endpoints.
+     */
+    private static class CollectionPayload {
+
+        /**
+         * Name of a collection
+         */
+        @NotNull(groups = CreateGroup.class)
+        private String name;
+
+        /**
+         * A list of collection IDs to add/remove
+         */
+        @NotNull(groups = EditCollectionGroup.class)
+        private List<Long> collectionIds;
+
+        /**
+         * Set the name field of the payload
+         *
+         * @param name the String name to set
+         */
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Set the collectionIds field of the payload
+         *
+         * @param collectionIds a List of longs to set
+         */
+        public void setCollectionIds(List<Long> collectionIds) {
+            this.collectionIds = collectionIds;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.chwonghm.controller;
+
+import com.chwonghm.exception.InsufficientStockException;
+import com.chwonghm.exception.InvalidRequestException;
+import com.chwonghm.exception.ResourceNotFoundException;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import javax.validation.ConstraintViolationException;
+
+/**
+ * Exception handler for the reactive API. Responds to the same exceptions, with the same statuses and messages,
+ * as {@link ShopifyDemoExceptionHandler} does for the servlet API.
+ * <p>
+ * Handled exceptions include:
+ * <ul>
+ *     <li>ResourceNotFoundException
+ *     <li>InvalidRequestException
+ *     <li>InsufficientStockException
+ *     <li>ConstraintViolationException
+ * </ul>
+ *
+ * @author Charles Wong
+ */
+@RestControllerAdvice
+@Profile("reactive")
+public class ReactiveExceptionHandler {
+
+    /**
+     * Returns a 404 NOT_FOUND with the exception message.
+     *
+     * @param e the ResourceNotFoundException to be handled
+     * @return a response with 404 NOT_FOUND status
+     */
+    @ExceptionHandler(ResourceNotFoundException.class)
+    ResponseEntity<String> handle(ResourceNotFoundException e) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+    }
+
+    /**
+     * Returns a 400 BAD_REQUEST with the exception message.
+     *
+     * @param e the InvalidRequestException to be handled
+     * @return a response with 400 BAD_REQUEST status
+     */
+    @ExceptionHandler(InvalidRequestException.class)
+    ResponseEntity<String> handle(InvalidRequestException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+    }
+
+    /**
+     * Returns a 409 CONFLICT with the exception message.
+     *
+     * @param e the InsufficientStockException to be handled
+     * @return a response with 409 CONFLICT status
+     */
+    @ExceptionHandler(InsufficientStockException.class)
+    ResponseEntity<String> handle(InsufficientStockException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+    }
+
+    /**
+     * Returns a 400 BAD_REQUEST with a formatted message detailing which validation failed.
+     *
+     * @param e the ConstraintViolationException to be handled
+     * @return a response with 400 BAD_REQUEST status
+     */
+    @ExceptionHandler(ConstraintViolationException.class)
+    ResponseEntity<String> handle(ConstraintViolationException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ShopifyDemoExceptionHandler.describe(e));
+    }
+}
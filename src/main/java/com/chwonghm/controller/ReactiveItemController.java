@@ -0,0 +1,255 @@
+package com.chwonghm.controller;
+
+import com.chwonghm.entity.Item;
+import com.chwonghm.event.InventoryGeneration;
+import com.chwonghm.service.InventoryOperations;
+import com.chwonghm.service.ItemCount;
+import com.chwonghm.service.KeysetPage;
+import com.fasterxml.jackson.annotation.JsonView;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.PositiveOrZero;
+
+/**
+ * Spring WebFlux controller serving the inventory item endpoints of {@link ItemController} in the reactive
+ * profile, with the same paths, payloads, validation and responses. The following endpoints are defined:
+ * <ul>
+ *     <li>api/item</li>
+ *     <li>api/item/all</li>
+ *     <li>api/item/count/delta</li>
+ * </ul>
+ * Since items may be served by a store that does not track their versions, every GET response is tagged with
+ * the current inventory generation.
+ *
+ * @author Charles Wong
+ */
+@CrossOrigin
+@RestController
+@Validated
+@Profile("reactive")
+public class ReactiveItemController {
+
+    /**
+     * The media type of JSON Merge Patch documents, as defined by RFC 7396
+     */
+    private static final String MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+
+    /**
+     * The largest amount a single request may add to or remove from a count, far enough from the range of a BIGINT
+     * that an adjustment cannot overflow it
+     */
+    private static final long MAX_DELTA = Integer.MAX_VALUE;
+
+    /**
+     * The inventory operations to delegate logic to
+     */
+    private final InventoryOperations inventoryOperations;
+
+    /**
+     * The inventory generation used to tag responses
+     */
+    private final InventoryGeneration inventoryGeneration;
+
+    /**
+     * Constructs this item controller.
+     *
+     * @param inventoryOperations the InventoryOperations used to provide logic for this controller
+     * @param inventoryGeneration an InventoryGeneration used to tag responses
+     */
+    public ReactiveItemController(InventoryOperations inventoryOperations, InventoryGeneration inventoryGeneration) {
+        this.inventoryOperations = inventoryOperations;
+        this.inventoryGeneration = inventoryGeneration;
+    }
+
+    /**
+     * Create a new inventory item. See {@link ItemController#createItem}.
+     *
+     * @param payload the ItemPayload of the request
+     * @return the newly created inventory item
+     */
+    @PostMapping("api/item")
+    @Validated(CreateGroup.class)
+    @JsonView(Views.Item.class)
+    public Mono<Item> createItem(@Valid @RequestBody ItemPayload payload) {
+        return inventoryOperations.createItem(payload.name);
+    }
+
+    /**
+     * Delete the inventory item with the provided ID. See {@link ItemController#deleteList}.
+     *
+     * @param id a long representing the ID of the item to delete
+     * @return a Mono completing once the item is deleted
+     */
+    @DeleteMapping("api/item")
+    @ResponseStatus(value = HttpStatus.NO_CONTENT)
+    public Mono<Void> deleteItem(@RequestParam("id") long id) {
+        return inventoryOperations.deleteItem(id);
+    }
+
+    /**
+     * Get a page of stored inventory items, ordered by ID. See {@link ItemController#getAllItems}.
+     *
+     * @param cursor   the cursor of the page to fetch, or null for the first page
+     * @param limit    the maximum number of items to return
+     * @param prefix   a name prefix to filter items by, or null
+     * @param minCount the minimum count (inclusive) to filter items by, or null
+     * @param maxCount the maximum count (inclusive) to filter items by, or null
+     * @param exchange the ServerWebExchange being handled
+     * @return a page of stored items, or an empty Mono if not modified
+     */
+    @GetMapping("api/item/all")
+    @JsonView(Views.Item.class)
+    public Mono<KeysetPage<Item>> getAllItems(@RequestParam(value = "cursor", required = false) String cursor,
+                                              @RequestParam(value = "limit", defaultValue = "50") @Min(1) @Max(500) int limit,
+                                              @RequestParam(value = "prefix", required = false) String prefix,
+                                              @RequestParam(value = "minCount", required = false) @PositiveOrZero Long minCount,
+                                              @RequestParam(value = "maxCount", required = false) @PositiveOrZero Long maxCount,
+                                              ServerWebExchange exchange) {
+        if (exchange.checkNotModified(ETags.ofGeneration(inventoryGeneration))) {
+            return Mono.empty();
+        }
+
+        return inventoryOperations.getAllItems(cursor, limit, prefix, minCount, maxCount);
+    }
+
+    /**
+     * Get an inventory item by ID. See {@link ItemController#getItem}.
+     *
+     * @param id       a long representing the ID of the item to fetch
+     * @param exchange the ServerWebExchange being handled
+     * @return the item with the corresponding ID, or an empty Mono if not modified
+     */
+    @GetMapping("api/item")
+    @JsonView(Views.Item.class)
+    public Mono<Item> getItem(@RequestParam("id") long id, ServerWebExchange exchange) {
+        if (exchange.checkNotModified(ETags.ofGeneration(inventoryGeneration))) {
+            return Mono.empty();
+        }
+
+        return inventoryOperations.getItem(id);
+    }
+
+    /**
+     * Edit details of an inventory item. See {@link ItemController#editItem}.
+     *
+     * @param id      a long representing the ID of the item to edit
+     * @param payload the ItemPayload of the request
+     * @return the newly edited inventory item
+     */
+    @PutMapping("api/item")
+    @Validated(EditGroup.class)
+    @JsonView(Views.Item.class)
+    public Mono<Item> editItem(@RequestParam("id") long id, @Valid @RequestBody ItemPayload payload) {
+        return inventoryOperations.editItem(payload.name, payload.count, id);
+    }
+
+    /**
+     * Edit details of an inventory item with a JSON Merge Patch (RFC 7396) document. See
+     * {@link ItemController#patchItem}.
+     *
+     * @param id    a long representing the ID of the item to edit
+     * @param patch the merge patch document of the request
+     * @return the newly edited inventory item
+     */
+    @PatchMapping(value = "api/item", consumes = MERGE_PATCH_JSON_VALUE)
+    @JsonView(Views.Item.class)
+    public Mono<Item> patchItem(@RequestParam("id") long id, @RequestBody JsonNode patch) {
+        return Mono.fromCallable(() -> ItemPatch.parse(patch))
+                .flatMap(itemPatch -> inventoryOperations.editItem(itemPatch.name, itemPatch.count, id));
+    }
+
+    /**
+     * Atomically add a delta to the count of an inventory item. See {@link ItemController#adjustItemCount}.
+     *
+     * @param id      a long representing the ID of the item to edit
+     * @param payload the ItemPayload of the request
+     * @return the ID and new count of the item
+     */
+    @PostMapping("api/item/count/delta")
+    @Validated(DeltaGroup.class)
+    public Mono<ItemCount> adjustItemCount(@RequestParam("id") long id, @Valid @RequestBody ItemPayload payload) {
+        return inventoryOperations.adjustItemCount(payload.delta, id);
+    }
+
+    /**
+     * Used to specify the validation strategies for create item
+     */
+    private interface CreateGroup {
+    }
+
+    /**
+     * Used to specify the validation strategies for edit item
+     */
+    private interface EditGroup {
+    }
+
+    /**
+     * Used to specify the validation strategies for adjust item count
+     */
+    private interface DeltaGroup {
+    }
+
+    /**
+     * This class defines all possible request payload parameters for endpoints in this controller. Through
+     * the use of validation groups, this then allows for input validation for individual endpoints.
+     */
+    private static class ItemPayload {
+
+        /**
+         * Name of an item
+         */
+        @NotNull(groups = CreateGroup.class)
+        private String name;
+
+        /**
+         * Count of an item
+         */
+        @PositiveOrZero(groups = EditGroup.class)
+        private Long count;
+
+        /**
+         * Amount to add to the count of an item
+         */
+        @NotNull(groups = DeltaGroup.class)
+        @Min(value = -MAX_DELTA, groups = DeltaGroup.class)
+        @Max(value = MAX_DELTA, groups = DeltaGroup.class)
+        private Long delta;
+
+        /**
+         * Set the name field of the payload
+         *
+         * @param name the String name to set
+         */
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Set the count field of the payload
+         *
+         * @param count the Long count to set
+         */
+        public void setCount(Long count) {
+            this.count = count;
+        }
+
+        /**
+         * Set the delta field of the payload
+         *
+         * @param delta the Long delta to set
+         */
+        public void setDelta(Long delta) {
+            this.delta = delta;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.chwonghm.controller;
 
+import com.chwonghm.exception.InsufficientStockException;
+import com.chwonghm.exception.InvalidRequestException;
 import com.chwonghm.exception.ResourceNotFoundException;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
@@ -21,11 +25,15 @@ import java.util.Iterator;
  * Handled exceptions include:
  * <ul>
  *     <li>ResourceNotFoundException
+ *     <li>InvalidRequestException
+ *     <li>InsufficientStockException
+ *     <li>ObjectOptimisticLockingFailureException
  * </ul>
  *
  * @author Charles Wong
  */
 @ControllerAdvice
+@Profile("!reactive")
 public class ShopifyDemoExceptionHandler extends ResponseEntityExceptionHandler {
 
     /**
@@ -48,6 +56,67 @@ public class ShopifyDemoExceptionHandler extends ResponseEntityExceptionHandler
                 e.getMessage(), new HttpHeaders(), HttpStatus.NOT_FOUND, request);
     }
 
+    /**
+     * Handler for any InvalidRequestException. This exception is thrown when a
+     * request provides values that cannot be acted upon
+     * <p>
+     * Returns a 400 BAD_REQUEST with the exception message.
+     *
+     * @param e       the InvalidRequestException to be handled
+     * @param request the request which generated this exception
+     * @return a response with 400 BAD_REQUEST status
+     * @see InvalidRequestException
+     */
+    @ExceptionHandler(value = {
+            InvalidRequestException.class
+    })
+    ResponseEntity<Object> handle(InvalidRequestException e, WebRequest request) {
+
+        return handleExceptionInternal(e,
+                e.getMessage(), new HttpHeaders(), HttpStatus.BAD_REQUEST, request);
+    }
+
+    /**
+     * Handler for any InsufficientStockException. This exception is thrown when a
+     * request attempts to reduce the count of an item below zero
+     * <p>
+     * Returns a 409 CONFLICT with the exception message.
+     *
+     * @param e       the InsufficientStockException to be handled
+     * @param request the request which generated this exception
+     * @return a response with 409 CONFLICT status
+     * @see InsufficientStockException
+     */
+    @ExceptionHandler(value = {
+            InsufficientStockException.class
+    })
+    ResponseEntity<Object> handle(InsufficientStockException e, WebRequest request) {
+
+        return handleExceptionInternal(e,
+                e.getMessage(), new HttpHeaders(), HttpStatus.CONFLICT, request);
+    }
+
+    /**
+     * Handler for any ObjectOptimisticLockingFailureException. This exception is thrown when an
+     * edit loaded an item that was changed before the edit committed, for example by a hot counter
+     * write back
+     * <p>
+     * Returns a 409 CONFLICT; the edit may be retried.
+     *
+     * @param e       the ObjectOptimisticLockingFailureException to be handled
+     * @param request the request which generated this exception
+     * @return a response with 409 CONFLICT status
+     */
+    @ExceptionHandler(value = {
+            ObjectOptimisticLockingFailureException.class
+    })
+    ResponseEntity<Object> handle(ObjectOptimisticLockingFailureException e, WebRequest request) {
+
+        return handleExceptionInternal(e,
+                "The resource was modified concurrently, please retry", new HttpHeaders(), HttpStatus.CONFLICT,
+                request);
+    }
+
     /**
      * Handler for any ConstraintViolationException. This exception is thrown when a
      * request input validation fails
@@ -63,6 +132,17 @@ public class ShopifyDemoExceptionHandler extends ResponseEntityExceptionHandler
     })
     ResponseEntity<Object> handle(ConstraintViolationException e, WebRequest request) {
 
+        return handleExceptionInternal(e,
+                describe(e), new HttpHeaders(), HttpStatus.BAD_REQUEST, request);
+    }
+
+    /**
+     * Format a ConstraintViolationException as a message detailing which validations failed
+     *
+     * @param e the ConstraintViolationException to describe
+     * @return the String message, listing each violated field and constraint
+     */
+    static String describe(ConstraintViolationException e) {
         StringBuilder builder = new StringBuilder(50);
 
         Iterator<ConstraintViolation<?>> it = e.getConstraintViolations().iterator();
@@ -84,7 +164,6 @@ public class ShopifyDemoExceptionHandler extends ResponseEntityExceptionHandler
             }
         }
 
-        return handleExceptionInternal(e,
-                builder.toString(), new HttpHeaders(), HttpStatus.BAD_REQUEST, request);
+        return builder.toString();
     }
 }
@@ -0,0 +1,60 @@
+package com.chwonghm.controller;
+
+import com.chwonghm.snapshot.InventorySnapshot;
+import com.chwonghm.snapshot.SnapshotReport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Spring REST controller defining endpoints related to inventory snapshots. The following
+ * endpoints are defined:
+ * <ul>
+ *     <li>api/snapshot</li>
+ * </ul>
+ *
+ * @author Charles Wong
+ */
+@CrossOrigin
+@RestController
+@Profile("!reactive")
+public class SnapshotController {
+
+    /**
+     * Writes snapshots
+     */
+    private final InventorySnapshot inventorySnapshot;
+
+    /**
+     * The snapshot file, restored on startup if enabled
+     */
+    private final Path path;
+
+    /**
+     * Constructs this snapshot controller.
+     *
+     * @param inventorySnapshot the InventorySnapshot to write snapshots with
+     * @param path              the String path of the snapshot file
+     */
+    public SnapshotController(InventorySnapshot inventorySnapshot,
+                              @Value("${shopify-demo.snapshot.path:./data/inventory.snapshot}") String path) {
+        this.inventorySnapshot = inventorySnapshot;
+        this.path = Path.of(path);
+    }
+
+    /**
+     * Write a consistent snapshot of the whole inventory to the snapshot file, replacing the previous one
+     *
+     * @return a SnapshotReport describing the snapshot
+     * @throws IOException if the snapshot cannot be written
+     */
+    @PostMapping("api/snapshot")
+    public SnapshotReport writeSnapshot() throws IOException {
+        return inventorySnapshot.write(path);
+    }
+}
@@ -0,0 +1,46 @@
+package com.chwonghm.controller;
+
+import com.chwonghm.cache.InventoryCache;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Spring REST controller defining endpoints that report runtime statistics. The following
+ * endpoints are defined:
+ * <ul>
+ *     <li>api/stats/cache</li>
+ * </ul>
+ *
+ * @author Charles Wong
+ */
+@CrossOrigin
+@RestController
+public class StatsController {
+
+    /**
+     * The inventory cache to report on
+     */
+    private final InventoryCache inventoryCache;
+
+    /**
+     * Constructs this stats controller given an InventoryCache.
+     *
+     * @param inventoryCache the InventoryCache to report on
+     */
+    public StatsController(InventoryCache inventoryCache) {
+        this.inventoryCache = inventoryCache;
+    }
+
+    /**
+     * Get the hit, miss and eviction counters of the item and collection caches
+     *
+     * @return a Map from cache name to its counters
+     */
+    @GetMapping("api/stats/cache")
+    public Map<String, Map<String, Object>> getCacheStats() {
+        return inventoryCache.getStats();
+    }
+}
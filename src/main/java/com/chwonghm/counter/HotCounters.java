@@ -0,0 +1,753 @@
+package com.chwonghm.counter;
+
+import com.chwonghm.entity.CounterCheckpoint;
+import com.chwonghm.entity.Item;
+import com.chwonghm.event.CommitBuffer;
+import com.chwonghm.event.InventoryChangeEvent;
+import com.chwonghm.exception.InsufficientStockException;
+import com.chwonghm.exception.InvalidRequestException;
+import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.repository.CounterCheckpointRepository;
+import com.chwonghm.repository.ItemRepository;
+import com.chwonghm.service.ItemCount;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.chwonghm.event.InventoryChangeEvent.Type.ITEM_DELETED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.ITEM_UPDATED;
+
+/**
+ * Keeps the stock of hot items in memory, so that adjustments to them do not all queue on the same database row.
+ * Hot items are promoted explicitly, either on startup or through the API, and demoted again once they cool down.
+ * <p>
+ * The count of a hot item is held in a {@link StripedCounter}, and every adjustment to it is appended to a
+ * {@link RedoLog} and made durable before it is acknowledged. Durable adjustments are summed per item, and
+ * written back to the item table on a schedule, or sooner once enough have accumulated, in the same transaction
+ * as the log position they cover. On startup, adjustments logged but not yet written back are applied first, on
+ * top of any inventory snapshot restored by {@link com.chwonghm.snapshot.SnapshotStartup}, which carries the log
+ * position with the counts.
+ * <p>
+ * Recovery from a crash is only lossless with a persistent schema. With the default create-drop schema, the
+ * counts and the log position only survive a restart through a snapshot written on shutdown, and a crash writes
+ * none; the adjustments logged before it are then discarded, along with the counts they adjusted.
+ * <p>
+ * While an item is hot, its count in the item table lags behind by at most one flush interval. Single item reads
+ * are answered from memory by {@link #overlay(Item)}; listings and collections show the written back count, and
+ * are refreshed by the change event each flush publishes.
+ *
+ * @author Charles Wong
+ */
+@Component
+@DependsOn("snapshotStartup")
+public class HotCounters implements InitializingBean, DisposableBean {
+
+    /**
+     * Logger for flushes, promotions and demotions
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(HotCounters.class);
+
+    /**
+     * The maximum number of adjustments made durable by a single force of the redo log
+     */
+    private static final int MAX_BATCH_SIZE = 4096;
+
+    /**
+     * The states of a hot item
+     */
+    private enum State {
+        PROMOTING,
+        READY,
+        DEMOTING,
+        REMOVED
+    }
+
+    /**
+     * An item whose count is held in memory.
+     */
+    private static final class HotItem {
+
+        /**
+         * The number of adjustments in progress, so that a demotion can wait for them to finish
+         */
+        private final LongAdder inFlight = new LongAdder();
+
+        /**
+         * Held while the state changes
+         */
+        private final ReentrantLock transitionLock = new ReentrantLock();
+
+        /**
+         * The state of the item
+         */
+        private volatile State state = State.PROMOTING;
+
+        /**
+         * Completed when the current promotion or demotion ends; written before the state
+         */
+        private volatile CompletableFuture<Void> transition = new CompletableFuture<>();
+
+        /**
+         * The in-memory count; set before the state first becomes READY
+         */
+        private volatile StripedCounter counter;
+
+        /**
+         * Start an adjustment, if the item is ready for one.
+         *
+         * @return true if the adjustment may proceed, and must be ended with {@link #exit()}
+         */
+        private boolean enter() {
+            inFlight.increment();
+
+            if (state != State.READY) {
+                inFlight.decrement();
+                return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * End an adjustment started by {@link #enter()}
+         */
+        private void exit() {
+            inFlight.decrement();
+        }
+    }
+
+    /**
+     * Whether hot counters may be used at all
+     */
+    private final boolean enabled;
+
+    /**
+     * The number of cells each counter is split across
+     */
+    private final int stripes;
+
+    /**
+     * The interval between scheduled flushes
+     */
+    private final Duration flushInterval;
+
+    /**
+     * The number of unapplied adjustments that triggers a flush before the next scheduled one
+     */
+    private final int flushThreshold;
+
+    /**
+     * The directory holding the redo log
+     */
+    private final Path directory;
+
+    /**
+     * The IDs of the items to promote on startup
+     */
+    private final List<Long> initialItemIds;
+
+    /**
+     * Repository interface for item tables
+     */
+    private final ItemRepository itemRepository;
+
+    /**
+     * Repository interface for the checkpoint table
+     */
+    private final CounterCheckpointRepository checkpointRepository;
+
+    /**
+     * Runs promotions and flushes in their own transactions
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Writes the counts of items demoted before an edit to them committed, in a transaction of their own while the
+     * edit's resources are still bound
+     */
+    private final TransactionTemplate separateTransactionTemplate;
+
+    /**
+     * Publisher for inventory change events
+     */
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * The counts set by each transaction, by item ID, replaced once it commits
+     */
+    private final CommitBuffer<Map<Long, Long>> pendingSets =
+            new CommitBuffer<>(LinkedHashMap::new, counts -> counts.forEach(this::setCommitted));
+
+    /**
+     * The hot items, by ID
+     */
+    private final Map<Long, HotItem> items = new ConcurrentHashMap<>();
+
+    /**
+     * Held while flushing, so that snapshots are applied in order
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /**
+     * Whether a flush triggered by the threshold is already queued
+     */
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+
+    /**
+     * The redo log, or null while disabled
+     */
+    private RedoLog redoLog;
+
+    /**
+     * The thread running flushes, or null while disabled
+     */
+    private ScheduledExecutorService flusher;
+
+    /**
+     * Constructs the hot counters. Nothing is started until the bean is initialized.
+     *
+     * @param enabled              a boolean representing whether hot counters may be used
+     * @param stripes              an int representing the number of cells per counter, or 0 for one per processor
+     * @param flushInterval        the Duration between scheduled flushes
+     * @param flushThreshold       an int representing the number of unapplied adjustments that triggers a flush
+     * @param directory            the String path of the directory holding the redo log
+     * @param initialItemIds       a List of the IDs of the items to promote on startup
+     * @param itemRepository       an ItemRepository to read and write counts with
+     * @param checkpointRepository a CounterCheckpointRepository to record applied log positions with
+     * @param transactionManager   the PlatformTransactionManager to run promotions and flushes with
+     * @param eventPublisher       an ApplicationEventPublisher to publish written back counts to
+     */
+    public HotCounters(@Value("${shopify-demo.hot-counters.enabled:false}") boolean enabled,
+                       @Value("${shopify-demo.hot-counters.stripes:0}") int stripes,
+                       @Value("${shopify-demo.hot-counters.flush-interval:500ms}") Duration flushInterval,
+                       @Value("${shopify-demo.hot-counters.flush-threshold:10000}") int flushThreshold,
+                       @Value("${shopify-demo.hot-counters.directory:./data/hot-counters}") String directory,
+                       @Value("${shopify-demo.hot-counters.item-ids:}") List<Long> initialItemIds,
+                       ItemRepository itemRepository, CounterCheckpointRepository checkpointRepository,
+                       PlatformTransactionManager transactionManager, ApplicationEventPublisher eventPublisher) {
+        this.enabled = enabled;
+        this.stripes = stripes > 0 ? stripes : Runtime.getRuntime().availableProcessors();
+        this.flushInterval = flushInterval;
+        this.flushThreshold = flushThreshold;
+        this.directory = Path.of(directory);
+        this.initialItemIds = initialItemIds;
+        this.itemRepository = itemRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.separateTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.separateTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Apply any adjustments left in the redo log by a previous run, start flushing, and promote the items
+     * configured as hot.
+     * <p>
+     * The checkpoint row lives in the same database as the counts it covers, and is carried by inventory
+     * snapshots. A missing row therefore means the item table was created since the redo log was written, by an
+     * empty schema or a snapshot taken while hot counters were unused, and the logged adjustments belong to
+     * counts that no longer exist. They are discarded rather than applied to the new table.
+     *
+     * @throws IOException if the redo log cannot be opened
+     */
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        long appliedSequence;
+        Optional<CounterCheckpoint> checkpoint = checkpointRepository.findById(CounterCheckpoint.ID);
+
+        if (checkpoint.isPresent()) {
+            appliedSequence = checkpoint.get().getSequence();
+        } else {
+            int discarded = RedoLog.discardSegments(directory);
+            if (discarded > 0) {
+                LOG.warn("Discarded {} redo segments: the item table has no checkpoint, so it does not hold the"
+                        + " counts they adjust", discarded);
+            }
+
+            appliedSequence = 0;
+            checkpointRepository.save(new CounterCheckpoint(appliedSequence));
+        }
+
+        redoLog = new RedoLog(directory, appliedSequence, MAX_BATCH_SIZE, flushThreshold, this::onThresholdReached);
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hot-counter-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // recovered adjustments must reach the item table before any item is read into memory again
+        flush();
+
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval.toMillis(), flushInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+
+        for (long id : initialItemIds) {
+            try {
+                promote(id);
+            } catch (ResourceNotFoundException | InvalidRequestException e) {
+                LOG.warn("Not promoting item {}: {}", id, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stop flushing, write back every durable adjustment, and close the redo log. Adjustments made durable after
+     * the final flush are applied on the next startup.
+     *
+     * @throws IOException if the redo log cannot be closed
+     */
+    @Override
+    public void destroy() throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        flusher.shutdown();
+
+        try {
+            flusher.awaitTermination(flushInterval.toMillis() * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        flushQuietly();
+        redoLog.close();
+    }
+
+    /**
+     * Check whether an item is hot, or being promoted. Callers changing the count of an item in the database
+     * should check this again after locking its row, since the item may have been promoted in the meantime.
+     *
+     * @param id a long representing the ID of the item
+     * @return true if adjustments to the item must go through this class
+     */
+    public boolean isHot(long id) {
+        return items.containsKey(id);
+    }
+
+    /**
+     * Add a delta to the in-memory count of a hot item. A negative delta removes stock, and is rejected if the
+     * item does not have enough. The adjustment is durable once this method returns.
+     *
+     * @param id    a long representing the ID of the item
+     * @param delta a long representing the amount to add to the item's count
+     * @return the count of the item after the adjustment, which may include concurrent adjustments, or null if
+     * the item is not hot and should be adjusted in the database
+     * @throws InsufficientStockException if the adjustment would make the item's count negative
+     */
+    public ItemCount tryAdjust(long id, long delta) throws InsufficientStockException {
+        while (true) {
+            HotItem item = items.get(id);
+
+            if (item == null) {
+                return null;
+            }
+
+            if (!item.enter()) {
+                item.transition.join();
+                continue;
+            }
+
+            try {
+                StripedCounter counter = item.counter;
+
+                if (!counter.tryAdd(delta)) {
+                    throw new InsufficientStockException(String.format(
+                            "Insufficient stock for item with ID %d: %d in stock, %d requested",
+                            id, counter.sum(), -delta));
+                }
+
+                makeDurable(counter, id, delta);
+
+                return new ItemCount(id, counter.sum());
+            } finally {
+                item.exit();
+            }
+        }
+    }
+
+    /**
+     * Replace the count of a hot item once the current transaction commits, or immediately outside of a
+     * transaction. An edit that rolls back, such as one failing on the item's version, leaves the count unchanged.
+     * <p>
+     * If the item was demoted before the commit, its count is written to the item table instead. A failure to
+     * make the new count durable reaches the committing caller, after the rest of the edit has committed.
+     *
+     * @param id    a long representing the ID of the item
+     * @param count a long representing the new count of the item
+     * @return true if the count will be replaced by this class, or false if the item is not hot and should be
+     * edited in the database
+     */
+    public boolean trySetOnCommit(long id, long count) {
+        if (!isHot(id)) {
+            return false;
+        }
+
+        pendingSets.add(counts -> counts.put(id, count));
+        return true;
+    }
+
+    /**
+     * Replace the in-memory count of a hot item. Adjustments made concurrently are applied on top of the new count.
+     *
+     * @param id    a long representing the ID of the item
+     * @param count a long representing the new count of the item
+     * @return true if the count was replaced, or false if the item is not hot and should be edited in the database
+     */
+    private boolean trySet(long id, long count) {
+        while (true) {
+            HotItem item = items.get(id);
+
+            if (item == null) {
+                return false;
+            }
+
+            if (!item.enter()) {
+                item.transition.join();
+                continue;
+            }
+
+            try {
+                StripedCounter counter = item.counter;
+                long delta = count - counter.set(count);
+
+                if (delta != 0) {
+                    makeDurable(counter, id, delta);
+                }
+
+                return true;
+            } finally {
+                item.exit();
+            }
+        }
+    }
+
+    /**
+     * Substitute the in-memory count of a hot item into an item read from the database or the cache.
+     *
+     * @param item the Item to overlay, which is not modified
+     * @return a copy of the item with its in-memory count if it is hot, and the item itself otherwise
+     */
+    public Item overlay(Item item) {
+        HotItem hot = items.get(item.getId());
+
+        if (hot == null || hot.state != State.READY) {
+            return item;
+        }
+
+        return item.withCount(hot.counter.sum());
+    }
+
+    /**
+     * Move the count of an item into memory. Adjustments waiting on the item's row finish first; later ones, and
+     * adjustments arriving during the promotion, go through memory.
+     * <p>
+     * The item's version is incremented, so that an edit that loaded the item before the promotion fails rather
+     * than overwriting the count with a value that is no longer tracked.
+     *
+     * @param id a long representing the ID of the item to promote
+     * @return the count of the item when it was promoted
+     * @throws ResourceNotFoundException if the provided ID does not match an existing inventory item
+     * @throws InvalidRequestException   if hot counters are disabled
+     */
+    public ItemCount promote(long id) throws ResourceNotFoundException, InvalidRequestException {
+        requireEnabled();
+
+        while (true) {
+            HotItem item = new HotItem();
+            HotItem existing = items.putIfAbsent(id, item);
+
+            if (existing != null) {
+                existing.transition.join();
+
+                if (existing.state == State.READY) {
+                    return new ItemCount(id, existing.counter.sum());
+                }
+                continue;
+            }
+
+            try {
+                Long count = transactionTemplate.execute(status -> {
+                    Long locked = itemRepository.lockCountById(id);
+
+                    if (locked != null) {
+                        itemRepository.incrementVersion(id);
+                        eventPublisher.publishEvent(new InventoryChangeEvent(ITEM_UPDATED, Set.of(id), Set.of()));
+                    }
+
+                    return locked;
+                });
+
+                if (count == null) {
+                    items.remove(id, item);
+                    item.state = State.REMOVED;
+                    throw new ResourceNotFoundException(String.format("Could not find item with ID %d", id));
+                }
+
+                item.counter = new StripedCounter(stripes, count);
+                item.state = State.READY;
+
+                LOG.info("Promoted item {} with count {}", id, count);
+
+                return new ItemCount(id, count);
+            } catch (RuntimeException e) {
+                items.remove(id, item);
+                item.state = State.REMOVED;
+                throw e;
+            } finally {
+                item.transition.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Move the count of a hot item back to the database. Adjustments arriving during the demotion wait for it,
+     * and then go to the database. If the item is not hot, no change is made.
+     *
+     * @param id a long representing the ID of the item to demote
+     * @throws InvalidRequestException if hot counters are disabled
+     */
+    public void demote(long id) throws InvalidRequestException {
+        requireEnabled();
+
+        while (true) {
+            HotItem item = items.get(id);
+
+            if (item == null) {
+                return;
+            }
+
+            CompletableFuture<Void> demotion = new CompletableFuture<>();
+
+            item.transitionLock.lock();
+            try {
+                if (item.state != State.READY) {
+                    demotion = null;
+                } else {
+                    item.transition = demotion;
+                    item.state = State.DEMOTING;
+                }
+            } finally {
+                item.transitionLock.unlock();
+            }
+
+            if (demotion == null) {
+                item.transition.join();
+                continue;
+            }
+
+            try {
+                while (item.inFlight.sum() > 0) {
+                    LockSupport.parkNanos(100_000);
+                }
+
+                // every adjustment to the item is durable now, so this writes all of them back
+                flush();
+
+                items.remove(id, item);
+                item.state = State.REMOVED;
+
+                LOG.info("Demoted item {}", id);
+                return;
+            } catch (RuntimeException e) {
+                item.state = State.READY;
+                throw e;
+            } finally {
+                demotion.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Get the IDs of the hot items
+     *
+     * @return a Set of longs representing the IDs of all hot items, including those being promoted
+     */
+    public Set<Long> getHotItemIds() {
+        return Set.copyOf(items.keySet());
+    }
+
+    /**
+     * Write all durable adjustments back to the item table, together with the log position they cover, and
+     * delete the log segments no longer needed. If the write fails, the adjustments are kept for the next flush.
+     */
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+
+        flushLock.lock();
+        try {
+            flushQueued.set(false);
+
+            RedoLog.Snapshot snapshot;
+            try {
+                snapshot = redoLog.snapshot();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            if (!snapshot.getDeltas().isEmpty()) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> apply(snapshot));
+                } catch (RuntimeException e) {
+                    redoLog.restore(snapshot);
+                    throw e;
+                }
+            }
+
+            redoLog.release(snapshot);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Forget a hot item once its deletion commits. Adjustments still in the redo log are written back to no row.
+     *
+     * @param event the InventoryChangeEvent describing the change
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onInventoryChange(InventoryChangeEvent event) {
+        if (event.getType() == ITEM_DELETED) {
+            event.getItemIds().forEach(items::remove);
+        }
+    }
+
+    /**
+     * Replace the count of an item edited by a committed transaction: in memory while it is hot, and in the item
+     * table otherwise. The item's row is locked before checking again, so that a concurrent promotion reads the
+     * new count.
+     *
+     * @param id    a long representing the ID of the item
+     * @param count a long representing the new count of the item
+     */
+    private void setCommitted(long id, long count) {
+        while (!trySet(id, count)) {
+            Boolean written = separateTransactionTemplate.execute(status -> {
+                // a deleted item has no count left to set
+                if (itemRepository.lockCountById(id) == null) {
+                    return true;
+                }
+
+                if (isHot(id)) {
+                    return false;
+                }
+
+                itemRepository.setCount(id, count);
+                eventPublisher.publishEvent(new InventoryChangeEvent(ITEM_UPDATED, Set.of(id), Set.of()));
+                return true;
+            });
+
+            if (Boolean.TRUE.equals(written)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Apply a snapshot of adjustments to the item table, and record its log position.
+     *
+     * @param snapshot the RedoLog.Snapshot to apply
+     */
+    private void apply(RedoLog.Snapshot snapshot) {
+        snapshot.getDeltas().forEach((id, delta) -> {
+            if (delta != 0) {
+                itemRepository.addToCount(id, delta);
+            }
+        });
+
+        checkpointRepository.save(new CounterCheckpoint(snapshot.getSequence()));
+
+        eventPublisher.publishEvent(new InventoryChangeEvent(ITEM_UPDATED, snapshot.getDeltas().keySet(), Set.of()));
+    }
+
+    /**
+     * Wait for an adjustment to be made durable, undoing it in memory if it cannot be.
+     *
+     * @param counter the StripedCounter the adjustment was applied to
+     * @param id      a long representing the ID of the adjusted item
+     * @param delta   a long representing the amount added to the item's count
+     */
+    private void makeDurable(StripedCounter counter, long id, long delta) {
+        try {
+            redoLog.append(id, delta).join();
+        } catch (CompletionException e) {
+            counter.add(-delta);
+            throw new IllegalStateException(String.format("Could not log count adjustment for item with ID %d", id),
+                    e.getCause());
+        }
+    }
+
+    /**
+     * Queue a flush when the redo log reaches the flush threshold, unless one is queued already
+     */
+    private void onThresholdReached() {
+        if (flushQueued.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // shutting down; the final flush writes everything back
+                flushQueued.set(false);
+            }
+        }
+    }
+
+    /**
+     * Flush, logging rather than throwing any failure, for use by the flush thread
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOG.error("Could not write back hot counters; retrying on the next flush", e);
+        }
+    }
+
+    /**
+     * Check that hot counters are enabled
+     *
+     * @throws InvalidRequestException if hot counters are disabled
+     */
+    private void requireEnabled() throws InvalidRequestException {
+        if (!enabled) {
+            throw new InvalidRequestException("Hot counters are disabled; set shopify-demo.hot-counters.enabled");
+        }
+    }
+}
@@ -0,0 +1,595 @@
+package com.chwonghm.counter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of count adjustments, written to a directory of segment files. Each adjustment is made
+ * durable before it is acknowledged; adjustments appended concurrently are written and forced to disk together
+ * by a single writer thread, so the cost of a force is shared by every writer waiting on it.
+ * <p>
+ * The log also aggregates the adjustments it has made durable into one delta per item. A flush takes these
+ * deltas as a {@link Snapshot}, applies them to the database together with the sequence number they cover, and
+ * then deletes the segments the snapshot replaced. Segments left behind by a crash are read back on startup,
+ * and any adjustment past the last applied sequence number becomes part of the first snapshot.
+ * <p>
+ * Each record holds a sequence number, an item ID and a delta, followed by a CRC32 of those fields. A record
+ * torn by a crash fails its check, and ends the replay of its segment.
+ *
+ * @author Charles Wong
+ */
+class RedoLog implements Closeable {
+
+    /**
+     * Logger for recovery and write failures
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(RedoLog.class);
+
+    /**
+     * The size in bytes of a record: three longs and a CRC32
+     */
+    private static final int RECORD_SIZE = 3 * Long.BYTES + Integer.BYTES;
+
+    /**
+     * The file name suffix of segments
+     */
+    private static final String SEGMENT_SUFFIX = ".redo";
+
+    /**
+     * An adjustment waiting to be written.
+     */
+    private static final class Pending {
+
+        /**
+         * The ID of the adjusted item
+         */
+        private final long itemId;
+
+        /**
+         * The amount added to the item's count
+         */
+        private final long delta;
+
+        /**
+         * Completed once the adjustment is durable
+         */
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        /**
+         * Construct a pending adjustment.
+         *
+         * @param itemId a long representing the ID of the adjusted item
+         * @param delta  a long representing the amount added to the item's count
+         */
+        private Pending(long itemId, long delta) {
+            this.itemId = itemId;
+            this.delta = delta;
+        }
+    }
+
+    /**
+     * The durable adjustments not yet applied to the database, as taken by {@link #snapshot()}.
+     */
+    static final class Snapshot {
+
+        /**
+         * The sum of the adjustments to each item, by item ID
+         */
+        private final Map<Long, Long> deltas;
+
+        /**
+         * The sequence number of the last adjustment included
+         */
+        private final long sequence;
+
+        /**
+         * The segments holding only adjustments up to the sequence number
+         */
+        private final List<Path> segments;
+
+        /**
+         * Construct a snapshot.
+         *
+         * @param deltas   a Map from item ID to the sum of the adjustments to that item
+         * @param sequence a long representing the sequence number of the last adjustment included
+         * @param segments a List of the segments holding only adjustments up to the sequence number
+         */
+        private Snapshot(Map<Long, Long> deltas, long sequence, List<Path> segments) {
+            this.deltas = deltas;
+            this.sequence = sequence;
+            this.segments = segments;
+        }
+
+        /**
+         * Get the sum of the adjustments to each item
+         *
+         * @return a Map from item ID to the sum of the adjustments to that item
+         */
+        Map<Long, Long> getDeltas() {
+            return deltas;
+        }
+
+        /**
+         * Get the sequence number of the last adjustment included
+         *
+         * @return the sequence number of the last adjustment included
+         */
+        long getSequence() {
+            return sequence;
+        }
+    }
+
+    /**
+     * The directory holding the segments
+     */
+    private final Path directory;
+
+    /**
+     * The maximum number of adjustments written per force
+     */
+    private final int maxBatchSize;
+
+    /**
+     * The number of unapplied adjustments at which the threshold listener is called
+     */
+    private final int flushThreshold;
+
+    /**
+     * Called by the writer thread when the number of unapplied adjustments reaches the flush threshold
+     */
+    private final Runnable thresholdListener;
+
+    /**
+     * Adjustments waiting to be written
+     */
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Guards the current segment and the unapplied adjustments, so that a snapshot never sees half a batch
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The buffer records are encoded into, used by the writer thread only
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The thread writing and forcing batches of records
+     */
+    private final Thread writer;
+
+    /**
+     * Whether appends are still accepted
+     */
+    private volatile boolean open = true;
+
+    /**
+     * The segment being appended to
+     */
+    private Path segment;
+
+    /**
+     * The channel of the segment being appended to
+     */
+    private FileChannel channel;
+
+    /**
+     * The number of records in the segment being appended to
+     */
+    private long segmentRecords;
+
+    /**
+     * Segments no longer appended to, whose adjustments have not been applied yet
+     */
+    private List<Path> closedSegments = new ArrayList<>();
+
+    /**
+     * The sequence number of the last durable adjustment
+     */
+    private long sequence;
+
+    /**
+     * The sum of the unapplied durable adjustments to each item
+     */
+    private Map<Long, Long> unapplied = new HashMap<>();
+
+    /**
+     * The number of unapplied durable adjustments
+     */
+    private long unappliedRecords;
+
+    /**
+     * Open a log, reading back any segments left by a previous run, and start its writer thread.
+     *
+     * @param directory         the Path of the directory holding the segments, created if missing
+     * @param appliedSequence   a long representing the sequence number of the last adjustment applied to the
+     *                          database; earlier adjustments found in existing segments are skipped
+     * @param maxBatchSize      an int representing the maximum number of adjustments written per force
+     * @param flushThreshold    an int representing the number of unapplied adjustments at which to call the
+     *                          threshold listener
+     * @param thresholdListener a Runnable called by the writer thread when the flush threshold is reached; it
+     *                          must not block
+     * @throws IOException if the directory or a segment cannot be read, or a new segment cannot be created
+     */
+    RedoLog(Path directory, long appliedSequence, int maxBatchSize, int flushThreshold, Runnable thresholdListener)
+            throws IOException {
+        this.directory = directory;
+        this.maxBatchSize = maxBatchSize;
+        this.flushThreshold = flushThreshold;
+        this.thresholdListener = thresholdListener;
+        this.buffer = ByteBuffer.allocateDirect(maxBatchSize * RECORD_SIZE);
+        this.sequence = appliedSequence;
+
+        Files.createDirectories(directory);
+        recover(appliedSequence);
+        openSegment();
+
+        this.writer = new Thread(this::writeLoop, "hot-counter-redo");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Append an adjustment to the log.
+     *
+     * @param itemId a long representing the ID of the adjusted item
+     * @param delta  a long representing the amount added to the item's count
+     * @return a CompletableFuture completed once the adjustment is durable, or completed exceptionally if it
+     * could not be written
+     */
+    CompletableFuture<Void> append(long itemId, long delta) {
+        Pending pending = new Pending(itemId, delta);
+
+        if (!open) {
+            pending.durable.completeExceptionally(new IllegalStateException("Redo log is closed"));
+            return pending.durable;
+        }
+
+        queue.offer(pending);
+        LockSupport.unpark(writer);
+
+        return pending.durable;
+    }
+
+    /**
+     * Take all durable adjustments not yet applied to the database. The current segment is closed if it holds
+     * any records, so that every segment the snapshot covers can be deleted once it has been applied.
+     *
+     * @return the Snapshot of unapplied adjustments, which may be empty
+     * @throws IOException if a new segment cannot be created
+     */
+    Snapshot snapshot() throws IOException {
+        lock.lock();
+        try {
+            if (segmentRecords > 0) {
+                channel.close();
+                closedSegments.add(segment);
+                openSegment();
+            }
+
+            Snapshot snapshot = new Snapshot(unapplied, sequence, closedSegments);
+
+            unapplied = new HashMap<>();
+            unappliedRecords = 0;
+            closedSegments = new ArrayList<>();
+
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return a snapshot that could not be applied, so that its adjustments are included in the next one.
+     *
+     * @param snapshot the Snapshot to return
+     */
+    void restore(Snapshot snapshot) {
+        lock.lock();
+        try {
+            snapshot.deltas.forEach((itemId, delta) -> unapplied.merge(itemId, delta, Long::sum));
+            unappliedRecords += snapshot.deltas.size();
+            closedSegments.addAll(0, snapshot.segments);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete the segments covered by a snapshot that has been applied to the database.
+     *
+     * @param snapshot the applied Snapshot
+     */
+    void release(Snapshot snapshot) {
+        for (Path covered : snapshot.segments) {
+            try {
+                Files.deleteIfExists(covered);
+            } catch (IOException e) {
+                // replaying it again later is harmless, since its records are below the applied sequence number,
+                // which is stored with the counts: in the checkpoint table, and in any snapshot taken of it
+                LOG.warn("Could not delete redo segment {}", covered, e);
+            }
+        }
+    }
+
+    /**
+     * Delete every segment in a directory, without reading them. Used when the database the logged adjustments
+     * belong to no longer exists.
+     *
+     * @param directory the Path of the directory holding the segments
+     * @return the number of deleted segments
+     * @throws IOException if the directory cannot be read, or a segment cannot be deleted
+     */
+    static int discardSegments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .collect(Collectors.toList());
+        }
+
+        for (Path file : segments) {
+            Files.delete(file);
+        }
+
+        return segments.size();
+    }
+
+    /**
+     * Stop accepting adjustments, wait for the queued ones to be written, and close the current segment.
+     *
+     * @throws IOException if the current segment cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        open = false;
+        LockSupport.unpark(writer);
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        lock.lock();
+        try {
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write queued adjustments in batches until the log is closed and the queue is empty.
+     */
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+
+        while (true) {
+            Pending next = queue.poll();
+
+            if (next == null) {
+                if (!open && queue.isEmpty()) {
+                    return;
+                }
+                LockSupport.park(this);
+                continue;
+            }
+
+            while (next != null) {
+                batch.add(next);
+                next = batch.size() < maxBatchSize ? queue.poll() : null;
+            }
+
+            boolean thresholdReached = false;
+            IOException failure = null;
+
+            try {
+                thresholdReached = write(batch);
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            for (Pending pending : batch) {
+                if (failure == null) {
+                    pending.durable.complete(null);
+                } else {
+                    pending.durable.completeExceptionally(failure);
+                }
+            }
+
+            batch.clear();
+
+            if (thresholdReached) {
+                thresholdListener.run();
+            }
+        }
+    }
+
+    /**
+     * Write a batch of adjustments to the current segment and force it to disk.
+     *
+     * @param batch the List of adjustments to write
+     * @return true if the number of unapplied adjustments has reached the flush threshold
+     * @throws IOException if the batch could not be made durable
+     */
+    private boolean write(List<Pending> batch) throws IOException {
+        lock.lock();
+        try {
+            buffer.clear();
+
+            CRC32 crc = new CRC32();
+            long next = sequence;
+
+            for (Pending pending : batch) {
+                int start = buffer.position();
+
+                buffer.putLong(++next).putLong(pending.itemId).putLong(pending.delta);
+
+                crc.reset();
+                crc.update(buffer.duplicate().position(start).limit(buffer.position()));
+                buffer.putInt((int) crc.getValue());
+            }
+
+            buffer.flip();
+
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                // later batches go to a fresh segment, so that a partial write is only ever at the end of one
+                LOG.error("Could not write redo segment {}", segment, e);
+                truncateAfterFailure(sequence + 1, next);
+                rollAfterFailure();
+                throw e;
+            }
+
+            sequence = next;
+            segmentRecords += batch.size();
+
+            for (Pending pending : batch) {
+                unapplied.merge(pending.itemId, pending.delta, Long::sum);
+            }
+
+            unappliedRecords += batch.size();
+
+            return unappliedRecords >= flushThreshold;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cut the records of a batch that failed to be made durable off the end of the current segment. They may be
+     * complete on disk nonetheless, with valid checks, but were never acknowledged: their adjustments were undone
+     * in memory, so replaying them after a crash would create or remove stock that no one asked for.
+     * <p>
+     * If the segment cannot be truncated either, the records are only skipped once the next snapshot is applied,
+     * since its sequence number is past them; a crash before then replays them.
+     *
+     * @param firstSequence a long representing the sequence number of the first record of the batch
+     * @param lastSequence  a long representing the sequence number of the last record of the batch
+     */
+    private void truncateAfterFailure(long firstSequence, long lastSequence) {
+        try {
+            channel.truncate(segmentRecords * RECORD_SIZE);
+            channel.force(false);
+        } catch (IOException e) {
+            LOG.error("Could not remove unacknowledged records {} to {} from redo segment {}; they will be replayed "
+                    + "if the application stops before the next flush", firstSequence, lastSequence, segment, e);
+        }
+    }
+
+    /**
+     * Close a segment that failed a write, and start a new one. The failed segment is kept, since it may hold
+     * earlier adjustments that have not been applied.
+     */
+    private void rollAfterFailure() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close redo segment {}", segment, e);
+        }
+
+        closedSegments.add(segment);
+
+        try {
+            // the failed records were never acknowledged; starting past them keeps segment names unique
+            sequence += maxBatchSize;
+            openSegment();
+        } catch (IOException e) {
+            LOG.error("Could not create a new redo segment", e);
+        }
+    }
+
+    /**
+     * Create a new segment, named after the sequence number of its first record.
+     *
+     * @throws IOException if the segment cannot be created
+     */
+    private void openSegment() throws IOException {
+        segment = directory.resolve(String.format("%020d%s", sequence + 1, SEGMENT_SUFFIX));
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        segmentRecords = 0;
+    }
+
+    /**
+     * Read back the segments left by a previous run. Adjustments past the applied sequence number become
+     * unapplied adjustments, and every segment found is scheduled for deletion with the next snapshot.
+     *
+     * @param appliedSequence a long representing the sequence number of the last adjustment already applied
+     * @throws IOException if the directory or a segment cannot be read
+     */
+    private void recover(long appliedSequence) throws IOException {
+        List<Path> segments;
+
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        CRC32 crc = new CRC32();
+        long replayed = 0;
+
+        for (Path file : segments) {
+            ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(file));
+
+            while (records.remaining() >= RECORD_SIZE) {
+                int start = records.position();
+                long recordSequence = records.getLong();
+                long itemId = records.getLong();
+                long delta = records.getLong();
+
+                crc.reset();
+                crc.update(records.duplicate().position(start).limit(records.position()));
+
+                if ((int) crc.getValue() != records.getInt()) {
+                    LOG.warn("Ignoring torn record at offset {} of redo segment {}", start, file);
+                    break;
+                }
+
+                if (recordSequence > appliedSequence) {
+                    unapplied.merge(itemId, delta, Long::sum);
+                    replayed++;
+                }
+
+                sequence = Math.max(sequence, recordSequence);
+            }
+
+            closedSegments.add(file);
+        }
+
+        unappliedRecords = replayed;
+
+        if (replayed > 0) {
+            LOG.info("Recovered {} unapplied count adjustments from {} redo segments", replayed, segments.size());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.chwonghm.counter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A non-negative counter split across several cells, so that concurrent writers rarely update the same memory
+ * location. Like a LongAdder, the value is the sum of the cells; unlike a LongAdder, a decrement is only applied
+ * if it would not make that sum negative.
+ * <p>
+ * Each writer starts at a cell chosen by its thread, and takes a decrement from the first cell holding enough
+ * for it. Only when no single cell can cover a decrement are the cells merged, under a lock, to decide whether
+ * the counter as a whole can. Increments are never rejected and never lock.
+ *
+ * @author Charles Wong
+ */
+class StripedCounter {
+
+    /**
+     * The number of longs between the cells, so that each cell sits on its own 64 byte cache line
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * The padded cells; cell i is stored at index i * PADDING
+     */
+    private final AtomicLongArray cells;
+
+    /**
+     * The number of cells
+     */
+    private final int stripes;
+
+    /**
+     * Held while cells are merged
+     */
+    private final ReentrantLock mergeLock = new ReentrantLock();
+
+    /**
+     * Construct a counter.
+     *
+     * @param stripes an int representing the number of cells to split the counter across
+     * @param initial a long representing the initial, non-negative value of the counter
+     */
+    StripedCounter(int stripes, long initial) {
+        this.stripes = stripes;
+        this.cells = new AtomicLongArray(stripes * PADDING);
+        this.cells.set(0, initial);
+    }
+
+    /**
+     * Add a delta to this counter, unless it would make the counter negative.
+     *
+     * @param delta a long representing the amount to add
+     * @return true if the delta was added, or false if the counter holds less than -delta
+     */
+    boolean tryAdd(long delta) {
+        int home = home();
+
+        if (delta >= 0) {
+            cells.getAndAdd(home * PADDING, delta);
+            return true;
+        }
+
+        long needed = -delta;
+
+        for (int i = 0; i < stripes; i++) {
+            int index = ((home + i) % stripes) * PADDING;
+            long value = cells.get(index);
+
+            while (value >= needed) {
+                if (cells.compareAndSet(index, value, value - needed)) {
+                    return true;
+                }
+                value = cells.get(index);
+            }
+        }
+
+        // no cell covers the decrement on its own, so merge them all into this thread's cell and check the total
+        mergeLock.lock();
+        try {
+            long total = drain();
+            boolean covered = total >= needed;
+
+            cells.getAndAdd(home * PADDING, covered ? total - needed : total);
+            return covered;
+        } finally {
+            mergeLock.unlock();
+        }
+    }
+
+    /**
+     * Add a delta to this counter unconditionally. Used to undo an adjustment that could not be made durable.
+     *
+     * @param delta a long representing the amount to add
+     */
+    void add(long delta) {
+        cells.getAndAdd(home() * PADDING, delta);
+    }
+
+    /**
+     * Replace the value of this counter. Increments made concurrently are kept on top of the new value.
+     *
+     * @param value a long representing the new, non-negative value
+     * @return the value the counter held before it was replaced
+     */
+    long set(long value) {
+        mergeLock.lock();
+        try {
+            long previous = drain();
+            cells.getAndAdd(0, value);
+            return previous;
+        } finally {
+            mergeLock.unlock();
+        }
+    }
+
+    /**
+     * Get the value of this counter. The cells are read one by one without locking, so under concurrent updates
+     * the sum may not be a value the counter held at any single instant, and may briefly miss stock that is being
+     * merged between cells. It is exact once writers are quiet.
+     *
+     * @return the sum of all cells
+     */
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < stripes; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Empty every cell. Must be called with the merge lock held; writers that find a cell emptied while they
+     * scan fall through to the lock, and so see the merged total once it is released.
+     *
+     * @return the sum of the emptied cells
+     */
+    private long drain() {
+        long total = 0;
+        for (int i = 0; i < stripes; i++) {
+            total += cells.getAndSet(i * PADDING, 0);
+        }
+        return total;
+    }
+
+    /**
+     * Get the cell the current thread starts from. Thread IDs are mixed, since sequentially created threads
+     * would otherwise cycle through the cells in lockstep.
+     *
+     * @return an int representing the index of the cell
+     */
+    private int home() {
+        long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 32) % stripes);
+    }
+}
@@ -5,6 +5,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonView;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.util.HashSet;
@@ -13,8 +15,14 @@ import java.util.Set;
 
 /**
  * This class describes a named collection of inventory items.
+ * <p>
+ * Collections and their sets of items are held in Hibernate's second-level cache, see
+ * {@link com.chwonghm.cache.SecondLevelCacheConfiguration}.
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "collection")
+@Table(indexes = @Index(name = "idx_collection_name", columnList = "name"))
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
 public class Collection {
 
@@ -22,7 +30,8 @@ public class Collection {
      * The ID of this collection
      */
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "collection_seq")
+    @SequenceGenerator(name = "collection_seq", sequenceName = "collection_seq", allocationSize = 50)
     @Column(name = "collection_id")
     @JsonView({ Views.Collection.class, Views.Item.class })
     private long id;
@@ -34,10 +43,18 @@ public class Collection {
     @JsonView({ Views.Collection.class, Views.Item.class })
     private String name;
 
+    /**
+     * The version of this collection, incremented by every committed change to it
+     */
+    @Version
+    @JsonIgnore
+    private long version;
+
     /**
      * The grocery items in this collection
      */
     @ManyToMany(mappedBy = "collections")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "collection.items")
     @JsonView(Views.Collection.class)
     private Set<Item> items;
 
@@ -95,6 +112,16 @@ public class Collection {
         this.name = name;
     }
 
+    /**
+     * Get the version of this collection. Since items own their membership, adding or removing
+     * items does not change the version of a collection.
+     *
+     * @return the version of this collection
+     */
+    public long getVersion() {
+        return version;
+    }
+
     /**
      * Get the items in this collection
      *
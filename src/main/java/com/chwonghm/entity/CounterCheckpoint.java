@@ -0,0 +1,77 @@
+package com.chwonghm.entity;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Records how far the hot counter redo log has been applied to item counts. A single row is kept, and updated
+ * in the same transaction as the counts it covers, so that no logged adjustment is applied twice.
+ *
+ * @author Charles Wong
+ */
+@Entity
+@Table(name = "counter_checkpoint")
+public class CounterCheckpoint {
+
+    /**
+     * The ID of the only checkpoint row
+     */
+    public static final long ID = 1L;
+
+    /**
+     * The ID of this checkpoint
+     */
+    @Id
+    private long id;
+
+    /**
+     * The sequence number of the last applied redo log record
+     */
+    private long sequence;
+
+    /**
+     * Construct a checkpoint.
+     * <p>
+     * Empty constructor required by JPA
+     */
+    public CounterCheckpoint() {
+    }
+
+    /**
+     * Construct the checkpoint row for a sequence number
+     *
+     * @param sequence a long representing the sequence number of the last applied redo log record
+     */
+    public CounterCheckpoint(long sequence) {
+        this.id = ID;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Get the ID of this checkpoint
+     *
+     * @return the ID of this checkpoint
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Get the sequence number of the last applied redo log record
+     *
+     * @return the sequence number of the last applied redo log record
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Set the sequence number of the last applied redo log record
+     *
+     * @param sequence a long representing the sequence number of the last applied redo log record
+     */
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+}
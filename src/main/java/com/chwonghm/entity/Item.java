@@ -4,6 +4,8 @@ import com.chwonghm.controller.Views;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonView;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.util.HashSet;
@@ -12,10 +14,16 @@ import java.util.Set;
 
 /**
  * This class defines an inventory item, which has its own unique numeric ID, as well as some string name.
+ * <p>
+ * Items and their sets of collections are held in Hibernate's second-level cache, see
+ * {@link com.chwonghm.cache.SecondLevelCacheConfiguration}.
  *
  * @author Charles Wong
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "item")
+@Table(indexes = @Index(name = "idx_item_name", columnList = "name"))
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
 @JsonView({ Views.Collection.class, Views.Item.class })
 public class Item {
@@ -24,7 +32,8 @@ public class Item {
      * The unique ID of this inventory item
      */
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "item_seq")
+    @SequenceGenerator(name = "item_seq", sequenceName = "item_seq", allocationSize = 50)
     @Column(name = "list_id")
     private long id;
 
@@ -39,6 +48,13 @@ public class Item {
      */
     private long count;
 
+    /**
+     * The version of this inventory item, incremented by every committed change to it
+     */
+    @Version
+    @JsonIgnore
+    private long version;
+
     /**
      * The collections this item belongs to
      */
@@ -54,6 +70,7 @@ public class Item {
                     referencedColumnName = "collection_id"
             )
     )
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "item.collections")
     @JsonView(Views.Item.class)
     private Set<Collection> collections;
 
@@ -76,6 +93,41 @@ public class Item {
         this.collections = new HashSet<>();
     }
 
+    /**
+     * Construct a named inventory item with an initial count, placed in some collections.
+     * <p>
+     * Only this item's side of the relationship is set; the item sets of the provided collections
+     * are not updated. This avoids loading every item of each collection when creating items in bulk,
+     * but means the provided collections must not be used again in the same persistence context, and their
+     * cached item sets must be evicted, see {@link com.chwonghm.cache.SecondLevelCache}.
+     *
+     * @param name        the String name for the item
+     * @param count       a long representing the initial count of the item
+     * @param collections the Set of collections to place the item in
+     */
+    public Item(String name, long count, Set<Collection> collections) {
+        this.name = name;
+        this.count = count;
+        this.collections = new HashSet<>(collections);
+    }
+
+    /**
+     * Create a detached copy of this item with a different count, sharing this item's collections. Used to
+     * serve counts held outside the item table without modifying a cached item.
+     *
+     * @param count a long representing the count of the copy
+     * @return the copied Item
+     */
+    public Item withCount(long count) {
+        Item copy = new Item();
+        copy.id = id;
+        copy.name = name;
+        copy.count = count;
+        copy.version = version;
+        copy.collections = collections;
+        return copy;
+    }
+
     /**
      * Get the ID of this item
      *
@@ -130,6 +182,16 @@ public class Item {
         this.count = count;
     }
 
+    /**
+     * Get the version of this item. Changes to the name, count or collections of this item
+     * all increment its version.
+     *
+     * @return the version of this item
+     */
+    public long getVersion() {
+        return version;
+    }
+
     /**
      * Get the collections this item belongs to
      *
@@ -0,0 +1,112 @@
+package com.chwonghm.event;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Collects the changes a transaction makes to some in-memory state, and applies them together once it commits.
+ * Changes made outside of a transaction are applied immediately; those of a transaction that rolls back are
+ * dropped.
+ * <p>
+ * Components whose changes fit {@link InventoryChangeEvent} should listen for it instead. This is for those that
+ * need the details of each change, in order, such as the change journal and the in-memory indexes.
+ * <p>
+ * A transaction suspended by an inner REQUIRES_NEW transaction keeps its batch aside; the inner transaction's changes
+ * are applied when it commits, and the outer transaction's when it does.
+ *
+ * @param <B> the type of a batch of changes
+ * @author Charles Wong
+ */
+public final class CommitBuffer<B> {
+
+    /**
+     * Creates an empty batch
+     */
+    private final Supplier<B> newBatch;
+
+    /**
+     * Applies a batch of changes
+     */
+    private final Consumer<B> apply;
+
+    /**
+     * Constructs a buffer. Each transaction's batch is bound to it as a transaction resource.
+     *
+     * @param newBatch a Supplier of empty batches
+     * @param apply    a Consumer applying a batch of changes; exceptions it throws after a commit reach the
+     *                 committing caller
+     */
+    public CommitBuffer(Supplier<B> newBatch, Consumer<B> apply) {
+        this.newBatch = newBatch;
+        this.apply = apply;
+    }
+
+    /**
+     * Add a change to the current transaction's batch, or apply it immediately outside of a transaction
+     *
+     * @param change a Consumer adding the change to a batch
+     */
+    public void add(Consumer<B> change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            B batch = newBatch.get();
+            change.accept(batch);
+            apply.accept(batch);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        B batch = (B) TransactionSynchronizationManager.getResource(this);
+
+        if (batch == null) {
+            batch = newBatch.get();
+            TransactionSynchronizationManager.bindResource(this, batch);
+            TransactionSynchronizationManager.registerSynchronization(new BatchSynchronization(batch));
+        }
+
+        change.accept(batch);
+    }
+
+    /**
+     * Applies a transaction's batch once it commits. While the transaction is suspended, such as by an inner
+     * REQUIRES_NEW transaction, its batch is unbound, so that the inner transaction collects a batch of its own.
+     */
+    private final class BatchSynchronization implements TransactionSynchronization {
+
+        /**
+         * The batch of the transaction
+         */
+        private final B batch;
+
+        /**
+         * Constructs a synchronization for a batch bound to the current transaction.
+         *
+         * @param batch the batch of the transaction
+         */
+        private BatchSynchronization(B batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(CommitBuffer.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(CommitBuffer.this, batch);
+        }
+
+        @Override
+        public void afterCommit() {
+            apply.accept(batch);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(CommitBuffer.this);
+        }
+    }
+}
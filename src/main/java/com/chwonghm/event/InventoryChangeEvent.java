@@ -0,0 +1,82 @@
+package com.chwonghm.event;
+
+import java.util.Set;
+
+/**
+ * An event published by the service layer whenever inventory data is modified. Listeners that keep derived
+ * state, such as caches, should listen for this event after the modifying transaction commits.
+ * <p>
+ * Each event lists every item and collection whose serialized form may have changed, including the other side
+ * of any membership change.
+ *
+ * @author Charles Wong
+ */
+public class InventoryChangeEvent {
+
+    /**
+     * The kinds of modification that produce an event
+     */
+    public enum Type {
+        ITEM_CREATED,
+        ITEM_UPDATED,
+        ITEM_DELETED,
+        COLLECTION_CREATED,
+        COLLECTION_DELETED,
+        MEMBERSHIP_CHANGED
+    }
+
+    /**
+     * The kind of modification
+     */
+    private final Type type;
+
+    /**
+     * The IDs of all items affected by the modification
+     */
+    private final Set<Long> itemIds;
+
+    /**
+     * The IDs of all collections affected by the modification
+     */
+    private final Set<Long> collectionIds;
+
+    /**
+     * Construct an event.
+     *
+     * @param type          the Type of modification
+     * @param itemIds       a Set of longs representing the IDs of all affected items
+     * @param collectionIds a Set of longs representing the IDs of all affected collections
+     */
+    public InventoryChangeEvent(Type type, Set<Long> itemIds, Set<Long> collectionIds) {
+        this.type = type;
+        this.itemIds = Set.copyOf(itemIds);
+        this.collectionIds = Set.copyOf(collectionIds);
+    }
+
+    /**
+     * Get the kind of modification
+     *
+     * @return the Type of modification
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the IDs of all items affected by the modification
+     *
+     * @return a Set of longs representing item IDs
+     */
+    public Set<Long> getItemIds() {
+        return itemIds;
+    }
+
+    /**
+     * Get the IDs of all collections affected by the modification
+     *
+     * @return a Set of longs representing collection IDs
+     */
+    public Set<Long> getCollectionIds() {
+        return collectionIds;
+    }
+}
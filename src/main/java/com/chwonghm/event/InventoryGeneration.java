@@ -0,0 +1,59 @@
+package com.chwonghm.event;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A global generation number for all inventory data, incremented after every committed change. Any two reads
+ * made at the same generation see the same data, so the generation can be used to validate cached responses
+ * without touching the database.
+ * <p>
+ * Generations restart from zero on every run of the application, so they are qualified by an epoch identifying
+ * the run.
+ *
+ * @author Charles Wong
+ */
+@Component
+public class InventoryGeneration {
+
+    /**
+     * Identifies this run of the application
+     */
+    private final long epoch = System.currentTimeMillis();
+
+    /**
+     * The current generation
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Increment the generation once a change has been committed.
+     *
+     * @param event the InventoryChangeEvent describing the change
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onInventoryChange(InventoryChangeEvent event) {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Get the epoch identifying this run of the application
+     *
+     * @return a long representing the epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Get the current generation. A value read before some data is loaded is never newer than that data.
+     *
+     * @return a long representing the current generation
+     */
+    public long current() {
+        return generation.get();
+    }
+}
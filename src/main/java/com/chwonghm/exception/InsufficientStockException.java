@@ -0,0 +1,18 @@
+package com.chwonghm.exception;
+
+/**
+ * An exception thrown when attempting to reduce the count of an inventory item below zero.
+ *
+ * @author Charles Wong
+ */
+public class InsufficientStockException extends Exception {
+
+    /**
+     * Constructs an exception with some custom message.
+     *
+     * @param msg the String message to initialize this exception with
+     */
+    public InsufficientStockException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,19 @@
+package com.chwonghm.exception;
+
+/**
+ * An exception thrown when a request is well-formed, but contains values that cannot be
+ * acted upon, such as a malformed pagination cursor.
+ *
+ * @author Charles Wong
+ */
+public class InvalidRequestException extends Exception {
+
+    /**
+     * Constructs an exception with some custom message.
+     *
+     * @param msg the String message to initialize this exception with
+     */
+    public InvalidRequestException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,442 @@
+package com.chwonghm.journal;
+
+import com.chwonghm.event.CommitBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An append-only journal of every committed inventory mutation, kept in memory-mapped segment files. Services
+ * {@link #record(ChangeRecord)} their mutations as they make them; the records of a transaction are appended
+ * together once it commits, and dropped if it rolls back, so requests never wait on the journal's disk.
+ * <p>
+ * Appending copies a record into the mapped segment under a short lock. A background thread forces the segment
+ * to disk every force interval, without holding the lock, so the cost of a force is shared by every record
+ * appended since the last one; a crash loses at most one interval of records. Once a segment is full, the next
+ * one starts at the offset following it, so the offset of a record is unique and stable across segments.
+ * <p>
+ * Records are read back with a {@link JournalReader}, which can replay the journal from any retained offset and
+ * then keep tailing it.
+ *
+ * @author Charles Wong
+ */
+@Component
+public class ChangeJournal implements InitializingBean, DisposableBean {
+
+    /**
+     * Logger for recovery and append failures
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeJournal.class);
+
+    /**
+     * The file name suffix of segments
+     */
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    /**
+     * Whether the journal is kept at all
+     */
+    private final boolean enabled;
+
+    /**
+     * The records of each transaction, in the order they were recorded, appended once it commits
+     */
+    private final CommitBuffer<List<ChangeRecord>> pendingRecords =
+            new CommitBuffer<>(ArrayList::new, this::appendCommitted);
+
+    /**
+     * The directory holding the segments
+     */
+    private final Path directory;
+
+    /**
+     * The size in bytes of new segments
+     */
+    private final long segmentSize;
+
+    /**
+     * The interval between forces of the current segment
+     */
+    private final Duration forceInterval;
+
+    /**
+     * The number of segments to keep, or 0 to keep all of them
+     */
+    private final int retainedSegments;
+
+    /**
+     * Held while appending or rolling
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The channel of the current segment
+     */
+    private FileChannel channel;
+
+    /**
+     * The mapped current segment, positioned at the end of its records
+     */
+    private MappedByteBuffer segment;
+
+    /**
+     * The offset of the first byte of the current segment
+     */
+    private long segmentBase;
+
+    /**
+     * The offset following the last appended record
+     */
+    private volatile long endOffset;
+
+    /**
+     * The offset up to which records have been forced to disk
+     */
+    private volatile long forcedOffset;
+
+    /**
+     * The thread forcing the current segment, or null while disabled
+     */
+    private ScheduledExecutorService forcer;
+
+    /**
+     * Constructs the journal. Nothing is opened until the bean is initialized.
+     *
+     * @param enabled          a boolean representing whether the journal is kept
+     * @param directory        the String path of the directory holding the segments
+     * @param segmentSize      the DataSize of new segments
+     * @param forceInterval    the Duration between forces of the current segment
+     * @param retainedSegments an int representing the number of segments to keep, or 0 to keep all of them
+     */
+    public ChangeJournal(@Value("${shopify-demo.journal.enabled:false}") boolean enabled,
+                         @Value("${shopify-demo.journal.directory:./data/journal}") String directory,
+                         @Value("${shopify-demo.journal.segment-size:64MB}") DataSize segmentSize,
+                         @Value("${shopify-demo.journal.force-interval:10ms}") Duration forceInterval,
+                         @Value("${shopify-demo.journal.retained-segments:0}") int retainedSegments) {
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.segmentSize = Math.max(segmentSize.toBytes(), ChangeRecord.FIXED_SIZE + ChangeRecord.MAX_NAME_BYTES);
+        this.forceInterval = forceInterval;
+        this.retainedSegments = retainedSegments;
+    }
+
+    /**
+     * Open the last segment, or create the first one, and start forcing it.
+     *
+     * @throws IOException if the directory or the last segment cannot be opened
+     */
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        Files.createDirectories(directory);
+
+        List<Long> bases = segmentBases(directory);
+
+        if (bases.isEmpty()) {
+            openSegment(0);
+        } else {
+            recoverSegment(bases.get(bases.size() - 1));
+        }
+
+        forcedOffset = endOffset;
+
+        forcer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "change-journal-force");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        forcer.scheduleWithFixedDelay(this::forceQuietly, forceInterval.toMillis(), forceInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop forcing, force the current segment a final time and close it.
+     *
+     * @throws IOException if the current segment cannot be closed
+     */
+    @Override
+    public void destroy() throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        forcer.shutdown();
+
+        lock.lock();
+        try {
+            segment.force();
+            forcedOffset = endOffset;
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record a mutation. Within a transaction, the record is appended once the transaction commits; otherwise it
+     * is appended immediately. If the journal is disabled, nothing is recorded.
+     *
+     * @param record the ChangeRecord of the mutation
+     */
+    public void record(ChangeRecord record) {
+        if (!enabled) {
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            append(List.of(record));
+            return;
+        }
+
+        pendingRecords.add(records -> records.add(record));
+    }
+
+    /**
+     * Append the records of a committed transaction
+     *
+     * @param records a List of the ChangeRecords of the transaction, in the order they were recorded
+     */
+    private void appendCommitted(List<ChangeRecord> records) {
+        try {
+            append(records);
+        } catch (RuntimeException e) {
+            // the transaction has committed; failing the request now would only hide that
+            LOG.error("Could not journal {} committed changes", records.size(), e);
+        }
+    }
+
+    /**
+     * Check whether the journal is kept
+     *
+     * @return true if mutations are journaled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the offset following the last appended record, where a reader caught up with the journal stands
+     *
+     * @return the end offset of the journal
+     */
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * Get the offset up to which records are known to be on disk
+     *
+     * @return the forced offset of the journal
+     */
+    public long getForcedOffset() {
+        return forcedOffset;
+    }
+
+    /**
+     * Get the offset of the oldest retained record
+     *
+     * @return the start offset of the journal
+     * @throws IOException if the directory cannot be listed
+     */
+    public long getStartOffset() throws IOException {
+        List<Long> bases = segmentBases(directory);
+        return bases.isEmpty() ? 0 : bases.get(0);
+    }
+
+    /**
+     * Open a reader positioned at an offset. The reader sees every record appended before it reaches the end of
+     * the journal, including those not yet forced to disk.
+     *
+     * @param offset a long representing the offset of the first record to read, such as the offset of a record
+     *               or a previously returned end offset
+     * @return a JournalReader positioned at the offset
+     * @throws IOException if the offset is no longer retained, or its segment cannot be read
+     */
+    public JournalReader openReader(long offset) throws IOException {
+        if (!enabled) {
+            throw new IllegalStateException("The change journal is disabled; set shopify-demo.journal.enabled");
+        }
+
+        return new JournalReader(directory, offset, this::getEndOffset);
+    }
+
+    /**
+     * Append records to the current segment, rolling to a new segment whenever one is full.
+     *
+     * @param records the List of ChangeRecords to append, kept together unless a segment fills up
+     */
+    private void append(List<ChangeRecord> records) {
+        List<byte[]> encoded = new ArrayList<>(records.size());
+        for (ChangeRecord record : records) {
+            encoded.add(record.encode());
+        }
+
+        lock.lock();
+        try {
+            for (byte[] bytes : encoded) {
+                if (segment.remaining() < bytes.length) {
+                    roll();
+                }
+
+                segment.put(bytes);
+            }
+
+            endOffset = segmentBase + segment.position();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Force the full current segment, and start a new one at the following offset. Must be called with the lock
+     * held.
+     *
+     * @throws IOException if the new segment cannot be created
+     */
+    private void roll() throws IOException {
+        segment.force();
+        channel.close();
+
+        // readers find the next segment as soon as the end offset passes this one
+        endOffset = segmentBase + segment.position();
+        forcedOffset = endOffset;
+
+        openSegment(segmentBase + segment.capacity());
+
+        if (retainedSegments > 0) {
+            List<Long> bases = segmentBases(directory);
+
+            for (int i = 0; i < bases.size() - retainedSegments; i++) {
+                Files.deleteIfExists(segmentPath(directory, bases.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Create and map a new, empty segment. Must be called with the lock held, or before the journal is in use.
+     *
+     * @param base a long representing the offset of the first byte of the segment
+     * @throws IOException if the segment cannot be created
+     */
+    private void openSegment(long base) throws IOException {
+        channel = FileChannel.open(segmentPath(directory, base), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segmentBase = base;
+        endOffset = base;
+    }
+
+    /**
+     * Map the last segment left by a previous run, and position it after its last valid record. Anything after
+     * that record, such as a record torn by a crash, is zeroed so that it cannot be mistaken for a later one.
+     *
+     * @param base a long representing the offset of the first byte of the segment
+     * @throws IOException if the segment cannot be opened
+     */
+    private void recoverSegment(long base) throws IOException {
+        channel = FileChannel.open(segmentPath(directory, base), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        segmentBase = base;
+
+        int records = 0;
+        while (ChangeRecord.decode(segment, base + segment.position()) != null) {
+            records++;
+        }
+
+        // a torn record cannot extend further than the largest possible record
+        int end = segment.position();
+        int limit = (int) Math.min(segment.capacity(),
+                (long) end + ChangeRecord.FIXED_SIZE + ChangeRecord.MAX_NAME_BYTES);
+        for (int i = end; i < limit; i++) {
+            segment.put(i, (byte) 0);
+        }
+
+        endOffset = base + end;
+
+        LOG.info("Opened change journal segment {} with {} records, ending at offset {}", base, records, endOffset);
+    }
+
+    /**
+     * Force the current segment to disk, for use by the force thread. The force runs outside the lock, so appends
+     * continue meanwhile; a segment rolled in the meantime has already been forced by the roll.
+     */
+    private void forceQuietly() {
+        MappedByteBuffer current;
+        long target;
+
+        lock.lock();
+        try {
+            current = segment;
+            target = endOffset;
+        } finally {
+            lock.unlock();
+        }
+
+        if (target <= forcedOffset) {
+            return;
+        }
+
+        try {
+            current.force();
+            forcedOffset = Math.max(forcedOffset, target);
+        } catch (RuntimeException e) {
+            LOG.error("Could not force change journal segment at offset {}", target, e);
+        }
+    }
+
+    /**
+     * List the base offsets of the segments in a directory
+     *
+     * @param directory the Path of the directory holding the segments
+     * @return a List of the base offsets, in ascending order
+     * @throws IOException if the directory cannot be listed
+     */
+    static List<Long> segmentBases(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Get the path of a segment
+     *
+     * @param directory the Path of the directory holding the segments
+     * @param base      a long representing the offset of the first byte of the segment
+     * @return the Path of the segment file
+     */
+    static Path segmentPath(Path directory, long base) {
+        return directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+}
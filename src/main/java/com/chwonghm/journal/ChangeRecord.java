@@ -0,0 +1,421 @@
+package com.chwonghm.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * A single inventory mutation, as stored in the {@link ChangeJournal}. Every record has the same fixed fields;
+ * the ones that do not apply to its type are zero, and its name is null unless the mutation set one.
+ * <p>
+ * Records naming an item carry the version the item's row committed with. Records are appended as their
+ * transactions' commit callbacks run, which is not always the order the transactions committed in, so two records of
+ * the same item can appear out of order. A consumer keeping the latest state of each item discards a record whose
+ * version is lower than that of a record it already applied to the item. Records of hot counts change no row, so
+ * they carry {@link #UNVERSIONED} and are applied in journal order; a deletion carries {@link Long#MAX_VALUE}, so that
+ * every record of the item after it is discarded.
+ * <p>
+ * Records are encoded as:
+ * <pre>
+ *     int    length of the whole record, in bytes
+ *     byte   type
+ *     long   timestamp, in milliseconds since the epoch
+ *     long   item ID
+ *     long   collection ID
+ *     long   value: the new count, or the delta of an adjustment
+ *     long   version of the item
+ *     short  length of the UTF-8 name, or -1 if there is none
+ *     byte[] name
+ *     int    CRC32 of everything from the type to the end of the name
+ * </pre>
+ * A length of zero marks the end of the records in a segment.
+ *
+ * @author Charles Wong
+ */
+public final class ChangeRecord {
+
+    /**
+     * The size in bytes of a record without a name
+     */
+    static final int FIXED_SIZE = Integer.BYTES + 1 + 5 * Long.BYTES + Short.BYTES + Integer.BYTES;
+
+    /**
+     * The maximum length in bytes of an encoded name
+     */
+    static final int MAX_NAME_BYTES = Short.MAX_VALUE;
+
+    /**
+     * The version of a record whose mutation changed no row, such as one to a hot count
+     */
+    public static final long UNVERSIONED = -1;
+
+    /**
+     * The kinds of mutation recorded
+     */
+    public enum Type {
+        ITEM_CREATED,
+        ITEM_RENAMED,
+        ITEM_COUNT_SET,
+        ITEM_COUNT_ADJUSTED,
+        ITEM_DELETED,
+        COLLECTION_CREATED,
+        COLLECTION_DELETED,
+        MEMBERSHIP_ADDED,
+        MEMBERSHIP_REMOVED
+    }
+
+    /**
+     * The kind of mutation
+     */
+    private final Type type;
+
+    /**
+     * When the mutation was recorded, in milliseconds since the epoch
+     */
+    private final long timestamp;
+
+    /**
+     * The ID of the mutated item, or 0
+     */
+    private final long itemId;
+
+    /**
+     * The ID of the mutated collection, or 0
+     */
+    private final long collectionId;
+
+    /**
+     * The new count, or the delta of an adjustment, or 0
+     */
+    private final long value;
+
+    /**
+     * The version of the mutated item once the mutation committed, or 0
+     */
+    private final long version;
+
+    /**
+     * The new name, or null
+     */
+    private final String name;
+
+    /**
+     * The journal offset of this record, or -1 if it has not been read from a journal
+     */
+    private final long offset;
+
+    /**
+     * Construct a record.
+     *
+     * @param type         the Type of mutation
+     * @param timestamp    a long representing when the mutation was recorded, in milliseconds since the epoch
+     * @param itemId       a long representing the ID of the mutated item, or 0
+     * @param collectionId a long representing the ID of the mutated collection, or 0
+     * @param value        a long representing the new count, or the delta of an adjustment, or 0
+     * @param version      a long representing the version of the mutated item, or 0
+     * @param name         the new String name, or null
+     * @param offset       a long representing the journal offset of the record, or -1
+     */
+    private ChangeRecord(Type type, long timestamp, long itemId, long collectionId, long value, long version,
+                         String name, long offset) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.itemId = itemId;
+        this.collectionId = collectionId;
+        this.value = value;
+        this.version = version;
+        this.name = name;
+        this.offset = offset;
+    }
+
+    /**
+     * Construct a record of a mutation happening now.
+     *
+     * @param type         the Type of mutation
+     * @param itemId       a long representing the ID of the mutated item, or 0
+     * @param collectionId a long representing the ID of the mutated collection, or 0
+     * @param value        a long representing the new count, or the delta of an adjustment, or 0
+     * @param version      a long representing the version of the mutated item, or 0
+     * @param name         the new String name, or null
+     * @return the ChangeRecord
+     */
+    private static ChangeRecord now(Type type, long itemId, long collectionId, long value, long version,
+                                    String name) {
+        return new ChangeRecord(type, System.currentTimeMillis(), itemId, collectionId, value, version, name, -1);
+    }
+
+    /**
+     * Record the creation of an item
+     *
+     * @param itemId  a long representing the ID of the item
+     * @param version a long representing the version of the item once the mutation committed
+     * @param name    the String name of the item
+     * @param count   a long representing the initial count of the item
+     * @return the ChangeRecord
+     */
+    public static ChangeRecord itemCreated(long itemId, long version, String name, long count) {
+        return now(Type.ITEM_CREATED, itemId, 0, count, version, name);
+    }
+
+    /**
+     * Record the renaming of an item
+     *
+     * @param itemId  a long representing the ID of the item
+     * @param version a long representing the version of the item once the mutation committed
+     * @param name    the new String name of the item
+     * @return the ChangeRecord
+     */
+    public static ChangeRecord itemRenamed(long itemId, long version, String name) {
+        return now(Type.ITEM_RENAMED, itemId, 0, 0, version, name);
+    }
+
+    /**
+     * Record the replacement of an item's count
+     *
+     * @param itemId  a long representing the ID of the item
+     * @param version a long representing the version of the item once the mutation committed, or
+     *                {@link #UNVERSIONED} for a hot count
+     * @param count   a long representing the new count of the item
+     * @return the ChangeRecord
+     */
+    public static ChangeRecord itemCountSet(long itemId, long version, long count) {
+        return now(Type.ITEM_COUNT_SET, itemId, 0, count, version, null);
+    }
+
+    /**
+     * Record an adjustment to an item's count
+     *
+     * @param itemId  a long representing the ID of the item
+     * @param version a long representing the version of the item once the mutation committed, or
+     *                {@link #UNVERSIONED} for a hot count
+     * @param delta   a long representing the amount added to the item's count
+     * @return the ChangeRecord
+     */
+    public static ChangeRecord itemCountAdjusted(long itemId, long version, long delta) {
+        return now(Type.ITEM_COUNT_ADJUSTED, itemId, 0, delta, version, null);
+    }
+
+    /**
+     * Record the deletion of an item. The record carries the greatest possible version, since nothing follows it.
+     *
+     * @param itemId a long representing the ID of the item
+     * @return the ChangeRecord
+     */
+    public static ChangeRecord itemDeleted(long itemId) {
+        return now(Type.ITEM_DELETED, itemId, 0, 0, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Record the creation of a collection
+     *
+     * @param collectionId a long representing the ID of the collection
+     * @param name         the String name of the collection
+     * @return the ChangeRecord
+     */
+    public static ChangeRecord collectionCreated(long collectionId, String name) {
+        return now(Type.COLLECTION_CREATED, 0, collectionId, 0, 0, name);
+    }
+
+    /**
+     * Record the deletion of a collection
+     *
+     * @param collectionId a long representing the ID of the collection
+     * @return the ChangeRecord
+     */
+    public static ChangeRecord collectionDeleted(long collectionId) {
+        return now(Type.COLLECTION_DELETED, 0, collectionId, 0, 0, null);
+    }
+
+    /**
+     * Record the addition of an item to a collection
+     *
+     * @param itemId       a long representing the ID of the item
+     * @param version      a long representing the version of the item once the mutation committed
+     * @param collectionId a long representing the ID of the collection
+     * @return the ChangeRecord
+     */
+    public static ChangeRecord membershipAdded(long itemId, long version, long collectionId) {
+        return now(Type.MEMBERSHIP_ADDED, itemId, collectionId, 0, version, null);
+    }
+
+    /**
+     * Record the removal of an item from a collection
+     *
+     * @param itemId       a long representing the ID of the item
+     * @param version      a long representing the version of the item once the mutation committed
+     * @param collectionId a long representing the ID of the collection
+     * @return the ChangeRecord
+     */
+    public static ChangeRecord membershipRemoved(long itemId, long version, long collectionId) {
+        return now(Type.MEMBERSHIP_REMOVED, itemId, collectionId, 0, version, null);
+    }
+
+    /**
+     * Encode this record.
+     *
+     * @return a byte array holding the encoded record
+     */
+    byte[] encode() {
+        byte[] nameBytes = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+
+        if (nameBytes != null && nameBytes.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Name too long to journal: " + nameBytes.length + " bytes");
+        }
+
+        int nameLength = nameBytes == null ? 0 : nameBytes.length;
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_SIZE + nameLength);
+
+        buffer.putInt(FIXED_SIZE + nameLength)
+                .put((byte) type.ordinal())
+                .putLong(timestamp)
+                .putLong(itemId)
+                .putLong(collectionId)
+                .putLong(value)
+                .putLong(version)
+                .putShort(nameBytes == null ? -1 : (short) nameLength);
+
+        if (nameBytes != null) {
+            buffer.put(nameBytes);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), Integer.BYTES, buffer.position() - Integer.BYTES);
+        buffer.putInt((int) crc.getValue());
+
+        return buffer.array();
+    }
+
+    /**
+     * Decode the record at the position of a buffer, advancing the position past it if it is valid.
+     *
+     * @param buffer the ByteBuffer to decode from
+     * @param offset a long representing the journal offset of the record
+     * @return the decoded ChangeRecord, or null if the buffer holds no complete, valid record at its position
+     */
+    static ChangeRecord decode(ByteBuffer buffer, long offset) {
+        int start = buffer.position();
+
+        if (buffer.remaining() < FIXED_SIZE) {
+            return null;
+        }
+
+        int length = buffer.getInt(start);
+
+        if (length < FIXED_SIZE || length > FIXED_SIZE + MAX_NAME_BYTES || length > buffer.remaining()) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(start + Integer.BYTES).limit(start + length - Integer.BYTES));
+
+        if ((int) crc.getValue() != buffer.getInt(start + length - Integer.BYTES)) {
+            return null;
+        }
+
+        ByteBuffer record = buffer.duplicate().position(start + Integer.BYTES);
+
+        int typeIndex = record.get();
+        long timestamp = record.getLong();
+        long itemId = record.getLong();
+        long collectionId = record.getLong();
+        long value = record.getLong();
+        long version = record.getLong();
+        short nameLength = record.getShort();
+
+        if (typeIndex < 0 || typeIndex >= Type.values().length || Math.max(nameLength, 0) != length - FIXED_SIZE) {
+            return null;
+        }
+
+        String name = null;
+        if (nameLength >= 0) {
+            byte[] nameBytes = new byte[nameLength];
+            record.get(nameBytes);
+            name = new String(nameBytes, StandardCharsets.UTF_8);
+        }
+
+        buffer.position(start + length);
+
+        return new ChangeRecord(Type.values()[typeIndex], timestamp, itemId, collectionId, value, version, name,
+                offset);
+    }
+
+    /**
+     * Get the kind of mutation
+     *
+     * @return the Type of mutation
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get when the mutation was recorded
+     *
+     * @return the time of the mutation, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Get the ID of the mutated item
+     *
+     * @return the ID of the mutated item, or 0 if no item was mutated
+     */
+    public long getItemId() {
+        return itemId;
+    }
+
+    /**
+     * Get the ID of the mutated collection
+     *
+     * @return the ID of the mutated collection, or 0 if no collection was mutated
+     */
+    public long getCollectionId() {
+        return collectionId;
+    }
+
+    /**
+     * Get the new count of an item, or the delta of an adjustment to it
+     *
+     * @return the new count or delta, or 0 if no count was changed
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Get the version of the mutated item once the mutation committed. Of two records of the same item, the one with
+     * the lower version committed first, whatever their order in the journal.
+     *
+     * @return the version of the item, {@link #UNVERSIONED} if the mutation changed no row, or 0 if no item was
+     *         mutated
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the new name of an item or collection
+     *
+     * @return the new String name, or null if no name was set
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the journal offset of this record, which can be passed to {@link ChangeJournal#openReader(long)}
+     *
+     * @return the offset of this record, or -1 if it has not been read from a journal
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s item=%d collection=%d value=%d version=%d name=%s @%d", type, itemId, collectionId,
+                value, version, name, offset);
+    }
+}
@@ -0,0 +1,182 @@
+package com.chwonghm.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Reads records from a {@link ChangeJournal}, starting at some offset. A reader returns every record up to the end
+ * of the journal, and then null until more records are appended, so the same reader serves both to replay the
+ * journal and to keep tailing it:
+ * <pre>
+ *     try (JournalReader reader = journal.openReader(savedOffset)) {
+ *         while (running) {
+ *             ChangeRecord record = reader.next();
+ *             if (record == null) { sleep(); continue; }
+ *             apply(record);
+ *             savedOffset = reader.getOffset();
+ *         }
+ *     }
+ * </pre>
+ * Records come back in journal order, which is the order they were appended in. The records of one transaction are
+ * contiguous and in the order they were recorded, but transactions are appended as their commit callbacks run, so a
+ * transaction that committed first can be appended second. Consumers that need commit order for an item compare the
+ * {@link ChangeRecord#getVersion() versions} of its records rather than relying on their offsets.
+ * <p>
+ * Readers are not thread-safe; each consumer opens its own.
+ *
+ * @author Charles Wong
+ */
+public class JournalReader implements Closeable {
+
+    /**
+     * The directory holding the segments
+     */
+    private final Path directory;
+
+    /**
+     * Supplies the offset following the last record that may be read
+     */
+    private final LongSupplier endOffset;
+
+    /**
+     * The mapped segment being read, positioned at the next record
+     */
+    private MappedByteBuffer segment;
+
+    /**
+     * The offset of the first byte of the segment being read
+     */
+    private long segmentBase;
+
+    /**
+     * Open a reader.
+     *
+     * @param directory the Path of the directory holding the segments
+     * @param offset    a long representing the offset of the first record to read
+     * @param endOffset a LongSupplier of the offset following the last record that may be read
+     * @throws IOException if the offset is no longer retained, or its segment cannot be read
+     */
+    JournalReader(Path directory, long offset, LongSupplier endOffset) throws IOException {
+        this.directory = directory;
+        this.endOffset = endOffset;
+
+        List<Long> bases = ChangeJournal.segmentBases(directory);
+        long base = -1;
+
+        for (long candidate : bases) {
+            if (candidate <= offset) {
+                base = candidate;
+            }
+        }
+
+        if (base < 0) {
+            throw new IOException(String.format("Journal offset %d is no longer retained", offset));
+        }
+
+        map(base);
+
+        if (offset - base > segment.capacity()) {
+            throw new IOException(String.format("Journal offset %d is past the end of its segment", offset));
+        }
+
+        segment.position((int) (offset - base));
+    }
+
+    /**
+     * Open a reader over the segments in a directory, without a running journal, such as to inspect or replay the
+     * journal of a stopped application. The reader stops at the last valid record.
+     *
+     * @param directory the Path of the directory holding the segments
+     * @param offset    a long representing the offset of the first record to read
+     * @return a JournalReader positioned at the offset
+     * @throws IOException if the offset is not retained, or its segment cannot be read
+     */
+    public static JournalReader open(Path directory, long offset) throws IOException {
+        return new JournalReader(directory, offset, () -> Long.MAX_VALUE);
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return the next ChangeRecord, or null if the reader has caught up with the journal
+     * @throws IOException if the next segment cannot be read
+     */
+    public ChangeRecord next() throws IOException {
+        while (getOffset() < endOffset.getAsLong()) {
+            ChangeRecord record = ChangeRecord.decode(segment, getOffset());
+
+            if (record != null) {
+                return record;
+            }
+
+            // nothing valid here: the writer moved on to the next segment, or this is the end of the journal
+            long nextBase = segmentBase + segment.capacity();
+
+            if (!Files.exists(ChangeJournal.segmentPath(directory, nextBase))) {
+                return null;
+            }
+
+            map(nextBase);
+        }
+
+        return null;
+    }
+
+    /**
+     * Pass every record up to the end of the journal to a consumer.
+     *
+     * @param consumer the Consumer to pass the records to, in journal order
+     * @return a long representing the number of records read
+     * @throws IOException if a segment cannot be read
+     */
+    public long replay(Consumer<ChangeRecord> consumer) throws IOException {
+        long count = 0;
+
+        for (ChangeRecord record = next(); record != null; record = next()) {
+            consumer.accept(record);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the offset of the next record to read. Passing it to {@link ChangeJournal#openReader(long)} resumes
+     * reading where this reader stands.
+     *
+     * @return the offset of the next record
+     */
+    public long getOffset() {
+        return segmentBase + segment.position();
+    }
+
+    /**
+     * Release the segment being read. Mapped segments are unmapped by the garbage collector.
+     */
+    @Override
+    public void close() {
+        segment = null;
+    }
+
+    /**
+     * Map a segment for reading, positioned at its first record
+     *
+     * @param base a long representing the offset of the first byte of the segment
+     * @throws IOException if the segment cannot be read
+     */
+    private void map(long base) throws IOException {
+        try (FileChannel channel = FileChannel.open(ChangeJournal.segmentPath(directory, base),
+                StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            segmentBase = base;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.chwonghm.metrics;
+
+import com.chwonghm.cache.InventoryCache;
+import com.chwonghm.event.InventoryGeneration;
+import com.chwonghm.repository.QueryCounter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+/**
+ * Binds application-specific meters: the item and collection caches, the number of SQL statements prepared by
+ * Hibernate and the number of committed inventory changes. Hibernate, connection pool, JVM and request metrics
+ * are bound by Spring Boot.
+ *
+ * @author Charles Wong
+ */
+@Component
+public class InventoryMetrics implements MeterBinder {
+
+    /**
+     * The inventory cache to report on
+     */
+    private final InventoryCache inventoryCache;
+
+    /**
+     * The statement counter to report on
+     */
+    private final QueryCounter queryCounter;
+
+    /**
+     * The inventory generation to report on
+     */
+    private final InventoryGeneration inventoryGeneration;
+
+    /**
+     * Constructs this binder.
+     *
+     * @param inventoryCache      the InventoryCache to report on
+     * @param queryCounter        the QueryCounter to report on
+     * @param inventoryGeneration the InventoryGeneration to report on
+     */
+    public InventoryMetrics(InventoryCache inventoryCache, QueryCounter queryCounter,
+                            InventoryGeneration inventoryGeneration) {
+        this.inventoryCache = inventoryCache;
+        this.queryCounter = queryCounter;
+        this.inventoryGeneration = inventoryGeneration;
+    }
+
+    /**
+     * Bind the meters to a registry.
+     *
+     * @param registry the MeterRegistry to bind to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, inventoryCache.getItemCache(), "items");
+        CaffeineCacheMetrics.monitor(registry, inventoryCache.getCollectionCache(), "collections");
+
+        FunctionCounter.builder("inventory.sql.statements", queryCounter, QueryCounter::getTotalCount)
+                .description("SQL statements prepared by Hibernate")
+                .register(registry);
+
+        FunctionCounter.builder("inventory.changes", inventoryGeneration, InventoryGeneration::current)
+                .description("Committed inventory changes")
+                .register(registry);
+    }
+}
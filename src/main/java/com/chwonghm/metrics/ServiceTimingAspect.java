@@ -0,0 +1,74 @@
+package com.chwonghm.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times every public method of the @Service classes, recording an inventory.service timer tagged with the class,
+ * method and the simple name of any exception thrown.
+ * <p>
+ * This aspect runs outside of the transaction interceptor, so recorded times include opening, flushing and
+ * committing the transaction of each call. Implementations of the reactive InventoryOperations contract are
+ * skipped, since their methods return before any work is done. Histogram buckets are published according to the
+ * management.metrics.distribution properties.
+ *
+ * @author Charles Wong
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ServiceTimingAspect {
+
+    /**
+     * The name of the recorded timer
+     */
+    static final String TIMER_NAME = "inventory.service";
+
+    /**
+     * The registry to record timers in
+     */
+    private final MeterRegistry registry;
+
+    /**
+     * Constructs this aspect.
+     *
+     * @param registry the MeterRegistry to record timers in
+     */
+    public ServiceTimingAspect(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Time a call to a service method.
+     *
+     * @param pjp the ProceedingJoinPoint of the call
+     * @return the value returned by the call
+     * @throws Throwable anything thrown by the call
+     */
+    @Around("execution(public * com.chwonghm.service..*(..)) && @within(org.springframework.stereotype.Service)" +
+            " && !within(com.chwonghm.service.InventoryOperations+)")
+    public Object time(ProceedingJoinPoint pjp) throws Throwable {
+        Timer.Sample sample = Timer.start(registry);
+        String exception = "none";
+
+        try {
+            return pjp.proceed();
+        } catch (Throwable e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            sample.stop(Timer.builder(TIMER_NAME)
+                    .description("Time spent in service methods, including their transactions")
+                    .tag("class", pjp.getSignature().getDeclaringType().getSimpleName())
+                    .tag("method", pjp.getSignature().getName())
+                    .tag("exception", exception)
+                    .register(registry));
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.chwonghm.profiler;
+
+/**
+ * Thrown by the request profiler, when configured to fail, if a request prepares the same statement shape more
+ * times than allowed. This usually means that an association is being loaded one entity at a time.
+ *
+ * @author Charles Wong
+ */
+public class NPlusOneQueryException extends IllegalStateException {
+
+    /**
+     * Constructs an exception with some custom message.
+     *
+     * @param msg the String message to initialize this exception with
+     */
+    public NPlusOneQueryException(String msg) {
+        super(msg);
+    }
+}
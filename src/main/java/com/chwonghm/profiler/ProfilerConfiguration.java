@@ -0,0 +1,63 @@
+package com.chwonghm.profiler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Registers the hooks feeding request profiles when the profiler is enabled, with:
+ * <pre>
+ *     shopify-demo.profiler.enabled: true
+ * </pre>
+ * SQL statements are counted by {@link com.chwonghm.repository.QueryCounter} whether or not the profiler is
+ * enabled.
+ *
+ * @author Charles Wong
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "shopify-demo.profiler", name = "enabled", havingValue = "true")
+public class ProfilerConfiguration {
+
+    /**
+     * Register the SQL timing listener with every Hibernate session.
+     *
+     * @return a HibernatePropertiesCustomizer adding the listener
+     */
+    @Bean
+    HibernatePropertiesCustomizer sqlTimingCustomizer() {
+        return properties -> properties.put(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER,
+                SqlTimingListener.class.getName());
+    }
+
+    /**
+     * Replace the default JSON message converter with one timing serialization.
+     *
+     * @param objectMapper the application ObjectMapper
+     * @return the timing MappingJackson2HttpMessageConverter
+     */
+    @Bean
+    MappingJackson2HttpMessageConverter profilingJsonConverter(ObjectMapper objectMapper) {
+        return new MappingJackson2HttpMessageConverter(objectMapper) {
+            @Override
+            protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+                    throws IOException, HttpMessageNotWritableException {
+                long start = System.nanoTime();
+
+                try {
+                    super.writeInternal(object, type, outputMessage);
+                } finally {
+                    RequestProfile.serialized(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,115 @@
+package com.chwonghm.profiler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Profiles every request, reporting the time spent in SQL, transactions and serialization in a Server-Timing
+ * response header:
+ * <pre>
+ *     Server-Timing: sql;dur=3.412;desc="2 statements", tx;dur=4.950, ser;dur=0.731, total;dur=6.104
+ * </pre>
+ * Response bodies are buffered so that the header can be set once serialization has finished. Streaming
+ * endpoints, which must not be buffered, are excluded.
+ * <p>
+ * Requests preparing the same statement shape more than n-plus-one-threshold times are logged, or fail with an
+ * {@link NPlusOneQueryException} if n-plus-one-action is set to fail. A failed request's response is discarded,
+ * so the client receives the error rather than the response the request produced.
+ *
+ * @author Charles Wong
+ */
+@Component
+@ConditionalOnProperty(prefix = "shopify-demo.profiler", name = "enabled", havingValue = "true")
+public class ProfilingFilter extends OncePerRequestFilter {
+
+    /**
+     * Logger for repeated statements
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ProfilingFilter.class);
+
+    /**
+     * The number of times a request may prepare the same statement shape
+     */
+    private final int nPlusOneThreshold;
+
+    /**
+     * Whether to fail requests exceeding the threshold, rather than only logging them
+     */
+    private final boolean failOnNPlusOne;
+
+    /**
+     * Request paths which are not profiled
+     */
+    private final List<String> excludedPaths;
+
+    /**
+     * Constructs this filter.
+     *
+     * @param nPlusOneThreshold an int representing the number of times a request may prepare the same statement shape
+     * @param nPlusOneAction    the String action taken when the threshold is exceeded, either log or fail
+     * @param excludedPaths     a List of String request paths which are not profiled
+     */
+    public ProfilingFilter(@Value("${shopify-demo.profiler.n-plus-one-threshold:10}") int nPlusOneThreshold,
+                           @Value("${shopify-demo.profiler.n-plus-one-action:log}") String nPlusOneAction,
+                           @Value("${shopify-demo.profiler.excluded-paths:/api/item/export}") List<String> excludedPaths) {
+        this.nPlusOneThreshold = nPlusOneThreshold;
+        this.failOnNPlusOne = "fail".equalsIgnoreCase(nPlusOneAction);
+        this.excludedPaths = excludedPaths;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return excludedPaths.contains(request.getServletPath());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        RequestProfile profile = RequestProfile.start();
+
+        try {
+            try {
+                chain.doFilter(request, wrapper);
+            } finally {
+                RequestProfile.end();
+            }
+
+            wrapper.setHeader("Server-Timing", profile.toServerTiming());
+
+            List<String> repeated = profile.repeatedStatements(nPlusOneThreshold);
+
+            if (!repeated.isEmpty()) {
+                String msg = String.format("%s %s prepared statements more than %d times: %s",
+                        request.getMethod(), request.getRequestURI(), nPlusOneThreshold, String.join("; ", repeated));
+
+                if (failOnNPlusOne) {
+                    // discard the buffered response, so that nothing is copied below and the error is sent instead;
+                    // only responses already sent as errors are committed at this point
+                    if (!response.isCommitted()) {
+                        wrapper.reset();
+                        wrapper.setHeader("Server-Timing", profile.toServerTiming());
+                    }
+
+                    throw new NPlusOneQueryException(msg);
+                }
+
+                LOG.warn(msg);
+            }
+        } finally {
+            wrapper.copyBodyToResponse();
+        }
+    }
+}
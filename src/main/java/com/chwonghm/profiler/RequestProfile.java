@@ -0,0 +1,228 @@
+package com.chwonghm.profiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Accumulates where the time of a single request went: the SQL statements it issued, the transactions it ran and
+ * the serialization of its response. A profile is bound to the thread handling the request for the duration of
+ * the request; every recording method is a no-op on threads without one, so the hooks feeding profiles can stay
+ * registered at negligible cost.
+ *
+ * @author Charles Wong
+ */
+public final class RequestProfile {
+
+    /**
+     * The profile of the request handled by the current thread, if any
+     */
+    private static final ThreadLocal<RequestProfile> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Matches a parenthesized list of parameters, such as the IN list of a batch fetch
+     */
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+
+    /**
+     * Matches runs of whitespace
+     */
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * The System.nanoTime() at which the request started
+     */
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * The number of times each statement shape was prepared
+     */
+    private final Map<String, Integer> statementShapes = new HashMap<>();
+
+    private long statementCount;
+
+    private long sqlNanos;
+
+    private long sqlStartNanos;
+
+    private long transactionNanos;
+
+    private long transactionStartNanos;
+
+    private int transactionDepth;
+
+    private long serializationNanos;
+
+    private long totalNanos;
+
+    private RequestProfile() {
+    }
+
+    /**
+     * Start profiling the request handled by the current thread.
+     *
+     * @return the new profile
+     */
+    static RequestProfile start() {
+        RequestProfile profile = new RequestProfile();
+        CURRENT.set(profile);
+        return profile;
+    }
+
+    /**
+     * Stop profiling the request handled by the current thread.
+     */
+    static void end() {
+        RequestProfile profile = CURRENT.get();
+        if (profile != null) {
+            profile.totalNanos = System.nanoTime() - profile.startNanos;
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Get the profile of the request handled by the current thread
+     *
+     * @return the current RequestProfile, or null if the current request is not profiled
+     */
+    static RequestProfile current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Record a SQL statement about to be prepared by the current thread. Statements are grouped by shape: their
+     * text with whitespace collapsed and parameter lists of any length reduced to a single parameter.
+     *
+     * @param sql the String SQL of the statement
+     */
+    public static void recordStatement(String sql) {
+        RequestProfile profile = CURRENT.get();
+        if (profile != null) {
+            profile.statementCount++;
+            profile.statementShapes.merge(shapeOf(sql), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Record that the current thread started executing SQL.
+     */
+    static void sqlStarted() {
+        RequestProfile profile = CURRENT.get();
+        if (profile != null) {
+            profile.sqlStartNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Record that the current thread finished executing SQL.
+     */
+    static void sqlEnded() {
+        RequestProfile profile = CURRENT.get();
+        if (profile != null && profile.sqlStartNanos != 0) {
+            profile.sqlNanos += System.nanoTime() - profile.sqlStartNanos;
+            profile.sqlStartNanos = 0;
+        }
+    }
+
+    /**
+     * Record that the current thread entered a transactional method. Only the outermost method is timed.
+     */
+    static void transactionStarted() {
+        RequestProfile profile = CURRENT.get();
+        if (profile != null && profile.transactionDepth++ == 0) {
+            profile.transactionStartNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Record that the current thread left a transactional method.
+     */
+    static void transactionEnded() {
+        RequestProfile profile = CURRENT.get();
+        if (profile != null && --profile.transactionDepth == 0) {
+            profile.transactionNanos += System.nanoTime() - profile.transactionStartNanos;
+        }
+    }
+
+    /**
+     * Record time spent serializing the response of the current thread.
+     *
+     * @param nanos a long representing the time spent, in nanoseconds
+     */
+    static void serialized(long nanos) {
+        RequestProfile profile = CURRENT.get();
+        if (profile != null) {
+            profile.serializationNanos += nanos;
+        }
+    }
+
+    /**
+     * Reduce a SQL statement to its shape
+     *
+     * @param sql the String SQL of the statement
+     * @return the String shape of the statement
+     */
+    static String shapeOf(String sql) {
+        String shape = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+        return PARAMETER_LIST.matcher(shape).replaceAll("(?)");
+    }
+
+    /**
+     * Get the statement shapes prepared more than some number of times, with their counts
+     *
+     * @param threshold an int representing the number of times a shape may be prepared
+     * @return a List of Strings describing each repeated shape, most repeated first
+     */
+    List<String> repeatedStatements(int threshold) {
+        List<Map.Entry<String, Integer>> repeated = new ArrayList<>();
+
+        for (Map.Entry<String, Integer> entry : statementShapes.entrySet()) {
+            if (entry.getValue() > threshold) {
+                repeated.add(entry);
+            }
+        }
+
+        repeated.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+
+        List<String> descriptions = new ArrayList<>(repeated.size());
+        for (Map.Entry<String, Integer> entry : repeated) {
+            descriptions.add(String.format("%dx %s", entry.getValue(), entry.getKey()));
+        }
+
+        return descriptions;
+    }
+
+    /**
+     * Format this profile as the value of a Server-Timing header
+     *
+     * @return the String header value
+     */
+    String toServerTiming() {
+        return String.format(Locale.ROOT,
+                "sql;dur=%.3f;desc=\"%d statements\", tx;dur=%.3f, ser;dur=%.3f, total;dur=%.3f",
+                millis(sqlNanos), statementCount, millis(transactionNanos), millis(serializationNanos),
+                millis(totalNanos));
+    }
+
+    /**
+     * Get the number of SQL statements prepared during the request
+     *
+     * @return a long representing the statement count
+     */
+    public long getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * Convert nanoseconds to milliseconds
+     *
+     * @param nanos a long representing a duration in nanoseconds
+     * @return a double representing the duration in milliseconds
+     */
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
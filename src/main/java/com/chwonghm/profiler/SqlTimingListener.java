@@ -0,0 +1,32 @@
+package com.chwonghm.profiler;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * Hibernate session event listener timing JDBC statement and batch executions into the current request profile.
+ * Hibernate creates an instance of this class for every session.
+ *
+ * @author Charles Wong
+ */
+public class SqlTimingListener extends BaseSessionEventListener {
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        RequestProfile.sqlStarted();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        RequestProfile.sqlEnded();
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        RequestProfile.sqlStarted();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        RequestProfile.sqlEnded();
+    }
+}
@@ -0,0 +1,41 @@
+package com.chwonghm.profiler;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times transactional methods into the current request profile. This aspect runs outside of the transaction
+ * interceptor, so recorded times include beginning and committing each transaction.
+ *
+ * @author Charles Wong
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@ConditionalOnProperty(prefix = "shopify-demo.profiler", name = "enabled", havingValue = "true")
+public class TransactionTimingAspect {
+
+    /**
+     * Time a call to a transactional method.
+     *
+     * @param pjp the ProceedingJoinPoint of the call
+     * @return the value returned by the call
+     * @throws Throwable anything thrown by the call
+     */
+    @Around("execution(public * *(..)) && (@within(org.springframework.transaction.annotation.Transactional)" +
+            " || @annotation(org.springframework.transaction.annotation.Transactional))")
+    public Object time(ProceedingJoinPoint pjp) throws Throwable {
+        RequestProfile.transactionStarted();
+
+        try {
+            return pjp.proceed();
+        } finally {
+            RequestProfile.transactionEnded();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.chwonghm.replica;
+
+/**
+ * The oldest inventory generation that reads made by the current thread may see. Read-only transactions are only
+ * routed to a replica which has replicated at least this generation, so that a client reads its own writes, and a
+ * response tagged with a generation never contains older data.
+ * <p>
+ * The minimum is held in a scope: {@link ReadYourWritesFilter} opens one per request, starting at the generation
+ * of the client's last write, and {@link com.chwonghm.cache.InventoryCache} opens one around each load, so that
+ * no entry older than the cache is cached. Outside of any scope, reads may see any replicated generation.
+ *
+ * @author Charles Wong
+ */
+public final class ReadYourWrites {
+
+    /**
+     * A minimum generation no replica reaches, for reads that must see the primary
+     */
+    public static final long PRIMARY = Long.MAX_VALUE;
+
+    /**
+     * Returned by {@link #open(long)} when no scope was open
+     */
+    public static final long NO_SCOPE = -1;
+
+    /**
+     * The minimum generation of the current scope, or null outside of any scope
+     */
+    private static final ThreadLocal<long[]> MINIMUM = new ThreadLocal<>();
+
+    private ReadYourWrites() {
+    }
+
+    /**
+     * Open a scope in which reads see at least a generation, nested in the current scope if any. Every call must
+     * be followed by a call to {@link #close(long)} with the returned value.
+     *
+     * @param generation a long representing the oldest generation reads may see
+     * @return a long representing the minimum of the enclosing scope, or {@link #NO_SCOPE}
+     */
+    public static long open(long generation) {
+        long[] minimum = MINIMUM.get();
+
+        if (minimum == null) {
+            MINIMUM.set(new long[]{generation});
+            return NO_SCOPE;
+        }
+
+        long previous = minimum[0];
+        minimum[0] = Math.max(previous, generation);
+        return previous;
+    }
+
+    /**
+     * Close the current scope, restoring the enclosing one
+     *
+     * @param previous the long returned by the matching {@link #open(long)}
+     */
+    public static void close(long previous) {
+        if (previous == NO_SCOPE) {
+            MINIMUM.remove();
+        } else {
+            MINIMUM.get()[0] = previous;
+        }
+    }
+
+    /**
+     * Raise the minimum generation of the current scope for the rest of it. Does nothing outside of any scope.
+     *
+     * @param generation a long representing the oldest generation reads may see
+     */
+    public static void require(long generation) {
+        long[] minimum = MINIMUM.get();
+
+        if (minimum != null && minimum[0] < generation) {
+            minimum[0] = generation;
+        }
+    }
+
+    /**
+     * Get the oldest generation reads made by the current thread may see
+     *
+     * @return a long representing the minimum generation, or 0 outside of any scope
+     */
+    public static long minimumGeneration() {
+        long[] minimum = MINIMUM.get();
+        return minimum == null ? 0 : minimum[0];
+    }
+}
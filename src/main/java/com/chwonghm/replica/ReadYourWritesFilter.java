@@ -0,0 +1,169 @@
+package com.chwonghm.replica;
+
+import com.chwonghm.event.InventoryGeneration;
+import org.springframework.security.web.util.OnCommittedResponseWrapper;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Lets a client read its own writes when reads are served by replicas. A response to a request that changed the
+ * inventory sets a cookie holding the generation it produced; while the client sends it back, its reads are only
+ * routed to replicas that have replicated that generation.
+ * <p>
+ * The cookie expires after the maximum replica lag: by then, every replica that may still serve reads was copied
+ * after the write.
+ *
+ * @author Charles Wong
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    /**
+     * The name of the cookie, whose value is the epoch and generation of the client's last write
+     */
+    static final String COOKIE = "inventory-generation";
+
+    /**
+     * The generation written to the cookie
+     */
+    private final InventoryGeneration inventoryGeneration;
+
+    /**
+     * The lifetime of the cookie, in seconds
+     */
+    private final int maxAgeSeconds;
+
+    /**
+     * Constructs this filter.
+     *
+     * @param inventoryGeneration the InventoryGeneration to read and write generations of
+     * @param maxLag              the Duration a replica may lag the primary for reads to be routed to it
+     */
+    ReadYourWritesFilter(InventoryGeneration inventoryGeneration, Duration maxLag) {
+        this.inventoryGeneration = inventoryGeneration;
+        this.maxAgeSeconds = (int) Math.min(Integer.MAX_VALUE, maxLag.toSeconds() + 1);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long startGeneration = inventoryGeneration.current();
+        long previous = ReadYourWrites.open(lastWriteOf(request));
+
+        try {
+            if (isSafe(request.getMethod())) {
+                chain.doFilter(request, response);
+                return;
+            }
+
+            GenerationCookieWrapper wrapper = new GenerationCookieWrapper(response, startGeneration);
+            chain.doFilter(request, wrapper);
+
+            // responses without a body, such as 204 NO_CONTENT, are only committed once the filters return
+            if (!response.isCommitted()) {
+                wrapper.addCookie();
+            }
+        } finally {
+            ReadYourWrites.close(previous);
+        }
+    }
+
+    /**
+     * Get the generation of the client's last write, from the cookie sent with a request
+     *
+     * @param request the HttpServletRequest being handled
+     * @return a long representing the generation of the last write, or 0 if the request has no valid cookie from
+     * this run of the application
+     */
+    private long lastWriteOf(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+
+        if (cookies == null) {
+            return 0;
+        }
+
+        for (Cookie cookie : cookies) {
+            if (!COOKIE.equals(cookie.getName())) {
+                continue;
+            }
+
+            String[] parts = cookie.getValue().split("\\.");
+
+            try {
+                if (parts.length == 2 && Long.parseLong(parts[0]) == inventoryGeneration.getEpoch()) {
+                    return Long.parseLong(parts[1]);
+                }
+            } catch (NumberFormatException e) {
+                // ignore a malformed cookie, as if it had not been sent
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Whether a request method never changes the inventory
+     *
+     * @param method the String HTTP method
+     * @return true if the method is GET, HEAD or OPTIONS, and false otherwise
+     */
+    private static boolean isSafe(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+    }
+
+    /**
+     * Adds the cookie just before the response is committed, once the request's transaction has committed but
+     * while headers can still be set.
+     */
+    private final class GenerationCookieWrapper extends OnCommittedResponseWrapper {
+
+        /**
+         * The generation when the request started
+         */
+        private final long startGeneration;
+
+        /**
+         * Whether the cookie has already been considered
+         */
+        private boolean done;
+
+        private GenerationCookieWrapper(HttpServletResponse response, long startGeneration) {
+            super(response);
+            this.startGeneration = startGeneration;
+        }
+
+        @Override
+        protected void onResponseCommitted() {
+            addCookie();
+        }
+
+        /**
+         * Add the cookie, if the request changed the inventory
+         */
+        private void addCookie() {
+            if (done) {
+                return;
+            }
+
+            done = true;
+            long generation = inventoryGeneration.current();
+
+            // failed requests change nothing, and need not stick to fresh replicas
+            if (generation == startGeneration) {
+                return;
+            }
+
+            Cookie cookie = new Cookie(COOKIE, inventoryGeneration.getEpoch() + "." + generation);
+            cookie.setPath("/");
+            cookie.setMaxAge(maxAgeSeconds);
+            cookie.setHttpOnly(true);
+            ((HttpServletResponse) getResponse()).addCookie(cookie);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.chwonghm.replica;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+/**
+ * A read replica of the primary database, standing in for a replicated database server. The replica is a pair of
+ * in-memory H2 databases: reads are served by the active one, while the other is reloaded from a script of the
+ * primary, and the two are then swapped. A reload never touches a database that is serving reads.
+ *
+ * @author Charles Wong
+ */
+final class Replica {
+
+    /**
+     * How long to wait between checks for reads still using the database about to be reloaded, in milliseconds
+     */
+    private static final long DRAIN_POLL_MILLIS = 10;
+
+    /**
+     * The name of the replica, used in metrics
+     */
+    private final String name;
+
+    /**
+     * The lookup keys of the two databases, under which they are registered with the routing data source
+     */
+    private final String[] keys;
+
+    /**
+     * The connection pools of the two databases
+     */
+    private final HikariDataSource[] dataSources;
+
+    /**
+     * The index of the database serving reads
+     */
+    private volatile int active;
+
+    /**
+     * The inventory generation the active database has replicated, or -1 before the first reload
+     */
+    private volatile long generation = -1;
+
+    /**
+     * The System.nanoTime() at which the script loaded into the active database was started
+     */
+    private volatile long replicatedAtNanos;
+
+    /**
+     * Construct a replica over two databases, neither of which has been loaded yet.
+     *
+     * @param name        the String name of the replica
+     * @param keys        an array of the two String lookup keys of the databases
+     * @param dataSources an array of the two HikariDataSources of the databases
+     */
+    Replica(String name, String[] keys, HikariDataSource[] dataSources) {
+        this.name = name;
+        this.keys = keys;
+        this.dataSources = dataSources;
+    }
+
+    /**
+     * Get the name of the replica
+     *
+     * @return the String name of the replica
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Get the inventory generation the replica has replicated
+     *
+     * @return a long representing the replicated generation, or -1 before the first reload
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get how far behind the primary the replica may be
+     *
+     * @param nowNanos a long representing the current System.nanoTime()
+     * @return a long representing the nanoseconds since the replicated script was started, or Long.MAX_VALUE
+     * before the first reload
+     */
+    long lagNanos(long nowNanos) {
+        return generation < 0 ? Long.MAX_VALUE : nowNanos - replicatedAtNanos;
+    }
+
+    /**
+     * Get the lookup key of the database serving reads. Read after the generation, so that the key is at least as
+     * recent as the generation checked.
+     *
+     * @return the String lookup key of the active database
+     */
+    String activeKey() {
+        return keys[active];
+    }
+
+    /**
+     * Register both databases under their lookup keys
+     *
+     * @param targets the Map of routing targets to add the databases to
+     */
+    void registerTargets(Map<Object, Object> targets) {
+        for (int i = 0; i < keys.length; i++) {
+            targets.put(keys[i], dataSources[i]);
+        }
+    }
+
+    /**
+     * Load a script of the primary into the inactive database, and make it serve reads. Reads still using the
+     * inactive database, since it was last swapped out, are waited for first.
+     *
+     * @param script            the Path of the script written from the primary
+     * @param scriptGeneration  a long representing the inventory generation read before the script was started
+     * @param scriptStartNanos  a long representing the System.nanoTime() at which the script was started
+     * @throws SQLException         if the script cannot be loaded
+     * @throws InterruptedException if interrupted while waiting for reads to finish
+     */
+    void reload(Path script, long scriptGeneration, long scriptStartNanos) throws SQLException, InterruptedException {
+        int inactive = 1 - active;
+
+        awaitNoActiveConnections(dataSources[inactive]);
+
+        try (Connection con = dataSources[inactive].getConnection(); Statement st = con.createStatement()) {
+            st.execute("DROP ALL OBJECTS");
+            st.execute("RUNSCRIPT FROM '" + script.toAbsolutePath().toString().replace("'", "''") + "'");
+        }
+
+        active = inactive;
+        replicatedAtNanos = scriptStartNanos;
+        generation = scriptGeneration;
+    }
+
+    /**
+     * Close both databases
+     */
+    void close() {
+        for (HikariDataSource dataSource : dataSources) {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Wait until no connection of a database is in use
+     *
+     * @param dataSource the HikariDataSource of the database
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void awaitNoActiveConnections(HikariDataSource dataSource) throws InterruptedException {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+
+        while (pool != null && pool.getActiveConnections() > 0) {
+            Thread.sleep(DRAIN_POLL_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.chwonghm.replica;
+
+import com.chwonghm.event.InventoryGeneration;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves read-only transactions from read replicas of the primary database when enabled, with:
+ * <pre>
+ *     shopify-demo.replicas.enabled: true
+ * </pre>
+ * The application's DataSource then routes each transaction: read-only ones to a replica, such as every
+ * {@code @Transactional(readOnly = true)} service method, and all others to the primary configured by
+ * spring.datasource. The replicas are in-memory H2 databases refreshed from the primary by {@link ReplicaSet},
+ * standing in for replicated database servers. Only the servlet stack reads through the replicas; the reactive
+ * stack always reads the primary over R2DBC.
+ *
+ * @author Charles Wong
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "shopify-demo.replicas", name = "enabled", havingValue = "true")
+public class ReplicaConfiguration {
+
+    /**
+     * The connection pool of the primary database, configured as Spring Boot's own would be. Everything else is
+     * injected with the routing data source, which is the primary DataSource bean.
+     * <p>
+     * The pool is declared and injected as a plain DataSource, never through calls to this method, since bean
+     * post-processors may replace it with a DataSource wrapping it, as the Java 21 build does.
+     *
+     * @param properties  the DataSourceProperties of the primary database
+     * @param environment the Environment to bind spring.datasource.hikari from
+     * @return the DataSource of the primary database
+     */
+    @Bean
+    DataSource primaryDataSource(DataSourceProperties properties, Environment environment) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    /**
+     * The replicas and the replication stand-in feeding them.
+     *
+     * @param properties          the DataSourceProperties of the primary database, whose credentials the replicas
+     *                            share
+     * @param primaryDataSource   the DataSource of the primary database, to copy into the replicas
+     * @param inventoryGeneration the InventoryGeneration to tag replicas with
+     * @param count               an int representing the number of replicas
+     * @param refreshInterval     the Duration between the starts of two refreshes of the replicas
+     * @param maxLag              the Duration a replica may lag the primary for reads to be routed to it
+     * @return the ReplicaSet
+     */
+    @Bean
+    ReplicaSet replicaSet(DataSourceProperties properties,
+                          @Qualifier("primaryDataSource") DataSource primaryDataSource,
+                          InventoryGeneration inventoryGeneration,
+                          @Value("${shopify-demo.replicas.count:1}") int count,
+                          @Value("${shopify-demo.replicas.refresh-interval:1s}") Duration refreshInterval,
+                          @Value("${shopify-demo.replicas.max-lag:5s}") Duration maxLag) {
+        List<Replica> replicas = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            String name = "replica-" + i;
+            String[] keys = {name + "-a", name + "-b"};
+            HikariDataSource[] dataSources = new HikariDataSource[keys.length];
+
+            for (int j = 0; j < keys.length; j++) {
+                dataSources[j] = properties.initializeDataSourceBuilder()
+                        .type(HikariDataSource.class)
+                        .url("jdbc:h2:mem:" + keys[j] + ";DB_CLOSE_DELAY=-1")
+                        .build();
+                dataSources[j].setPoolName(keys[j]);
+            }
+
+            replicas.add(new Replica(name, keys, dataSources));
+        }
+
+        return new ReplicaSet(primaryDataSource, replicas, inventoryGeneration, refreshInterval, maxLag);
+    }
+
+    /**
+     * The application's DataSource, routing each transaction to the primary or a replica once it runs its first
+     * statement.
+     *
+     * @param primaryDataSource the DataSource of the primary database, to route writes to
+     * @param replicaSet        the ReplicaSet to route read-only transactions to
+     * @return the routing DataSource
+     */
+    @Bean
+    @Primary
+    DataSource dataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource, ReplicaSet replicaSet) {
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primaryDataSource, replicaSet);
+        routing.afterPropertiesSet();
+
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    /**
+     * The filter letting clients read their own writes.
+     *
+     * @param inventoryGeneration the InventoryGeneration to read and write generations of
+     * @param replicaSet          the ReplicaSet whose maximum lag bounds how long a client's writes are tracked
+     * @return the ReadYourWritesFilter
+     */
+    @Bean
+    ReadYourWritesFilter readYourWritesFilter(InventoryGeneration inventoryGeneration, ReplicaSet replicaSet) {
+        return new ReadYourWritesFilter(inventoryGeneration, replicaSet.getMaxLag());
+    }
+}
@@ -0,0 +1,58 @@
+package com.chwonghm.replica;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Routes read-only transactions to a replica, and everything else to the primary. Connections must be obtained
+ * lazily, through a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}: a transaction
+ * manager obtains its connection before marking the transaction read-only, so the route is only decided once the
+ * first statement is run.
+ *
+ * @author Charles Wong
+ */
+class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    /**
+     * The lookup key of the primary database
+     */
+    private static final String PRIMARY = "primary";
+
+    /**
+     * Chooses the replica serving each read-only transaction
+     */
+    private final ReplicaSet replicaSet;
+
+    /**
+     * Constructs the routing data source.
+     *
+     * @param primary    the DataSource of the primary database, also used outside of transactions
+     * @param replicaSet the ReplicaSet to choose replicas from
+     */
+    ReplicaRoutingDataSource(DataSource primary, ReplicaSet replicaSet) {
+        this.replicaSet = replicaSet;
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        replicaSet.registerTargets(targets);
+
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()
+                || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return PRIMARY;
+        }
+
+        Replica replica = replicaSet.choose(ReadYourWrites.minimumGeneration());
+        return replica == null ? PRIMARY : replica.activeKey();
+    }
+}
@@ -0,0 +1,281 @@
+package com.chwonghm.replica;
+
+import com.chwonghm.event.InventoryGeneration;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The read replicas of the primary database, and the stand-in for replication feeding them. Every refresh
+ * interval, a script of the whole primary is written in a single repeatable-read transaction and loaded into each
+ * replica, which therefore lags the primary by up to the refresh interval plus the time to copy.
+ * <p>
+ * Each replica is tagged with the inventory generation read before its script was started; every change counted
+ * by that generation had been committed, so the replica contains it. {@link #choose(long)} only picks a replica
+ * which lags by at most max-lag, and which contains the oldest generation the current thread may read.
+ *
+ * @author Charles Wong
+ */
+public class ReplicaSet implements InitializingBean, DisposableBean, MeterBinder {
+
+    /**
+     * Logger for failed refreshes
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicaSet.class);
+
+    /**
+     * The primary database
+     */
+    private final DataSource primary;
+
+    /**
+     * The replicas
+     */
+    private final List<Replica> replicas;
+
+    /**
+     * The generation replicas are tagged with
+     */
+    private final InventoryGeneration inventoryGeneration;
+
+    /**
+     * The time between the starts of two refreshes
+     */
+    private final Duration refreshInterval;
+
+    /**
+     * The most a replica may lag the primary for reads to be routed to it, in nanoseconds
+     */
+    private final long maxLagNanos;
+
+    /**
+     * The next replica to try, for spreading reads over replicas
+     */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * The number of reads routed to a replica
+     */
+    private final LongAdder replicaReads = new LongAdder();
+
+    /**
+     * The number of reads routed to the primary because every replica lagged by more than max-lag
+     */
+    private final LongAdder laggingReads = new LongAdder();
+
+    /**
+     * The number of reads routed to the primary because no recent enough replica had the client's writes
+     */
+    private final LongAdder readYourWritesReads = new LongAdder();
+
+    /**
+     * The thread running refreshes, or null until the bean is initialized
+     */
+    private ScheduledExecutorService refresher;
+
+    /**
+     * Constructs the replica set. Replicas are empty, and not read from, until their first refresh.
+     *
+     * @param primary             the DataSource of the primary database
+     * @param replicas            a List of the Replicas
+     * @param inventoryGeneration the InventoryGeneration to tag replicas with
+     * @param refreshInterval     the Duration between the starts of two refreshes
+     * @param maxLag              the Duration a replica may lag the primary for reads to be routed to it
+     */
+    ReplicaSet(DataSource primary, List<Replica> replicas, InventoryGeneration inventoryGeneration,
+               Duration refreshInterval, Duration maxLag) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.inventoryGeneration = inventoryGeneration;
+        this.refreshInterval = refreshInterval;
+        this.maxLagNanos = maxLag.toNanos();
+    }
+
+    /**
+     * Start refreshing the replicas.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        refresher.scheduleAtFixedRate(this::refreshQuietly, refreshInterval.toMillis(), refreshInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop refreshing, and close the replicas.
+     *
+     * @throws InterruptedException if interrupted while waiting for a refresh to stop
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        refresher.shutdownNow();
+        refresher.awaitTermination(refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+
+        for (Replica replica : replicas) {
+            replica.close();
+        }
+    }
+
+    /**
+     * Choose a replica to serve a read-only transaction, spreading reads over the replicas which qualify
+     *
+     * @param minimumGeneration a long representing the oldest generation the read may see
+     * @return the Replica to read from, or null to read from the primary
+     */
+    Replica choose(long minimumGeneration) {
+        long now = System.nanoTime();
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        boolean fresh = false;
+
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+
+            if (replica.lagNanos(now) > maxLagNanos) {
+                continue;
+            }
+
+            fresh = true;
+
+            if (replica.getGeneration() >= minimumGeneration) {
+                replicaReads.increment();
+                return replica;
+            }
+        }
+
+        (fresh ? readYourWritesReads : laggingReads).increment();
+        return null;
+    }
+
+    /**
+     * Register the databases of every replica under their lookup keys
+     *
+     * @param targets the Map of routing targets to add the databases to
+     */
+    void registerTargets(Map<Object, Object> targets) {
+        for (Replica replica : replicas) {
+            replica.registerTargets(targets);
+        }
+    }
+
+    /**
+     * Get the most a replica may lag the primary for reads to be routed to it. Any replica this recent was
+     * copied after every write older than this.
+     *
+     * @return the maximum lag Duration
+     */
+    Duration getMaxLag() {
+        return Duration.ofNanos(maxLagNanos);
+    }
+
+    /**
+     * Bind the replica meters to a registry.
+     *
+     * @param registry the MeterRegistry to bind to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Replica replica : replicas) {
+            TimeGauge.builder("inventory.replica.lag", replica, TimeUnit.NANOSECONDS,
+                            r -> r.getGeneration() < 0 ? Double.NaN : r.lagNanos(System.nanoTime()))
+                    .description("Time since the data of the replica was copied from the primary")
+                    .tag("replica", replica.getName())
+                    .register(registry);
+        }
+
+        FunctionCounter.builder("inventory.replica.reads", replicaReads, LongAdder::sum)
+                .description("Read-only transactions routed by the replica set")
+                .tag("target", "replica")
+                .register(registry);
+
+        FunctionCounter.builder("inventory.replica.reads", laggingReads, LongAdder::sum)
+                .description("Read-only transactions routed by the replica set")
+                .tag("target", "primary-lagging")
+                .register(registry);
+
+        FunctionCounter.builder("inventory.replica.reads", readYourWritesReads, LongAdder::sum)
+                .description("Read-only transactions routed by the replica set")
+                .tag("target", "primary-read-your-writes")
+                .register(registry);
+    }
+
+    /**
+     * Copy the primary into every replica, logging rather than throwing any failure
+     */
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOG.warn("Failed to refresh replicas", e);
+        }
+    }
+
+    /**
+     * Copy the primary into every replica, through a script file
+     *
+     * @throws Exception if the script cannot be written or loaded
+     */
+    private void refresh() throws Exception {
+        // read before the script's transaction starts, so that every change it counts is in the script
+        long generation = inventoryGeneration.current();
+        long startNanos = System.nanoTime();
+        Path script = Files.createTempFile("inventory-replica", ".sql");
+
+        try {
+            writeScript(script);
+
+            for (Replica replica : replicas) {
+                replica.reload(script, generation, startNanos);
+            }
+        } finally {
+            Files.deleteIfExists(script);
+        }
+    }
+
+    /**
+     * Write a script recreating the primary, from a single consistent view of it
+     *
+     * @param script the Path of the file to write
+     * @throws SQLException if the script cannot be written
+     */
+    private void writeScript(Path script) throws SQLException {
+        try (Connection con = primary.getConnection()) {
+            con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            con.setAutoCommit(false);
+
+            try (Statement st = con.createStatement()) {
+                st.execute("SCRIPT NOPASSWORDS NOSETTINGS TO '"
+                        + script.toAbsolutePath().toString().replace("'", "''") + "'");
+            } finally {
+                // the pool restores the isolation level and auto-commit when the connection is returned
+                con.rollback();
+            }
+        }
+    }
+}
@@ -1,7 +1,18 @@
 package com.chwonghm.repository;
 
 import com.chwonghm.entity.Collection;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import javax.persistence.QueryHint;
+import java.util.List;
+import java.util.Set;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
 
 /**
  * Interface defining collection database interaction methods. Methods defined
@@ -11,13 +22,104 @@ import org.springframework.data.jpa.repository.JpaRepository;
  *
  * @author Charles Wong
  */
-public interface CollectionRepository extends JpaRepository<Collection, Long> {
+public interface CollectionRepository extends JpaRepository<Collection, Long>, CollectionRepositoryCustom {
 
     /**
-     * Find an inventory collection by its ID
+     * Find an inventory collection by its ID. The items of the collection are fetched in the same query.
      *
      * @param id a long representing the ID of the inventory collection to find
      * @return the Collection object if a corresponding one is found, and null otherwise
      */
-    Collection findCollectionById(long id);
+    @EntityGraph(attributePaths = "items")
+    Collection findWithItemsById(long id);
+
+    /**
+     * Find the ID of the oldest inventory collection with a given name
+     *
+     * @param name the String name of the collection to find
+     * @param pageable a Pageable limiting the number of returned IDs
+     * @return a List of matching collection IDs, ordered by ID
+     */
+    @Query("SELECT c.id FROM Collection c WHERE c.name = :name ORDER BY c.id")
+    List<Long> findIdsByName(@Param("name") String name, Pageable pageable);
+
+    /**
+     * Find which of some collection IDs belong to existing collections
+     *
+     * @param ids a Set of longs representing the collection IDs to check
+     * @return the Set of provided IDs that match existing collections
+     */
+    @Query("SELECT c.id FROM Collection c WHERE c.id IN :ids")
+    Set<Long> findExistingIds(@Param("ids") Set<Long> ids);
+
+    /**
+     * Find the IDs of a page of inventory collections with IDs strictly greater than some ID, ordered by ID.
+     * Each filter is only applied if it is non-null.
+     * <p>
+     * Only IDs are selected, and kept in the query cache until a collection or membership changes; the
+     * collections themselves are then fetched with {@link #findAllByIdIn(List)}. A cached query returning
+     * collections would instead load each one missing from the entity cache with a query of its own.
+     *
+     * @param afterId     a long representing the ID that returned collections must be greater than
+     * @param namePattern a LIKE pattern that collection names must match, escaped with '!'
+     * @param minCount    an Integer representing the minimum number of items (inclusive) in returned collections
+     * @param maxCount    an Integer representing the maximum number of items (inclusive) in returned collections
+     * @param pageable    a Pageable limiting the number of returned collections
+     * @return a List of at most pageable.getPageSize() collection IDs
+     */
+    @Query("SELECT c.id FROM Collection c WHERE c.id > :afterId" +
+            " AND (:namePattern IS NULL OR c.name LIKE :namePattern ESCAPE '!')" +
+            " AND (:minCount IS NULL OR SIZE(c.items) >= :minCount)" +
+            " AND (:maxCount IS NULL OR SIZE(c.items) <= :maxCount)" +
+            " ORDER BY c.id")
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+    List<Long> findPageIds(@Param("afterId") long afterId,
+                           @Param("namePattern") String namePattern,
+                           @Param("minCount") Integer minCount,
+                           @Param("maxCount") Integer maxCount,
+                           Pageable pageable);
+
+    /**
+     * Find inventory collections by ID, ordered by ID, in one query. Their items are not fetched.
+     *
+     * @param ids a List of longs representing the IDs of the collections to find
+     * @return a List of the collections found
+     */
+    @Query("SELECT c FROM Collection c WHERE c.id IN :ids ORDER BY c.id")
+    List<Collection> findAllByIdIn(@Param("ids") List<Long> ids);
+
+    /**
+     * Find the stock totals of a page of inventory collections with IDs strictly greater than some ID, ordered
+     * by ID. The totals are computed by grouping the collections' memberships in the database; only the
+     * aggregated columns are returned, and no collection or item is loaded. Results are kept in the query cache
+     * until a collection, item or membership changes.
+     *
+     * @param afterId     a long representing the ID that returned collections must be greater than
+     * @param namePattern a LIKE pattern that collection names must match, escaped with '!', or null
+     * @param pageable    a Pageable limiting the number of returned collections
+     * @return a List of at most pageable.getPageSize() collection stats
+     */
+    @Query("SELECT c.id AS id, c.name AS name, COUNT(i.id) AS itemCount," +
+            " COALESCE(SUM(i.count), 0) AS totalStock, MIN(i.count) AS minStock, MAX(i.count) AS maxStock," +
+            " COALESCE(SUM(CASE WHEN i.count = 0 THEN 1 ELSE 0 END), 0) AS zeroStockCount" +
+            " FROM Collection c LEFT JOIN c.items i WHERE c.id > :afterId" +
+            " AND (:namePattern IS NULL OR c.name LIKE :namePattern ESCAPE '!')" +
+            " GROUP BY c.id, c.name ORDER BY c.id")
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+    List<CollectionStats> findStatsPage(@Param("afterId") long afterId,
+                                        @Param("namePattern") String namePattern,
+                                        Pageable pageable);
+
+    /**
+     * Find the IDs of a chunk of the items in an inventory collection, with IDs strictly greater than some ID,
+     * ordered by ID. Only the membership table is read.
+     *
+     * @param id      a long representing the ID of the collection
+     * @param afterId a long representing the ID that returned item IDs must be greater than
+     * @param limit   an int representing the maximum number of item IDs to return
+     * @return a List of at most limit item IDs
+     */
+    @Query(value = "SELECT item_id FROM item_collections WHERE collection_id = :id AND item_id > :afterId" +
+            " ORDER BY item_id LIMIT :limit", nativeQuery = true)
+    List<Long> findItemIds(@Param("id") long id, @Param("afterId") long afterId, @Param("limit") int limit);
 }
@@ -0,0 +1,47 @@
+package com.chwonghm.repository;
+
+import java.util.List;
+
+/**
+ * Interface defining collection database interaction methods that cannot be generated by Spring, and are
+ * instead implemented by {@link CollectionRepositoryCustomImpl}.
+ * <p>
+ * The writes here change known rows without loading them, and only invalidate the second-level cache entries of
+ * those rows, see {@link TargetedInvalidation}. They must run within a transaction.
+ *
+ * @author Charles Wong
+ */
+public interface CollectionRepositoryCustom {
+
+    /**
+     * Increment the versions of the items of an inventory collection with IDs in a range, since removing an
+     * item from a collection changes the item
+     *
+     * @param id      a long representing the ID of the collection
+     * @param afterId a long representing the ID that updated items must be greater than
+     * @param toId    a long representing the largest ID (inclusive) of the updated items
+     * @param itemIds a List of the IDs of the collection's items in the range, whose cached state is invalidated
+     * @return the number of updated items
+     */
+    int incrementItemVersions(long id, long afterId, long toId, List<Long> itemIds);
+
+    /**
+     * Remove the items with IDs in a range from an inventory collection, as a single set-based DELETE
+     *
+     * @param id      a long representing the ID of the collection
+     * @param afterId a long representing the ID that removed items must be greater than
+     * @param toId    a long representing the largest ID (inclusive) of the removed items
+     * @param itemIds a List of the IDs of the collection's items in the range, whose cached collection sets are
+     *                invalidated
+     * @return the number of removed memberships
+     */
+    int deleteMemberships(long id, long afterId, long toId, List<Long> itemIds);
+
+    /**
+     * Delete an inventory collection without loading it. Its items must already have been removed from it.
+     *
+     * @param id a long representing the ID of the collection
+     * @return 1 if the collection was deleted, and 0 if it does not exist
+     */
+    int deleteCollectionById(long id);
+}
@@ -0,0 +1,66 @@
+package com.chwonghm.repository;
+
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+
+import static com.chwonghm.repository.ItemRepositoryCustomImpl.COLLECTION_ITEMS;
+import static com.chwonghm.repository.ItemRepositoryCustomImpl.ITEM_COLLECTIONS;
+
+/**
+ * Implementation of the custom collection database interaction methods. Spring combines this class with the
+ * generated implementation of {@link CollectionRepository}.
+ *
+ * @author Charles Wong
+ */
+class CollectionRepositoryCustomImpl implements CollectionRepositoryCustom {
+
+    /**
+     * The entity manager bound to the current transaction
+     */
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public int incrementItemVersions(long id, long afterId, long toId, List<Long> itemIds) {
+        TargetedInvalidation write = new TargetedInvalidation(entityManager);
+        for (long itemId : itemIds) {
+            write.entity(Item.class, itemId);
+        }
+
+        // no cached query reads versions
+        return write.execute(entityManager.createNativeQuery(
+                        "UPDATE item SET version = version + 1 WHERE list_id IN (SELECT item_id FROM item_collections" +
+                                " WHERE collection_id = :id AND item_id > :afterId AND item_id <= :toId)")
+                .setParameter("id", id)
+                .setParameter("afterId", afterId)
+                .setParameter("toId", toId));
+    }
+
+    @Override
+    public int deleteMemberships(long id, long afterId, long toId, List<Long> itemIds) {
+        return new TargetedInvalidation(entityManager)
+                .queriesOf(COLLECTION_ITEMS)
+                .association(COLLECTION_ITEMS, List.of(id))
+                .association(ITEM_COLLECTIONS, itemIds)
+                .execute(entityManager.createNativeQuery(
+                                "DELETE FROM item_collections WHERE collection_id = :id AND item_id > :afterId" +
+                                        " AND item_id <= :toId")
+                        .setParameter("id", id)
+                        .setParameter("afterId", afterId)
+                        .setParameter("toId", toId));
+    }
+
+    @Override
+    public int deleteCollectionById(long id) {
+        return new TargetedInvalidation(entityManager)
+                .queriesOf(Collection.class)
+                .entity(Collection.class, id)
+                .association(COLLECTION_ITEMS, List.of(id))
+                .execute(entityManager.createNativeQuery("DELETE FROM collection WHERE collection_id = :id")
+                        .setParameter("id", id));
+    }
+}
@@ -0,0 +1,60 @@
+package com.chwonghm.repository;
+
+/**
+ * Stock totals of the items in a single inventory collection, as computed by
+ * {@link CollectionRepository#findStatsPage(long, String, org.springframework.data.domain.Pageable)}.
+ * Implementations are generated by Spring from the columns of each result row, so no entities are loaded.
+ *
+ * @author Charles Wong
+ */
+public interface CollectionStats {
+
+    /**
+     * Get the ID of the collection
+     *
+     * @return the ID of the collection
+     */
+    long getId();
+
+    /**
+     * Get the name of the collection
+     *
+     * @return the name of the collection
+     */
+    String getName();
+
+    /**
+     * Get the number of items in the collection
+     *
+     * @return the number of items in the collection
+     */
+    long getItemCount();
+
+    /**
+     * Get the total count of the items in the collection
+     *
+     * @return the sum of the counts of the items in the collection, or 0 if it has none
+     */
+    long getTotalStock();
+
+    /**
+     * Get the smallest count of an item in the collection
+     *
+     * @return the smallest count of an item in the collection, or null if it has none
+     */
+    Long getMinStock();
+
+    /**
+     * Get the largest count of an item in the collection
+     *
+     * @return the largest count of an item in the collection, or null if it has none
+     */
+    Long getMaxStock();
+
+    /**
+     * Get the number of items in the collection that are out of stock
+     *
+     * @return the number of items in the collection with a count of 0
+     */
+    long getZeroStockCount();
+}
@@ -0,0 +1,13 @@
+package com.chwonghm.repository;
+
+import com.chwonghm.entity.CounterCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+/**
+ * Interface defining database interaction methods for the hot counter checkpoint. Methods defined
+ * here are automatically generated implementations by Spring
+ *
+ * @author Charles Wong
+ */
+public interface CounterCheckpointRepository extends JpaRepository<CounterCheckpoint, Long> {
+}
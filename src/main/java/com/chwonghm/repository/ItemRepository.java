@@ -1,7 +1,21 @@
 package com.chwonghm.repository;
 
 import com.chwonghm.entity.Item;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import javax.persistence.QueryHint;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_PASS_DISTINCT_THROUGH;
 
 /**
  * Interface defining item database interaction methods. Methods defined
@@ -11,13 +25,112 @@ import org.springframework.data.jpa.repository.JpaRepository;
  *
  * @author Charles Wong
  */
-public interface ItemRepository extends JpaRepository<Item, Long> {
+public interface ItemRepository extends JpaRepository<Item, Long>, ItemRepositoryCustom {
 
     /**
-     * Find an inventory item by its ID
+     * Find an inventory item by its ID. The collections of the item are fetched in the same query.
      *
      * @param id a long representing the ID of the inventory item to find
      * @return the Item object if a corresponding one is found, and null otherwise
      */
+    @EntityGraph(attributePaths = "collections")
     Item findItemById(long id);
+
+    /**
+     * Find the IDs of a page of inventory items with IDs strictly greater than some ID, ordered by ID.
+     * Each filter is only applied if it is non-null.
+     * <p>
+     * Only IDs are selected so that the page can be limited in the database; the items themselves are
+     * then fetched with {@link #findAllWithCollectionsByIdIn(List)}. IDs are kept in the query cache until an
+     * item changes.
+     *
+     * @param afterId     a long representing the ID that returned items must be greater than
+     * @param namePattern a LIKE pattern that item names must match, escaped with '!'
+     * @param minCount    a Long representing the minimum count (inclusive) of returned items
+     * @param maxCount    a Long representing the maximum count (inclusive) of returned items
+     * @param pageable    a Pageable limiting the number of returned items
+     * @return a List of at most pageable.getPageSize() item IDs
+     */
+    @Query("SELECT i.id FROM Item i WHERE i.id > :afterId" +
+            " AND (:namePattern IS NULL OR i.name LIKE :namePattern ESCAPE '!')" +
+            " AND (:minCount IS NULL OR i.count >= :minCount)" +
+            " AND (:maxCount IS NULL OR i.count <= :maxCount)" +
+            " ORDER BY i.id")
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+    List<Long> findPageIds(@Param("afterId") long afterId,
+                           @Param("namePattern") String namePattern,
+                           @Param("minCount") Long minCount,
+                           @Param("maxCount") Long maxCount,
+                           Pageable pageable);
+
+    /**
+     * Find inventory items by ID, ordered by ID. The collections of each item are fetched in the same
+     * query, so that serializing the returned items does not issue any further queries. This query is not
+     * cached, since a cached result would not restore the fetched collections.
+     *
+     * @param ids a List of longs representing the IDs of the items to find
+     * @return a List of the items found
+     */
+    @Query("SELECT DISTINCT i FROM Item i LEFT JOIN FETCH i.collections WHERE i.id IN :ids ORDER BY i.id")
+    @QueryHints(@QueryHint(name = HINT_PASS_DISTINCT_THROUGH, value = "false"))
+    List<Item> findAllWithCollectionsByIdIn(@Param("ids") List<Long> ids);
+
+    /**
+     * Read the count of an inventory item, locking its row until the transaction ends
+     *
+     * @param id a long representing the ID of the inventory item
+     * @return the count of the item, or null if it does not exist
+     */
+    @Query(value = "SELECT count FROM item WHERE list_id = :id FOR UPDATE", nativeQuery = true)
+    Long lockCountById(@Param("id") long id);
+
+    /**
+     * Find the count of an inventory item, without loading the item itself
+     *
+     * @param id a long representing the ID of the inventory item
+     * @return the count of the item if it exists, and null otherwise
+     */
+    @Query("SELECT i.count FROM Item i WHERE i.id = :id")
+    Long findCountById(@Param("id") long id);
+
+    /**
+     * Find the version of an inventory item, without loading the item itself
+     *
+     * @param id a long representing the ID of the inventory item
+     * @return the version of the item if it exists, and null otherwise
+     */
+    @Query("SELECT i.version FROM Item i WHERE i.id = :id")
+    Long findVersionById(@Param("id") long id);
+
+    /**
+     * Find the versions of inventory items, as rows of {@code [itemId, version]}, without loading the items
+     *
+     * @param ids a List of longs representing the IDs of the inventory items
+     * @return a List of rows, one for each item found
+     */
+    @Query("SELECT i.id, i.version FROM Item i WHERE i.id IN :ids")
+    List<Object[]> findVersionsByIdIn(@Param("ids") List<Long> ids);
+
+    /**
+     * Stream every inventory item along with its collections, as rows of
+     * {@code [itemId, itemName, itemCount, collectionId, collectionName]} ordered by item ID, then collection ID.
+     * An item in no collections produces a single row with null collection columns.
+     * <p>
+     * Rows are read through a forward-only cursor and no entities are created, so the persistence context
+     * does not grow as the stream is consumed. The stream must be consumed and closed within a transaction.
+     *
+     * @return a Stream of rows
+     */
+    @Query("SELECT i.id, i.name, i.count, c.id, c.name FROM Item i LEFT JOIN i.collections c ORDER BY i.id, c.id")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    Stream<Object[]> streamAllWithCollections();
+
+    /**
+     * Find the IDs of the collections an inventory item belongs to. Only the membership table is read.
+     *
+     * @param id a long representing the ID of the inventory item
+     * @return a Set of the IDs of the item's collections
+     */
+    @Query(value = "SELECT collection_id FROM item_collections WHERE item_id = :id", nativeQuery = true)
+    Set<Long> findCollectionIds(@Param("id") long id);
 }
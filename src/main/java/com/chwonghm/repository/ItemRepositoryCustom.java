@@ -0,0 +1,78 @@
+package com.chwonghm.repository;
+
+import java.util.Set;
+
+/**
+ * Interface defining item database interaction methods that cannot be generated by Spring, and are
+ * instead implemented by {@link ItemRepositoryCustomImpl}.
+ * <p>
+ * The writes here change known rows without loading them, and only invalidate the second-level cache entries of
+ * those rows, see {@link TargetedInvalidation}. They must run within a transaction.
+ *
+ * @author Charles Wong
+ */
+public interface ItemRepositoryCustom {
+
+    /**
+     * Flush all pending changes to the database, then detach all entities from the persistence context.
+     * <p>
+     * Used when writing many entities in a single transaction, so that the persistence context does not
+     * grow with the number of entities written.
+     */
+    void flushAndClear();
+
+    /**
+     * Atomically add a delta to the count of an inventory item, as a single conditional UPDATE. The
+     * update only applies if the resulting count would not be negative, and increments the item's version.
+     *
+     * @param id    a long representing the ID of the inventory item to update
+     * @param delta a long representing the amount to add to the count, which may be negative
+     * @return 1 if the count was updated, and 0 if the item does not exist or has insufficient stock
+     */
+    int applyCountDelta(long id, long delta);
+
+    /**
+     * Add a delta to the count of an inventory item without checking the result, as done when applying counts
+     * already validated in memory by the hot counters.
+     *
+     * @param id    a long representing the ID of the inventory item to update
+     * @param delta a long representing the amount to add to the count, which may be negative
+     * @return 1 if the count was updated, and 0 if the item no longer exists
+     */
+    int addToCount(long id, long delta);
+
+    /**
+     * Replace the count of an inventory item without loading it, as done for edits to items demoted from the hot
+     * counters after the edit was made.
+     *
+     * @param id    a long representing the ID of the inventory item to update
+     * @param count a long representing the new count
+     * @return 1 if the count was updated, and 0 if the item no longer exists
+     */
+    int setCount(long id, long count);
+
+    /**
+     * Increment the version of an inventory item, so that transactions that loaded it earlier fail to write it
+     *
+     * @param id a long representing the ID of the inventory item
+     * @return 1 if the version was incremented, and 0 if the item does not exist
+     */
+    int incrementVersion(long id);
+
+    /**
+     * Remove an inventory item from all of its collections, as a single set-based DELETE
+     *
+     * @param id            a long representing the ID of the inventory item
+     * @param collectionIds a Set of the IDs of the item's collections, whose cached item sets are invalidated
+     * @return the number of removed memberships
+     */
+    int deleteMemberships(long id, Set<Long> collectionIds);
+
+    /**
+     * Delete an inventory item without loading it. It must already have been removed from its collections.
+     *
+     * @param id a long representing the ID of the inventory item
+     * @return 1 if the item was deleted, and 0 if it does not exist
+     */
+    int deleteItemById(long id);
+}
@@ -0,0 +1,109 @@
+package com.chwonghm.repository;
+
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Implementation of the custom item database interaction methods. Spring combines this class with the
+ * generated implementation of {@link ItemRepository}.
+ *
+ * @author Charles Wong
+ */
+class ItemRepositoryCustomImpl implements ItemRepositoryCustom {
+
+    /**
+     * The role of the collections of an item
+     */
+    static final String ITEM_COLLECTIONS = Item.class.getName() + ".collections";
+
+    /**
+     * The role of the items of a collection
+     */
+    static final String COLLECTION_ITEMS = Collection.class.getName() + ".items";
+
+    /**
+     * The entity manager bound to the current transaction
+     */
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public void flushAndClear() {
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Override
+    public int applyCountDelta(long id, long delta) {
+        return writeCount(id, entityManager.createNativeQuery(
+                        "UPDATE item SET count = count + :delta, version = version + 1" +
+                                " WHERE list_id = :id AND count + :delta >= 0")
+                .setParameter("id", id)
+                .setParameter("delta", delta));
+    }
+
+    @Override
+    public int addToCount(long id, long delta) {
+        return writeCount(id, entityManager.createNativeQuery(
+                        "UPDATE item SET count = count + :delta, version = version + 1 WHERE list_id = :id")
+                .setParameter("id", id)
+                .setParameter("delta", delta));
+    }
+
+    @Override
+    public int setCount(long id, long count) {
+        return writeCount(id, entityManager.createNativeQuery(
+                        "UPDATE item SET count = :count, version = version + 1 WHERE list_id = :id")
+                .setParameter("id", id)
+                .setParameter("count", count));
+    }
+
+    @Override
+    public int incrementVersion(long id) {
+        // no cached query reads versions
+        return new TargetedInvalidation(entityManager)
+                .entity(Item.class, id)
+                .execute(entityManager.createNativeQuery("UPDATE item SET version = version + 1 WHERE list_id = :id")
+                        .setParameter("id", id));
+    }
+
+    @Override
+    public int deleteMemberships(long id, Set<Long> collectionIds) {
+        return new TargetedInvalidation(entityManager)
+                .queriesOf(ITEM_COLLECTIONS)
+                .association(ITEM_COLLECTIONS, List.of(id))
+                .association(COLLECTION_ITEMS, collectionIds)
+                .execute(entityManager.createNativeQuery("DELETE FROM item_collections WHERE item_id = :id")
+                        .setParameter("id", id));
+    }
+
+    @Override
+    public int deleteItemById(long id) {
+        return new TargetedInvalidation(entityManager)
+                .queriesOf(Item.class)
+                .entity(Item.class, id)
+                .association(ITEM_COLLECTIONS, List.of(id))
+                .execute(entityManager.createNativeQuery("DELETE FROM item WHERE list_id = :id")
+                        .setParameter("id", id));
+    }
+
+    /**
+     * Run a write to the count of an item, invalidating the item and the cached queries filtering on counts
+     *
+     * @param id    a long representing the ID of the item
+     * @param query the native Query writing the count
+     * @return the number of rows changed
+     */
+    private int writeCount(long id, Query query) {
+        return new TargetedInvalidation(entityManager)
+                .queriesOf(Item.class)
+                .entity(Item.class, id)
+                .execute(query);
+    }
+}
@@ -0,0 +1,89 @@
+package com.chwonghm.repository;
+
+import com.chwonghm.profiler.RequestProfile;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the SQL statements prepared by Hibernate, both in total and for the current thread. This allows
+ * tests to assert that an operation issues a fixed number of queries, regardless of how many rows it touches:
+ * <pre>
+ *     queryCounter.reset();
+ *     itemService.getAllItems(null, limit, null, null, null);
+ *     long statements = queryCounter.getCount();
+ * </pre>
+ * <p>
+ * ListQueryCountTest checks this way that listing pages of items and collections costs the same number of
+ * statements for one row as for many.
+ * Statements are also attributed to the current {@link RequestProfile}, if any. This class registers itself as
+ * the Hibernate statement inspector; the SQL itself is never modified.
+ *
+ * @author Charles Wong
+ */
+@Component
+public class QueryCounter implements StatementInspector, HibernatePropertiesCustomizer {
+
+    /**
+     * The number of statements prepared by the current thread since the last reset
+     */
+    private final ThreadLocal<long[]> threadCount = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * The number of statements prepared by all threads since startup
+     */
+    private final LongAdder totalCount = new LongAdder();
+
+    /**
+     * Count a statement about to be prepared.
+     *
+     * @param sql the String SQL of the statement
+     * @return the same SQL, unmodified
+     */
+    @Override
+    public String inspect(String sql) {
+        threadCount.get()[0]++;
+        totalCount.increment();
+        RequestProfile.recordStatement(sql);
+        return sql;
+    }
+
+    /**
+     * Register this counter as the statement inspector of the Hibernate session factory.
+     *
+     * @param hibernateProperties the Map of Hibernate properties to customize
+     */
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        hibernateProperties.put(AvailableSettings.STATEMENT_INSPECTOR, this);
+    }
+
+    /**
+     * Reset the statement count of the current thread to zero.
+     */
+    public void reset() {
+        threadCount.get()[0] = 0;
+    }
+
+    /**
+     * Get the number of statements prepared by the current thread since the last reset
+     *
+     * @return a long representing the statement count of the current thread
+     */
+    public long getCount() {
+        return threadCount.get()[0];
+    }
+
+    /**
+     * Get the number of statements prepared by all threads since startup
+     *
+     * @return a long representing the total statement count
+     */
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+}
@@ -0,0 +1,554 @@
+package com.chwonghm.repository;
+
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+import io.r2dbc.spi.Row;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Non-blocking data access for the reactive API, over R2DBC. This repository reads and writes the tables mapped
+ * by the {@link Item} and {@link Collection} entities, which Hibernate still creates, and returns detached
+ * entities built from the fetched rows.
+ * <p>
+ * IDs are drawn from the same sequences as Hibernate. Hibernate reserves the block of IDs ending at each value
+ * it draws, so an ID taken here is never also handed out by Hibernate. Every write increments the version of the
+ * rows it changes, so that JPA optimistic locking still detects them.
+ * <p>
+ * The sharded store creates its own instances of this repository, one over the catalog database and one over
+ * each shard, see {@link com.chwonghm.shard.InventoryShards}.
+ *
+ * @author Charles Wong
+ */
+@Repository
+@Profile("reactive")
+@ConditionalOnProperty(prefix = "shopify-demo.reactive", name = "store", havingValue = "r2dbc", matchIfMissing = true)
+public class ReactiveInventoryRepository {
+
+    /**
+     * Selects an item with its collections, one row per collection
+     */
+    private static final String SELECT_ITEMS_WITH_COLLECTIONS =
+            "SELECT i.list_id, i.name, i.count, c.collection_id, c.name AS collection_name FROM item i" +
+            " LEFT JOIN item_collections ic ON ic.item_id = i.list_id" +
+            " LEFT JOIN collection c ON c.collection_id = ic.collection_id";
+
+    /**
+     * The R2DBC client to run statements with
+     */
+    private final DatabaseClient client;
+
+    /**
+     * Constructs this repository.
+     *
+     * @param client the DatabaseClient to run statements with
+     */
+    public ReactiveInventoryRepository(DatabaseClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Draw the next item ID
+     *
+     * @return a Mono of the ID
+     */
+    public Mono<Long> nextItemId() {
+        return client.sql("SELECT NEXT VALUE FOR item_seq").map(row -> row.get(0, Long.class)).one();
+    }
+
+    /**
+     * Draw the next collection ID
+     *
+     * @return a Mono of the ID
+     */
+    public Mono<Long> nextCollectionId() {
+        return client.sql("SELECT NEXT VALUE FOR collection_seq").map(row -> row.get(0, Long.class)).one();
+    }
+
+    /**
+     * Insert an item
+     *
+     * @param id    a long representing the ID of the item
+     * @param name  the String name of the item
+     * @param count a long representing the count of the item
+     * @return a Mono completing once the item is inserted
+     */
+    public Mono<Void> insertItem(long id, String name, long count) {
+        return client.sql("INSERT INTO item (list_id, name, count, version) VALUES (:id, :name, :count, 0)")
+                .bind("id", id)
+                .bind("name", name)
+                .bind("count", count)
+                .then();
+    }
+
+    /**
+     * Find an item, with its collections, by ID
+     *
+     * @param id a long representing the ID of the item
+     * @return a Mono of the item, or an empty Mono if it does not exist
+     */
+    public Mono<Item> findItemWithCollections(long id) {
+        return client.sql(SELECT_ITEMS_WITH_COLLECTIONS + " WHERE i.list_id = :id")
+                .bind("id", id)
+                .map(ItemRow::new)
+                .all()
+                .collectList()
+                .flatMapIterable(ReactiveInventoryRepository::toItems)
+                .next();
+    }
+
+    /**
+     * Find items, with their collections, by ID
+     *
+     * @param ids a List of longs representing the IDs of the items
+     * @return a Flux of the items, ordered by ID
+     */
+    public Flux<Item> findItemsWithCollections(List<Long> ids) {
+        return client.sql(SELECT_ITEMS_WITH_COLLECTIONS + " WHERE i.list_id IN (:ids) ORDER BY i.list_id")
+                .bind("ids", ids)
+                .map(ItemRow::new)
+                .all()
+                .collectList()
+                .flatMapIterable(ReactiveInventoryRepository::toItems);
+    }
+
+    /**
+     * Find the IDs of a page of items with IDs strictly greater than some ID, ordered by ID. Each filter is only
+     * applied if it is non-null.
+     *
+     * @param afterId     a long representing the ID that returned items must be greater than
+     * @param namePattern a LIKE pattern that item names must match, escaped with '!'
+     * @param minCount    a Long representing the minimum count (inclusive) of returned items
+     * @param maxCount    a Long representing the maximum count (inclusive) of returned items
+     * @param limit       an int representing the maximum number of IDs to return
+     * @return a Flux of at most limit IDs
+     */
+    public Flux<Long> findItemPageIds(long afterId, String namePattern, Long minCount, Long maxCount, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT list_id FROM item WHERE list_id > :afterId");
+        if (namePattern != null) {
+            sql.append(" AND name LIKE :namePattern ESCAPE '!'");
+        }
+        if (minCount != null) {
+            sql.append(" AND count >= :minCount");
+        }
+        if (maxCount != null) {
+            sql.append(" AND count <= :maxCount");
+        }
+        sql.append(" ORDER BY list_id LIMIT :limit");
+
+        DatabaseClient.GenericExecuteSpec spec = client.sql(sql.toString())
+                .bind("afterId", afterId)
+                .bind("limit", limit);
+        if (namePattern != null) {
+            spec = spec.bind("namePattern", namePattern);
+        }
+        if (minCount != null) {
+            spec = spec.bind("minCount", minCount);
+        }
+        if (maxCount != null) {
+            spec = spec.bind("maxCount", maxCount);
+        }
+
+        return spec.map(row -> row.get("list_id", Long.class)).all();
+    }
+
+    /**
+     * Update the name and count of an item. Fields given as null are left unchanged.
+     *
+     * @param id    a long representing the ID of the item
+     * @param name  the String name to set, or null
+     * @param count the Long count to set, or null
+     * @return a Mono of the number of updated rows
+     */
+    public Mono<Integer> updateItem(long id, String name, Long count) {
+        StringBuilder sql = new StringBuilder("UPDATE item SET version = version + 1");
+        if (name != null) {
+            sql.append(", name = :name");
+        }
+        if (count != null) {
+            sql.append(", count = :count");
+        }
+        sql.append(" WHERE list_id = :id");
+
+        DatabaseClient.GenericExecuteSpec spec = client.sql(sql.toString()).bind("id", id);
+        if (name != null) {
+            spec = spec.bind("name", name);
+        }
+        if (count != null) {
+            spec = spec.bind("count", count);
+        }
+
+        return spec.fetch().rowsUpdated();
+    }
+
+    /**
+     * Add a delta to the count of an item, unless the count would become negative
+     *
+     * @param id    a long representing the ID of the item
+     * @param delta a long representing the amount to add
+     * @return a Mono of the number of updated rows, 0 if the item does not exist or has insufficient stock
+     */
+    public Mono<Integer> applyCountDelta(long id, long delta) {
+        return client.sql("UPDATE item SET count = count + :delta, version = version + 1" +
+                        " WHERE list_id = :id AND count + :delta >= 0")
+                .bind("id", id)
+                .bind("delta", delta)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * Find the count of an item
+     *
+     * @param id a long representing the ID of the item
+     * @return a Mono of the count, or an empty Mono if the item does not exist
+     */
+    public Mono<Long> findCount(long id) {
+        return client.sql("SELECT count FROM item WHERE list_id = :id")
+                .bind("id", id)
+                .map(row -> row.get("count", Long.class))
+                .one();
+    }
+
+    /**
+     * Delete an item, removing it from all of its collections
+     *
+     * @param id a long representing the ID of the item
+     * @return a Mono of the number of deleted items
+     */
+    public Mono<Integer> deleteItem(long id) {
+        return client.sql("DELETE FROM item_collections WHERE item_id = :id").bind("id", id).then()
+                .then(client.sql("DELETE FROM item WHERE list_id = :id").bind("id", id).fetch().rowsUpdated());
+    }
+
+    /**
+     * Insert a collection
+     *
+     * @param id   a long representing the ID of the collection
+     * @param name the String name of the collection
+     * @return a Mono completing once the collection is inserted
+     */
+    public Mono<Void> insertCollection(long id, String name) {
+        return client.sql("INSERT INTO collection (collection_id, name, version) VALUES (:id, :name, 0)")
+                .bind("id", id)
+                .bind("name", name)
+                .then();
+    }
+
+    /**
+     * Find a collection, with its items, by ID
+     *
+     * @param id a long representing the ID of the collection
+     * @return a Mono of the collection, or an empty Mono if it does not exist
+     */
+    public Mono<Collection> findCollectionWithItems(long id) {
+        return client.sql("SELECT c.collection_id, c.name, i.list_id, i.name AS item_name, i.count FROM collection c" +
+                        " LEFT JOIN item_collections ic ON ic.collection_id = c.collection_id" +
+                        " LEFT JOIN item i ON i.list_id = ic.item_id" +
+                        " WHERE c.collection_id = :id")
+                .bind("id", id)
+                .map(CollectionRow::new)
+                .all()
+                .collectList()
+                .flatMap(rows -> rows.isEmpty() ? Mono.empty() : Mono.just(toCollection(rows)));
+    }
+
+    /**
+     * Find a page of collections, without their items, with IDs strictly greater than some ID, ordered by ID.
+     * Each filter is only applied if it is non-null.
+     *
+     * @param afterId     a long representing the ID that returned collections must be greater than
+     * @param namePattern a LIKE pattern that collection names must match, escaped with '!'
+     * @param minCount    an Integer representing the minimum number of items (inclusive) in returned collections
+     * @param maxCount    an Integer representing the maximum number of items (inclusive) in returned collections
+     * @param limit       an int representing the maximum number of collections to return
+     * @return a Flux of at most limit collections
+     */
+    public Flux<Collection> findCollectionPage(long afterId, String namePattern, Integer minCount, Integer maxCount,
+                                               int limit) {
+        String size = "(SELECT COUNT(*) FROM item_collections ic WHERE ic.collection_id = c.collection_id)";
+
+        StringBuilder sql = new StringBuilder("SELECT c.collection_id, c.name FROM collection c" +
+                " WHERE c.collection_id > :afterId");
+        if (namePattern != null) {
+            sql.append(" AND c.name LIKE :namePattern ESCAPE '!'");
+        }
+        if (minCount != null) {
+            sql.append(" AND ").append(size).append(" >= :minCount");
+        }
+        if (maxCount != null) {
+            sql.append(" AND ").append(size).append(" <= :maxCount");
+        }
+        sql.append(" ORDER BY c.collection_id LIMIT :limit");
+
+        DatabaseClient.GenericExecuteSpec spec = client.sql(sql.toString())
+                .bind("afterId", afterId)
+                .bind("limit", limit);
+        if (namePattern != null) {
+            spec = spec.bind("namePattern", namePattern);
+        }
+        if (minCount != null) {
+            spec = spec.bind("minCount", minCount);
+        }
+        if (maxCount != null) {
+            spec = spec.bind("maxCount", maxCount);
+        }
+
+        return spec.map(row -> collection(row.get("collection_id", Long.class), row.get("name", String.class)))
+                .all();
+    }
+
+    /**
+     * Find the IDs of the items in a collection
+     *
+     * @param id a long representing the ID of the collection
+     * @return a Flux of item IDs
+     */
+    public Flux<Long> findItemIdsOfCollection(long id) {
+        return client.sql("SELECT item_id FROM item_collections WHERE collection_id = :id")
+                .bind("id", id)
+                .map(row -> row.get("item_id", Long.class))
+                .all();
+    }
+
+    /**
+     * Find the IDs of the collections containing an item
+     *
+     * @param id a long representing the ID of the item
+     * @return a Flux of collection IDs
+     */
+    public Flux<Long> findCollectionIdsOfItem(long id) {
+        return client.sql("SELECT collection_id FROM item_collections WHERE item_id = :id")
+                .bind("id", id)
+                .map(row -> row.get("collection_id", Long.class))
+                .all();
+    }
+
+    /**
+     * Find which of some collection IDs belong to existing collections
+     *
+     * @param ids a Set of longs representing the collection IDs to check
+     * @return a Flux of the provided IDs that match existing collections
+     */
+    public Flux<Long> findExistingCollectionIds(Set<Long> ids) {
+        return client.sql("SELECT collection_id FROM collection WHERE collection_id IN (:ids)")
+                .bind("ids", ids)
+                .map(row -> row.get("collection_id", Long.class))
+                .all();
+    }
+
+    /**
+     * Find collections, without their items, by ID
+     *
+     * @param ids a Set of longs representing the IDs of the collections
+     * @return a Flux of the collections that exist
+     */
+    public Flux<Collection> findCollections(Set<Long> ids) {
+        return client.sql("SELECT collection_id, name FROM collection WHERE collection_id IN (:ids)")
+                .bind("ids", ids)
+                .map(row -> collection(row.get("collection_id", Long.class), row.get("name", String.class)))
+                .all();
+    }
+
+    /**
+     * Count the items of some collections
+     *
+     * @param ids a List of longs representing the IDs of the collections
+     * @return a Mono of a Map from the ID of each collection with items to its number of items
+     */
+    public Mono<Map<Long, Long>> countItemsOfCollections(List<Long> ids) {
+        return client.sql("SELECT collection_id, COUNT(*) AS item_count FROM item_collections" +
+                        " WHERE collection_id IN (:ids) GROUP BY collection_id")
+                .bind("ids", ids)
+                .map(row -> Map.entry(row.get("collection_id", Long.class), row.get("item_count", Long.class)))
+                .all()
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    /**
+     * Insert a collection, unless a collection with its ID already exists
+     *
+     * @param id   a long representing the ID of the collection
+     * @param name the String name of the collection
+     * @return a Mono completing once the collection exists
+     */
+    public Mono<Void> mergeCollection(long id, String name) {
+        return client.sql("INSERT INTO collection (collection_id, name, version) SELECT :id, :name, 0" +
+                        " FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM collection WHERE collection_id = :id)")
+                .bind("id", id)
+                .bind("name", name)
+                .then();
+    }
+
+    /**
+     * Delete a collection, removing every item from it
+     *
+     * @param id a long representing the ID of the collection
+     * @return a Mono of the number of deleted collections
+     */
+    public Mono<Integer> deleteCollection(long id) {
+        return client.sql("UPDATE item SET version = version + 1 WHERE list_id IN" +
+                        " (SELECT item_id FROM item_collections WHERE collection_id = :id)").bind("id", id).then()
+                .then(client.sql("DELETE FROM item_collections WHERE collection_id = :id").bind("id", id).then())
+                .then(client.sql("DELETE FROM collection WHERE collection_id = :id").bind("id", id)
+                        .fetch().rowsUpdated());
+    }
+
+    /**
+     * Place an item in a collection, if it is not already in it
+     *
+     * @param itemId       a long representing the ID of the item
+     * @param collectionId a long representing the ID of the collection
+     * @return a Mono completing once the item is in the collection
+     */
+    public Mono<Void> insertMembership(long itemId, long collectionId) {
+        return client.sql("MERGE INTO item_collections (item_id, collection_id) KEY (item_id, collection_id)" +
+                        " VALUES (:itemId, :collectionId)")
+                .bind("itemId", itemId)
+                .bind("collectionId", collectionId)
+                .then();
+    }
+
+    /**
+     * Remove an item from some collections
+     *
+     * @param itemId        a long representing the ID of the item
+     * @param collectionIds a Set of longs representing the IDs of the collections
+     * @return a Mono completing once the item is removed from the collections
+     */
+    public Mono<Void> deleteMemberships(long itemId, Set<Long> collectionIds) {
+        return client.sql("DELETE FROM item_collections WHERE item_id = :itemId AND collection_id IN (:ids)")
+                .bind("itemId", itemId)
+                .bind("ids", collectionIds)
+                .then();
+    }
+
+    /**
+     * Increment the version of an item, after a change to its collections
+     *
+     * @param id a long representing the ID of the item
+     * @return a Mono of the number of updated rows
+     */
+    public Mono<Integer> incrementItemVersion(long id) {
+        return client.sql("UPDATE item SET version = version + 1 WHERE list_id = :id")
+                .bind("id", id)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * Group rows of items joined with their collections into items
+     *
+     * @param rows the List of ItemRows, with the rows of each item adjacent
+     * @return a List of items, in the order of the rows
+     */
+    private static List<Item> toItems(List<ItemRow> rows) {
+        Map<Long, Item> items = new LinkedHashMap<>();
+
+        for (ItemRow row : rows) {
+            Item item = items.computeIfAbsent(row.id, id -> {
+                Item created = new Item(row.name);
+                created.setId(id);
+                created.setCount(row.count);
+                return created;
+            });
+
+            if (row.collectionId != null) {
+                item.getCollections().add(collection(row.collectionId, row.collectionName));
+            }
+        }
+
+        return List.copyOf(items.values());
+    }
+
+    /**
+     * Group rows of a collection joined with its items into a collection
+     *
+     * @param rows the non-empty List of CollectionRows of a single collection
+     * @return the collection
+     */
+    private static Collection toCollection(List<CollectionRow> rows) {
+        Collection col = collection(rows.get(0).id, rows.get(0).name);
+
+        for (CollectionRow row : rows) {
+            if (row.itemId != null) {
+                Item item = new Item(row.itemName);
+                item.setId(row.itemId);
+                item.setCount(row.itemCount);
+                col.getItems().add(item);
+            }
+        }
+
+        return col;
+    }
+
+    /**
+     * Build a detached collection
+     *
+     * @param id   a long representing the ID of the collection
+     * @param name the String name of the collection
+     * @return the collection, without items
+     */
+    private static Collection collection(long id, String name) {
+        Collection col = new Collection(name);
+        col.setId(id);
+        return col;
+    }
+
+    /**
+     * A row of an item joined with one of its collections
+     */
+    private static class ItemRow {
+
+        private final long id;
+
+        private final String name;
+
+        private final long count;
+
+        private final Long collectionId;
+
+        private final String collectionName;
+
+        ItemRow(Row row) {
+            this.id = row.get("list_id", Long.class);
+            this.name = row.get("name", String.class);
+            this.count = row.get("count", Long.class);
+            this.collectionId = row.get("collection_id", Long.class);
+            this.collectionName = row.get("collection_name", String.class);
+        }
+    }
+
+    /**
+     * A row of a collection joined with one of its items
+     */
+    private static class CollectionRow {
+
+        private final long id;
+
+        private final String name;
+
+        private final Long itemId;
+
+        private final String itemName;
+
+        private final Long itemCount;
+
+        CollectionRow(Row row) {
+            this.id = row.get("collection_id", Long.class);
+            this.name = row.get("name", String.class);
+            this.itemId = row.get("list_id", Long.class);
+            this.itemName = row.get("item_name", String.class);
+            this.itemCount = row.get("count", Long.class);
+        }
+    }
+}
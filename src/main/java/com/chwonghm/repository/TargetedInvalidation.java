@@ -0,0 +1,207 @@
+package com.chwonghm.repository;
+
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.cache.spi.access.CollectionDataAccess;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.NativeQuery;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs a native write to known rows, invalidating only the second-level cache entries backed by those rows.
+ * <p>
+ * Hibernate cannot tell which rows a bulk statement changes. A JPQL bulk statement evicts every entry of its
+ * entity's region and of every association the entity takes part in, and a native statement declaring no query
+ * space evicts every region. Statements run here declare a query space that no entity maps, so Hibernate
+ * evicts nothing by itself. Instead, the entries of the given entities and associations are soft-locked until
+ * the transaction completes, as when Hibernate writes an entity itself, and cached query results reading the
+ * given tables are invalidated.
+ * <p>
+ * Pending changes to entities are not flushed before the statement, since its query space maps none.
+ *
+ * @author Charles Wong
+ */
+final class TargetedInvalidation {
+
+    /**
+     * The query space declared by every statement, which no entity maps
+     */
+    private static final String QUERY_SPACE = "targeted_invalidation";
+
+    /**
+     * The session of the current transaction
+     */
+    private final SessionImplementor session;
+
+    /**
+     * The tables whose cached query results are invalidated
+     */
+    private final Set<String> querySpaces = new LinkedHashSet<>();
+
+    /**
+     * Locks each given entry, returning the step releasing its lock
+     */
+    private final List<Locker> lockers = new ArrayList<>();
+
+    /**
+     * Begins a write through an entity manager.
+     *
+     * @param entityManager the EntityManager of the current transaction
+     */
+    TargetedInvalidation(EntityManager entityManager) {
+        this.session = entityManager.unwrap(SessionImplementor.class);
+    }
+
+    /**
+     * Invalidate the cached query results reading the table of an entity
+     *
+     * @param type the Class of the entity
+     * @return this write
+     */
+    TargetedInvalidation queriesOf(Class<?> type) {
+        addQuerySpaces(factory().getMetamodel().entityPersister(type).getQuerySpaces());
+        return this;
+    }
+
+    /**
+     * Invalidate the cached query results reading the table of an association
+     *
+     * @param role the String role of the association, such as {@code com.chwonghm.entity.Item.collections}
+     * @return this write
+     */
+    TargetedInvalidation queriesOf(String role) {
+        addQuerySpaces(factory().getMetamodel().collectionPersister(role).getCollectionSpaces());
+        return this;
+    }
+
+    /**
+     * Invalidate the cached state of an entity
+     *
+     * @param type the Class of the entity
+     * @param id   a long representing the ID of the entity
+     * @return this write
+     */
+    TargetedInvalidation entity(Class<?> type, long id) {
+        EntityPersister persister = factory().getMetamodel().entityPersister(type);
+
+        if (persister.canWriteToCache()) {
+            EntityDataAccess access = persister.getCacheAccessStrategy();
+            Object key = access.generateCacheKey(id, persister, factory(), session.getTenantIdentifier());
+
+            lockers.add(() -> {
+                SoftLock lock = access.lockItem(session, key, null);
+                return (success, completed) -> access.unlockItem(completed, key, lock);
+            });
+        }
+
+        return this;
+    }
+
+    /**
+     * Invalidate the cached contents of an association of some entities
+     *
+     * @param role     the String role of the association, such as {@code com.chwonghm.entity.Item.collections}
+     * @param ownerIds an Iterable of the IDs of the entities owning the association
+     * @return this write
+     */
+    TargetedInvalidation association(String role, Iterable<Long> ownerIds) {
+        CollectionPersister persister = factory().getMetamodel().collectionPersister(role);
+
+        if (persister.hasCache()) {
+            CollectionDataAccess access = persister.getCacheAccessStrategy();
+
+            for (long ownerId : ownerIds) {
+                Object key = access.generateCacheKey(ownerId, persister, factory(), session.getTenantIdentifier());
+
+                lockers.add(() -> {
+                    SoftLock lock = access.lockItem(session, key, null);
+                    return (success, completed) -> access.unlockItem(completed, key, lock);
+                });
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Run the write. Entries are locked first, and released once the current transaction completes, whether
+     * it commits or rolls back.
+     *
+     * @param query a native Query updating or deleting rows
+     * @return the number of rows changed
+     */
+    int execute(Query query) {
+        NativeQuery<?> nativeQuery = query.unwrap(NativeQuery.class);
+        nativeQuery.addSynchronizedQuerySpace(QUERY_SPACE);
+
+        String[] spaces = querySpaces.toArray(new String[0]);
+        boolean queryCacheEnabled = spaces.length > 0 && factory().getSessionFactoryOptions().isQueryCacheEnabled();
+
+        if (queryCacheEnabled) {
+            // results read while the transaction is open are not cached, as they may miss its changes
+            factory().getCache().getTimestampsCache().preInvalidate(spaces, session);
+        }
+
+        List<AfterTransactionCompletionProcess> unlocks = new ArrayList<>();
+        for (Locker locker : lockers) {
+            unlocks.add(locker.lock());
+        }
+
+        session.getActionQueue().registerProcess((success, completed) -> {
+            if (queryCacheEnabled) {
+                factory().getCache().getTimestampsCache().invalidate(spaces, completed);
+            }
+
+            for (AfterTransactionCompletionProcess unlock : unlocks) {
+                unlock.doAfterTransactionCompletion(success, completed);
+            }
+        });
+
+        return nativeQuery.executeUpdate();
+    }
+
+    /**
+     * Get the session factory of the current session
+     *
+     * @return the SessionFactoryImplementor
+     */
+    private SessionFactoryImplementor factory() {
+        return session.getFactory();
+    }
+
+    /**
+     * Add the tables of a persister to the invalidated query spaces
+     *
+     * @param spaces the Serializable table names
+     */
+    private void addQuerySpaces(Serializable[] spaces) {
+        for (Serializable space : spaces) {
+            querySpaces.add((String) space);
+        }
+    }
+
+    /**
+     * Locks a cached entry
+     */
+    @FunctionalInterface
+    private interface Locker {
+
+        /**
+         * Lock the entry
+         *
+         * @return the AfterTransactionCompletionProcess releasing the lock
+         */
+        AfterTransactionCompletionProcess lock();
+    }
+}
@@ -0,0 +1,720 @@
+package com.chwonghm.search;
+
+import com.chwonghm.event.CommitBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * An in-memory inverted index over item names, answering ranked name searches without touching the database.
+ * <p>
+ * Names are split into lower case tokens. The index maps every token to the sorted IDs of the items containing
+ * it, and every trigram to the tokens containing it. Each search term is expanded against the token dictionary
+ * into the tokens it matches, each with a score:
+ * <ul>
+ *     <li>the term itself, scoring 1</li>
+ *     <li>tokens the term is a prefix of, scoring 0.5 to 0.9 as the term covers more of them</li>
+ *     <li>if the term is not itself a token, tokens within one edit of terms of 4 or more characters, or two
+ *     edits from 8 characters, scoring 0.6 and 0.4; candidates are the tokens sharing enough trigrams with the
+ *     term</li>
+ *     <li>tokens containing terms of 3 or more characters, scoring 0.3 to 0.5</li>
+ * </ul>
+ * Every term must match some token of an item. Only the items of the most selective term are visited; each is
+ * scored by the best token it has for every term, with a bonus for matching on the first token of its name and
+ * for names with few other tokens. Ties are broken by ID.
+ * <p>
+ * To keep broad queries fast, each kind of match expands a term to a bounded number of tokens, and a search
+ * scores a bounded number of items, visiting the items of the best matching tokens first. Results for queries
+ * matching more items than that are the best of those scored.
+ * <p>
+ * The index is rebuilt in parallel from the item table on startup, after any snapshot has been restored, and is
+ * then kept up to date by {@link com.chwonghm.service.ItemService}, with each change applied once its
+ * transaction commits.
+ *
+ * @author Charles Wong
+ */
+@Component
+@DependsOn("snapshotStartup")
+public class ItemSearchIndex implements InitializingBean {
+
+    /**
+     * Logger for rebuilds
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ItemSearchIndex.class);
+
+    /**
+     * The number of rows read per round trip when rebuilding
+     */
+    private static final int FETCH_SIZE = 10000;
+
+    /**
+     * The minimum number of items each thread tokenizes when rebuilding
+     */
+    private static final int REBUILD_CHUNK_SIZE = 50000;
+
+    /**
+     * The minimum term length for substring matches
+     */
+    private static final int SUBSTRING_MIN_LENGTH = 3;
+
+    /**
+     * The minimum term length for matches one edit away
+     */
+    private static final int FUZZY_MIN_LENGTH = 4;
+
+    /**
+     * The minimum term length for matches two edits away
+     */
+    private static final int FUZZY_TWO_EDITS_MIN_LENGTH = 8;
+
+    /**
+     * A scored item during a search
+     */
+    private static final class Hit {
+
+        /**
+         * The ID of the item
+         */
+        private final long id;
+
+        /**
+         * The score of the item
+         */
+        private final double score;
+
+        private Hit(long id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Orders hits from best to worst: by score, then by ID
+     */
+    private static final Comparator<Hit> BEST_FIRST = Comparator.comparingDouble((Hit hit) -> -hit.score)
+            .thenComparingLong(hit -> hit.id);
+
+    /**
+     * The contents of the index. Guarded by {@link #lock}.
+     */
+    private static final class State {
+
+        /**
+         * The IDs of the items containing each token, sorted by token so that prefixes are ranges
+         */
+        private final TreeMap<String, PostingList> postings = new TreeMap<>();
+
+        /**
+         * The tokens containing each padded trigram
+         */
+        private final Map<String, Set<String>> tokensByTrigram = new HashMap<>();
+
+        /**
+         * The tokens of each item, sharing the token instances of the dictionary
+         */
+        private final Map<Long, String[]> tokensById;
+
+        private State(int expectedItems) {
+            this.tokensById = new HashMap<>(Math.max(16, (int) (expectedItems / 0.75f) + 1));
+        }
+
+        /**
+         * Add an item, which must not be in the index
+         *
+         * @param id     a long representing the ID of the item
+         * @param tokens an array of the String tokens of its name
+         */
+        private void add(long id, String[] tokens) {
+            String[] shared = new String[tokens.length];
+
+            for (int i = 0; i < tokens.length; i++) {
+                String token = tokens[i];
+                PostingList list = postings.get(token);
+
+                if (list == null) {
+                    list = new PostingList();
+                    postings.put(token, list);
+                    indexTrigrams(token);
+                    shared[i] = token;
+                } else {
+                    shared[i] = postings.ceilingKey(token);
+                }
+
+                list.add(id);
+            }
+
+            tokensById.put(id, shared);
+        }
+
+        /**
+         * Remove an item, if it is in the index
+         *
+         * @param id a long representing the ID of the item
+         */
+        private void remove(long id) {
+            String[] tokens = tokensById.remove(id);
+
+            if (tokens == null) {
+                return;
+            }
+
+            for (String token : tokens) {
+                PostingList list = postings.get(token);
+                list.remove(id);
+
+                if (list.size() == 0) {
+                    postings.remove(token);
+
+                    for (String trigram : Tokens.trigrams(token)) {
+                        Set<String> containing = tokensByTrigram.get(trigram);
+                        containing.remove(token);
+
+                        if (containing.isEmpty()) {
+                            tokensByTrigram.remove(trigram);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add a new token of the dictionary to the trigram index
+         *
+         * @param token the String token
+         */
+        private void indexTrigrams(String token) {
+            for (String trigram : Tokens.trigrams(token)) {
+                tokensByTrigram.computeIfAbsent(trigram, key -> new HashSet<>()).add(token);
+            }
+        }
+    }
+
+    /**
+     * Whether the index is kept at all
+     */
+    private final boolean enabled;
+
+    /**
+     * The new name of each item changed by a transaction, or null if it was deleted, applied once it commits
+     */
+    private final CommitBuffer<Map<Long, String>> pendingChanges = new CommitBuffer<>(LinkedHashMap::new, this::apply);
+
+    /**
+     * The maximum number of tokens each term is expanded to, by each kind of match
+     */
+    private final int maxExpansions;
+
+    /**
+     * The maximum number of items scored by a search
+     */
+    private final int maxCandidates;
+
+    /**
+     * Reads the item table when rebuilding
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Held for reading while searching, and for writing while changing the index
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The contents of the index
+     */
+    private State state = new State(0);
+
+    /**
+     * Constructs the index. It is empty until the bean is initialized.
+     *
+     * @param enabled       a boolean representing whether the index is kept
+     * @param maxExpansions an int representing the maximum number of tokens a term is expanded to by each kind
+     *                      of match
+     * @param maxCandidates an int representing the maximum number of items scored by a search
+     * @param jdbcTemplate  a JdbcTemplate to read the item table with
+     */
+    public ItemSearchIndex(@Value("${shopify-demo.search.enabled:true}") boolean enabled,
+                           @Value("${shopify-demo.search.max-expansions:256}") int maxExpansions,
+                           @Value("${shopify-demo.search.max-candidates:5000}") int maxCandidates,
+                           JdbcTemplate jdbcTemplate) {
+        this.enabled = enabled;
+        this.maxExpansions = maxExpansions;
+        this.maxCandidates = maxCandidates;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Build the index from the item table.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (enabled) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Check whether the index is kept
+     *
+     * @return true if items can be searched
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Index an item under a new name, replacing any previous one. Within a transaction, the change is applied
+     * once the transaction commits; otherwise it is applied immediately.
+     *
+     * @param id   a long representing the ID of the item
+     * @param name the String name of the item
+     */
+    public void index(long id, String name) {
+        change(id, name);
+    }
+
+    /**
+     * Remove an item from the index. Within a transaction, the item is removed once the transaction commits;
+     * otherwise it is removed immediately.
+     *
+     * @param id a long representing the ID of the item
+     */
+    public void remove(long id) {
+        change(id, null);
+    }
+
+    /**
+     * Search item names.
+     *
+     * @param query  the String query; its terms are separated by anything other than letters and digits
+     * @param offset an int representing the number of best matching items to skip
+     * @param limit  an int representing the maximum number of items to return
+     * @return a List of the IDs of the matching items, best match first
+     */
+    public List<Long> search(String query, int offset, int limit) {
+        String[] terms = Tokens.tokenize(query);
+
+        if (!enabled || terms.length == 0 || limit <= 0) {
+            return List.of();
+        }
+
+        int capacity = offset + limit;
+        PriorityQueue<Hit> best = new PriorityQueue<>(Math.min(capacity, 1024), BEST_FIRST.reversed());
+
+        lock.readLock().lock();
+        try {
+            List<Map<String, Double>> matches = new ArrayList<>(terms.length);
+            int driver = -1;
+            long driverSize = Long.MAX_VALUE;
+
+            for (int i = 0; i < terms.length; i++) {
+                Map<String, Double> termMatches = expand(terms[i]);
+
+                if (termMatches.isEmpty()) {
+                    return List.of();
+                }
+
+                long size = 0;
+                for (String token : termMatches.keySet()) {
+                    size += state.postings.get(token).size();
+                }
+
+                if (size < driverSize) {
+                    driver = i;
+                    driverSize = size;
+                }
+
+                matches.add(termMatches);
+            }
+
+            // visit the best matching tokens first, and an item containing several of them only under the first
+            List<Map.Entry<String, Double>> driverMatches = new ArrayList<>(matches.get(driver).entrySet());
+            driverMatches.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+
+            Map<String, Integer> visitOrder = new HashMap<>();
+            for (Map.Entry<String, Double> entry : driverMatches) {
+                visitOrder.put(entry.getKey(), visitOrder.size());
+            }
+
+            int visited = 0;
+
+            for (Map.Entry<String, Double> entry : driverMatches) {
+                PostingList list = state.postings.get(entry.getKey());
+                int order = visitOrder.get(entry.getKey());
+
+                for (int i = 0; i < list.size() && visited < maxCandidates; i++, visited++) {
+                    long id = list.get(i);
+                    String[] tokens = state.tokensById.get(id);
+
+                    if (order > 0 && visitedBefore(tokens, visitOrder, order)) {
+                        continue;
+                    }
+
+                    double score = score(tokens, matches);
+
+                    if (score < 0) {
+                        continue;
+                    }
+
+                    Hit hit = new Hit(id, score);
+
+                    if (best.size() < capacity) {
+                        best.add(hit);
+                    } else if (BEST_FIRST.compare(hit, best.peek()) < 0) {
+                        best.poll();
+                        best.add(hit);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Hit> ranked = new ArrayList<>(best);
+        ranked.sort(BEST_FIRST);
+
+        List<Long> ids = new ArrayList<>(Math.max(0, ranked.size() - offset));
+        for (int i = offset; i < ranked.size(); i++) {
+            ids.add(ranked.get(i).id);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Get the number of indexed items
+     *
+     * @return the number of indexed items
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return state.tokensById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of distinct tokens in indexed names
+     *
+     * @return the number of distinct tokens
+     */
+    public int getTokenCount() {
+        lock.readLock().lock();
+        try {
+            return state.postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Record a change to an item, to be applied once the current transaction commits
+     *
+     * @param id   a long representing the ID of the item
+     * @param name the new String name of the item, or null if it was deleted
+     */
+    private void change(long id, String name) {
+        if (!enabled) {
+            return;
+        }
+
+        pendingChanges.add(names -> names.put(id, name));
+    }
+
+    /**
+     * Apply changes to the index
+     *
+     * @param names a Map from the ID of each changed item to its new name, or null if it was deleted
+     */
+    private void apply(Map<Long, String> names) {
+        // tokenize before taking the lock, so searches wait as little as possible
+        Map<Long, String[]> tokens = new LinkedHashMap<>();
+        for (Map.Entry<Long, String> entry : names.entrySet()) {
+            tokens.put(entry.getKey(), entry.getValue() == null ? null : Tokens.tokenize(entry.getValue()));
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<Long, String[]> entry : tokens.entrySet()) {
+                state.remove(entry.getKey());
+
+                if (entry.getValue() != null) {
+                    state.add(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuild the index from the item table. Names are tokenized and indexed in parallel, in ranges of IDs that
+     * are then concatenated, so every list of IDs stays sorted without being sorted.
+     */
+    private void rebuild() {
+        long start = System.nanoTime();
+
+        List<Long> ids = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("SELECT list_id, name FROM item ORDER BY list_id");
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            ids.add(rs.getLong(1));
+            names.add(rs.getString(2));
+        });
+
+        int rows = ids.size();
+        int chunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), rows / REBUILD_CHUNK_SIZE));
+        String[][] tokens = new String[rows][];
+
+        List<Map<String, PostingList>> partials = IntStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> {
+                    Map<String, PostingList> partial = new HashMap<>();
+
+                    int from = (int) ((long) rows * chunk / chunks);
+                    int to = (int) ((long) rows * (chunk + 1) / chunks);
+
+                    for (int i = from; i < to; i++) {
+                        tokens[i] = Tokens.tokenize(names.get(i));
+
+                        for (String token : tokens[i]) {
+                            partial.computeIfAbsent(token, key -> new PostingList()).add(ids.get(i));
+                        }
+                    }
+
+                    return partial;
+                })
+                .collect(Collectors.toList());
+
+        State rebuilt = new State(rows);
+
+        for (Map<String, PostingList> partial : partials) {
+            for (Map.Entry<String, PostingList> entry : partial.entrySet()) {
+                PostingList list = rebuilt.postings.get(entry.getKey());
+
+                if (list == null) {
+                    rebuilt.postings.put(entry.getKey(), entry.getValue());
+                    rebuilt.indexTrigrams(entry.getKey());
+                } else {
+                    list.appendAll(entry.getValue());
+                }
+            }
+        }
+
+        // share the dictionary's token instances, rather than keeping a copy per item
+        Map<String, String> dictionary = new HashMap<>();
+        for (String token : rebuilt.postings.keySet()) {
+            dictionary.put(token, token);
+        }
+
+        IntStream.range(0, rows).parallel().forEach(i -> {
+            for (int t = 0; t < tokens[i].length; t++) {
+                tokens[i][t] = dictionary.get(tokens[i][t]);
+            }
+        });
+
+        for (int i = 0; i < rows; i++) {
+            rebuilt.tokensById.put(ids.get(i), tokens[i]);
+        }
+
+        lock.writeLock().lock();
+        try {
+            state = rebuilt;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        LOG.info("Indexed {} item names ({} distinct tokens) on {} threads in {} ms", rows, rebuilt.postings.size(),
+                chunks, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Find the tokens a search term matches, and how well. Must be called with the read lock held.
+     *
+     * @param term the String term, as tokenized
+     * @return a Map from each matched String token to its score
+     */
+    private Map<String, Double> expand(String term) {
+        Map<String, Double> matches = new HashMap<>();
+        boolean known = state.postings.containsKey(term);
+
+        if (known) {
+            matches.put(term, 1.0);
+        }
+
+        // shorter tokens sort before their own extensions, so the closest prefix matches are kept
+        int expansions = 0;
+        for (String token : state.postings.subMap(term, false, term + Character.MAX_VALUE, false).keySet()) {
+            if (++expansions > maxExpansions) {
+                break;
+            }
+            matches.put(token, 0.5 + 0.4 * term.length() / token.length());
+        }
+
+        if (!known && term.length() >= FUZZY_MIN_LENGTH) {
+            expandFuzzy(term, matches);
+        }
+
+        if (term.length() >= SUBSTRING_MIN_LENGTH) {
+            expandSubstring(term, matches);
+        }
+
+        return matches;
+    }
+
+    /**
+     * Add the tokens within a few edits of a term that is not itself a token. Must be called with the read lock
+     * held.
+     * <p>
+     * An edit changes at most three of the padded trigrams of a token, so a token within k edits of a term with
+     * n trigrams shares at least n - 3k of them, and must contain one of the n - (n - 3k) + 1 rarest. Only the
+     * tokens of those trigrams are compared with the term. Swapping two adjacent letters counts as one edit, but
+     * can change a fourth trigram, so such typos in very short terms may be missed.
+     *
+     * @param term    the String term, as tokenized
+     * @param matches the Map of matched tokens to add to
+     */
+    private void expandFuzzy(String term, Map<String, Double> matches) {
+        int maxEdits = term.length() >= FUZZY_TWO_EDITS_MIN_LENGTH ? 2 : 1;
+        List<Set<String>> sets = trigramSets(Tokens.trigrams(term));
+
+        int minShared = Math.max(1, sets.size() - 3 * maxEdits);
+        int expansions = 0;
+
+        for (Set<String> set : sets.subList(0, sets.size() - minShared + 1)) {
+            for (String token : set) {
+                if (matches.containsKey(token) || Math.abs(token.length() - term.length()) > maxEdits) {
+                    continue;
+                }
+
+                int edits = Tokens.editDistance(term, token, maxEdits);
+
+                if (edits <= maxEdits) {
+                    matches.put(token, 0.8 - 0.2 * edits);
+
+                    if (++expansions >= maxExpansions) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the tokens containing a term. Must be called with the read lock held.
+     *
+     * @param term    the String term, as tokenized, of at least three characters
+     * @param matches the Map of matched tokens to add to
+     */
+    private void expandSubstring(String term, Map<String, Double> matches) {
+        List<Set<String>> sets = trigramSets(Tokens.innerTrigrams(term));
+        int expansions = 0;
+
+        // a token containing the term contains all of its trigrams, so the rarest one holds every candidate
+        for (String token : sets.get(0)) {
+            if (!token.contains(term) || token.startsWith(term)) {
+                continue;
+            }
+
+            matches.merge(token, 0.3 + 0.2 * term.length() / token.length(), Math::max);
+
+            if (++expansions >= maxExpansions) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the tokens containing each of some trigrams. Must be called with the read lock held.
+     *
+     * @param trigrams a List of String trigrams
+     * @return a List of the Sets of String tokens containing each trigram, smallest first
+     */
+    private List<Set<String>> trigramSets(List<String> trigrams) {
+        List<Set<String>> sets = new ArrayList<>(trigrams.size());
+
+        for (String trigram : trigrams) {
+            sets.add(state.tokensByTrigram.getOrDefault(trigram, Set.of()));
+        }
+
+        sets.sort(Comparator.comparingInt(Set::size));
+        return sets;
+    }
+
+    /**
+     * Check whether an item was already visited under an earlier token of the driving term
+     *
+     * @param tokens       an array of the String tokens of the item
+     * @param visitOrder a Map from each token matched by the driving term to the order it is visited in
+     * @param order      an int representing the order of the token being visited
+     * @return true if the item contains a token visited earlier
+     */
+    private static boolean visitedBefore(String[] tokens, Map<String, Integer> visitOrder, int order) {
+        for (String token : tokens) {
+            Integer tokenOrder = visitOrder.get(token);
+
+            if (tokenOrder != null && tokenOrder < order) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Score an item against every search term.
+     *
+     * @param tokens  an array of the String tokens of the item
+     * @param matches a List of the matched tokens of each term, with their scores
+     * @return the score of the item, or -1 if some term matches none of its tokens
+     */
+    private static double score(String[] tokens, List<Map<String, Double>> matches) {
+        double score = 0;
+
+        for (int t = 0; t < matches.size(); t++) {
+            Map<String, Double> termMatches = matches.get(t);
+            double termScore = 0;
+
+            for (String token : tokens) {
+                termScore = Math.max(termScore, termMatches.getOrDefault(token, 0.0));
+            }
+
+            if (termScore == 0) {
+                return -1;
+            }
+
+            score += termScore;
+        }
+
+        // prefer names that start with the first term, then names with fewer unmatched tokens
+        if (matches.get(0).containsKey(tokens[0])) {
+            score += 0.1;
+        }
+
+        return score + 0.1 * Math.min(1.0, (double) matches.size() / tokens.length);
+    }
+}
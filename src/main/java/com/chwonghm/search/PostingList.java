@@ -0,0 +1,102 @@
+package com.chwonghm.search;
+
+import java.util.Arrays;
+
+/**
+ * The IDs of the items containing a token, as a sorted array of primitive longs. Item IDs are allocated in
+ * increasing order, so new items are almost always appended at the end. Not thread-safe.
+ *
+ * @author Charles Wong
+ */
+final class PostingList {
+
+    /**
+     * The IDs, sorted, in the first size elements
+     */
+    private long[] ids = new long[4];
+
+    /**
+     * The number of IDs
+     */
+    private int size;
+
+    /**
+     * Add an ID, if not already present
+     *
+     * @param id a long representing the ID to add
+     */
+    void add(long id) {
+        if (size > 0 && ids[size - 1] < id) {
+            grow();
+            ids[size++] = id;
+            return;
+        }
+
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index >= 0) {
+            return;
+        }
+
+        int insertAt = -index - 1;
+        grow();
+        System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+        ids[insertAt] = id;
+        size++;
+    }
+
+    /**
+     * Append all IDs of another list, every one of which must be greater than the IDs of this list
+     *
+     * @param later the PostingList to append
+     */
+    void appendAll(PostingList later) {
+        if (size + later.size > ids.length) {
+            ids = Arrays.copyOf(ids, size + later.size);
+        }
+
+        System.arraycopy(later.ids, 0, ids, size, later.size);
+        size += later.size;
+    }
+
+    /**
+     * Remove an ID, if present
+     *
+     * @param id a long representing the ID to remove
+     */
+    void remove(long id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+
+        if (index >= 0) {
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+        }
+    }
+
+    /**
+     * Get an ID by position
+     *
+     * @param index an int representing the position of the ID, less than {@link #size()}
+     * @return the ID at the position
+     */
+    long get(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Get the number of IDs
+     *
+     * @return the number of IDs
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Make room for one more ID
+     */
+    private void grow() {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.chwonghm.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits names into the tokens and trigrams the search index is built from.
+ *
+ * @author Charles Wong
+ */
+final class Tokens {
+
+    /**
+     * Marks the start and end of a token in its trigrams, so that short tokens still have some
+     */
+    private static final char BOUNDARY = '\u0001';
+
+    private Tokens() {
+    }
+
+    /**
+     * Split a name into its distinct tokens: lower case runs of letters and digits, in order of first appearance.
+     *
+     * @param name the String to split, possibly null
+     * @return an array of the distinct String tokens, empty if there are none
+     */
+    static String[] tokenize(String name) {
+        if (name == null) {
+            return new String[0];
+        }
+
+        Set<String> tokens = new LinkedHashSet<>();
+        String lower = name.toLowerCase(Locale.ROOT);
+        int start = -1;
+
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean inToken = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+
+            if (inToken && start < 0) {
+                start = i;
+            } else if (!inToken && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+
+        return tokens.toArray(new String[0]);
+    }
+
+    /**
+     * Get the distinct trigrams of a token, padded with a boundary marker at each end. A token of n characters
+     * has at most n padded trigrams, and a single edit changes at most three of them.
+     *
+     * @param token the String token
+     * @return a List of the distinct String trigrams of the token
+     */
+    static List<String> trigrams(String token) {
+        String padded = BOUNDARY + token + BOUNDARY;
+        Set<String> trigrams = new LinkedHashSet<>();
+
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+
+        return new ArrayList<>(trigrams);
+    }
+
+    /**
+     * Get the distinct unpadded trigrams of a string, each of which appears in any token containing it.
+     *
+     * @param substring the String to get the trigrams of, at least three characters long
+     * @return a List of the distinct String trigrams of the string
+     */
+    static List<String> innerTrigrams(String substring) {
+        Set<String> trigrams = new LinkedHashSet<>();
+
+        for (int i = 0; i + 3 <= substring.length(); i++) {
+            trigrams.add(substring.substring(i, i + 3));
+        }
+
+        return new ArrayList<>(trigrams);
+    }
+
+    /**
+     * Compute the edit distance between two tokens, counting insertions, deletions, substitutions and swaps of
+     * two adjacent characters as one edit each, and giving up once it exceeds a bound.
+     *
+     * @param a        the first String
+     * @param b        the second String
+     * @param maxEdits an int representing the largest distance of interest
+     * @return the distance, or maxEdits + 1 if it is larger than maxEdits
+     */
+    static int editDistance(String a, String b, int maxEdits) {
+        if (Math.abs(a.length() - b.length()) > maxEdits) {
+            return maxEdits + 1;
+        }
+
+        int[] beforePrevious = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    current[j] = Math.min(current[j], beforePrevious[j - 2] + 1);
+                }
+
+                rowMin = Math.min(rowMin, current[j]);
+            }
+
+            if (rowMin > maxEdits) {
+                return maxEdits + 1;
+            }
+
+            int[] recycled = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = recycled;
+        }
+
+        return Math.min(previous[b.length()], maxEdits + 1);
+    }
+}
@@ -0,0 +1,33 @@
+package com.chwonghm.security;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+
+/**
+ * This class configures the security setup for the reactive profile. As with the servlet stack, nothing is
+ * protected.
+ *
+ * @author Charles Wong
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveSecurityConfig {
+
+    /**
+     * Permit every exchange, without authentication or CSRF protection.
+     *
+     * @param http a ServerHttpSecurity object, provided by Spring
+     * @return the SecurityWebFilterChain permitting everything
+     */
+    @Bean
+    SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http) {
+        return http.authorizeExchange().anyExchange().permitAll()
+                .and().csrf().disable()
+                .httpBasic().disable()
+                .formLogin().disable()
+                .build();
+    }
+}
@@ -1,15 +1,19 @@
 package com.chwonghm.security;
 
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.security.config.annotation.web.builders.WebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 
 /**
  * This class configures the security setup for ShopifyDemo. Nothing is protected.
+ * <p>
+ * The reactive profile is configured by {@link ReactiveSecurityConfig} instead.
  *
  * @author Charles Wong
  */
 @Configuration
+@Profile("!reactive")
 public class ShopifyDemoSecurityConfig extends WebSecurityConfigurerAdapter {
 
     /**
@@ -0,0 +1,110 @@
+package com.chwonghm.service;
+
+/**
+ * The result of creating a single item as part of a bulk creation request.
+ *
+ * @author Charles Wong
+ */
+public class BatchItemResult {
+
+    /**
+     * The possible outcomes of creating an item
+     */
+    public enum Status {
+        CREATED,
+        FAILED
+    }
+
+    /**
+     * The position of the item in the request
+     */
+    private final int index;
+
+    /**
+     * The outcome of creating the item
+     */
+    private final Status status;
+
+    /**
+     * The ID of the created item, or null if the item was not created
+     */
+    private final Long id;
+
+    /**
+     * A message describing why the item was not created, or null if it was
+     */
+    private final String error;
+
+    /**
+     * Construct a result.
+     *
+     * @param index  an int representing the position of the item in the request
+     * @param status the Status of the item
+     * @param id     the Long ID of the created item, or null
+     * @param error  the String error message, or null
+     */
+    private BatchItemResult(int index, Status status, Long id, String error) {
+        this.index = index;
+        this.status = status;
+        this.id = id;
+        this.error = error;
+    }
+
+    /**
+     * Construct a result for a successfully created item.
+     *
+     * @param index an int representing the position of the item in the request
+     * @param id    a long representing the ID of the created item
+     * @return the result
+     */
+    static BatchItemResult created(int index, long id) {
+        return new BatchItemResult(index, Status.CREATED, id, null);
+    }
+
+    /**
+     * Construct a result for an item that was not created.
+     *
+     * @param index an int representing the position of the item in the request
+     * @param error a String describing why the item was not created
+     * @return the result
+     */
+    static BatchItemResult failed(int index, String error) {
+        return new BatchItemResult(index, Status.FAILED, null, error);
+    }
+
+    /**
+     * Get the position of the item in the request
+     *
+     * @return an int representing the position of the item
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the outcome of creating the item
+     *
+     * @return the Status of the item
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the ID of the created item
+     *
+     * @return the Long ID of the created item, or null if it was not created
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Get the reason the item was not created
+     *
+     * @return the String error message, or null if the item was created
+     */
+    public String getError() {
+        return error;
+    }
+}
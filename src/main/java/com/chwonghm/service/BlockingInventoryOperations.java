@@ -0,0 +1,128 @@
+package com.chwonghm.service;
+
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Adapts the blocking JPA services to {@link InventoryOperations}, by running each call on Reactor's bounded
+ * elastic scheduler. Selected with:
+ * <pre>
+ *     shopify-demo.reactive.store: jpa
+ * </pre>
+ * This keeps the caching and query behaviour of the servlet stack, so the two web stacks can be compared over
+ * the same data access code.
+ *
+ * @author Charles Wong
+ */
+@Service
+@ConditionalOnProperty(prefix = "shopify-demo.reactive", name = "store", havingValue = "jpa")
+public class BlockingInventoryOperations implements InventoryOperations {
+
+    /**
+     * An item Service to delegate to
+     */
+    private final ItemService itemService;
+
+    /**
+     * A collection Service to delegate to
+     */
+    private final CollectionService collectionService;
+
+    /**
+     * Constructs this adapter, injecting all required dependencies.
+     *
+     * @param itemService       an ItemService to delegate item operations to
+     * @param collectionService a CollectionService to delegate collection operations to
+     */
+    public BlockingInventoryOperations(ItemService itemService, CollectionService collectionService) {
+        this.itemService = itemService;
+        this.collectionService = collectionService;
+    }
+
+    @Override
+    public Mono<Item> createItem(String name) {
+        return offload(() -> itemService.createItem(name));
+    }
+
+    @Override
+    public Mono<Void> deleteItem(long id) {
+        return offload(() -> {
+            itemService.deleteItem(id);
+            return null;
+        }).then();
+    }
+
+    @Override
+    public Mono<Item> getItem(long id) {
+        return offload(() -> itemService.getItem(id));
+    }
+
+    @Override
+    public Mono<KeysetPage<Item>> getAllItems(String cursor, int limit, String namePrefix, Long minCount,
+                                              Long maxCount) {
+        return offload(() -> itemService.getAllItems(cursor, limit, namePrefix, minCount, maxCount));
+    }
+
+    @Override
+    public Mono<Item> editItem(String name, Long count, long id) {
+        return offload(() -> itemService.editItem(name, count, id));
+    }
+
+    @Override
+    public Mono<ItemCount> adjustItemCount(long delta, long id) {
+        return offload(() -> itemService.adjustItemCount(delta, id));
+    }
+
+    @Override
+    public Mono<Collection> createCollection(String name) {
+        return offload(() -> collectionService.createCollection(name));
+    }
+
+    @Override
+    public Mono<Void> deleteCollection(long id) {
+        return offload(() -> {
+            collectionService.deleteCollection(id);
+            return null;
+        }).then();
+    }
+
+    @Override
+    public Mono<Collection> getCollection(long id) {
+        return offload(() -> collectionService.getCollection(id));
+    }
+
+    @Override
+    public Mono<KeysetPage<Collection>> getAllCollections(String cursor, int limit, String namePrefix,
+                                                          Integer minCount, Integer maxCount) {
+        return offload(() -> collectionService.getAllCollections(cursor, limit, namePrefix, minCount, maxCount));
+    }
+
+    @Override
+    public Mono<Item> addCollectionToItem(List<Long> collectionIds, long itemId) {
+        return offload(() -> collectionService.addCollectionToItem(collectionIds, itemId));
+    }
+
+    @Override
+    public Mono<Item> removeCollectionFromItem(List<Long> collectionIds, long itemId) {
+        return offload(() -> collectionService.removeCollectionFromItem(collectionIds, itemId));
+    }
+
+    /**
+     * Run a blocking call on the bounded elastic scheduler. Checked exceptions thrown by the call are signalled
+     * as errors of the returned Mono.
+     *
+     * @param call the blocking Callable to run
+     * @param <T>  the type of value returned by the call
+     * @return a Mono of the value returned by the call
+     */
+    private static <T> Mono<T> offload(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(Schedulers.boundedElastic());
+    }
+}
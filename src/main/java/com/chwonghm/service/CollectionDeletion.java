@@ -0,0 +1,194 @@
+package com.chwonghm.service;
+
+import java.time.Instant;
+
+/**
+ * Progress and outcome of a background job deleting a collection, as run by {@link CollectionDeletions}. The job
+ * removes the items of the collection in chunks, each in its own transaction, and then deletes the collection.
+ * <p>
+ * Jobs are updated by the thread running them and read by request threads, so every field is volatile.
+ *
+ * @author Charles Wong
+ */
+public class CollectionDeletion {
+
+    /**
+     * The stages of a job
+     */
+    public enum State {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    /**
+     * The ID of the job
+     */
+    private final long id;
+
+    /**
+     * The ID of the collection being deleted
+     */
+    private final long collectionId;
+
+    /**
+     * The time the job was submitted
+     */
+    private final Instant submittedAt;
+
+    /**
+     * The stage of the job
+     */
+    private volatile State state = State.QUEUED;
+
+    /**
+     * The number of items removed from the collection so far
+     */
+    private volatile long itemsRemoved;
+
+    /**
+     * The number of chunks committed so far
+     */
+    private volatile long chunksCommitted;
+
+    /**
+     * The time the job finished, or null while it has not
+     */
+    private volatile Instant finishedAt;
+
+    /**
+     * The reason the job failed, or null unless it has
+     */
+    private volatile String error;
+
+    /**
+     * Construct a queued job.
+     *
+     * @param id           a long representing the ID of the job
+     * @param collectionId a long representing the ID of the collection to delete
+     */
+    CollectionDeletion(long id, long collectionId) {
+        this.id = id;
+        this.collectionId = collectionId;
+        this.submittedAt = Instant.now();
+    }
+
+    /**
+     * Get the ID of the job
+     *
+     * @return the ID of the job
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Get the ID of the collection being deleted
+     *
+     * @return the ID of the collection
+     */
+    public long getCollectionId() {
+        return collectionId;
+    }
+
+    /**
+     * Get the time the job was submitted
+     *
+     * @return the Instant the job was submitted
+     */
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    /**
+     * Get the stage of the job
+     *
+     * @return the State of the job
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Get the number of items removed from the collection in chunks so far. Items left in the collection when it
+     * is finally deleted, such as items added to it while the job ran, are not counted.
+     *
+     * @return the number of removed items
+     */
+    public long getItemsRemoved() {
+        return itemsRemoved;
+    }
+
+    /**
+     * Get the number of chunks committed so far
+     *
+     * @return the number of committed chunks
+     */
+    public long getChunksCommitted() {
+        return chunksCommitted;
+    }
+
+    /**
+     * Get the time the job finished
+     *
+     * @return the Instant the job completed or failed, or null while it has not
+     */
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Get the reason the job failed
+     *
+     * @return the String reason, or null unless the job failed
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Whether the job has completed or failed
+     *
+     * @return true if the job has finished, and false otherwise
+     */
+    boolean isFinished() {
+        return state == State.COMPLETED || state == State.FAILED;
+    }
+
+    /**
+     * Mark the job as started
+     */
+    void started() {
+        state = State.RUNNING;
+    }
+
+    /**
+     * Record a committed chunk
+     *
+     * @param removed an int representing the number of items removed by the chunk
+     */
+    void chunkCommitted(int removed) {
+        itemsRemoved += removed;
+        chunksCommitted++;
+    }
+
+    /**
+     * Mark the job as completed
+     */
+    void completed() {
+        finishedAt = Instant.now();
+        state = State.COMPLETED;
+    }
+
+    /**
+     * Mark the job as failed
+     *
+     * @param error the String reason for the failure
+     */
+    void failed(String error) {
+        this.error = error;
+        finishedAt = Instant.now();
+        state = State.FAILED;
+    }
+}
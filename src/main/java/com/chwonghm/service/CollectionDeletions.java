@@ -0,0 +1,201 @@
+package com.chwonghm.service;
+
+import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.repository.CollectionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Deletes very large collections in the background. A job removes the items of its collection in chunks of
+ * increasing item ID, each in its own short transaction, so that no transaction holds locks on, or invalidates
+ * caches for, every item at once. Once the collection is empty, it is deleted with
+ * {@link CollectionService#deleteCollection(long)}, which also removes any items added to it in the meantime.
+ * <p>
+ * Jobs run one at a time, in submission order. The most recent finished jobs are kept so that their outcome can
+ * be queried; nothing is kept across restarts, and a collection left part way emptied by a restart can simply be
+ * deleted again.
+ *
+ * @author Charles Wong
+ */
+@Service
+public class CollectionDeletions implements DisposableBean {
+
+    /**
+     * Logger for job outcomes
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(CollectionDeletions.class);
+
+    /**
+     * The maximum number of items removed per transaction
+     */
+    private final int chunkSize;
+
+    /**
+     * The number of finished jobs kept for querying
+     */
+    private final int retainedJobs;
+
+    /**
+     * Removes items from collections and deletes them
+     */
+    private final CollectionService collectionService;
+
+    /**
+     * Repository interface for collection tables
+     */
+    private final CollectionRepository collectionRepository;
+
+    /**
+     * The thread running jobs
+     */
+    private final ExecutorService runner;
+
+    /**
+     * Every queued, running and retained job, by ID, in submission order. Guarded by this.
+     */
+    private final Map<Long, CollectionDeletion> jobs = new LinkedHashMap<>();
+
+    /**
+     * The ID of the last submitted job. Guarded by this.
+     */
+    private long lastJobId;
+
+    /**
+     * Constructs the job runner.
+     *
+     * @param chunkSize            an int representing the maximum number of items removed per transaction
+     * @param retainedJobs         an int representing the number of finished jobs kept for querying
+     * @param collectionService    a CollectionService to remove items and delete collections with
+     * @param collectionRepository a CollectionRepository to check collections exist with
+     */
+    public CollectionDeletions(@Value("${shopify-demo.deletion.chunk-size:5000}") int chunkSize,
+                               @Value("${shopify-demo.deletion.retained-jobs:100}") int retainedJobs,
+                               CollectionService collectionService, CollectionRepository collectionRepository) {
+        this.chunkSize = chunkSize;
+        this.retainedJobs = retainedJobs;
+        this.collectionService = collectionService;
+        this.collectionRepository = collectionRepository;
+        this.runner = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "collection-deletion");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queue a job deleting a collection. If a job deleting the same collection is already queued or running, it
+     * is returned instead.
+     *
+     * @param collectionId a long representing the ID of the collection to delete
+     * @return the queued or running CollectionDeletion
+     * @throws ResourceNotFoundException if the provided ID does not match an existing collection
+     */
+    public synchronized CollectionDeletion submit(long collectionId) throws ResourceNotFoundException {
+        for (CollectionDeletion job : jobs.values()) {
+            if (job.getCollectionId() == collectionId && !job.isFinished()) {
+                return job;
+            }
+        }
+
+        if (!collectionRepository.existsById(collectionId)) {
+            throw new ResourceNotFoundException(String.format("Could not find collection with ID %d", collectionId));
+        }
+
+        CollectionDeletion job = new CollectionDeletion(++lastJobId, collectionId);
+        jobs.put(job.getId(), job);
+        pruneFinishedJobs();
+
+        runner.execute(() -> run(job));
+
+        return job;
+    }
+
+    /**
+     * Get a queued, running or recently finished job
+     *
+     * @param id a long representing the ID of the job
+     * @return the CollectionDeletion with the provided ID
+     * @throws ResourceNotFoundException if no such job is queued, running or retained
+     */
+    public synchronized CollectionDeletion getJob(long id) throws ResourceNotFoundException {
+        CollectionDeletion job = jobs.get(id);
+
+        if (job == null) {
+            throw new ResourceNotFoundException(String.format("Could not find deletion job with ID %d", id));
+        }
+
+        return job;
+    }
+
+    /**
+     * Stop running jobs. A job interrupted part way leaves its collection with its remaining items.
+     */
+    @Override
+    public void destroy() {
+        runner.shutdownNow();
+    }
+
+    /**
+     * Run a job: remove the items of its collection chunk by chunk, then delete the collection
+     *
+     * @param job the CollectionDeletion to run
+     */
+    private void run(CollectionDeletion job) {
+        long collectionId = job.getCollectionId();
+        long start = System.nanoTime();
+
+        job.started();
+
+        try {
+            long afterId = 0;
+            List<Long> removed = collectionService.removeItemsFromCollection(collectionId, afterId, chunkSize);
+
+            while (!removed.isEmpty()) {
+                job.chunkCommitted(removed.size());
+
+                if (Thread.currentThread().isInterrupted()) {
+                    job.failed("Interrupted by shutdown");
+                    return;
+                }
+
+                afterId = removed.get(removed.size() - 1);
+                removed = collectionService.removeItemsFromCollection(collectionId, afterId, chunkSize);
+            }
+
+            collectionService.deleteCollection(collectionId);
+            job.completed();
+
+            LOG.info("Deleted collection {}, removing {} items in {} chunks, in {} ms", collectionId,
+                    job.getItemsRemoved(), job.getChunksCommitted(), (System.nanoTime() - start) / 1_000_000);
+        } catch (ResourceNotFoundException | RuntimeException e) {
+            // a collection deleted by someone else while its items were being removed ends up here too
+            job.failed(e.getMessage());
+            LOG.warn("Failed to delete collection {} after removing {} items", collectionId,
+                    job.getItemsRemoved(), e);
+        }
+    }
+
+    /**
+     * Forget the oldest finished jobs beyond the number retained
+     */
+    private void pruneFinishedJobs() {
+        long finished = jobs.values().stream().filter(CollectionDeletion::isFinished).count();
+
+        for (Iterator<CollectionDeletion> it = jobs.values().iterator(); it.hasNext() && finished > retainedJobs; ) {
+            if (it.next().isFinished()) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+}
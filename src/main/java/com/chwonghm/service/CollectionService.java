@@ -1,19 +1,39 @@
 package com.chwonghm.service;
 
+import com.chwonghm.bitmap.CollectionBitmaps;
+import com.chwonghm.bitmap.CollectionExpression;
+import com.chwonghm.cache.InventoryCache;
 import com.chwonghm.entity.Collection;
 import com.chwonghm.entity.Item;
+import com.chwonghm.event.InventoryChangeEvent;
+import com.chwonghm.exception.InvalidRequestException;
 import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.journal.ChangeJournal;
+import com.chwonghm.journal.ChangeRecord;
 import com.chwonghm.repository.CollectionRepository;
+import com.chwonghm.repository.CollectionStats;
 import com.chwonghm.repository.ItemRepository;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import static com.chwonghm.event.InventoryChangeEvent.Type.COLLECTION_CREATED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.COLLECTION_DELETED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.MEMBERSHIP_CHANGED;
+import static com.chwonghm.service.ServiceUtils.decodeCursor;
 import static com.chwonghm.service.ServiceUtils.findCollectionIfExists;
+import static com.chwonghm.service.ServiceUtils.findCollectionWithItemsIfExists;
 import static com.chwonghm.service.ServiceUtils.findItemIfExists;
+import static com.chwonghm.service.ServiceUtils.journaledVersion;
+import static com.chwonghm.service.ServiceUtils.toPage;
+import static com.chwonghm.service.ServiceUtils.toPrefixPattern;
 
 /**
  * This is a service class providing all logic for inventory item related operations. It is responsible
@@ -35,6 +55,26 @@ public class CollectionService {
      */
     private CollectionRepository collectionRepository;
 
+    /**
+     * Read-through cache of collections
+     */
+    private InventoryCache inventoryCache;
+
+    /**
+     * Publisher for inventory change events
+     */
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Journal of committed mutations
+     */
+    private ChangeJournal changeJournal;
+
+    /**
+     * Bitmaps of the items of each collection
+     */
+    private CollectionBitmaps collectionBitmaps;
+
     /**
      * Constructs a UserService, injecting all requires dependencies.
      * <p>
@@ -42,10 +82,20 @@ public class CollectionService {
      *
      * @param itemRepository an ItemRepository instance to support this service
      * @param collectionRepository a CollectionRepository instance to support this service
+     * @param inventoryCache an InventoryCache to read collections through
+     * @param eventPublisher an ApplicationEventPublisher to publish inventory changes to
+     * @param changeJournal a ChangeJournal to record mutations in
+     * @param collectionBitmaps CollectionBitmaps to keep collection memberships in
      */
-    public CollectionService(ItemRepository itemRepository, CollectionRepository collectionRepository) {
+    public CollectionService(ItemRepository itemRepository, CollectionRepository collectionRepository,
+                             InventoryCache inventoryCache, ApplicationEventPublisher eventPublisher,
+                             ChangeJournal changeJournal, CollectionBitmaps collectionBitmaps) {
         this.itemRepository = itemRepository;
         this.collectionRepository = collectionRepository;
+        this.inventoryCache = inventoryCache;
+        this.eventPublisher = eventPublisher;
+        this.changeJournal = changeJournal;
+        this.collectionBitmaps = collectionBitmaps;
     }
 
     /**
@@ -56,39 +106,178 @@ public class CollectionService {
      */
     @Transactional
     public Collection createCollection(String name) {
-        return collectionRepository.save(new Collection(name));
+        Collection col = collectionRepository.save(new Collection(name));
+
+        changeJournal.record(ChangeRecord.collectionCreated(col.getId(), name));
+        collectionBitmaps.collectionCreated(col.getId());
+        eventPublisher.publishEvent(new InventoryChangeEvent(COLLECTION_CREATED, Set.of(), Set.of(col.getId())));
+
+        return col;
     }
 
     /**
-     * Delete the collection with the given ID
+     * Find the ID of a collection by name, creating the collection if none exists. If several collections share
+     * the name, the oldest one is used.
+     *
+     * @param name the String name of the collection
+     * @return a long representing the ID of the found or created collection
+     */
+    @Transactional
+    public long findOrCreateCollection(String name) {
+        List<Long> ids = collectionRepository.findIdsByName(name, PageRequest.of(0, 1));
+
+        return ids.isEmpty() ? createCollection(name).getId() : ids.get(0);
+    }
+
+    /**
+     * Delete the collection with the given ID. Its items are removed from it with set-based statements over the
+     * membership table, without loading the collection or any of its items; the versions of those items are
+     * incremented, since their collections change.
+     * <p>
+     * All of this happens in a single transaction. Very large collections can instead be emptied in chunks by a
+     * {@link CollectionDeletions} job, which then deletes them with this method.
      *
      * @param id a long representing the ID of the collection to delete
      * @throws ResourceNotFoundException if the provided ID does not match an existing collection
      */
     @Transactional
     public void deleteCollection(long id) throws ResourceNotFoundException {
-        Collection col = findCollectionIfExists(collectionRepository, id);
-        collectionRepository.delete(col);
+        if (!collectionRepository.existsById(id)) {
+            throw new ResourceNotFoundException(String.format("Could not find collection with ID %d", id));
+        }
+
+        List<Long> itemIds = collectionRepository.findItemIds(id, 0, Integer.MAX_VALUE);
+
+        collectionRepository.incrementItemVersions(id, 0, Long.MAX_VALUE, itemIds);
+        collectionRepository.deleteMemberships(id, 0, Long.MAX_VALUE, itemIds);
+        collectionRepository.deleteCollectionById(id);
+
+        changeJournal.record(ChangeRecord.collectionDeleted(id));
+        collectionBitmaps.collectionDeleted(id);
+        eventPublisher.publishEvent(new InventoryChangeEvent(COLLECTION_DELETED, new HashSet<>(itemIds), Set.of(id)));
+    }
+
+    /**
+     * Remove a chunk of the items of a collection from it: those with the smallest IDs greater than some ID. The
+     * memberships are deleted with set-based statements, and the versions of the removed items are incremented.
+     *
+     * @param id      a long representing the ID of the collection
+     * @param afterId a long representing the ID that removed items must be greater than
+     * @param limit   an int representing the maximum number of items to remove
+     * @return a List of the IDs of the removed items, in increasing order, empty once no items are left after afterId
+     */
+    @Transactional
+    public List<Long> removeItemsFromCollection(long id, long afterId, int limit) {
+        List<Long> itemIds = collectionRepository.findItemIds(id, afterId, limit);
+
+        if (itemIds.isEmpty()) {
+            return itemIds;
+        }
+
+        long toId = itemIds.get(itemIds.size() - 1);
+
+        collectionRepository.incrementItemVersions(id, afterId, toId, itemIds);
+        collectionRepository.deleteMemberships(id, afterId, toId, itemIds);
+
+        Map<Long, Long> versions = journaledVersions(itemIds);
+
+        for (long itemId : itemIds) {
+            changeJournal.record(ChangeRecord.membershipRemoved(itemId, versions.getOrDefault(itemId, 0L), id));
+            collectionBitmaps.membershipRemoved(itemId, id);
+        }
+        eventPublisher.publishEvent(new InventoryChangeEvent(MEMBERSHIP_CHANGED, new HashSet<>(itemIds), Set.of(id)));
+
+        return itemIds;
     }
 
     /**
-     * Get a collection, specified by ID
+     * Get a collection, specified by ID. Collections are read through a cache, which is invalidated whenever
+     * the collection or any of its items change.
      *
      * @param id a long representing the ID of the collection to get
      * @return the collection corresponding to the provided ID
      * @throws ResourceNotFoundException if the provided ID does not match an existing collection
      */
     public Collection getCollection(long id) throws ResourceNotFoundException {
-        return findCollectionIfExists(collectionRepository, id);
+        return inventoryCache.getCollection(id, () -> findCollectionWithItemsIfExists(collectionRepository, id));
+    }
+
+    /**
+     * Get a page of saved collections, ordered by ID. Pages are navigated with opaque cursors; the
+     * cursor of the next page is included in each returned page. All filters are optional.
+     *
+     * @param cursor     the String cursor of the page to get, or null for the first page
+     * @param limit      an int representing the maximum number of collections in the page
+     * @param namePrefix the String prefix that collection names must start with, or null
+     * @param minCount   an Integer representing the minimum number of items (inclusive) in a collection, or null
+     * @param maxCount   an Integer representing the maximum number of items (inclusive) in a collection, or null
+     * @return a page of collections
+     * @throws InvalidRequestException if the provided cursor is malformed
+     */
+    public KeysetPage<Collection> getAllCollections(String cursor, int limit, String namePrefix,
+                                                    Integer minCount, Integer maxCount) throws InvalidRequestException {
+        List<Long> ids = collectionRepository.findPageIds(decodeCursor(cursor), toPrefixPattern(namePrefix),
+                minCount, maxCount, PageRequest.of(0, limit + 1));
+        KeysetPage<Long> idPage = toPage(ids, limit, Long::longValue);
+
+        List<Collection> collections = idPage.getResults().isEmpty()
+                ? List.of()
+                : collectionRepository.findAllByIdIn(idPage.getResults());
+
+        return new KeysetPage<>(collections, idPage.getNextCursor());
     }
 
     /**
-     * Get a list of all saved collections
+     * Get the stock totals of a page of collections, ordered by ID: the number of items in each collection,
+     * the total, smallest and largest count of its items, and how many of them are out of stock. The totals
+     * are aggregated by the database, without loading any collection or item. Pages are navigated with opaque
+     * cursors, as for {@link #getAllCollections(String, int, String, Integer, Integer)}.
      *
-     * @return a List of all saved collections
+     * @param cursor     the String cursor of the page to get, or null for the first page
+     * @param limit      an int representing the maximum number of collections in the page
+     * @param namePrefix the String prefix that collection names must start with, or null
+     * @return a page of collection stats
+     * @throws InvalidRequestException if the provided cursor is malformed
      */
-    public List<Collection> getAllCollections() {
-        return collectionRepository.findAll();
+    public KeysetPage<CollectionStats> getCollectionStats(String cursor, int limit, String namePrefix)
+            throws InvalidRequestException {
+        List<CollectionStats> rows = collectionRepository.findStatsPage(decodeCursor(cursor),
+                toPrefixPattern(namePrefix), PageRequest.of(0, limit + 1));
+
+        return toPage(rows, limit, CollectionStats::getId);
+    }
+
+    /**
+     * Count the items matching a set expression over collections, such as {@code (1 | 2) & 3 - 4}. See
+     * {@link CollectionExpression} for the syntax. The expression is evaluated over in-memory bitmaps of the
+     * items of each collection, without querying the database.
+     *
+     * @param expression the String expression to evaluate
+     * @return a long representing the number of matching items
+     * @throws InvalidRequestException   if the expression is malformed
+     * @throws ResourceNotFoundException if the expression refers to a collection that does not exist
+     */
+    public long countItemsMatching(String expression) throws InvalidRequestException, ResourceNotFoundException {
+        return collectionBitmaps.count(CollectionExpression.parse(expression));
+    }
+
+    /**
+     * Get a page of the IDs of the items matching a set expression over collections, ordered by ID. Pages are
+     * navigated with opaque cursors, as for {@link #getAllCollections(String, int, String, Integer, Integer)}.
+     *
+     * @param expression the String expression to evaluate
+     * @param cursor     the String cursor of the page to get, or null for the first page
+     * @param limit      an int representing the maximum number of IDs in the page
+     * @return a page of matching item IDs
+     * @throws InvalidRequestException   if the expression or the provided cursor is malformed
+     * @throws ResourceNotFoundException if the expression refers to a collection that does not exist
+     */
+    public KeysetPage<Long> getItemIdsMatching(String expression, String cursor, int limit)
+            throws InvalidRequestException, ResourceNotFoundException {
+        CollectionExpression parsed = CollectionExpression.parse(expression);
+        List<Long> ids = collectionBitmaps.page(parsed, decodeCursor(cursor), limit + 1);
+
+        return toPage(ids, limit, Long::longValue);
     }
 
     /**
@@ -114,8 +303,16 @@ public class CollectionService {
 
         for (Collection col : toAdd) {
             item.addCollection(col);
+            collectionBitmaps.membershipAdded(itemId, col.getId());
+        }
+
+        long version = journaledVersion(itemRepository, changeJournal, item);
+        for (Collection col : toAdd) {
+            changeJournal.record(ChangeRecord.membershipAdded(itemId, version, col.getId()));
         }
 
+        publishMembershipChange(itemId, toAdd);
+
         // if an exception is thrown above, no changes are saved
         return itemRepository.save(item);
     }
@@ -143,9 +340,51 @@ public class CollectionService {
 
         for (Collection col : toRemove) {
             item.removeCollection(col);
+            collectionBitmaps.membershipRemoved(itemId, col.getId());
         }
 
+        long version = journaledVersion(itemRepository, changeJournal, item);
+        for (Collection col : toRemove) {
+            changeJournal.record(ChangeRecord.membershipRemoved(itemId, version, col.getId()));
+        }
+
+        publishMembershipChange(itemId, toRemove);
+
         // if an exception is thrown above, no changes are saved
         return itemRepository.save(item);
     }
+
+    /**
+     * Get the versions some items commit with, for their journal records, once set-based statements have changed
+     * them. Nothing is read while the journal is disabled.
+     *
+     * @param itemIds a List of longs representing the IDs of the items
+     * @return a Map from item ID to version, empty if the journal is disabled
+     */
+    private Map<Long, Long> journaledVersions(List<Long> itemIds) {
+        Map<Long, Long> versions = new HashMap<>();
+
+        if (changeJournal.isEnabled()) {
+            for (Object[] row : itemRepository.findVersionsByIdIn(itemIds)) {
+                versions.put((Long) row[0], (Long) row[1]);
+            }
+        }
+
+        return versions;
+    }
+
+    /**
+     * Publish a change in the membership of an item in some collections.
+     *
+     * @param itemId      a long representing the ID of the item
+     * @param collections the Set of collections the item was added to or removed from
+     */
+    private void publishMembershipChange(long itemId, Set<Collection> collections) {
+        Set<Long> collectionIds = new HashSet<>();
+        for (Collection col : collections) {
+            collectionIds.add(col.getId());
+        }
+
+        eventPublisher.publishEvent(new InventoryChangeEvent(MEMBERSHIP_CHANGED, Set.of(itemId), collectionIds));
+    }
 }
@@ -0,0 +1,234 @@
+package com.chwonghm.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Progress and outcome of a bulk import. If an import fails part way, every chunk before the committed
+ * offset has been saved, and the import can be resumed by skipping that many lines.
+ *
+ * @author Charles Wong
+ */
+public class ImportReport {
+
+    /**
+     * The maximum number of row errors kept in a report
+     */
+    private static final int MAX_ERRORS = 100;
+
+    /**
+     * The number of data lines skipped before importing
+     */
+    private final long skipped;
+
+    /**
+     * The number of data lines read, excluding skipped lines
+     */
+    private long linesRead;
+
+    /**
+     * The number of items created
+     */
+    private long itemsCreated;
+
+    /**
+     * The number of lines that could not be imported
+     */
+    private long itemsFailed;
+
+    /**
+     * The number of chunks committed
+     */
+    private long chunksCommitted;
+
+    /**
+     * The number of data lines, including skipped lines, that have been committed
+     */
+    private long committedOffset;
+
+    /**
+     * The time spent importing, in milliseconds
+     */
+    private long elapsedMillis;
+
+    /**
+     * Whether every line of the input was processed
+     */
+    private boolean completed;
+
+    /**
+     * A message describing why the import stopped early, or null
+     */
+    private String error;
+
+    /**
+     * A sample of the errors of lines that could not be imported
+     */
+    private final List<String> rowErrors = new ArrayList<>();
+
+    /**
+     * Construct an empty report.
+     *
+     * @param skipped a long representing the number of data lines skipped before importing
+     */
+    ImportReport(long skipped) {
+        this.skipped = skipped;
+        this.committedOffset = skipped;
+    }
+
+    /**
+     * Record that a data line was read
+     */
+    void lineRead() {
+        linesRead++;
+    }
+
+    /**
+     * Record that a data line could not be imported.
+     *
+     * @param line  a long representing the line number, counted from the first data line
+     * @param error a String describing why the line could not be imported
+     */
+    void lineFailed(long line, String error) {
+        itemsFailed++;
+
+        if (rowErrors.size() < MAX_ERRORS) {
+            rowErrors.add(String.format("line %d: %s", line, error));
+        }
+    }
+
+    /**
+     * Record that a chunk was committed.
+     *
+     * @param created         a long representing the number of items created by the chunk
+     * @param committedOffset a long representing the number of data lines committed so far
+     */
+    void chunkCommitted(long created, long committedOffset) {
+        this.itemsCreated += created;
+        this.chunksCommitted++;
+        this.committedOffset = committedOffset;
+    }
+
+    /**
+     * Record that every data line up to an offset has been processed, without needing a commit. This happens
+     * when none of the lines since the last commit could be imported.
+     *
+     * @param committedOffset a long representing the number of data lines processed so far
+     */
+    void advanceTo(long committedOffset) {
+        this.committedOffset = committedOffset;
+    }
+
+    /**
+     * Record that the import has finished.
+     *
+     * @param elapsedMillis a long representing the time spent importing, in milliseconds
+     * @param error         a String describing why the import stopped early, or null if it completed
+     */
+    void finish(long elapsedMillis, String error) {
+        this.elapsedMillis = elapsedMillis;
+        this.error = error;
+        this.completed = error == null;
+    }
+
+    /**
+     * Get the number of data lines skipped before importing
+     *
+     * @return a long representing the number of skipped lines
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Get the number of data lines read, excluding skipped lines
+     *
+     * @return a long representing the number of lines read
+     */
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    /**
+     * Get the number of items created
+     *
+     * @return a long representing the number of items created
+     */
+    public long getItemsCreated() {
+        return itemsCreated;
+    }
+
+    /**
+     * Get the number of lines that could not be imported
+     *
+     * @return a long representing the number of failed lines
+     */
+    public long getItemsFailed() {
+        return itemsFailed;
+    }
+
+    /**
+     * Get the number of chunks committed
+     *
+     * @return a long representing the number of chunks committed
+     */
+    public long getChunksCommitted() {
+        return chunksCommitted;
+    }
+
+    /**
+     * Get the number of data lines, including skipped lines, that have been committed. Passing this value
+     * as the number of lines to skip resumes the import.
+     *
+     * @return a long representing the committed offset
+     */
+    public long getCommittedOffset() {
+        return committedOffset;
+    }
+
+    /**
+     * Get the time spent importing
+     *
+     * @return a long representing the elapsed time, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Get the import throughput
+     *
+     * @return a double representing the number of lines read per second
+     */
+    public double getLinesPerSecond() {
+        return elapsedMillis == 0 ? 0 : linesRead * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * Get whether every line of the input was processed
+     *
+     * @return true if the import completed, and false if it stopped early
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * Get why the import stopped early
+     *
+     * @return a String describing the failure, or null if the import completed
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Get a sample of the errors of lines that could not be imported
+     *
+     * @return a List of at most 100 String errors
+     */
+    public List<String> getRowErrors() {
+        return Collections.unmodifiableList(rowErrors);
+    }
+}
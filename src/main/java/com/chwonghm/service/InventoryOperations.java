@@ -0,0 +1,148 @@
+package com.chwonghm.service;
+
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+import com.chwonghm.exception.InsufficientStockException;
+import com.chwonghm.exception.InvalidRequestException;
+import com.chwonghm.exception.ResourceNotFoundException;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * The non-blocking service contract behind the reactive API. Every operation matches a method of
+ * {@link ItemService} or {@link CollectionService}, and signals the same exceptions through the returned
+ * publisher rather than throwing them:
+ * <ul>
+ *     <li>{@link ResourceNotFoundException} if a provided ID does not match an existing entry</li>
+ *     <li>{@link InvalidRequestException} if a provided cursor is malformed</li>
+ *     <li>{@link InsufficientStockException} if an adjustment would make an item's count negative</li>
+ * </ul>
+ * Returned entities are detached, with every association they serialize already loaded.
+ *
+ * @author Charles Wong
+ */
+public interface InventoryOperations {
+
+    /**
+     * Create and persist a new inventory item
+     *
+     * @param name the String name of the new item
+     * @return the newly created item
+     * @see ItemService#createItem(String)
+     */
+    Mono<Item> createItem(String name);
+
+    /**
+     * Delete the inventory item with the provided ID
+     *
+     * @param id a long representing the ID of the item to delete
+     * @return a Mono completing once the item is deleted
+     * @see ItemService#deleteItem(long)
+     */
+    Mono<Void> deleteItem(long id);
+
+    /**
+     * Get an inventory item, with its collections, by ID
+     *
+     * @param id a long representing the ID of the item to get
+     * @return the item corresponding to the provided ID
+     * @see ItemService#getItem(long)
+     */
+    Mono<Item> getItem(long id);
+
+    /**
+     * Get a page of saved inventory items, ordered by ID
+     *
+     * @param cursor     the String cursor of the page to get, or null for the first page
+     * @param limit      an int representing the maximum number of items in the page
+     * @param namePrefix the String prefix that item names must start with, or null
+     * @param minCount   a Long representing the minimum item count (inclusive), or null
+     * @param maxCount   a Long representing the maximum item count (inclusive), or null
+     * @return a page of inventory items
+     * @see ItemService#getAllItems(String, int, String, Long, Long)
+     */
+    Mono<KeysetPage<Item>> getAllItems(String cursor, int limit, String namePrefix, Long minCount, Long maxCount);
+
+    /**
+     * Edit the name and count of an inventory item. Fields given as null are left unchanged.
+     *
+     * @param name  the String to edit the item's name to, or null
+     * @param count the Long to edit the item's count to, or null
+     * @param id    a long representing the ID of the item to edit
+     * @return the newly edited item
+     * @see ItemService#editItem(String, Long, long)
+     */
+    Mono<Item> editItem(String name, Long count, long id);
+
+    /**
+     * Atomically add a delta to the count of an inventory item
+     *
+     * @param delta a long representing the amount to add to the item's count
+     * @param id    a long representing the ID of the item to edit
+     * @return the count of the item after the adjustment
+     * @see ItemService#adjustItemCount(long, long)
+     */
+    Mono<ItemCount> adjustItemCount(long delta, long id);
+
+    /**
+     * Create and persist a new inventory collection
+     *
+     * @param name the String name of the new collection
+     * @return the newly created collection
+     * @see CollectionService#createCollection(String)
+     */
+    Mono<Collection> createCollection(String name);
+
+    /**
+     * Delete the collection with the given ID
+     *
+     * @param id a long representing the ID of the collection to delete
+     * @return a Mono completing once the collection is deleted
+     * @see CollectionService#deleteCollection(long)
+     */
+    Mono<Void> deleteCollection(long id);
+
+    /**
+     * Get a collection, with its items, by ID
+     *
+     * @param id a long representing the ID of the collection to get
+     * @return the collection corresponding to the provided ID
+     * @see CollectionService#getCollection(long)
+     */
+    Mono<Collection> getCollection(long id);
+
+    /**
+     * Get a page of saved collections, ordered by ID
+     *
+     * @param cursor     the String cursor of the page to get, or null for the first page
+     * @param limit      an int representing the maximum number of collections in the page
+     * @param namePrefix the String prefix that collection names must start with, or null
+     * @param minCount   an Integer representing the minimum number of items (inclusive) in a collection, or null
+     * @param maxCount   an Integer representing the maximum number of items (inclusive) in a collection, or null
+     * @return a page of collections, without their items
+     * @see CollectionService#getAllCollections(String, int, String, Integer, Integer)
+     */
+    Mono<KeysetPage<Collection>> getAllCollections(String cursor, int limit, String namePrefix,
+                                                   Integer minCount, Integer maxCount);
+
+    /**
+     * Add collections to an item. All IDs provided must exist, otherwise no change is made.
+     *
+     * @param collectionIds a List of longs representing the IDs of the collections to add
+     * @param itemId        a long representing the ID of the item to be edited
+     * @return the newly edited item
+     * @see CollectionService#addCollectionToItem(List, long)
+     */
+    Mono<Item> addCollectionToItem(List<Long> collectionIds, long itemId);
+
+    /**
+     * Remove collections from an item. All IDs provided must exist, otherwise no change is made.
+     *
+     * @param collectionIds a List of longs representing the IDs of the collections to remove
+     * @param itemId        a long representing the ID of the item to be edited
+     * @return the newly edited item
+     * @see CollectionService#removeCollectionFromItem(List, long)
+     */
+    Mono<Item> removeCollectionFromItem(List<Long> collectionIds, long itemId);
+}
@@ -0,0 +1,48 @@
+package com.chwonghm.service;
+
+/**
+ * The count of a single inventory item at some point in time.
+ *
+ * @author Charles Wong
+ */
+public class ItemCount {
+
+    /**
+     * The ID of the inventory item
+     */
+    private final long id;
+
+    /**
+     * The count of the inventory item
+     */
+    private final long count;
+
+    /**
+     * Construct an item count.
+     *
+     * @param id    a long representing the ID of the inventory item
+     * @param count a long representing the count of the inventory item
+     */
+    public ItemCount(long id, long count) {
+        this.id = id;
+        this.count = count;
+    }
+
+    /**
+     * Get the ID of the inventory item
+     *
+     * @return the ID of the inventory item
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Get the count of the inventory item
+     *
+     * @return the count of the inventory item
+     */
+    public long getCount() {
+        return count;
+    }
+}
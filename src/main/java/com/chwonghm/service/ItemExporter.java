@@ -0,0 +1,140 @@
+package com.chwonghm.service;
+
+import com.chwonghm.repository.ItemRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * This is a service class exporting the full inventory as newline-delimited JSON. Each line holds one item
+ * and its collections, in the same form as an item returned by the item endpoints.
+ * <p>
+ * The export streams rows from the database straight to the output, so memory use does not depend on the
+ * number of items exported.
+ *
+ * @author Charles Wong
+ */
+@Service
+public class ItemExporter {
+
+    /**
+     * The number of items written between flushes of the output
+     */
+    private static final int FLUSH_INTERVAL = 1000;
+
+    /**
+     * Repository interface for item tables
+     */
+    private final ItemRepository itemRepository;
+
+    /**
+     * Object mapper providing the JSON generator configuration
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Constructs an ItemExporter, injecting all requires dependencies.
+     *
+     * @param itemRepository an ItemRepository instance to export from
+     * @param objectMapper   the ObjectMapper used to create JSON generators
+     */
+    public ItemExporter(ItemRepository itemRepository, ObjectMapper objectMapper) {
+        this.itemRepository = itemRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Write every inventory item to an output stream as newline-delimited JSON, ordered by ID. The output is
+     * flushed periodically, so a consumer receives items as they are read. The output stream is not closed.
+     *
+     * @param out the OutputStream to write to
+     * @return a long representing the number of items written
+     * @throws IOException if writing to the output stream fails
+     */
+    @Transactional(readOnly = true)
+    public long exportItems(OutputStream out) throws IOException {
+        long written = 0;
+
+        try (Stream<Object[]> rows = itemRepository.streamAllWithCollections();
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // lines are terminated explicitly, rather than separated by Jackson's default space
+            generator.setRootValueSeparator(null);
+
+            Iterator<Object[]> it = rows.iterator();
+            Long currentId = null;
+
+            while (it.hasNext()) {
+                Object[] row = it.next();
+                long itemId = (Long) row[0];
+
+                if (currentId == null || currentId != itemId) {
+                    if (currentId != null) {
+                        endItem(generator);
+                        written++;
+
+                        if (written % FLUSH_INTERVAL == 0) {
+                            generator.flush();
+                        }
+                    }
+
+                    startItem(generator, itemId, (String) row[1], (Long) row[2]);
+                    currentId = itemId;
+                }
+
+                if (row[3] != null) {
+                    generator.writeStartObject();
+                    generator.writeStringField("type", "Collection");
+                    generator.writeNumberField("id", (Long) row[3]);
+                    generator.writeStringField("name", (String) row[4]);
+                    generator.writeEndObject();
+                }
+            }
+
+            if (currentId != null) {
+                endItem(generator);
+                written++;
+            }
+
+            generator.flush();
+        }
+
+        return written;
+    }
+
+    /**
+     * Write the start of an item line, up to and including the opening of its collections array.
+     *
+     * @param generator the JsonGenerator to write to
+     * @param id        a long representing the ID of the item
+     * @param name      the String name of the item
+     * @param count     a long representing the count of the item
+     * @throws IOException if writing fails
+     */
+    private static void startItem(JsonGenerator generator, long id, String name, long count) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", "Item");
+        generator.writeNumberField("id", id);
+        generator.writeStringField("name", name);
+        generator.writeNumberField("count", count);
+        generator.writeArrayFieldStart("collections");
+    }
+
+    /**
+     * Write the end of an item line, closing its collections array and terminating the line.
+     *
+     * @param generator the JsonGenerator to write to
+     * @throws IOException if writing fails
+     */
+    private static void endItem(JsonGenerator generator) throws IOException {
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+}
@@ -0,0 +1,408 @@
+package com.chwonghm.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This is a service class importing inventory items in bulk from CSV or newline-delimited JSON input. Input is
+ * parsed one line at a time and committed in chunks, so memory use does not depend on the size of the input.
+ * The next chunk is only read once the previous one has been committed, which applies backpressure to the
+ * producer of the input.
+ * <p>
+ * CSV input must start with a header naming its columns. The name column is required; the count and
+ * collections columns are optional. Collections are given by name, separated by '|':
+ * <pre>
+ *     name,count,collections
+ *     apple,12,fruits|red
+ * </pre>
+ * NDJSON input holds one object per line, with the same fields. Collections may be given by name, or by ID
+ * through a collectionIds field:
+ * <pre>
+ *     {"name": "apple", "count": 12, "collections": ["fruits", "red"]}
+ * </pre>
+ * Collections given by name are created if they do not exist. The IDs of recently resolved names are cached for
+ * the rest of the import, up to a fixed number of names, so that an input naming many distinct collections does
+ * not grow the cache without bound.
+ *
+ * @author Charles Wong
+ */
+@Service
+public class ItemImporter {
+
+    /**
+     * The supported input formats
+     */
+    public enum Format {
+        CSV,
+        NDJSON
+    }
+
+    /**
+     * Logger for import progress
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ItemImporter.class);
+
+    /**
+     * The separator between collection names in a CSV column
+     */
+    private static final String CSV_COLLECTION_SEPARATOR = "\\|";
+
+    /**
+     * An item Service to create items with
+     */
+    private final ItemService itemService;
+
+    /**
+     * A collection Service to resolve collection names with
+     */
+    private final CollectionService collectionService;
+
+    /**
+     * Object mapper used to parse NDJSON lines
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * The maximum number of collection names whose IDs are cached during an import
+     */
+    private final long collectionCacheSize;
+
+    /**
+     * Constructs an ItemImporter, injecting all requires dependencies.
+     *
+     * @param itemService         an ItemService used to create items
+     * @param collectionService   a CollectionService used to resolve collection names
+     * @param objectMapper        the ObjectMapper used to parse NDJSON lines
+     * @param collectionCacheSize a long representing the maximum number of collection names whose IDs are cached
+     *                            during an import
+     */
+    public ItemImporter(ItemService itemService, CollectionService collectionService, ObjectMapper objectMapper,
+                        @Value("${shopify-demo.import.collection-cache-size:10000}") long collectionCacheSize) {
+        this.itemService = itemService;
+        this.collectionService = collectionService;
+        this.objectMapper = objectMapper;
+        this.collectionCacheSize = collectionCacheSize;
+    }
+
+    /**
+     * Import inventory items from an input stream. Each chunk of lines is created in its own transaction. Lines
+     * that cannot be imported are reported and skipped; any other failure stops the import, leaving every
+     * previously committed chunk in place. The input stream is closed once the import finishes.
+     *
+     * @param in        the InputStream to read from
+     * @param format    the Format of the input
+     * @param chunkSize an int representing the number of lines committed per transaction
+     * @param skip      a long representing the number of data lines to skip, used to resume an import
+     * @return a report of the import
+     */
+    public ImportReport importItems(InputStream in, Format format, int chunkSize, long skip) {
+        ImportReport report = new ImportReport(skip);
+        Cache<String, Long> collectionIdsByName = Caffeine.newBuilder()
+                .maximumSize(collectionCacheSize)
+                .executor(Runnable::run)
+                .build();
+        long start = System.nanoTime();
+        String error = null;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            Map<String, Integer> csvColumns = format == Format.CSV ? parseCsvHeader(reader.readLine()) : null;
+
+            long line = 0;
+            while (line < skip && reader.readLine() != null) {
+                line++;
+            }
+
+            List<NewItem> chunk = new ArrayList<>(chunkSize);
+            List<Long> chunkLines = new ArrayList<>(chunkSize);
+            String text;
+
+            while ((text = reader.readLine()) != null) {
+                line++;
+
+                if (text.isBlank()) {
+                    continue;
+                }
+
+                report.lineRead();
+
+                try {
+                    NewItem newItem = format == Format.CSV
+                            ? parseCsvLine(text, csvColumns, collectionIdsByName)
+                            : parseNdjsonLine(text, collectionIdsByName);
+                    chunk.add(newItem);
+                    chunkLines.add(line);
+                } catch (IllegalArgumentException | IOException e) {
+                    report.lineFailed(line, e.getMessage());
+                }
+
+                if (chunk.size() >= chunkSize) {
+                    commitChunk(chunk, chunkLines, line, report, start);
+                }
+            }
+
+            commitChunk(chunk, chunkLines, line, report, start);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Import stopped at offset {}", report.getCommittedOffset(), e);
+            error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+        }
+
+        report.finish(elapsedMillis(start), error);
+
+        LOG.info("Import {}: {} lines read, {} items created, {} failed, offset {}, {} lines/s",
+                report.isCompleted() ? "completed" : "stopped", report.getLinesRead(), report.getItemsCreated(),
+                report.getItemsFailed(), report.getCommittedOffset(), Math.round(report.getLinesPerSecond()));
+
+        return report;
+    }
+
+    /**
+     * Create the items of a chunk in a single transaction, record the results, then empty the chunk.
+     *
+     * @param chunk      the List of NewItems to create
+     * @param chunkLines a List of longs holding the line number of each item in the chunk
+     * @param offset     a long representing the number of data lines processed once this chunk is committed
+     * @param report     the ImportReport to record results in
+     * @param start      a long representing the System.nanoTime() at which the import started
+     */
+    private void commitChunk(List<NewItem> chunk, List<Long> chunkLines, long offset, ImportReport report, long start) {
+        if (chunk.isEmpty()) {
+            report.advanceTo(offset);
+            return;
+        }
+
+        long created = 0;
+
+        for (BatchItemResult result : itemService.createItems(chunk)) {
+            if (result.getStatus() == BatchItemResult.Status.CREATED) {
+                created++;
+            } else {
+                report.lineFailed(chunkLines.get(result.getIndex()), result.getError());
+            }
+        }
+
+        report.chunkCommitted(created, offset);
+
+        long elapsed = elapsedMillis(start);
+        LOG.info("Import progress: {} lines read, {} items created, offset {}, {} lines/s",
+                report.getLinesRead(), report.getItemsCreated(), offset,
+                elapsed == 0 ? 0 : report.getLinesRead() * 1000 / elapsed);
+
+        chunk.clear();
+        chunkLines.clear();
+    }
+
+    /**
+     * Parse the header of CSV input into a map from column name to position.
+     *
+     * @param header the String header line, or null if the input is empty
+     * @return a Map from lower case column names to column positions
+     * @throws IllegalArgumentException if the header has no name column
+     */
+    private static Map<String, Integer> parseCsvHeader(String header) {
+        Map<String, Integer> columns = new HashMap<>();
+
+        if (header != null) {
+            List<String> names = splitCsvLine(header);
+            for (int i = 0; i < names.size(); i++) {
+                columns.put(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+            }
+        }
+
+        if (!columns.containsKey("name")) {
+            throw new IllegalArgumentException("CSV header must include a name column");
+        }
+
+        return columns;
+    }
+
+    /**
+     * Parse a line of CSV input into an item description.
+     *
+     * @param text                the String line to parse
+     * @param columns             a Map from column name to position, from the header
+     * @param collectionIdsByName a Cache of the IDs of collections resolved by name
+     * @return the NewItem described by the line
+     * @throws IllegalArgumentException if the line is malformed
+     */
+    private NewItem parseCsvLine(String text, Map<String, Integer> columns, Cache<String, Long> collectionIdsByName) {
+        List<String> fields = splitCsvLine(text);
+
+        String name = csvField(fields, columns, "name");
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("name must not be empty");
+        }
+
+        String count = csvField(fields, columns, "count");
+        String collections = csvField(fields, columns, "collections");
+
+        List<Long> collectionIds = new ArrayList<>();
+        if (collections != null && !collections.isBlank()) {
+            for (String collectionName : collections.split(CSV_COLLECTION_SEPARATOR)) {
+                collectionIds.add(resolveCollection(collectionName.trim(), collectionIdsByName));
+            }
+        }
+
+        return new NewItem(name, count == null || count.isBlank() ? null : Long.parseLong(count.trim()), collectionIds);
+    }
+
+    /**
+     * Get a field of a CSV line by column name.
+     *
+     * @param fields  the List of String fields of the line
+     * @param columns a Map from column name to position
+     * @param column  the String name of the column
+     * @return the String value of the field, or null if the column or field is missing
+     */
+    private static String csvField(List<String> fields, Map<String, Integer> columns, String column) {
+        Integer position = columns.get(column);
+        return position == null || position >= fields.size() ? null : fields.get(position);
+    }
+
+    /**
+     * Split a line of CSV into fields. Fields may be quoted with '"', in which case they may contain commas, and
+     * quotes are escaped by doubling them. Fields spanning multiple lines are not supported.
+     *
+     * @param line the String line to split
+     * @return a List of String fields
+     * @throws IllegalArgumentException if a quoted field is not terminated
+     */
+    static List<String> splitCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Parse a line of NDJSON input into an item description.
+     *
+     * @param text                the String line to parse
+     * @param collectionIdsByName a Cache of the IDs of collections resolved by name
+     * @return the NewItem described by the line
+     * @throws IOException              if the line is not valid JSON
+     * @throws IllegalArgumentException if the line is not a valid item
+     */
+    private NewItem parseNdjsonLine(String text, Cache<String, Long> collectionIdsByName) throws IOException {
+        JsonNode node = objectMapper.readTree(text);
+
+        if (!node.isObject()) {
+            throw new IllegalArgumentException("line must be a JSON object");
+        }
+
+        JsonNode name = node.get("name");
+        if (name == null || !name.isTextual()) {
+            throw new IllegalArgumentException("name must be a string");
+        }
+
+        Long count = null;
+        JsonNode countNode = node.get("count");
+        if (countNode != null && !countNode.isNull()) {
+            if (!countNode.isIntegralNumber() || !countNode.canConvertToLong()) {
+                throw new IllegalArgumentException("count must be an integer");
+            }
+            count = countNode.longValue();
+        }
+
+        List<Long> collectionIds = new ArrayList<>();
+
+        JsonNode collections = node.get("collections");
+        if (collections != null && !collections.isNull()) {
+            if (!collections.isArray()) {
+                throw new IllegalArgumentException("collections must be an array of names");
+            }
+            for (JsonNode collectionName : collections) {
+                if (!collectionName.isTextual()) {
+                    throw new IllegalArgumentException("collections must be an array of names");
+                }
+                collectionIds.add(resolveCollection(collectionName.textValue(), collectionIdsByName));
+            }
+        }
+
+        JsonNode ids = node.get("collectionIds");
+        if (ids != null && !ids.isNull()) {
+            if (!ids.isArray()) {
+                throw new IllegalArgumentException("collectionIds must be an array of IDs");
+            }
+            for (JsonNode id : ids) {
+                if (!id.isIntegralNumber()) {
+                    throw new IllegalArgumentException("collectionIds must be an array of IDs");
+                }
+                collectionIds.add(id.longValue());
+            }
+        }
+
+        return new NewItem(name.textValue(), count, collectionIds);
+    }
+
+    /**
+     * Resolve a collection name to an ID, creating the collection if it does not exist. Resolved names are
+     * cached for the rest of the import, unless evicted by names resolved since.
+     *
+     * @param name                the String name of the collection
+     * @param collectionIdsByName a Cache of the IDs of collections resolved by name
+     * @return a long representing the ID of the collection
+     * @throws IllegalArgumentException if the name is empty
+     */
+    private long resolveCollection(String name, Cache<String, Long> collectionIdsByName) {
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("collection names must not be empty");
+        }
+
+        return collectionIdsByName.get(name, collectionService::findOrCreateCollection);
+    }
+
+    /**
+     * Get the time elapsed since some start time
+     *
+     * @param start a long representing a System.nanoTime() value
+     * @return a long representing the elapsed time, in milliseconds
+     */
+    private static long elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
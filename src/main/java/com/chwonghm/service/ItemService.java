@@ -1,14 +1,46 @@
 package com.chwonghm.service;
 
+import com.chwonghm.bitmap.CollectionBitmaps;
+import com.chwonghm.cache.InventoryCache;
+import com.chwonghm.cache.SecondLevelCache;
+import com.chwonghm.counter.HotCounters;
+import com.chwonghm.entity.Collection;
 import com.chwonghm.entity.Item;
+import com.chwonghm.event.InventoryChangeEvent;
+import com.chwonghm.exception.InsufficientStockException;
+import com.chwonghm.exception.InvalidRequestException;
 import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.journal.ChangeJournal;
+import com.chwonghm.journal.ChangeRecord;
+import com.chwonghm.replica.ReadYourWrites;
+import com.chwonghm.repository.CollectionRepository;
 import com.chwonghm.repository.ItemRepository;
+import com.chwonghm.search.ItemSearchIndex;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import static com.chwonghm.event.InventoryChangeEvent.Type.ITEM_CREATED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.ITEM_DELETED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.ITEM_UPDATED;
+import static com.chwonghm.service.ServiceUtils.collectionIdsOf;
+import static com.chwonghm.service.ServiceUtils.decodeCursor;
+import static com.chwonghm.service.ServiceUtils.encodeCursor;
 import static com.chwonghm.service.ServiceUtils.findItemIfExists;
+import static com.chwonghm.service.ServiceUtils.journaledVersion;
+import static com.chwonghm.service.ServiceUtils.toPage;
+import static com.chwonghm.service.ServiceUtils.toPrefixPattern;
 
 /**
  * This is a service class providing all logic for inventory item related operations. It is responsible
@@ -20,20 +52,97 @@ import static com.chwonghm.service.ServiceUtils.findItemIfExists;
 @Transactional(readOnly = true)
 public class ItemService {
 
+    /**
+     * The number of items written between persistence context flushes when creating items in bulk
+     */
+    private static final int BATCH_CHUNK_SIZE = 500;
+
+    /**
+     * Returned by a count adjustment transaction that was rolled back because the item became hot
+     */
+    private static final long PROMOTED = Long.MIN_VALUE;
+
     /**
      * Repository interface for item tables
      */
     private ItemRepository itemRepository;
 
+    /**
+     * Repository interface for collection tables
+     */
+    private CollectionRepository collectionRepository;
+
+    /**
+     * Read-through cache of items
+     */
+    private InventoryCache inventoryCache;
+
+    /**
+     * Publisher for inventory change events
+     */
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * In-memory counts of hot items
+     */
+    private HotCounters hotCounters;
+
+    /**
+     * Runs count adjustments that go to the database in their own transactions
+     */
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * Journal of committed mutations
+     */
+    private ChangeJournal changeJournal;
+
+    /**
+     * Index of item names
+     */
+    private ItemSearchIndex itemSearchIndex;
+
+    /**
+     * Bitmaps of the items of each collection
+     */
+    private CollectionBitmaps collectionBitmaps;
+
+    /**
+     * Hibernate's second-level cache, for the changes it does not track itself
+     */
+    private SecondLevelCache secondLevelCache;
+
     /**
      * Constructs an ItemService, injecting all requires dependencies.
      * <p>
      * Note that this constructor is automatically picked up by Spring for autowiring.
      *
      * @param itemRepository an ItemRepository instance to support this service
+     * @param collectionRepository a CollectionRepository instance to support this service
+     * @param inventoryCache an InventoryCache to read items through
+     * @param eventPublisher an ApplicationEventPublisher to publish inventory changes to
+     * @param hotCounters HotCounters holding the counts of hot items
+     * @param transactionManager the PlatformTransactionManager to run count adjustments with
+     * @param changeJournal a ChangeJournal to record mutations in
+     * @param itemSearchIndex an ItemSearchIndex to keep item names searchable in
+     * @param collectionBitmaps CollectionBitmaps to keep collection memberships in
+     * @param secondLevelCache the SecondLevelCache to evict collections filled from the item side from
      */
-    public ItemService(ItemRepository itemRepository) {
+    public ItemService(ItemRepository itemRepository, CollectionRepository collectionRepository,
+                       InventoryCache inventoryCache, ApplicationEventPublisher eventPublisher,
+                       HotCounters hotCounters, PlatformTransactionManager transactionManager,
+                       ChangeJournal changeJournal, ItemSearchIndex itemSearchIndex,
+                       CollectionBitmaps collectionBitmaps, SecondLevelCache secondLevelCache) {
         this.itemRepository = itemRepository;
+        this.collectionRepository = collectionRepository;
+        this.inventoryCache = inventoryCache;
+        this.eventPublisher = eventPublisher;
+        this.hotCounters = hotCounters;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.changeJournal = changeJournal;
+        this.itemSearchIndex = itemSearchIndex;
+        this.collectionBitmaps = collectionBitmaps;
+        this.secondLevelCache = secondLevelCache;
     }
 
     /**
@@ -46,54 +155,337 @@ public class ItemService {
      */
     @Transactional
     public Item createItem(String name) {
-        return itemRepository.save(new Item(name));
+        Item item = itemRepository.save(new Item(name));
+
+        changeJournal.record(ChangeRecord.itemCreated(item.getId(), item.getVersion(), name, 0));
+        itemSearchIndex.index(item.getId(), name);
+        eventPublisher.publishEvent(new InventoryChangeEvent(ITEM_CREATED, Set.of(item.getId()), Set.of()));
+
+        return item;
+    }
+
+    /**
+     * Create many inventory items in a single transaction. Each item is validated individually; items that
+     * fail validation are reported and skipped, while all other items are created.
+     * <p>
+     * Items are written in chunks, with the persistence context flushed and cleared between chunks. Together
+     * with JDBC batching and pooled ID allocation, this keeps the cost per item low and the memory used
+     * independent of the number of items.
+     *
+     * @param newItems a List of NewItems describing the items to create
+     * @return a List of results, one for each provided item and in the same order
+     */
+    @Transactional
+    public List<BatchItemResult> createItems(List<NewItem> newItems) {
+        Set<Long> requestedCollectionIds = new HashSet<>();
+
+        for (NewItem newItem : newItems) {
+            if (newItem != null && newItem.getCollectionIds() != null) {
+                requestedCollectionIds.addAll(newItem.getCollectionIds());
+            }
+        }
+
+        Set<Long> existingCollectionIds = requestedCollectionIds.isEmpty()
+                ? Set.of()
+                : collectionRepository.findExistingIds(requestedCollectionIds);
+
+        List<BatchItemResult> results = new ArrayList<>(newItems.size());
+
+        for (int start = 0; start < newItems.size(); start += BATCH_CHUNK_SIZE) {
+            int end = Math.min(start + BATCH_CHUNK_SIZE, newItems.size());
+            createItemChunk(newItems.subList(start, end), start, existingCollectionIds, results);
+        }
+
+        Set<Long> createdIds = new HashSet<>();
+        for (BatchItemResult result : results) {
+            if (result.getId() != null) {
+                createdIds.add(result.getId());
+            }
+        }
+
+        // items were only added to the collections' sets in the database, not to their cached ones
+        secondLevelCache.evictCollectionItemsOnCommit(existingCollectionIds);
+        eventPublisher.publishEvent(new InventoryChangeEvent(ITEM_CREATED, createdIds, existingCollectionIds));
+
+        return results;
+    }
+
+    /**
+     * Create a chunk of items from a bulk creation request, appending a result for each to the provided list.
+     *
+     * @param chunk                 a List of NewItems describing the items to create
+     * @param offset                an int representing the position of the chunk in the request
+     * @param existingCollectionIds a Set of longs representing all requested collection IDs that exist
+     * @param results               the List of results to append to
+     */
+    private void createItemChunk(List<NewItem> chunk, int offset, Set<Long> existingCollectionIds,
+                                 List<BatchItemResult> results) {
+        Set<Long> chunkCollectionIds = new HashSet<>();
+
+        for (NewItem newItem : chunk) {
+            if (newItem != null && newItem.getCollectionIds() != null) {
+                chunkCollectionIds.addAll(newItem.getCollectionIds());
+            }
+        }
+
+        chunkCollectionIds.retainAll(existingCollectionIds);
+
+        // collections are fetched once per chunk, since the previous chunk's entities have been detached
+        Map<Long, Collection> collections = new HashMap<>();
+        for (Collection col : collectionRepository.findAllById(chunkCollectionIds)) {
+            collections.put(col.getId(), col);
+        }
+
+        List<Item> toSave = new ArrayList<>(chunk.size());
+        List<Integer> positions = new ArrayList<>(chunk.size());
+
+        for (int i = 0; i < chunk.size(); i++) {
+            NewItem newItem = chunk.get(i);
+            String error = validateNewItem(newItem, existingCollectionIds);
+
+            if (error != null) {
+                results.add(BatchItemResult.failed(offset + i, error));
+                continue;
+            }
+
+            Set<Collection> itemCollections = new HashSet<>();
+            if (newItem.getCollectionIds() != null) {
+                for (long collectionId : newItem.getCollectionIds()) {
+                    itemCollections.add(collections.get(collectionId));
+                }
+            }
+
+            long count = newItem.getCount() == null ? 0L : newItem.getCount();
+
+            toSave.add(new Item(newItem.getName(), count, itemCollections));
+            positions.add(results.size());
+            results.add(null);
+        }
+
+        // IDs are assigned on save, so results can be filled in before the inserts are flushed
+        itemRepository.saveAll(toSave);
+
+        // results hold exactly one entry per preceding item, so positions match request indices
+        for (int i = 0; i < toSave.size(); i++) {
+            int position = positions.get(i);
+            Item saved = toSave.get(i);
+
+            results.set(position, BatchItemResult.created(position, saved.getId()));
+
+            changeJournal.record(ChangeRecord.itemCreated(saved.getId(), saved.getVersion(), saved.getName(),
+                    saved.getCount()));
+            itemSearchIndex.index(saved.getId(), saved.getName());
+            for (Collection col : saved.getCollections()) {
+                changeJournal.record(ChangeRecord.membershipAdded(saved.getId(), saved.getVersion(), col.getId()));
+                collectionBitmaps.membershipAdded(saved.getId(), col.getId());
+            }
+        }
+
+        itemRepository.flushAndClear();
+    }
+
+    /**
+     * Validate an item description from a bulk creation request.
+     *
+     * @param newItem               the NewItem to validate
+     * @param existingCollectionIds a Set of longs representing all requested collection IDs that exist
+     * @return a String describing why the item is invalid, or null if it is valid
+     */
+    private static String validateNewItem(NewItem newItem, Set<Long> existingCollectionIds) {
+        if (newItem == null) {
+            return "item must not be null";
+        }
+
+        if (newItem.getName() == null) {
+            return "name must not be null";
+        }
+
+        if (newItem.getCount() != null && newItem.getCount() < 0) {
+            return "count must be greater than or equal to 0";
+        }
+
+        if (newItem.getCollectionIds() != null) {
+            for (Long collectionId : newItem.getCollectionIds()) {
+                if (collectionId == null || !existingCollectionIds.contains(collectionId)) {
+                    return String.format("Could not find collection with ID %d", collectionId);
+                }
+            }
+        }
+
+        return null;
     }
 
     /**
-     * Delete the inventory with the provided ID, if it exists
+     * Delete the inventory with the provided ID, if it exists. The item's memberships and the item itself are
+     * deleted with set-based statements, without loading the item or any of its collections.
      *
      * @param id a long representing the ID of the inventory item to delete
      * @throws ResourceNotFoundException if the provided ID does not match an existing inventory item
      */
     @Transactional
     public void deleteItem(long id) throws ResourceNotFoundException {
-        Item toDelete = findItemIfExists(itemRepository, id);
+        Set<Long> collectionIds = itemRepository.findCollectionIds(id);
 
-        itemRepository.delete(toDelete);
+        itemRepository.deleteMemberships(id, collectionIds);
+
+        if (itemRepository.deleteItemById(id) == 0) {
+            throw new ResourceNotFoundException(String.format("Could not find item with ID %d", id));
+        }
+
+        changeJournal.record(ChangeRecord.itemDeleted(id));
+        itemSearchIndex.remove(id);
+        collectionBitmaps.itemDeleted(id, collectionIds);
+        eventPublisher.publishEvent(new InventoryChangeEvent(ITEM_DELETED, Set.of(id), collectionIds));
     }
 
     /**
-     * Get a list of all saved inventory items
+     * Get a page of saved inventory items, ordered by ID. Pages are navigated with opaque cursors; the
+     * cursor of the next page is included in each returned page. All filters are optional.
      *
-     * @return a List of all inventory items
+     * @param cursor     the String cursor of the page to get, or null for the first page
+     * @param limit      an int representing the maximum number of items in the page
+     * @param namePrefix the String prefix that item names must start with, or null
+     * @param minCount   a Long representing the minimum item count (inclusive), or null
+     * @param maxCount   a Long representing the maximum item count (inclusive), or null
+     * @return a page of inventory items
+     * @throws InvalidRequestException if the provided cursor is malformed
      */
-    public List<Item> getAllItems() {
-        return itemRepository.findAll();
+    public KeysetPage<Item> getAllItems(String cursor, int limit, String namePrefix, Long minCount, Long maxCount)
+            throws InvalidRequestException {
+        List<Long> ids = itemRepository.findPageIds(decodeCursor(cursor), toPrefixPattern(namePrefix),
+                minCount, maxCount, PageRequest.of(0, limit + 1));
+        KeysetPage<Long> idPage = toPage(ids, limit, Long::longValue);
+
+        // fetch the page and its collections in one query, rather than one query per item when serializing
+        List<Item> items = idPage.getResults().isEmpty()
+                ? List.of()
+                : itemRepository.findAllWithCollectionsByIdIn(idPage.getResults());
+
+        return new KeysetPage<>(items, idPage.getNextCursor());
     }
 
+    /**
+     * Search inventory items by name, best match first. Query terms match item name tokens exactly, by prefix,
+     * by substring, or with a typo; see {@link ItemSearchIndex} for how results are ranked. Pages are navigated
+     * with opaque cursors, as for {@link #getAllItems(String, int, String, Long, Long)}.
+     * <p>
+     * The index is searched in memory; only the page of matching items is then fetched, with their collections,
+     * in one query.
+     *
+     * @param query  the String query to search for
+     * @param cursor the String cursor of the page to get, or null for the first page
+     * @param limit  an int representing the maximum number of items in the page
+     * @return a page of matching inventory items, best match first
+     * @throws InvalidRequestException if search is disabled, or the provided cursor is malformed
+     */
+    public KeysetPage<Item> searchItems(String query, String cursor, int limit) throws InvalidRequestException {
+        if (!itemSearchIndex.isEnabled()) {
+            throw new InvalidRequestException("Search is disabled; set shopify-demo.search.enabled");
+        }
+
+        // the cursor of a ranked page holds the number of results before it, rather than an ID
+        long offset = decodeCursor(cursor);
+
+        if (offset < 0 || offset > Integer.MAX_VALUE - limit - 1) {
+            throw new InvalidRequestException(String.format("Invalid cursor %s", cursor));
+        }
+
+        List<Long> ids = itemSearchIndex.search(query, (int) offset, limit + 1);
+        List<Long> pageIds = ids.size() > limit ? ids.subList(0, limit) : ids;
+
+        Map<Long, Item> found = new HashMap<>();
+        if (!pageIds.isEmpty()) {
+            for (Item item : itemRepository.findAllWithCollectionsByIdIn(pageIds)) {
+                found.put(item.getId(), item);
+            }
+        }
+
+        List<Item> items = new ArrayList<>(pageIds.size());
+        for (long id : pageIds) {
+            Item item = found.get(id);
+
+            // an item deleted since the search is left out, rather than failing the page
+            if (item != null) {
+                items.add(hotCounters.overlay(item));
+            }
+        }
+
+        return new KeysetPage<>(items, ids.size() > limit ? encodeCursor(offset + limit) : null);
+    }
+
+    /**
+     * Get an inventory item, specified by ID. Items are read through a cache, which is invalidated whenever
+     * the item changes. The count of a hot item is read from memory.
+     *
+     * @param id a long representing the ID of the item to get
+     * @return the item corresponding to the provided ID
+     * @throws ResourceNotFoundException if the provided ID does not match an existing inventory item
+     */
     public Item getItem(long id) throws ResourceNotFoundException {
-        return findItemIfExists(itemRepository, id);
+        return hotCounters.overlay(inventoryCache.getItem(id, () -> findItemIfExists(itemRepository, id)));
     }
 
     /**
-     * Edit the name of an inventory item, specified by ID. If the given name is null, no change is made.
+     * Edit the name and count of an inventory item, specified by ID, in a single transaction. Fields given as
+     * null are left unchanged.
+     * <p>
+     * The item is loaded once and modified in place; all changes are written by a single UPDATE when the
+     * session flushes, and only if some field actually changed. The session flushes when the transaction commits, or
+     * before the edit is journaled, so that the journal records the version the edit commits with. The count of a hot item is replaced in
+     * memory instead, once the transaction commits, so that an edit failing on the item's version changes nothing.
      *
-     * @param name the String to edit the item's name to
-     * @param id   a long representing the ID of the item to edit
+     * @param name  the String to edit the item's name to, or null
+     * @param count the Long to edit the item's count to, or null
+     * @param id    a long representing the ID of the item to edit
      * @return the newly edited item
      * @throws ResourceNotFoundException if the provided ID does not match an existing inventory item
      */
     @Transactional
-    public Item editItemName(String name, long id) throws ResourceNotFoundException {
+    public Item editItem(String name, Long count, long id) throws ResourceNotFoundException {
         Item toEdit = findItemIfExists(itemRepository, id);
 
         if (name != null) {
             toEdit.setName(name);
+            itemSearchIndex.index(id, name);
+        }
+
+        if (name != null || count != null) {
+            eventPublisher.publishEvent(new InventoryChangeEvent(ITEM_UPDATED, Set.of(id), collectionIdsOf(toEdit)));
+        }
+
+        boolean hotCount = count != null && hotCounters.trySetOnCommit(id, count);
+
+        if (count != null && !hotCount) {
+            toEdit.setCount(count);
+        }
+
+        if (name != null || count != null) {
+            long version = journaledVersion(itemRepository, changeJournal, toEdit);
 
-            return itemRepository.save(toEdit);
+            if (name != null) {
+                changeJournal.record(ChangeRecord.itemRenamed(id, version, name));
+            }
+            if (count != null) {
+                changeJournal.record(ChangeRecord.itemCountSet(id, hotCount ? ChangeRecord.UNVERSIONED : version,
+                        count));
+            }
         }
 
-        return toEdit;
+        Item edited = hotCounters.overlay(toEdit);
+        return hotCount ? edited.withCount(count) : edited;
+    }
+
+    /**
+     * Edit the name of an inventory item, specified by ID. If the given name is null, no change is made.
+     *
+     * @param name the String to edit the item's name to
+     * @param id   a long representing the ID of the item to edit
+     * @return the newly edited item
+     * @throws ResourceNotFoundException if the provided ID does not match an existing inventory item
+     */
+    @Transactional
+    public Item editItemName(String name, long id) throws ResourceNotFoundException {
+        return editItem(name, null, id);
     }
 
     /**
@@ -106,12 +498,75 @@ public class ItemService {
      */
     @Transactional
     public Item editItemCount(Long count, long id) throws ResourceNotFoundException {
-        Item toEdit = findItemIfExists(itemRepository, id);
+        return editItem(null, count, id);
+    }
 
-        if (count != null) {
-            toEdit.setCount(count);
-        }
+    /**
+     * Atomically add a delta to the count of an inventory item, specified by ID. A negative delta removes
+     * stock, and is rejected if the item does not have enough stock.
+     * <p>
+     * The item is never loaded; the change is applied as a single conditional UPDATE, so concurrent adjustments
+     * to the same item cannot overwrite each other. Adjustments to hot items are applied in memory instead, without
+     * a transaction, and written back later.
+     *
+     * @param delta a long representing the amount to add to the item's count
+     * @param id    a long representing the ID of the item to edit
+     * @return the count of the item after the adjustment
+     * @throws ResourceNotFoundException  if the provided ID does not match an existing inventory item
+     * @throws InsufficientStockException if the adjustment would make the item's count negative
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ItemCount adjustItemCount(long delta, long id) throws ResourceNotFoundException, InsufficientStockException {
+        while (true) {
+            ItemCount hotCount = hotCounters.tryAdjust(id, delta);
 
-        return itemRepository.save((toEdit));
+            if (hotCount != null) {
+                changeJournal.record(ChangeRecord.itemCountAdjusted(id, ChangeRecord.UNVERSIONED, delta));
+                return hotCount;
+            }
+
+            Long count = transactionTemplate.execute(status -> {
+                if (itemRepository.applyCountDelta(id, delta) == 0) {
+                    return null;
+                }
+
+                // the row is locked now, so a promotion either saw this adjustment or started after this check
+                if (hotCounters.isHot(id)) {
+                    status.setRollbackOnly();
+                    return PROMOTED;
+                }
+
+                if (changeJournal.isEnabled()) {
+                    changeJournal.record(ChangeRecord.itemCountAdjusted(id, itemRepository.findVersionById(id),
+                            delta));
+                }
+                eventPublisher.publishEvent(new InventoryChangeEvent(ITEM_UPDATED, Set.of(id), Set.of()));
+
+                // the updated row stays locked until commit, so this reads the count this adjustment produced
+                return itemRepository.findCountById(id);
+            });
+
+            if (count == null) {
+                // a replica may not have seen the adjustment that left too little stock, so read the primary
+                Long current;
+                long previous = ReadYourWrites.open(ReadYourWrites.PRIMARY);
+                try {
+                    current = itemRepository.findCountById(id);
+                } finally {
+                    ReadYourWrites.close(previous);
+                }
+
+                if (current == null) {
+                    throw new ResourceNotFoundException(String.format("Could not find item with ID %d", id));
+                }
+
+                throw new InsufficientStockException(String.format(
+                        "Insufficient stock for item with ID %d: %d in stock, %d requested", id, current, -delta));
+            }
+
+            if (count != PROMOTED) {
+                return new ItemCount(id, count);
+            }
+        }
     }
 }
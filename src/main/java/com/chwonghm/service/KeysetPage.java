@@ -0,0 +1,56 @@
+package com.chwonghm.service;
+
+import com.chwonghm.controller.Views;
+import com.fasterxml.jackson.annotation.JsonView;
+
+import java.util.List;
+
+/**
+ * A single page of results from a keyset paginated listing. Results are ordered by ID, or by rank for searches,
+ * and the next page can be requested by passing the next cursor back to the listing endpoint.
+ *
+ * @param <T> the type of the results in this page
+ * @author Charles Wong
+ */
+@JsonView({ Views.Collection.class, Views.Item.class })
+public class KeysetPage<T> {
+
+    /**
+     * The results in this page, ordered by ID or by rank
+     */
+    private final List<T> results;
+
+    /**
+     * An opaque cursor pointing past the last result of this page, or null if this is the last page
+     */
+    private final String nextCursor;
+
+    /**
+     * Construct a page of results.
+     *
+     * @param results    the List of results in this page
+     * @param nextCursor the String cursor for the next page, or null if there are no further results
+     */
+    public KeysetPage(List<T> results, String nextCursor) {
+        this.results = results;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Get the results in this page
+     *
+     * @return the List of results in this page
+     */
+    public List<T> getResults() {
+        return results;
+    }
+
+    /**
+     * Get the cursor used to fetch the next page
+     *
+     * @return the String cursor for the next page, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,102 @@
+package com.chwonghm.service;
+
+import java.util.List;
+
+/**
+ * Describes an inventory item to be created in bulk. Only the name is required; items are created with a
+ * count of zero and in no collections unless specified otherwise.
+ *
+ * @author Charles Wong
+ */
+public class NewItem {
+
+    /**
+     * Name of the item
+     */
+    private String name;
+
+    /**
+     * Initial count of the item, or null for zero
+     */
+    private Long count;
+
+    /**
+     * IDs of the collections to place the item in, or null for none
+     */
+    private List<Long> collectionIds;
+
+    /**
+     * Construct an empty item description.
+     * <p>
+     * Empty constructor required for Jackson deserialization
+     */
+    public NewItem() {
+    }
+
+    /**
+     * Construct an item description.
+     *
+     * @param name          the String name of the item
+     * @param count         the Long initial count of the item, or null for zero
+     * @param collectionIds a List of longs representing the IDs of the collections to place the item in, or null
+     */
+    public NewItem(String name, Long count, List<Long> collectionIds) {
+        this.name = name;
+        this.count = count;
+        this.collectionIds = collectionIds;
+    }
+
+    /**
+     * Get the name of the item
+     *
+     * @return the String name of the item
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Set the name of the item
+     *
+     * @param name the String name to set
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the initial count of the item
+     *
+     * @return the Long initial count of the item, or null for zero
+     */
+    public Long getCount() {
+        return count;
+    }
+
+    /**
+     * Set the initial count of the item
+     *
+     * @param count the Long count to set
+     */
+    public void setCount(Long count) {
+        this.count = count;
+    }
+
+    /**
+     * Get the IDs of the collections to place the item in
+     *
+     * @return a List of longs representing collection IDs, or null
+     */
+    public List<Long> getCollectionIds() {
+        return collectionIds;
+    }
+
+    /**
+     * Set the IDs of the collections to place the item in
+     *
+     * @param collectionIds a List of longs to set
+     */
+    public void setCollectionIds(List<Long> collectionIds) {
+        this.collectionIds = collectionIds;
+    }
+}
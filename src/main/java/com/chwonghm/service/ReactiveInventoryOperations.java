@@ -0,0 +1,313 @@
+package com.chwonghm.service;
+
+import com.chwonghm.cache.SecondLevelCache;
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+import com.chwonghm.event.InventoryChangeEvent;
+import com.chwonghm.exception.InsufficientStockException;
+import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.repository.ReactiveInventoryRepository;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.chwonghm.event.InventoryChangeEvent.Type.COLLECTION_CREATED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.COLLECTION_DELETED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.ITEM_CREATED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.ITEM_DELETED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.ITEM_UPDATED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.MEMBERSHIP_CHANGED;
+import static com.chwonghm.service.ServiceUtils.collectionIdsOf;
+import static com.chwonghm.service.ServiceUtils.decodeCursor;
+import static com.chwonghm.service.ServiceUtils.toPage;
+import static com.chwonghm.service.ServiceUtils.toPrefixPattern;
+
+/**
+ * Implements {@link InventoryOperations} over R2DBC, without blocking any thread. This is the default store of
+ * the reactive profile:
+ * <pre>
+ *     shopify-demo.reactive.store: r2dbc
+ * </pre>
+ * Every write runs in an R2DBC transaction, and publishes the same {@link InventoryChangeEvent} as the JPA
+ * services once it has committed, so caches and entity tags stay consistent whichever stack made the change.
+ * Reads go straight to the database.
+ * <p>
+ * Count changes are written to the item rows directly, so this store cannot run alongside the hot counters of
+ * the servlet stack, which hold counts in memory; startup fails if both are enabled.
+ *
+ * @author Charles Wong
+ */
+@Service
+@Profile("reactive")
+@ConditionalOnProperty(prefix = "shopify-demo.reactive", name = "store", havingValue = "r2dbc", matchIfMissing = true)
+public class ReactiveInventoryOperations implements InventoryOperations {
+
+    /**
+     * Repository for inventory tables
+     */
+    private final ReactiveInventoryRepository repository;
+
+    /**
+     * Runs writes in R2DBC transactions
+     */
+    private final TransactionalOperator transactionalOperator;
+
+    /**
+     * Publisher for inventory change events
+     */
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Hibernate's second-level cache, which does not see changes made over R2DBC
+     */
+    private final SecondLevelCache secondLevelCache;
+
+    /**
+     * Constructs this service, injecting all required dependencies.
+     * <p>
+     * The R2DBC transaction manager is created here rather than registered as a bean, since a second
+     * transaction manager bean would stop Spring Boot from configuring the JPA one.
+     *
+     * @param repository        a ReactiveInventoryRepository to support this service
+     * @param connectionFactory the R2DBC ConnectionFactory to run transactions on
+     * @param eventPublisher    an ApplicationEventPublisher to publish inventory changes to
+     * @param secondLevelCache  the SecondLevelCache to evict changes from
+     * @param hotCounters       a boolean representing whether hot counters are enabled, which is not supported
+     * @throws IllegalStateException if hot counters are enabled
+     */
+    public ReactiveInventoryOperations(ReactiveInventoryRepository repository, ConnectionFactory connectionFactory,
+                                       ApplicationEventPublisher eventPublisher,
+                                       SecondLevelCache secondLevelCache,
+                                       @Value("${shopify-demo.hot-counters.enabled:false}") boolean hotCounters) {
+        if (hotCounters) {
+            throw new IllegalStateException("Hot counters are not supported by the r2dbc reactive store;"
+                    + " disable shopify-demo.hot-counters.enabled or set shopify-demo.reactive.store=jpa");
+        }
+
+        this.repository = repository;
+        this.transactionalOperator = TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+        this.eventPublisher = eventPublisher;
+        this.secondLevelCache = secondLevelCache;
+    }
+
+    @Override
+    public Mono<Item> createItem(String name) {
+        return repository.nextItemId()
+                .flatMap(id -> repository.insertItem(id, name, 0L).thenReturn(id))
+                .as(transactionalOperator::transactional)
+                .doOnNext(id -> publish(ITEM_CREATED, Set.of(id), Set.of()))
+                .map(id -> {
+                    Item item = new Item(name);
+                    item.setId(id);
+                    return item;
+                });
+    }
+
+    @Override
+    public Mono<Void> deleteItem(long id) {
+        return repository.findCollectionIdsOfItem(id)
+                .collect(Collectors.toSet())
+                .flatMap(collectionIds -> repository.deleteItem(id)
+                        .flatMap(deleted -> deleted == 0
+                                ? Mono.<Set<Long>>error(itemNotFound(id))
+                                : Mono.just(collectionIds)))
+                .as(transactionalOperator::transactional)
+                .doOnNext(collectionIds -> publish(ITEM_DELETED, Set.of(id), collectionIds))
+                .then();
+    }
+
+    @Override
+    public Mono<Item> getItem(long id) {
+        return repository.findItemWithCollections(id)
+                .switchIfEmpty(Mono.error(() -> itemNotFound(id)));
+    }
+
+    @Override
+    public Mono<KeysetPage<Item>> getAllItems(String cursor, int limit, String namePrefix, Long minCount,
+                                              Long maxCount) {
+        return Mono.fromCallable(() -> decodeCursor(cursor))
+                .flatMapMany(afterId -> repository.findItemPageIds(afterId, toPrefixPattern(namePrefix),
+                        minCount, maxCount, limit + 1))
+                .collectList()
+                .flatMap(ids -> {
+                    KeysetPage<Long> idPage = toPage(ids, limit, Long::longValue);
+
+                    // fetch the page and its collections in one query
+                    Mono<List<Item>> items = idPage.getResults().isEmpty()
+                            ? Mono.just(List.of())
+                            : repository.findItemsWithCollections(idPage.getResults()).collectList();
+
+                    return items.map(results -> new KeysetPage<>(results, idPage.getNextCursor()));
+                });
+    }
+
+    @Override
+    public Mono<Item> editItem(String name, Long count, long id) {
+        if (name == null && count == null) {
+            return getItem(id);
+        }
+
+        return repository.updateItem(id, name, count)
+                .flatMap(updated -> updated == 0
+                        ? Mono.<Item>error(itemNotFound(id))
+                        : repository.findItemWithCollections(id))
+                .as(transactionalOperator::transactional)
+                .doOnNext(item -> publish(ITEM_UPDATED, Set.of(id), collectionIdsOf(item)));
+    }
+
+    @Override
+    public Mono<ItemCount> adjustItemCount(long delta, long id) {
+        return repository.applyCountDelta(id, delta)
+                .flatMap(updated -> updated == 0
+                        ? repository.findCount(id)
+                                .switchIfEmpty(Mono.error(() -> itemNotFound(id)))
+                                .flatMap(count -> Mono.<Long>error(new InsufficientStockException(String.format(
+                                        "Insufficient stock for item with ID %d: %d in stock, %d requested",
+                                        id, count, -delta))))
+                        // the updated row stays locked until commit, so this reads the count this adjustment produced
+                        : repository.findCount(id))
+                .as(transactionalOperator::transactional)
+                .doOnNext(count -> publish(ITEM_UPDATED, Set.of(id), Set.of()))
+                .map(count -> new ItemCount(id, count));
+    }
+
+    @Override
+    public Mono<Collection> createCollection(String name) {
+        return repository.nextCollectionId()
+                .flatMap(id -> repository.insertCollection(id, name).thenReturn(id))
+                .as(transactionalOperator::transactional)
+                .doOnNext(id -> publish(COLLECTION_CREATED, Set.of(), Set.of(id)))
+                .map(id -> {
+                    Collection col = new Collection(name);
+                    col.setId(id);
+                    return col;
+                });
+    }
+
+    @Override
+    public Mono<Void> deleteCollection(long id) {
+        return repository.findItemIdsOfCollection(id)
+                .collect(Collectors.toSet())
+                .flatMap(itemIds -> repository.deleteCollection(id)
+                        .flatMap(deleted -> deleted == 0
+                                ? Mono.<Set<Long>>error(collectionNotFound(id))
+                                : Mono.just(itemIds)))
+                .as(transactionalOperator::transactional)
+                .doOnNext(itemIds -> publish(COLLECTION_DELETED, itemIds, Set.of(id)))
+                .then();
+    }
+
+    @Override
+    public Mono<Collection> getCollection(long id) {
+        return repository.findCollectionWithItems(id)
+                .switchIfEmpty(Mono.error(() -> collectionNotFound(id)));
+    }
+
+    @Override
+    public Mono<KeysetPage<Collection>> getAllCollections(String cursor, int limit, String namePrefix,
+                                                          Integer minCount, Integer maxCount) {
+        return Mono.fromCallable(() -> decodeCursor(cursor))
+                .flatMapMany(afterId -> repository.findCollectionPage(afterId, toPrefixPattern(namePrefix),
+                        minCount, maxCount, limit + 1))
+                .collectList()
+                .map(rows -> toPage(rows, limit, Collection::getId));
+    }
+
+    @Override
+    public Mono<Item> addCollectionToItem(List<Long> collectionIds, long itemId) {
+        Set<Long> toAdd = new LinkedHashSet<>(collectionIds);
+
+        return checkMembershipChange(toAdd, itemId)
+                .thenMany(Flux.fromIterable(toAdd))
+                .concatMap(collectionId -> repository.insertMembership(itemId, collectionId))
+                .then(repository.incrementItemVersion(itemId))
+                .then(repository.findItemWithCollections(itemId))
+                .as(transactionalOperator::transactional)
+                .doOnNext(item -> publish(MEMBERSHIP_CHANGED, Set.of(itemId), toAdd));
+    }
+
+    @Override
+    public Mono<Item> removeCollectionFromItem(List<Long> collectionIds, long itemId) {
+        Set<Long> toRemove = new LinkedHashSet<>(collectionIds);
+
+        return checkMembershipChange(toRemove, itemId)
+                .then(toRemove.isEmpty() ? Mono.<Void>empty() : repository.deleteMemberships(itemId, toRemove))
+                .then(repository.incrementItemVersion(itemId))
+                .then(repository.findItemWithCollections(itemId))
+                .as(transactionalOperator::transactional)
+                .doOnNext(item -> publish(MEMBERSHIP_CHANGED, Set.of(itemId), toRemove));
+    }
+
+    /**
+     * Check that an item and some collections all exist, before changing the item's membership in them.
+     *
+     * @param collectionIds a Set of longs representing the IDs of the collections
+     * @param itemId        a long representing the ID of the item
+     * @return a Mono completing if all exist, or signalling a ResourceNotFoundException otherwise
+     */
+    private Mono<Void> checkMembershipChange(Set<Long> collectionIds, long itemId) {
+        Mono<Void> itemExists = repository.findCount(itemId)
+                .switchIfEmpty(Mono.error(() -> itemNotFound(itemId)))
+                .then();
+
+        if (collectionIds.isEmpty()) {
+            return itemExists;
+        }
+
+        return itemExists.then(repository.findExistingCollectionIds(collectionIds)
+                .collect(Collectors.toSet())
+                .flatMap(existing -> {
+                    for (long collectionId : collectionIds) {
+                        if (!existing.contains(collectionId)) {
+                            return Mono.<Void>error(collectionNotFound(collectionId));
+                        }
+                    }
+                    return Mono.<Void>empty();
+                }));
+    }
+
+    /**
+     * Publish a committed inventory change, once it has been evicted from the second-level cache, so that
+     * caches reloading on the event cannot read the previous state from it
+     *
+     * @param type          the Type of the change
+     * @param itemIds       a Set of the IDs of the affected items
+     * @param collectionIds a Set of the IDs of the affected collections
+     */
+    private void publish(InventoryChangeEvent.Type type, Set<Long> itemIds, Set<Long> collectionIds) {
+        secondLevelCache.evict(itemIds, collectionIds);
+        eventPublisher.publishEvent(new InventoryChangeEvent(type, itemIds, collectionIds));
+    }
+
+    /**
+     * Build the exception signalled when an item does not exist
+     *
+     * @param id a long representing the ID of the missing item
+     * @return the ResourceNotFoundException to signal
+     */
+    private static ResourceNotFoundException itemNotFound(long id) {
+        return new ResourceNotFoundException(String.format("Could not find item with ID %d", id));
+    }
+
+    /**
+     * Build the exception signalled when a collection does not exist
+     *
+     * @param id a long representing the ID of the missing collection
+     * @return the ResourceNotFoundException to signal
+     */
+    private static ResourceNotFoundException collectionNotFound(long id) {
+        return new ResourceNotFoundException(String.format("Could not find collection with ID %d", id));
+    }
+}
@@ -2,10 +2,19 @@ package com.chwonghm.service;
 
 import com.chwonghm.entity.Collection;
 import com.chwonghm.entity.Item;
+import com.chwonghm.exception.InvalidRequestException;
 import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.journal.ChangeJournal;
 import com.chwonghm.repository.CollectionRepository;
 import com.chwonghm.repository.ItemRepository;
 
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
 public class ServiceUtils {
 
     /**
@@ -27,7 +36,8 @@ public class ServiceUtils {
     }
 
     /**
-     * Find an inventory collection by ID, if it exists. If not, an exception is thrown
+     * Find an inventory collection by ID, if it exists. If not, an exception is thrown. The collection is looked
+     * up by primary key, so it is served from the second-level cache when cached there.
      *
      * @param collectionRepository the CollectionRepository to search
      * @param id a long representing the ID of the collection to find
@@ -35,7 +45,26 @@ public class ServiceUtils {
      * @throws ResourceNotFoundException if the provided ID does not match an existing inventory collection
      */
     static Collection findCollectionIfExists(CollectionRepository collectionRepository, long id) throws ResourceNotFoundException {
-        Collection collection = collectionRepository.findCollectionById(id);
+        Collection collection = collectionRepository.findById(id).orElse(null);
+
+        if (collection == null) {
+            throw new ResourceNotFoundException(String.format("Could not find collection with ID %d", id));
+        }
+
+        return collection;
+    }
+
+    /**
+     * Find an inventory collection by ID, along with all of its items, if it exists. If not, an exception is thrown
+     *
+     * @param collectionRepository the CollectionRepository to search
+     * @param id a long representing the ID of the collection to find
+     * @return the inventory collection corresponding to the provided ID, with its items fetched
+     * @throws ResourceNotFoundException if the provided ID does not match an existing inventory collection
+     */
+    static Collection findCollectionWithItemsIfExists(CollectionRepository collectionRepository, long id)
+            throws ResourceNotFoundException {
+        Collection collection = collectionRepository.findWithItemsById(id);
 
         if (collection == null) {
             throw new ResourceNotFoundException(String.format("Could not find collection with ID %d", id));
@@ -43,4 +72,109 @@ public class ServiceUtils {
 
         return collection;
     }
+
+    /**
+     * Get the version a loaded item commits with, for its journal records. Changes to a loaded item are written, and
+     * its version incremented, when the session flushes, so the session is flushed first. Nothing is flushed while
+     * the journal is disabled.
+     *
+     * @param itemRepository the ItemRepository of the item's session
+     * @param changeJournal  the ChangeJournal to record in
+     * @param item           the Item to get the version of
+     * @return a long representing the version of the item, or 0 if the journal is disabled
+     */
+    static long journaledVersion(ItemRepository itemRepository, ChangeJournal changeJournal, Item item) {
+        if (!changeJournal.isEnabled()) {
+            return 0;
+        }
+
+        itemRepository.flush();
+        return item.getVersion();
+    }
+
+    /**
+     * Get the IDs of the collections an item belongs to
+     *
+     * @param item the Item to get collection IDs of
+     * @return a Set of longs representing the IDs of the item's collections
+     */
+    static Set<Long> collectionIdsOf(Item item) {
+        Set<Long> ids = new HashSet<>();
+        for (Collection col : item.getCollections()) {
+            ids.add(col.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Decode an opaque keyset cursor into the ID it points past. A null cursor points to the
+     * start of the listing.
+     *
+     * @param cursor the String cursor to decode, possibly null
+     * @return a long representing the ID that results must be strictly greater than
+     * @throws InvalidRequestException if the provided cursor is malformed
+     */
+    static long decodeCursor(String cursor) throws InvalidRequestException {
+        if (cursor == null) {
+            return 0L;
+        }
+
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+
+            if (bytes.length == Long.BYTES) {
+                return ByteBuffer.wrap(bytes).getLong();
+            }
+        } catch (IllegalArgumentException e) {
+            // fall through to the exception below
+        }
+
+        throw new InvalidRequestException(String.format("Invalid cursor %s", cursor));
+    }
+
+    /**
+     * Encode an ID into an opaque keyset cursor.
+     *
+     * @param id a long representing the last ID of a page
+     * @return the String cursor pointing past the provided ID
+     */
+    static String encodeCursor(long id) {
+        byte[] bytes = ByteBuffer.allocate(Long.BYTES).putLong(id).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Convert a name prefix into a LIKE pattern, escaping any wildcard characters with '!'.
+     *
+     * @param prefix the String prefix to convert, possibly null
+     * @return the LIKE pattern matching names starting with the prefix, or null if no prefix was provided
+     */
+    static String toPrefixPattern(String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return null;
+        }
+
+        return prefix.replace("!", "!!")
+                .replace("%", "!%")
+                .replace("_", "!_") + "%";
+    }
+
+    /**
+     * Build a page of results from a query that fetched one more row than the requested limit. If the
+     * extra row is present, there are further results and a next cursor is produced.
+     *
+     * @param rows  the List of rows fetched, at most limit + 1 long
+     * @param limit the maximum number of results in the page
+     * @param idOf  a function extracting the ID of a row
+     * @param <T>   the type of the rows
+     * @return the page of results
+     */
+    static <T> KeysetPage<T> toPage(List<T> rows, int limit, ToLongFunction<T> idOf) {
+        if (rows.size() <= limit) {
+            return new KeysetPage<>(rows, null);
+        }
+
+        List<T> results = rows.subList(0, limit);
+        return new KeysetPage<>(results, encodeCursor(idOf.applyAsLong(results.get(limit - 1))));
+    }
 }
@@ -0,0 +1,435 @@
+package com.chwonghm.service;
+
+import com.chwonghm.cache.SecondLevelCache;
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+import com.chwonghm.event.InventoryChangeEvent;
+import com.chwonghm.exception.InsufficientStockException;
+import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.repository.ReactiveInventoryRepository;
+import com.chwonghm.shard.InventoryShard;
+import com.chwonghm.shard.InventoryShards;
+import io.r2dbc.spi.ConnectionFactory;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.chwonghm.event.InventoryChangeEvent.Type.COLLECTION_CREATED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.COLLECTION_DELETED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.ITEM_CREATED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.ITEM_DELETED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.ITEM_UPDATED;
+import static com.chwonghm.event.InventoryChangeEvent.Type.MEMBERSHIP_CHANGED;
+import static com.chwonghm.service.ServiceUtils.collectionIdsOf;
+import static com.chwonghm.service.ServiceUtils.decodeCursor;
+import static com.chwonghm.service.ServiceUtils.toPage;
+import static com.chwonghm.service.ServiceUtils.toPrefixPattern;
+
+/**
+ * Implements {@link InventoryOperations} over R2DBC, with items partitioned across the shards of
+ * {@link InventoryShards}. Selected with:
+ * <pre>
+ *     shopify-demo.reactive.store: sharded
+ * </pre>
+ * Operations on a single item go straight to the shard owning it, and run in a transaction on that shard.
+ * Pages of items are gathered from every shard in parallel: each shard returns its first matching IDs in order,
+ * and these are merged, so a page reads at most limit + 1 IDs from each shard. Collections are kept in the
+ * catalog database, and copied into a shard the first time one of its items is placed in them, so that reading
+ * an item with its collections never leaves the item's shard.
+ * <p>
+ * Changes spanning shards, which are only the deletion of a collection, are not atomic: each shard commits on
+ * its own, and the collection is removed from the catalog last, so a failed deletion can be retried.
+ *
+ * @author Charles Wong
+ */
+@Service
+@Profile("reactive")
+@ConditionalOnProperty(prefix = "shopify-demo.reactive", name = "store", havingValue = "sharded")
+public class ShardedInventoryOperations implements InventoryOperations {
+
+    /**
+     * Repository for the catalog database, holding the ID sequences and every collection
+     */
+    private final ReactiveInventoryRepository catalog;
+
+    /**
+     * Runs writes to the catalog in R2DBC transactions
+     */
+    private final TransactionalOperator catalogTransactionalOperator;
+
+    /**
+     * The shards holding items
+     */
+    private final InventoryShards shards;
+
+    /**
+     * Publisher for inventory change events
+     */
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Hibernate's second-level cache, which does not see changes made over R2DBC
+     */
+    private final SecondLevelCache secondLevelCache;
+
+    /**
+     * Constructs this service, injecting all required dependencies.
+     * <p>
+     * As in {@link ReactiveInventoryOperations}, the R2DBC transaction manager of the catalog is created here
+     * rather than registered as a bean.
+     *
+     * @param client            the DatabaseClient of the catalog database
+     * @param connectionFactory the R2DBC ConnectionFactory of the catalog database
+     * @param shards            the InventoryShards holding items
+     * @param eventPublisher    an ApplicationEventPublisher to publish inventory changes to
+     * @param secondLevelCache  the SecondLevelCache to evict changes to the catalog from
+     * @param hotCounters       a boolean representing whether hot counters are enabled, which is not supported
+     * @throws IllegalStateException if hot counters are enabled
+     */
+    public ShardedInventoryOperations(DatabaseClient client, ConnectionFactory connectionFactory,
+                                      InventoryShards shards, ApplicationEventPublisher eventPublisher,
+                                      SecondLevelCache secondLevelCache,
+                                      @Value("${shopify-demo.hot-counters.enabled:false}") boolean hotCounters) {
+        // counts are written to the shards, which the hot counters of the servlet stack cannot see
+        if (hotCounters) {
+            throw new IllegalStateException("Hot counters are not supported by the sharded reactive store;"
+                    + " disable shopify-demo.hot-counters.enabled or set shopify-demo.reactive.store=jpa");
+        }
+
+        this.catalog = new ReactiveInventoryRepository(client);
+        this.catalogTransactionalOperator =
+                TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+        this.shards = shards;
+        this.eventPublisher = eventPublisher;
+        this.secondLevelCache = secondLevelCache;
+    }
+
+    @Override
+    public Mono<Item> createItem(String name) {
+        return catalog.nextItemId()
+                .flatMap(id -> {
+                    InventoryShard shard = shards.shardOf(id);
+                    return shard.getRepository().insertItem(id, name, 0L)
+                            .as(shard.getTransactionalOperator()::transactional)
+                            .thenReturn(id);
+                })
+                .doOnNext(id -> publish(ITEM_CREATED, Set.of(id), Set.of()))
+                .map(id -> {
+                    Item item = new Item(name);
+                    item.setId(id);
+                    return item;
+                });
+    }
+
+    @Override
+    public Mono<Void> deleteItem(long id) {
+        InventoryShard shard = shards.shardOf(id);
+        ReactiveInventoryRepository repository = shard.getRepository();
+
+        return repository.findCollectionIdsOfItem(id)
+                .collect(Collectors.toSet())
+                .flatMap(collectionIds -> repository.deleteItem(id)
+                        .flatMap(deleted -> deleted == 0
+                                ? Mono.<Set<Long>>error(itemNotFound(id))
+                                : Mono.just(collectionIds)))
+                .as(shard.getTransactionalOperator()::transactional)
+                .doOnNext(collectionIds -> publish(ITEM_DELETED, Set.of(id), collectionIds))
+                .then();
+    }
+
+    @Override
+    public Mono<Item> getItem(long id) {
+        return shards.shardOf(id).getRepository().findItemWithCollections(id)
+                .switchIfEmpty(Mono.error(() -> itemNotFound(id)));
+    }
+
+    @Override
+    public Mono<KeysetPage<Item>> getAllItems(String cursor, int limit, String namePrefix, Long minCount,
+                                              Long maxCount) {
+        return Mono.fromCallable(() -> decodeCursor(cursor))
+                .flatMapMany(afterId -> mergeOrdered(Comparator.<Long>naturalOrder(),
+                        shards.map(shard -> shard.getRepository().findItemPageIds(afterId,
+                                toPrefixPattern(namePrefix), minCount, maxCount, limit + 1))))
+                .take(limit + 1)
+                .collectList()
+                .flatMap(ids -> {
+                    KeysetPage<Long> idPage = toPage(ids, limit, Long::longValue);
+
+                    return findItemsWithCollections(idPage.getResults()).collectList()
+                            .map(results -> new KeysetPage<>(results, idPage.getNextCursor()));
+                });
+    }
+
+    @Override
+    public Mono<Item> editItem(String name, Long count, long id) {
+        if (name == null && count == null) {
+            return getItem(id);
+        }
+
+        InventoryShard shard = shards.shardOf(id);
+        ReactiveInventoryRepository repository = shard.getRepository();
+
+        return repository.updateItem(id, name, count)
+                .flatMap(updated -> updated == 0
+                        ? Mono.<Item>error(itemNotFound(id))
+                        : repository.findItemWithCollections(id))
+                .as(shard.getTransactionalOperator()::transactional)
+                .doOnNext(item -> publish(ITEM_UPDATED, Set.of(id), collectionIdsOf(item)));
+    }
+
+    @Override
+    public Mono<ItemCount> adjustItemCount(long delta, long id) {
+        InventoryShard shard = shards.shardOf(id);
+        ReactiveInventoryRepository repository = shard.getRepository();
+
+        return repository.applyCountDelta(id, delta)
+                .flatMap(updated -> updated == 0
+                        ? repository.findCount(id)
+                                .switchIfEmpty(Mono.error(() -> itemNotFound(id)))
+                                .flatMap(count -> Mono.<Long>error(new InsufficientStockException(String.format(
+                                        "Insufficient stock for item with ID %d: %d in stock, %d requested",
+                                        id, count, -delta))))
+                        : repository.findCount(id))
+                .as(shard.getTransactionalOperator()::transactional)
+                .doOnNext(count -> publish(ITEM_UPDATED, Set.of(id), Set.of()))
+                .map(count -> new ItemCount(id, count));
+    }
+
+    @Override
+    public Mono<Collection> createCollection(String name) {
+        return catalog.nextCollectionId()
+                .flatMap(id -> catalog.insertCollection(id, name).thenReturn(id))
+                .as(catalogTransactionalOperator::transactional)
+                .doOnNext(id -> publish(COLLECTION_CREATED, Set.of(), Set.of(id)))
+                .map(id -> {
+                    Collection col = new Collection(name);
+                    col.setId(id);
+                    return col;
+                });
+    }
+
+    @Override
+    public Mono<Void> deleteCollection(long id) {
+        // remove the collection from every shard before the catalog, so that it can still be found to retry
+        return catalog.findExistingCollectionIds(Set.of(id))
+                .switchIfEmpty(Mono.error(() -> collectionNotFound(id)))
+                .thenMany(Flux.fromIterable(shards.all()))
+                .flatMap(shard -> shard.getRepository().findItemIdsOfCollection(id)
+                        .collectList()
+                        .flatMap(itemIds -> shard.getRepository().deleteCollection(id).thenReturn(itemIds))
+                        .as(shard.getTransactionalOperator()::transactional))
+                .flatMapIterable(itemIds -> itemIds)
+                .collect(Collectors.toSet())
+                .flatMap(itemIds -> catalog.deleteCollection(id)
+                        .as(catalogTransactionalOperator::transactional)
+                        .flatMap(deleted -> deleted == 0
+                                ? Mono.<Set<Long>>error(collectionNotFound(id))
+                                : Mono.just(itemIds)))
+                .doOnNext(itemIds -> publish(COLLECTION_DELETED, itemIds, Set.of(id)))
+                .then();
+    }
+
+    @Override
+    public Mono<Collection> getCollection(long id) {
+        return catalog.findCollections(Set.of(id))
+                .next()
+                .switchIfEmpty(Mono.error(() -> collectionNotFound(id)))
+                .flatMap(col -> Flux.fromIterable(shards.all())
+                        .flatMap(shard -> shard.getRepository().findCollectionWithItems(id))
+                        .doOnNext(copy -> col.getItems().addAll(copy.getItems()))
+                        .then(Mono.just(col)));
+    }
+
+    @Override
+    public Mono<KeysetPage<Collection>> getAllCollections(String cursor, int limit, String namePrefix,
+                                                          Integer minCount, Integer maxCount) {
+        String namePattern = toPrefixPattern(namePrefix);
+
+        if (minCount == null && maxCount == null) {
+            return Mono.fromCallable(() -> decodeCursor(cursor))
+                    .flatMapMany(afterId -> catalog.findCollectionPage(afterId, namePattern, null, null, limit + 1))
+                    .collectList()
+                    .map(rows -> toPage(rows, limit, Collection::getId));
+        }
+
+        // the size of a collection is summed over every shard, so batches of the catalog are filtered until full
+        return Mono.fromCallable(() -> decodeCursor(cursor))
+                .flatMap(afterId -> catalog.findCollectionPage(afterId, namePattern, null, null, limit + 1)
+                        .collectList())
+                .expand(batch -> batch.size() <= limit
+                        ? Mono.empty()
+                        : catalog.findCollectionPage(batch.get(batch.size() - 1).getId(), namePattern, null, null,
+                                limit + 1).collectList())
+                .concatMap(batch -> filterBySize(batch, minCount, maxCount))
+                .take(limit + 1)
+                .collectList()
+                .map(rows -> toPage(rows, limit, Collection::getId));
+    }
+
+    @Override
+    public Mono<Item> addCollectionToItem(List<Long> collectionIds, long itemId) {
+        Set<Long> toAdd = new LinkedHashSet<>(collectionIds);
+        InventoryShard shard = shards.shardOf(itemId);
+        ReactiveInventoryRepository repository = shard.getRepository();
+
+        return checkMembershipChange(toAdd, itemId)
+                .flatMapMany(Flux::fromIterable)
+                .concatMap(col -> repository.mergeCollection(col.getId(), col.getName())
+                        .then(repository.insertMembership(itemId, col.getId())))
+                .then(repository.incrementItemVersion(itemId))
+                .then(repository.findItemWithCollections(itemId))
+                .as(shard.getTransactionalOperator()::transactional)
+                .doOnNext(item -> publish(MEMBERSHIP_CHANGED, Set.of(itemId), toAdd));
+    }
+
+    @Override
+    public Mono<Item> removeCollectionFromItem(List<Long> collectionIds, long itemId) {
+        Set<Long> toRemove = new LinkedHashSet<>(collectionIds);
+        InventoryShard shard = shards.shardOf(itemId);
+        ReactiveInventoryRepository repository = shard.getRepository();
+
+        return checkMembershipChange(toRemove, itemId)
+                .then(toRemove.isEmpty() ? Mono.<Void>empty() : repository.deleteMemberships(itemId, toRemove))
+                .then(repository.incrementItemVersion(itemId))
+                .then(repository.findItemWithCollections(itemId))
+                .as(shard.getTransactionalOperator()::transactional)
+                .doOnNext(item -> publish(MEMBERSHIP_CHANGED, Set.of(itemId), toRemove));
+    }
+
+    /**
+     * Find items, with their collections, by ID, querying the shards owning them in parallel
+     *
+     * @param ids a List of longs representing the IDs of the items, in increasing order
+     * @return a Flux of the items, ordered by ID
+     */
+    private Flux<Item> findItemsWithCollections(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Flux.empty();
+        }
+
+        List<Flux<Item>> perShard = shards.groupByShard(ids).entrySet().stream()
+                .map(entry -> entry.getKey().getRepository().findItemsWithCollections(entry.getValue()))
+                .collect(Collectors.toList());
+
+        return mergeOrdered(Comparator.comparingLong(Item::getId), perShard);
+    }
+
+    /**
+     * Keep the collections of a batch whose number of items, over every shard, is within bounds
+     *
+     * @param batch    a List of collections, ordered by ID
+     * @param minCount an Integer representing the minimum number of items (inclusive), or null
+     * @param maxCount an Integer representing the maximum number of items (inclusive), or null
+     * @return a Flux of the collections within bounds, ordered by ID
+     */
+    private Flux<Collection> filterBySize(List<Collection> batch, Integer minCount, Integer maxCount) {
+        if (batch.isEmpty()) {
+            return Flux.empty();
+        }
+
+        List<Long> ids = batch.stream().map(Collection::getId).collect(Collectors.toList());
+
+        return Flux.fromIterable(shards.all())
+                .flatMap(shard -> shard.getRepository().countItemsOfCollections(ids))
+                .reduceWith(HashMap<Long, Long>::new, (sizes, shardSizes) -> {
+                    shardSizes.forEach((id, size) -> sizes.merge(id, size, Long::sum));
+                    return sizes;
+                })
+                .flatMapIterable(sizes -> batch.stream()
+                        .filter(col -> {
+                            long size = sizes.getOrDefault(col.getId(), 0L);
+                            return (minCount == null || size >= minCount) && (maxCount == null || size <= maxCount);
+                        })
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * Check that an item and some collections all exist, before changing the item's membership in them.
+     *
+     * @param collectionIds a Set of longs representing the IDs of the collections
+     * @param itemId        a long representing the ID of the item
+     * @return a Mono of the collections from the catalog if all exist, or signalling a ResourceNotFoundException
+     * otherwise
+     */
+    private Mono<List<Collection>> checkMembershipChange(Set<Long> collectionIds, long itemId) {
+        Mono<Void> itemExists = shards.shardOf(itemId).getRepository().findCount(itemId)
+                .switchIfEmpty(Mono.error(() -> itemNotFound(itemId)))
+                .then();
+
+        if (collectionIds.isEmpty()) {
+            return itemExists.thenReturn(List.of());
+        }
+
+        return itemExists.then(catalog.findCollections(collectionIds)
+                .collectMap(Collection::getId)
+                .flatMap(existing -> {
+                    for (long collectionId : collectionIds) {
+                        if (!existing.containsKey(collectionId)) {
+                            return Mono.<List<Collection>>error(collectionNotFound(collectionId));
+                        }
+                    }
+                    return Mono.just(collectionIds.stream().map(existing::get).collect(Collectors.toList()));
+                }));
+    }
+
+    /**
+     * Merge sources each ordered the same way into a single ordered Flux, subscribing to all of them at once
+     *
+     * @param comparator the Comparator the sources are ordered by
+     * @param sources    a List of the ordered sources
+     * @param <T>        the type of the elements
+     * @return the merged Flux
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Flux<T> mergeOrdered(Comparator<? super T> comparator, List<? extends Publisher<T>> sources) {
+        return Flux.mergeComparing(comparator, sources.toArray(new Publisher[0]));
+    }
+
+    /**
+     * Publish a committed inventory change, once it has been evicted from the second-level cache, so that
+     * caches reloading on the event cannot read the previous state from it
+     *
+     * @param type          the Type of the change
+     * @param itemIds       a Set of the IDs of the affected items
+     * @param collectionIds a Set of the IDs of the affected collections
+     */
+    private void publish(InventoryChangeEvent.Type type, Set<Long> itemIds, Set<Long> collectionIds) {
+        secondLevelCache.evict(itemIds, collectionIds);
+        eventPublisher.publishEvent(new InventoryChangeEvent(type, itemIds, collectionIds));
+    }
+
+    /**
+     * Build the exception signalled when an item does not exist
+     *
+     * @param id a long representing the ID of the missing item
+     * @return the ResourceNotFoundException to signal
+     */
+    private static ResourceNotFoundException itemNotFound(long id) {
+        return new ResourceNotFoundException(String.format("Could not find item with ID %d", id));
+    }
+
+    /**
+     * Build the exception signalled when a collection does not exist
+     *
+     * @param id a long representing the ID of the missing collection
+     * @return the ResourceNotFoundException to signal
+     */
+    private static ResourceNotFoundException collectionNotFound(long id) {
+        return new ResourceNotFoundException(String.format("Could not find collection with ID %d", id));
+    }
+}
@@ -0,0 +1,85 @@
+package com.chwonghm.shard;
+
+import com.chwonghm.repository.ReactiveInventoryRepository;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+/**
+ * One shard of the sharded reactive store: a database holding the items whose IDs hash to it, their memberships,
+ * and copies of the collections they belong to.
+ *
+ * @author Charles Wong
+ */
+public final class InventoryShard {
+
+    /**
+     * The index of this shard among all shards
+     */
+    private final int index;
+
+    /**
+     * The connection pool of this shard's database
+     */
+    private final ConnectionFactory connectionFactory;
+
+    /**
+     * Repository for this shard's tables
+     */
+    private final ReactiveInventoryRepository repository;
+
+    /**
+     * Runs transactions on this shard's database
+     */
+    private final TransactionalOperator transactionalOperator;
+
+    /**
+     * Construct a shard over a database.
+     *
+     * @param index             an int representing the index of the shard
+     * @param connectionFactory the ConnectionFactory of the shard's database
+     */
+    InventoryShard(int index, ConnectionFactory connectionFactory) {
+        this.index = index;
+        this.connectionFactory = connectionFactory;
+        this.repository = new ReactiveInventoryRepository(DatabaseClient.create(connectionFactory));
+        this.transactionalOperator = TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+    }
+
+    /**
+     * Get the index of this shard
+     *
+     * @return an int representing the index of the shard
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the repository for this shard's tables
+     *
+     * @return the ReactiveInventoryRepository of the shard
+     */
+    public ReactiveInventoryRepository getRepository() {
+        return repository;
+    }
+
+    /**
+     * Get the operator running transactions on this shard's database. A transaction only ever spans one shard.
+     *
+     * @return the TransactionalOperator of the shard
+     */
+    public TransactionalOperator getTransactionalOperator() {
+        return transactionalOperator;
+    }
+
+    /**
+     * Get the connection pool of this shard's database
+     *
+     * @return the ConnectionFactory of the shard
+     */
+    ConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+}
@@ -0,0 +1,162 @@
+package com.chwonghm.shard;
+
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcProperties;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The shards of the sharded reactive store, selected with:
+ * <pre>
+ *     shopify-demo.reactive.store: sharded
+ * </pre>
+ * Items, and their rows of item_collections, are partitioned across shard databases by a hash of the item ID.
+ * Each shard is an embedded H2 database of its own, reached through its own R2DBC connection pool, standing in
+ * for separate database servers. The database configured by spring.r2dbc remains the catalog: it holds the
+ * sequences that IDs are drawn from, which keeps them unique across shards, and every collection.
+ * <p>
+ * Like the catalog's tables, the shards' tables are recreated on every startup, and the number of shards must
+ * not change while they hold data, since an item's shard follows from its ID and the number of shards.
+ *
+ * @author Charles Wong
+ */
+@Component
+@Profile("reactive")
+@ConditionalOnProperty(prefix = "shopify-demo.reactive", name = "store", havingValue = "sharded")
+public class InventoryShards implements InitializingBean, DisposableBean {
+
+    /**
+     * Logger for shard startup
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(InventoryShards.class);
+
+    /**
+     * Multiplier spreading consecutive IDs over the shards, from Fibonacci hashing
+     */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * The shards, by index
+     */
+    private final List<InventoryShard> shards;
+
+    /**
+     * Constructs the shards. Their tables are created once the bean is initialized.
+     *
+     * @param properties the R2dbcProperties of the catalog, whose credentials the shards share
+     * @param count      an int representing the number of shards
+     * @param urlPrefix  the String R2DBC URL of the shards' databases, to which the index of each shard is
+     *                   appended
+     */
+    public InventoryShards(R2dbcProperties properties,
+                           @Value("${shopify-demo.sharding.count:4}") int count,
+                           @Value("${shopify-demo.sharding.url-prefix:r2dbc:pool:h2:file//./data/shard-}")
+                                   String urlPrefix) {
+        if (count < 1) {
+            throw new IllegalArgumentException("shopify-demo.sharding.count must be at least 1");
+        }
+
+        List<InventoryShard> created = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            ConnectionFactoryOptions.Builder options = ConnectionFactoryOptions.parse(urlPrefix + i).mutate();
+            if (properties.getUsername() != null) {
+                options.option(ConnectionFactoryOptions.USER, properties.getUsername());
+            }
+            if (properties.getPassword() != null) {
+                options.option(ConnectionFactoryOptions.PASSWORD, properties.getPassword());
+            }
+
+            created.add(new InventoryShard(i, ConnectionFactories.get(options.build())));
+        }
+
+        this.shards = Collections.unmodifiableList(created);
+    }
+
+    /**
+     * Create the tables of every shard.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator(new ClassPathResource("shard-schema.sql"));
+
+        Flux.fromIterable(shards)
+                .flatMap(shard -> populator.populate(shard.getConnectionFactory()))
+                .blockLast();
+
+        LOG.info("Created the tables of {} shards", shards.size());
+    }
+
+    /**
+     * Close the connection pools of every shard.
+     */
+    @Override
+    public void destroy() {
+        for (InventoryShard shard : shards) {
+            ConnectionFactory connectionFactory = shard.getConnectionFactory();
+
+            if (connectionFactory instanceof Disposable) {
+                ((Disposable) connectionFactory).dispose();
+            }
+        }
+    }
+
+    /**
+     * Get every shard
+     *
+     * @return the unmodifiable List of shards, by index
+     */
+    public List<InventoryShard> all() {
+        return shards;
+    }
+
+    /**
+     * Get the shard owning an item
+     *
+     * @param itemId a long representing the ID of the item
+     * @return the InventoryShard the item is stored in
+     */
+    public InventoryShard shardOf(long itemId) {
+        return shards.get((int) ((itemId * HASH_MULTIPLIER >>> 32) * shards.size() >>> 32));
+    }
+
+    /**
+     * Group item IDs by the shard owning them, keeping their order within each shard
+     *
+     * @param itemIds a List of longs representing the IDs of the items
+     * @return a Map from each shard owning any of the items to the IDs of its items
+     */
+    public Map<InventoryShard, List<Long>> groupByShard(List<Long> itemIds) {
+        return itemIds.stream().collect(Collectors.groupingBy(this::shardOf, Collectors.toList()));
+    }
+
+    /**
+     * Apply a function to every shard
+     *
+     * @param function the Function to apply
+     * @param <T>      the type of the function's results
+     * @return a List of the results, by shard index
+     */
+    public <T> List<T> map(Function<InventoryShard, T> function) {
+        return shards.stream().map(function).collect(Collectors.toList());
+    }
+}
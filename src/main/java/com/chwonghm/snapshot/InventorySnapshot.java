@@ -0,0 +1,565 @@
+package com.chwonghm.snapshot;
+
+import com.chwonghm.replica.ReadYourWrites;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the item, collection, item_collections and counter_checkpoint tables to a compact columnar file, and
+ * restores them from it into an empty schema. Restoring a snapshot is much faster than replaying the SQL or API calls that built the
+ * data, so it lets the application start from a large catalogue in seconds.
+ * <p>
+ * A snapshot starts with a header, followed by one section per table. Each section holds its rows in row groups;
+ * within a row group, each column is stored contiguously:
+ * <pre>
+ *     header:    long magic, int version, int row group size, long creation time
+ *     section:   int table, int 0, long row count, then row groups
+ *     row group: int rows, int body length, body, int CRC32 of body, int 0
+ *     body:      one long[rows] per numeric column, then for named tables
+ *                int[rows + 1] name offsets and the UTF-8 name bytes, padded to 8 bytes
+ * </pre>
+ * All values are little-endian, and every row group body starts on an 8 byte boundary. Restoring maps the file
+ * and reads the numeric columns through buffer views over the mapping, without copying them, and inserts each
+ * row group as one JDBC batch in its own transaction.
+ *
+ * @author Charles Wong
+ */
+@Component
+public class InventorySnapshot {
+
+    /**
+     * The first 8 bytes of every snapshot: "INVSNAP" and a zero byte
+     */
+    private static final long MAGIC = 0x00_50_41_4E_53_56_4E_49L;
+
+    /**
+     * The version of the snapshot format
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * The maximum number of rows in a row group
+     */
+    private static final int ROW_GROUP_SIZE = 65536;
+
+    /**
+     * The size in bytes of the file header
+     */
+    private static final int HEADER_SIZE = 24;
+
+    /**
+     * The allocation size of the item and collection ID generators
+     */
+    private static final int ID_ALLOCATION_SIZE = 50;
+
+    /**
+     * The tables in a snapshot, in the order they are written and restored. Collections come before items, and
+     * both before memberships, so that no row refers to one not yet restored. The hot counter checkpoint is
+     * included since it records how far the redo log is applied to the counts in the snapshot.
+     */
+    private enum Table {
+        COLLECTION("collection", "SELECT collection_id, version, name FROM collection ORDER BY collection_id",
+                "INSERT INTO collection (collection_id, version, name) VALUES (?, ?, ?)", 2, true),
+        ITEM("item", "SELECT list_id, count, version, name FROM item ORDER BY list_id",
+                "INSERT INTO item (list_id, count, version, name) VALUES (?, ?, ?, ?)", 3, true),
+        MEMBERSHIP("item_collections",
+                "SELECT item_id, collection_id FROM item_collections ORDER BY item_id, collection_id",
+                "INSERT INTO item_collections (item_id, collection_id) VALUES (?, ?)", 2, false),
+        COUNTER_CHECKPOINT("counter_checkpoint", "SELECT id, sequence FROM counter_checkpoint ORDER BY id",
+                "INSERT INTO counter_checkpoint (id, sequence) VALUES (?, ?)", 2, false);
+
+        /**
+         * The name of the database table
+         */
+        private final String tableName;
+
+        /**
+         * Selects the rows of the table: the numeric columns, then the name if any
+         */
+        private final String select;
+
+        /**
+         * Inserts a row, with parameters in the same order as the select
+         */
+        private final String insert;
+
+        /**
+         * The number of numeric columns
+         */
+        private final int longColumns;
+
+        /**
+         * Whether the last column is a name
+         */
+        private final boolean named;
+
+        Table(String tableName, String select, String insert, int longColumns, boolean named) {
+            this.tableName = tableName;
+            this.select = select;
+            this.insert = insert;
+            this.longColumns = longColumns;
+            this.named = named;
+        }
+    }
+
+    /**
+     * The rows of a table being written, buffered until a row group is full.
+     */
+    private static final class RowGroupWriter {
+
+        /**
+         * The table written
+         */
+        private final Table table;
+
+        /**
+         * The channel written to
+         */
+        private final FileChannel out;
+
+        /**
+         * The buffered numeric columns
+         */
+        private final long[][] columns;
+
+        /**
+         * The buffered names, or null if the table has none
+         */
+        private final byte[][] names;
+
+        /**
+         * The number of buffered rows
+         */
+        private int rows;
+
+        /**
+         * The number of rows written so far
+         */
+        private long total;
+
+        private RowGroupWriter(Table table, FileChannel out) {
+            this.table = table;
+            this.out = out;
+            this.columns = new long[table.longColumns][ROW_GROUP_SIZE];
+            this.names = table.named ? new byte[ROW_GROUP_SIZE][] : null;
+        }
+
+        /**
+         * Buffer the current row of a result set, writing a row group once enough rows are buffered
+         *
+         * @param rs the ResultSet positioned at the row
+         * @throws SQLException if the row cannot be read
+         */
+        private void add(ResultSet rs) throws SQLException {
+            for (int c = 0; c < table.longColumns; c++) {
+                columns[c][rows] = rs.getLong(c + 1);
+            }
+
+            if (names != null) {
+                names[rows] = rs.getString(table.longColumns + 1).getBytes(StandardCharsets.UTF_8);
+            }
+
+            if (++rows == ROW_GROUP_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Write the buffered rows as a row group
+         */
+        private void flush() {
+            if (rows == 0) {
+                return;
+            }
+
+            int nameBytes = 0;
+            if (names != null) {
+                for (int i = 0; i < rows; i++) {
+                    nameBytes += names[i].length;
+                }
+            }
+
+            int bodyLength = pad(rows * Long.BYTES * table.longColumns
+                    + (names == null ? 0 : (rows + 1) * Integer.BYTES + nameBytes));
+
+            ByteBuffer group = ByteBuffer.allocate(2 * Integer.BYTES + bodyLength + 2 * Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            group.putInt(rows).putInt(bodyLength);
+
+            for (long[] column : columns) {
+                for (int i = 0; i < rows; i++) {
+                    group.putLong(column[i]);
+                }
+            }
+
+            if (names != null) {
+                int offset = 0;
+                for (int i = 0; i < rows; i++) {
+                    group.putInt(offset);
+                    offset += names[i].length;
+                }
+                group.putInt(offset);
+
+                for (int i = 0; i < rows; i++) {
+                    group.put(names[i]);
+                }
+            }
+
+            group.position(2 * Integer.BYTES + bodyLength);
+
+            CRC32 crc = new CRC32();
+            crc.update(group.array(), 2 * Integer.BYTES, bodyLength);
+            group.putInt((int) crc.getValue()).putInt(0);
+
+            writeFully(out, group.flip());
+
+            total += rows;
+            rows = 0;
+        }
+    }
+
+    /**
+     * Runs the queries and batches of a snapshot
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Runs a snapshot in one consistent transaction
+     */
+    private final TransactionTemplate readTemplate;
+
+    /**
+     * Runs each restored row group in its own transaction
+     */
+    private final TransactionTemplate writeTemplate;
+
+    /**
+     * Constructs the snapshot support.
+     *
+     * @param jdbcTemplate       a JdbcTemplate over the application database
+     * @param transactionManager the PlatformTransactionManager of the application database
+     */
+    public InventorySnapshot(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+
+        this.readTemplate = new TransactionTemplate(transactionManager);
+        this.readTemplate.setReadOnly(true);
+        this.readTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+
+        this.writeTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Write a snapshot of all inventory tables. The tables are read in a single repeatable read transaction, so
+     * the snapshot is consistent. The file is written next to the target and moved into place once complete.
+     *
+     * @param path the Path to write the snapshot to, replacing any existing file
+     * @return a SnapshotReport describing the snapshot
+     * @throws IOException if the snapshot cannot be written
+     */
+    public SnapshotReport write(Path path) throws IOException {
+        long start = System.nanoTime();
+
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+
+        long[] counts;
+
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                    .putLong(MAGIC)
+                    .putInt(FORMAT_VERSION)
+                    .putInt(ROW_GROUP_SIZE)
+                    .putLong(System.currentTimeMillis());
+            writeFully(out, header.flip());
+
+            // a snapshot may be the only durable copy left on shutdown, so it is never read from a lagging replica
+            long previous = ReadYourWrites.open(ReadYourWrites.PRIMARY);
+            try {
+                counts = readTemplate.execute(status -> {
+                    long[] written = new long[Table.values().length];
+                    for (Table table : Table.values()) {
+                        written[table.ordinal()] = writeTable(out, table);
+                    }
+                    return written;
+                });
+            } finally {
+                ReadYourWrites.close(previous);
+            }
+
+            out.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return new SnapshotReport(path.toString(), counts[Table.ITEM.ordinal()],
+                counts[Table.COLLECTION.ordinal()], counts[Table.MEMBERSHIP.ordinal()], Files.size(path),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Restore a snapshot into empty inventory tables, and move the ID sequences past the restored IDs.
+     *
+     * @param path the Path of the snapshot to restore
+     * @return a SnapshotReport describing the restored snapshot
+     * @throws IOException           if the snapshot cannot be read, or is not a valid snapshot
+     * @throws IllegalStateException if the inventory tables are not empty
+     */
+    public SnapshotReport restore(Path path) throws IOException {
+        long start = System.nanoTime();
+
+        for (Table table : Table.values()) {
+            Long rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table.tableName, Long.class);
+
+            if (rows != null && rows > 0) {
+                throw new IllegalStateException(
+                        String.format("Cannot restore a snapshot: table %s is not empty", table.tableName));
+            }
+        }
+
+        long[] counts = new long[Table.values().length];
+
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (mapped.remaining() < HEADER_SIZE || mapped.getLong() != MAGIC) {
+                throw new IOException(path + " is not an inventory snapshot");
+            }
+
+            int version = mapped.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(String.format("Unsupported snapshot format version %d", version));
+            }
+
+            mapped.position(HEADER_SIZE);
+
+            for (Table table : Table.values()) {
+                counts[table.ordinal()] = restoreTable(mapped, table);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException(path + " is truncated", e);
+        }
+
+        restartSequence("item_seq", "SELECT MAX(list_id) FROM item");
+        restartSequence("collection_seq", "SELECT MAX(collection_id) FROM collection");
+
+        return new SnapshotReport(path.toString(), counts[Table.ITEM.ordinal()],
+                counts[Table.COLLECTION.ordinal()], counts[Table.MEMBERSHIP.ordinal()], Files.size(path),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Write the section of a table.
+     *
+     * @param out   the FileChannel to write to, positioned at the end of the previous section
+     * @param table the Table to write
+     * @return a long representing the number of rows written
+     */
+    private long writeTable(FileChannel out, Table table) {
+        try {
+            long sectionStart = out.position();
+
+            // the row count is filled in once all row groups are written
+            writeFully(out, sectionHeader(table, 0));
+
+            RowGroupWriter writer = new RowGroupWriter(table, out);
+
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(table.select);
+                ps.setFetchSize(ROW_GROUP_SIZE);
+                return ps;
+            }, writer::add);
+
+            writer.flush();
+
+            out.write(sectionHeader(table, writer.total), sectionStart);
+
+            return writer.total;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Restore the section of a table.
+     *
+     * @param mapped the mapped snapshot, positioned at the section
+     * @param table  the Table the section is expected to hold
+     * @return a long representing the number of rows restored
+     * @throws IOException if the section is not the expected one, or a row group is corrupt
+     */
+    private long restoreTable(MappedByteBuffer mapped, Table table) throws IOException {
+        if (mapped.getInt() != table.ordinal()) {
+            throw new IOException(String.format("Expected the %s section of the snapshot", table));
+        }
+
+        mapped.getInt();
+        long expected = mapped.getLong();
+        long restored = 0;
+
+        while (restored < expected) {
+            int rows = mapped.getInt();
+            int bodyLength = mapped.getInt();
+
+            ByteBuffer body = mapped.slice().limit(bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+
+            mapped.position(mapped.position() + bodyLength);
+
+            if ((int) crc.getValue() != mapped.getInt()) {
+                throw new IOException(String.format("Corrupt row group in the %s section of the snapshot", table));
+            }
+
+            mapped.getInt();
+
+            restoreRowGroup(table, body, rows);
+            restored += rows;
+        }
+
+        return restored;
+    }
+
+    /**
+     * Insert the rows of a row group as a single JDBC batch, in its own transaction.
+     *
+     * @param table the Table the rows belong to
+     * @param body  the ByteBuffer holding the body of the row group
+     * @param rows  an int representing the number of rows in the group
+     */
+    private void restoreRowGroup(Table table, ByteBuffer body, int rows) {
+        List<LongBuffer> columns = new ArrayList<>(table.longColumns);
+
+        for (int c = 0; c < table.longColumns; c++) {
+            int from = c * rows * Long.BYTES;
+            columns.add(body.duplicate().position(from).limit(from + rows * Long.BYTES).slice()
+                    .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer());
+        }
+
+        IntBuffer nameOffsets;
+        byte[] nameBytes;
+
+        if (table.named) {
+            int from = table.longColumns * rows * Long.BYTES;
+            int namesFrom = from + (rows + 1) * Integer.BYTES;
+
+            nameOffsets = body.duplicate().position(from).limit(namesFrom).slice()
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+            // names are copied once per group, since Strings cannot be built over a buffer
+            nameBytes = new byte[nameOffsets.get(rows)];
+            body.duplicate().position(namesFrom).get(nameBytes);
+        } else {
+            nameOffsets = null;
+            nameBytes = null;
+        }
+
+        writeTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(table.insert,
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        for (int c = 0; c < columns.size(); c++) {
+                            ps.setLong(c + 1, columns.get(c).get(i));
+                        }
+
+                        if (nameOffsets != null) {
+                            int offset = nameOffsets.get(i);
+                            ps.setString(columns.size() + 1, new String(nameBytes, offset,
+                                    nameOffsets.get(i + 1) - offset, StandardCharsets.UTF_8));
+                        }
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return rows;
+                    }
+                }));
+    }
+
+    /**
+     * Restart an ID sequence so that the IDs Hibernate allocates from it follow the largest restored ID. With
+     * pooled allocation, a sequence value v hands out the block of IDs ending at v.
+     *
+     * @param sequence the String name of the sequence
+     * @param maxIdSql the String query selecting the largest restored ID
+     */
+    private void restartSequence(String sequence, String maxIdSql) {
+        Long maxId = jdbcTemplate.queryForObject(maxIdSql, Long.class);
+        long next = (maxId == null ? 0 : maxId) + ID_ALLOCATION_SIZE;
+
+        jdbcTemplate.execute(String.format("ALTER SEQUENCE %s RESTART WITH %d", sequence, next));
+    }
+
+    /**
+     * Encode the header of a section
+     *
+     * @param table the Table of the section
+     * @param rows  a long representing the number of rows in the section
+     * @return a ByteBuffer ready to be written
+     */
+    private static ByteBuffer sectionHeader(Table table, long rows) {
+        return ByteBuffer.allocate(2 * Integer.BYTES + Long.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(table.ordinal())
+                .putInt(0)
+                .putLong(rows)
+                .flip();
+    }
+
+    /**
+     * Round a length up to a multiple of 8 bytes
+     *
+     * @param length an int representing the length to round
+     * @return the rounded length
+     */
+    private static int pad(int length) {
+        return (length + 7) & ~7;
+    }
+
+    /**
+     * Write a whole buffer to a channel at its current position
+     *
+     * @param out    the FileChannel to write to
+     * @param buffer the ByteBuffer to write
+     */
+    private static void writeFully(FileChannel out, ByteBuffer buffer) {
+        try {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.chwonghm.snapshot;
+
+/**
+ * A summary of a written or restored inventory snapshot.
+ *
+ * @author Charles Wong
+ */
+public class SnapshotReport {
+
+    /**
+     * The path of the snapshot file
+     */
+    private final String path;
+
+    /**
+     * The number of items in the snapshot
+     */
+    private final long items;
+
+    /**
+     * The number of collections in the snapshot
+     */
+    private final long collections;
+
+    /**
+     * The number of item memberships in collections in the snapshot
+     */
+    private final long memberships;
+
+    /**
+     * The size of the snapshot file in bytes
+     */
+    private final long bytes;
+
+    /**
+     * The time taken to write or restore the snapshot, in milliseconds
+     */
+    private final long elapsedMillis;
+
+    /**
+     * Construct a report.
+     *
+     * @param path          the String path of the snapshot file
+     * @param items         a long representing the number of items
+     * @param collections   a long representing the number of collections
+     * @param memberships   a long representing the number of item memberships in collections
+     * @param bytes         a long representing the size of the snapshot file in bytes
+     * @param elapsedMillis a long representing the time taken, in milliseconds
+     */
+    SnapshotReport(String path, long items, long collections, long memberships, long bytes, long elapsedMillis) {
+        this.path = path;
+        this.items = items;
+        this.collections = collections;
+        this.memberships = memberships;
+        this.bytes = bytes;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Get the path of the snapshot file
+     *
+     * @return the String path of the snapshot file
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get the number of items in the snapshot
+     *
+     * @return the number of items
+     */
+    public long getItems() {
+        return items;
+    }
+
+    /**
+     * Get the number of collections in the snapshot
+     *
+     * @return the number of collections
+     */
+    public long getCollections() {
+        return collections;
+    }
+
+    /**
+     * Get the number of item memberships in collections in the snapshot
+     *
+     * @return the number of memberships
+     */
+    public long getMemberships() {
+        return memberships;
+    }
+
+    /**
+     * Get the size of the snapshot file
+     *
+     * @return the size of the snapshot file in bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the time taken to write or restore the snapshot
+     *
+     * @return the elapsed time in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d items, %d collections and %d memberships (%d bytes) in %d ms", items, collections,
+                memberships, bytes, elapsedMillis);
+    }
+}
@@ -0,0 +1,154 @@
+package com.chwonghm.snapshot;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restores the inventory from a snapshot on startup, instead of starting empty or re-importing it, and writes a
+ * snapshot again on shutdown. Both are opt-in. The restore runs once the schema has been created, before any
+ * bean that reads the inventory on startup, and before the application accepts requests.
+ * <p>
+ * The time from JVM start to the application being ready is logged, and exposed as the inventory.startup.ready
+ * gauge, alongside inventory.startup.restore for the part of it spent restoring.
+ *
+ * @author Charles Wong
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class SnapshotStartup implements InitializingBean, DisposableBean, MeterBinder {
+
+    /**
+     * Logger for restores, snapshots and startup time
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotStartup.class);
+
+    /**
+     * Writes and restores snapshots
+     */
+    private final InventorySnapshot inventorySnapshot;
+
+    /**
+     * The snapshot file
+     */
+    private final Path path;
+
+    /**
+     * Whether to restore the snapshot file on startup, if it exists
+     */
+    private final boolean restoreOnStartup;
+
+    /**
+     * Whether to write the snapshot file on shutdown
+     */
+    private final boolean writeOnShutdown;
+
+    /**
+     * The time spent restoring on startup, in milliseconds
+     */
+    private volatile long restoreMillis;
+
+    /**
+     * The time from JVM start until the application was ready, in milliseconds, or 0 until then
+     */
+    private volatile long readyMillis;
+
+    /**
+     * Constructs the startup restore.
+     *
+     * @param inventorySnapshot the InventorySnapshot to write and restore snapshots with
+     * @param path              the String path of the snapshot file
+     * @param restoreOnStartup  a boolean representing whether to restore the snapshot file on startup
+     * @param writeOnShutdown   a boolean representing whether to write the snapshot file on shutdown
+     */
+    public SnapshotStartup(InventorySnapshot inventorySnapshot,
+                           @Value("${shopify-demo.snapshot.path:./data/inventory.snapshot}") String path,
+                           @Value("${shopify-demo.snapshot.restore-on-startup:false}") boolean restoreOnStartup,
+                           @Value("${shopify-demo.snapshot.write-on-shutdown:false}") boolean writeOnShutdown) {
+        this.inventorySnapshot = inventorySnapshot;
+        this.path = Path.of(path);
+        this.restoreOnStartup = restoreOnStartup;
+        this.writeOnShutdown = writeOnShutdown;
+    }
+
+    /**
+     * Restore the snapshot file, if enabled and the file exists.
+     *
+     * @throws IOException if the snapshot cannot be read
+     */
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (!restoreOnStartup) {
+            return;
+        }
+
+        if (!Files.exists(path)) {
+            LOG.info("No inventory snapshot at {}, starting without one", path);
+            return;
+        }
+
+        SnapshotReport report = inventorySnapshot.restore(path);
+        restoreMillis = report.getElapsedMillis();
+
+        LOG.info("Restored inventory snapshot {}: {}", path, report);
+    }
+
+    /**
+     * Write the snapshot file, if enabled. Beans that write the inventory back on shutdown depend on this one,
+     * so they have finished by now.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    @Override
+    public void destroy() throws IOException {
+        if (!writeOnShutdown) {
+            return;
+        }
+
+        SnapshotReport report = inventorySnapshot.write(path);
+
+        LOG.info("Wrote inventory snapshot {}: {}", path, report);
+    }
+
+    /**
+     * Log the time the application took to become ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        readyMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+
+        LOG.info("Ready in {} ms since JVM start, of which {} ms restoring the inventory snapshot", readyMillis,
+                restoreMillis);
+    }
+
+    /**
+     * Bind the startup gauges to a registry.
+     *
+     * @param registry the MeterRegistry to bind to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        TimeGauge.builder("inventory.startup.ready", this, TimeUnit.MILLISECONDS, startup -> startup.readyMillis)
+                .description("Time from JVM start until the application was ready")
+                .register(registry);
+
+        TimeGauge.builder("inventory.startup.restore", this, TimeUnit.MILLISECONDS, startup -> startup.restoreMillis)
+                .description("Time spent restoring the inventory snapshot on startup")
+                .register(registry);
+    }
+}
@@ -0,0 +1,28 @@
+-- The tables of a shard of the sharded reactive store, see InventoryShards. They mirror the tables Hibernate
+-- creates for the Item and Collection entities, and are recreated on every startup like those.
+DROP TABLE IF EXISTS item_collections;
+DROP TABLE IF EXISTS item;
+DROP TABLE IF EXISTS collection;
+
+CREATE TABLE item (
+    list_id BIGINT NOT NULL PRIMARY KEY,
+    count BIGINT NOT NULL,
+    name VARCHAR(255) NOT NULL,
+    version BIGINT NOT NULL
+);
+CREATE INDEX idx_item_name ON item (name);
+
+-- copies of the collections the items of this shard belong to, created on first use
+CREATE TABLE collection (
+    collection_id BIGINT NOT NULL PRIMARY KEY,
+    name VARCHAR(255) NOT NULL,
+    version BIGINT NOT NULL
+);
+CREATE INDEX idx_collection_name ON collection (name);
+
+CREATE TABLE item_collections (
+    item_id BIGINT NOT NULL REFERENCES item (list_id),
+    collection_id BIGINT NOT NULL REFERENCES collection (collection_id),
+    PRIMARY KEY (item_id, collection_id)
+);
+CREATE INDEX idx_item_collections_collection ON item_collections (collection_id, item_id);
@@ -0,0 +1,132 @@
+package com.chwonghm.service;
+
+import com.chwonghm.controller.Views;
+import com.chwonghm.entity.Collection;
+import com.chwonghm.entity.Item;
+import com.chwonghm.exception.InvalidRequestException;
+import com.chwonghm.exception.ResourceNotFoundException;
+import com.chwonghm.repository.QueryCounter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that listing items and collections, and serializing them as api/item/all and api/collection/all do,
+ * prepares the same number of SQL statements for a page of one row as for a page of many. The second-level cache
+ * is disabled, so that every page is read from the database.
+ *
+ * @author Charles Wong
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:list-query-count;DB_CLOSE_DELAY=-1",
+        "spring.h2.console.enabled=false",
+        "shopify-demo.second-level-cache.enabled=false"
+})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ListQueryCountTest {
+
+    /**
+     * The number of rows in the larger pages
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * The number of collections each item is placed in
+     */
+    private static final int COLLECTIONS_PER_ITEM = 3;
+
+    @Autowired
+    private ItemService itemService;
+
+    @Autowired
+    private CollectionService collectionService;
+
+    @Autowired
+    private QueryCounter queryCounter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeAll
+    void seed() throws ResourceNotFoundException {
+        List<Long> collectionIds = new ArrayList<>();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            collectionIds.add(collectionService.createCollection(String.format("collection-%d", i)).getId());
+        }
+
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            long itemId = itemService.createItem(String.format("item-%d", i)).getId();
+
+            List<Long> itemCollections = new ArrayList<>();
+            for (int j = 0; j < COLLECTIONS_PER_ITEM; j++) {
+                itemCollections.add(collectionIds.get((i + j) % collectionIds.size()));
+            }
+            collectionService.addCollectionToItem(itemCollections, itemId);
+        }
+    }
+
+    @Test
+    void listingItemsPreparesAFixedNumberOfStatements() throws InvalidRequestException, JsonProcessingException {
+        long one = countItemPage(1);
+        long many = countItemPage(PAGE_SIZE);
+
+        assertTrue(one > 0);
+        assertEquals(one, many, "statements for a page of 1 item and a page of " + PAGE_SIZE);
+    }
+
+    @Test
+    void listingCollectionsPreparesAFixedNumberOfStatements()
+            throws InvalidRequestException, JsonProcessingException {
+        long one = countCollectionPage(1);
+        long many = countCollectionPage(PAGE_SIZE);
+
+        assertTrue(one > 0);
+        assertEquals(one, many, "statements for a page of 1 collection and a page of " + PAGE_SIZE);
+    }
+
+    /**
+     * Count the statements prepared to list and serialize a page of items, with their collections
+     *
+     * @param limit an int representing the number of items in the page
+     * @return a long representing the number of statements prepared
+     * @throws InvalidRequestException never, as no cursor is given
+     * @throws JsonProcessingException if the page cannot be serialized
+     */
+    private long countItemPage(int limit) throws InvalidRequestException, JsonProcessingException {
+        queryCounter.reset();
+
+        KeysetPage<Item> page = itemService.getAllItems(null, limit, null, null, null);
+        objectMapper.writerWithView(Views.Item.class).writeValueAsBytes(page);
+
+        assertEquals(limit, page.getResults().size());
+        return queryCounter.getCount();
+    }
+
+    /**
+     * Count the statements prepared to list and serialize a page of collections
+     *
+     * @param limit an int representing the number of collections in the page
+     * @return a long representing the number of statements prepared
+     * @throws InvalidRequestException never, as no cursor is given
+     * @throws JsonProcessingException if the page cannot be serialized
+     */
+    private long countCollectionPage(int limit) throws InvalidRequestException, JsonProcessingException {
+        queryCounter.reset();
+
+        KeysetPage<Collection> page = collectionService.getAllCollections(null, limit, null, null, null);
+        objectMapper.writerWithView(Views.Item.class).writeValueAsBytes(page);
+
+        assertEquals(limit, page.getResults().size());
+        return queryCounter.getCount();
+    }
+}